@@ -6,18 +6,29 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import papertoolkit.paper.Region;
 import papertoolkit.paper.Sheet;
+import papertoolkit.pattern.coordinates.PatternSpaceIndex;
 import papertoolkit.pattern.coordinates.PatternToSheetMapping;
 import papertoolkit.pattern.coordinates.conversion.PatternCoordinateConverter;
 import papertoolkit.pen.InputDevice;
 import papertoolkit.pen.PenSample;
+import papertoolkit.pen.ink.StrokeSimplifier;
 import papertoolkit.pen.streaming.listeners.PenListener;
 import papertoolkit.tools.monitor.MonitorInputHandling;
-import papertoolkit.units.Size;
-import papertoolkit.units.coordinates.PercentageCoordinates;
+import papertoolkit.units.Inches;
+import papertoolkit.units.Units;
+import papertoolkit.util.DaemonThreadFactory;
 import papertoolkit.util.DebugUtils;
+import papertoolkit.util.ToolkitMetrics;
 
 /**
  * <p>
@@ -29,6 +40,13 @@ import papertoolkit.util.DebugUtils;
  * This class is responsible for sending data to the event handlers, which will create clicks, drags, etc.
  * </p>
  * <p>
+ * By default, each pen's events are dispatched on the thread that delivers its samples (e.g., its PenClient's
+ * reader thread), and only one event is dispatched at a time, across all pens. With setPerPenDispatch(true),
+ * each pen instead gets its own lane: a thread that dispatches that pen's events in order, fed by a bounded
+ * queue. Pens no longer wait for each other (or for each other's slow handlers), but a handler that is shared
+ * by several pens may then be called from several threads at once.
+ * </p>
+ * <p>
  * <span class="BSDLicense"> This software is distributed under the <a
  * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
  * </p>
@@ -37,21 +55,115 @@ import papertoolkit.util.DebugUtils;
  */
 public class EventDispatcher {
 
+	/**
+	 * What we remember about one pen between its events. In the default mode, it is guarded by the
+	 * patternToSheetMaps lock. With per pen dispatch, only the pen's lane uses it.
+	 */
+	private static class PenState {
+
+		/**
+		 * Set when handling regular samples, so that we can set the location of the pen up. We keep the
+		 * numbers instead of a PercentageCoordinates object, so that we do not have to build one for every
+		 * sample.
+		 */
+		private double lastKnownPercentageX = 0;
+
+		/**
+		 * @see #lastKnownPercentageX
+		 */
+		private double lastKnownPercentageY = 0;
+
+		/**
+		 * The height of the region that lastKnownPercentageY is relative to.
+		 */
+		private Units lastKnownRegionHeight = new Inches(11);
+
+		/**
+		 * The width of the region that lastKnownPercentageX is relative to. Letter-sized by default.
+		 */
+		private Units lastKnownRegionWidth = new Inches(8.5);
+
+		/**
+		 * Null unless we dispatch per pen. Runs this pen's events, one at a time, in order. Once it has been
+		 * shut down, we keep it until it has finished, so that the pen's next events wait for it.
+		 */
+		private ThreadPoolExecutor lane;
+
+		/**
+		 * Set (under this object's lock) when the pen is unregistered, or per pen dispatch is turned off.
+		 * A retired pen never starts another lane; its events are dispatched on the pen's thread.
+		 */
+		private boolean retired = false;
+
+		/**
+		 * Used by penUp to notify event handlers. This is because a pen up event has no coordinates, so we
+		 * cannot figure out what region it belongs to.
+		 */
+		private List<EventHandler> mostRecentEventHandlers = new ArrayList<EventHandler>();
+
+		/**
+		 * Reused for every lookup into the patternSpaceIndex.
+		 */
+		private List<PatternSpaceIndex.Entry> regionsUnderSample = new ArrayList<PatternSpaceIndex.Entry>();
+	}
+
+	/**
+	 * How many events a pen's lane will hold before the pen's thread has to wait.
+	 */
+	public static final int DEFAULT_PER_PEN_QUEUE_CAPACITY = 1024;
+
+	/**
+	 * When a pen's lane is full, the pen's thread waits for room (so a slow handler slows down only its own
+	 * pen, and we never drop a sample). If the lane has been shut down, we let it finish the events it
+	 * already has, and then dispatch on the pen's thread, so the pen's events stay in order. We never run an
+	 * event on the pen's thread while its lane is still running, because they share the pen's state.
+	 */
+	private final RejectedExecutionHandler waitForRoomInLane = new RejectedExecutionHandler() {
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor lane) {
+			if (!lane.isShutdown()) {
+				boolean interrupted = false;
+				try {
+					while (true) {
+						try {
+							lane.getQueue().put(r);
+							return;
+						} catch (InterruptedException e) {
+							// keep waiting; the interrupt is for whoever called us
+							interrupted = true;
+						}
+					}
+				} finally {
+					if (interrupted) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+			awaitTermination(lane);
+			synchronized (patternToSheetMaps) {
+				r.run();
+			}
+		}
+	};
+
 	/**
 	 * Send all unmapped events here...
 	 */
-	private List<EventHandler> catchAllHandlers = new ArrayList<EventHandler>();
+	private List<EventHandler> catchAllHandlers = new CopyOnWriteArrayList<EventHandler>();
 
 	/**
-	 * Set when handling regular samples, so that we can set the location of the pen up.
+	 * Pen ID --> what we remember about that pen.
 	 */
-	private PercentageCoordinates lastKnownLocation = new PercentageCoordinates(0, 0, new Size());
+	private ConcurrentMap<String, PenState> penStates = new ConcurrentHashMap<String, PenState>();
 
 	/**
-	 * Used by penUp to notify event handlers. This is because a pen up event has no coordinates, so we cannot
-	 * figure out what region it belongs to.
+	 * If true, each pen's events are dispatched on its own lane. See setPerPenDispatch(...).
 	 */
-	private List<EventHandler> mostRecentEventHandlers = new ArrayList<EventHandler>();
+	private volatile boolean perPenDispatch = false;
+
+	/**
+	 * @see #DEFAULT_PER_PEN_QUEUE_CAPACITY
+	 */
+	private int perPenQueueCapacity = DEFAULT_PER_PEN_QUEUE_CAPACITY;
 
 	/**
 	 * Lets us figure out which sheets and regions should handle which events. Interacting with this list
@@ -60,6 +172,13 @@ public class EventDispatcher {
 	private List<PatternToSheetMapping> patternToSheetMaps = Collections
 			.synchronizedList(new ArrayList<PatternToSheetMapping>());
 
+	/**
+	 * Files the regions of every registered pattern map by their location in pattern space, so that we can
+	 * find the regions under a sample without testing every region on every sheet. Updates are guarded by
+	 * the patternToSheetMaps lock. Lookups read the index's snapshot, and do not need the lock.
+	 */
+	private PatternSpaceIndex patternSpaceIndex = new PatternSpaceIndex();
+
 	/**
 	 * Allows us to identify a pen by ID (the position of the pen in this list).
 	 */
@@ -70,10 +189,22 @@ public class EventDispatcher {
 	 */
 	private Map<InputDevice, PenListener> penToListener = new HashMap<InputDevice, PenListener>();
 
+	/**
+	 * If true, each pen's listener reuses one PenEvent object for all of that pen's samples, instead of
+	 * creating a new one per sample. Handlers that need to keep an event must call event.copy().
+	 */
+	private boolean recycleEvents = false;
+
+	/**
+	 * Pens whose samples we simplify before dispatching them. See setSimplification(...).
+	 */
+	private Map<InputDevice, StrokeSimplifier> penToSimplifier =
+			new ConcurrentHashMap<InputDevice, StrokeSimplifier>();
+
 	/**
 	 * Broadcasts toolkit internals to external services.
 	 */
-	private MonitorInputHandling toolkitMonitor;
+	private volatile MonitorInputHandling toolkitMonitor;
 
 	/**
 	 * This object handles event dispatch by hooking up pen listeners to local and remote pen servers. It will
@@ -101,6 +232,84 @@ public class EventDispatcher {
 		pen.addLivePenListener(listener);
 	}
 
+	/**
+	 * Blocks until a lane that has been shut down has finished its events. An interrupt does not cut this
+	 * short (the pen's next event must not run alongside the lane), but is passed on when we return.
+	 * 
+	 * @param lane
+	 */
+	private static void awaitTermination(ThreadPoolExecutor lane) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				if (lane.awaitTermination(1, TimeUnit.SECONDS)) {
+					break;
+				}
+				// a slow handler is still working through the lane
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Waits for the pen's old lane (if it has been shut down) to finish its events, so that events we
+	 * dispatch on the pen's thread do not overtake them.
+	 * 
+	 * @param state
+	 */
+	private void awaitRetiredLane(PenState state) {
+		final ThreadPoolExecutor lane;
+		synchronized (state) {
+			lane = state.lane;
+		}
+		if (lane != null && lane.isShutdown() && !lane.isTerminated()) {
+			awaitTermination(lane);
+		}
+	}
+
+	/**
+	 * @param state
+	 * @param penID
+	 * @return the pen's lane, which we start if we need to, or null if the pen has been retired and has no
+	 *         lane. A retired pen's old lane is returned even after it has been shut down, so that the
+	 *         rejection handler waits for it, and then dispatches on the pen's thread.
+	 */
+	private ThreadPoolExecutor getLane(PenState state, String penID) {
+		synchronized (state) {
+			if (state.retired) {
+				return state.lane;
+			}
+			if (state.lane == null || state.lane.isShutdown()) {
+				if (state.lane != null) {
+					// the events from before per pen dispatch was last turned off go first
+					awaitTermination(state.lane);
+				}
+				state.lane = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+						new ArrayBlockingQueue<Runnable>(perPenQueueCapacity), new DaemonThreadFactory(
+								"Pen Dispatch " + penID), waitForRoomInLane);
+			}
+			return state.lane;
+		}
+	}
+
+	/**
+	 * @param penID
+	 * @return what we remember about this pen, which we create the first time we see the pen
+	 */
+	private PenState getPenState(String penID) {
+		final String key = (penID == null) ? "" : penID;
+		PenState state = penStates.get(key);
+		if (state == null) {
+			penStates.putIfAbsent(key, new PenState());
+			state = penStates.get(key);
+		}
+		return state;
+	}
+
 	/**
 	 * Instead of Calling handlePenEvent directly, we should get a new PenListener and call its methods...
 	 * @param penInputDevice
@@ -114,11 +323,106 @@ public class EventDispatcher {
 		final String penID = penInputDevice.getID();
 		final String penName = penInputDevice.getName();
 
+		final PenState state = getPenState(penID);
+
 		// NOTE: the third argument to PenEvent should ALWAYS be System.currentTimeMillis()
 		return new PenListener() {
+			/**
+			 * Only used when we are recycling events. Each pen's samples are handled on one thread (or lane),
+			 * in order, so one event object per pen is enough.
+			 */
+			private PenEvent recycledEvent;
+
+			/**
+			 * @param event
+			 * @param inLane
+			 *            whether we are running on the pen's lane
+			 */
+			private void dispatchNow(PenEvent event, boolean inLane) {
+				if (inLane) {
+					dispatch(event, state);
+				} else {
+					handlePenEvent(event);
+				}
+			}
+
+			/**
+			 * @return a new event, or this pen's recycled event, reinitialized with the sample
+			 */
+			private PenEvent getEvent(PenSample sample, PenEventType type) {
+				if (!recycleEvents) {
+					return new PenEvent(penID, penName, sample, type, true);
+				}
+				if (recycledEvent == null) {
+					recycledEvent = new PenEvent(penID, penName, sample, type, true);
+					recycledEvent.setRecycled(true);
+				} else {
+					recycledEvent.recycle(sample, type, true);
+				}
+				return recycledEvent;
+			}
+
+			/**
+			 * Runs the task on the pen's lane, if we are dispatching per pen, or right here.
+			 * 
+			 * @param sample
+			 *            the pen's thread may reuse it, so the lane gets a copy
+			 * @param type
+			 */
+			private void handle(PenSample sample, final PenEventType type) {
+				if (!perPenDispatch) {
+					awaitRetiredLane(state);
+					handleNow(sample, type, false);
+					return;
+				}
+				final ThreadPoolExecutor lane = getLane(state, penID);
+				if (lane == null) {
+					// retired before it ever had a lane
+					handleNow(sample, type, false);
+					return;
+				}
+				final PenSample copy = sample.copy();
+				lane.execute(new Runnable() {
+					public void run() {
+						handleNow(copy, type, true);
+					}
+				});
+			}
+
+			private void handleNow(PenSample sample, PenEventType type, boolean inLane) {
+				final StrokeSimplifier simplifier = penToSimplifier.get(penInputDevice);
+				switch (type) {
+				case DOWN:
+					if (simplifier != null) {
+						// the first sample of a stroke is always kept
+						simplifier.reset();
+						simplifier.offer(sample);
+					}
+					break;
+				case UP:
+					if (simplifier != null) {
+						// the simplifier may be holding back the last sample of the stroke
+						final PenSample last = simplifier.flush();
+						if (last != null) {
+							dispatchNow(getEvent(last, PenEventType.SAMPLE), inLane);
+						}
+					}
+					break;
+				default:
+					if (simplifier != null) {
+						sample = simplifier.offer(sample);
+						if (sample == null) {
+							return;
+						}
+					}
+					break;
+				}
+				dispatchNow(getEvent(sample, type), inLane);
+			}
+
 			public void penDown(PenSample sample) {
 				// DebugUtils.println("D " + sample);
-				handlePenEvent(new PenEvent(penID, penName, sample, PenEventType.DOWN, true));
+				handle(sample, PenEventType.DOWN);
 			}
 
 			/**
@@ -129,12 +433,12 @@ public class EventDispatcher {
 			 */
 			public void penUp(PenSample sample) {
 				// DebugUtils.println("U " + sample);
-				handlePenEvent(new PenEvent(penID, penName, sample, PenEventType.UP, true));
+				handle(sample, PenEventType.UP);
 			}
 
 			public void sample(PenSample sample) {
 				// DebugUtils.println("S " + sample);
-				handlePenEvent(new PenEvent(penID, penName, sample, PenEventType.SAMPLE, true));
+				handle(sample, PenEventType.SAMPLE);
 			}
 			
 			public String toString() {
@@ -152,15 +456,30 @@ public class EventDispatcher {
 	 * TODO: Should this be multithreaded, for performance reasons?
 	 * </p>
 	 * 
+	 * The event is dispatched on the caller's thread, one event at a time (even when the pens have lanes).
+	 * 
 	 * @param penEvent
 	 */
 	public void handlePenEvent(PenEvent penEvent) {
+		final PenState state = getPenState(penEvent.getPenID());
+		synchronized (patternToSheetMaps) {
+			dispatch(penEvent, state);
+		}
+	}
+
+	/**
+	 * @param penEvent
+	 * @param state
+	 *            of the pen that made the event
+	 */
+	private void dispatch(PenEvent penEvent, PenState state) {
 
 		// handle Pen UP events differently...
 		// as pen up objects don't actually have a location
 		if (penEvent.isTypePenUp()) {
-			penEvent.setPercentageLocation(lastKnownLocation);
-			for (EventHandler h : mostRecentEventHandlers) {
+			penEvent.setPercentageLocation(state.lastKnownPercentageX, state.lastKnownRegionWidth,
+					state.lastKnownPercentageY, state.lastKnownRegionHeight);
+			for (EventHandler h : state.mostRecentEventHandlers) {
 				monitoredHandleEvent(h, penEvent);
 			}
 			return; // done!
@@ -169,84 +488,92 @@ public class EventDispatcher {
 		// handle Pen DOWN and Pen SAMPLE events here...
 
 		// System.out.println("Dispatching Event for pen #" + penID + " " + sample);
+		final List<EventHandler> mostRecentEventHandlers = state.mostRecentEventHandlers;
 		mostRecentEventHandlers.clear();
 
-		synchronized (patternToSheetMaps) {
-			boolean eventHandledAtLeastOnce = false;
-
-			// for each sample, we first have to convert it to a location on the sheet.
-			// THEN, we will be able to make more interesting events...
-			for (final PatternToSheetMapping pmap : patternToSheetMaps) {
-
-				// this is a key step!
-				// the event engine figures out which patterned regions contains
-				// this sample. This determines the set of event handlers the event
-				// should be sent to...
-				List<PatternCoordinateConverter> coordinateConvertersForSample = pmap
-						.getCoordinateConvertersForSample(penEvent.getOriginalSample());
-
-				for (final PatternCoordinateConverter coordinateConverter : coordinateConvertersForSample) {
-
-					// which sheet are we on?
-					final Sheet sheet = pmap.getSheet();
-
-					// which region are we on?
-					final String regionName = coordinateConverter.getRegionName();
-					final Region region = sheet.getRegion(regionName);
-
-					// where are we on this region?
-					final PercentageCoordinates relativeLocation = coordinateConverter
-							.getRelativeLocation(penEvent.getStreamedPatternCoordinate());
-
-					penEvent.setPercentageLocation(relativeLocation);
-
-					lastKnownLocation = relativeLocation;
+		boolean eventHandledAtLeastOnce = false;
+
+		// for each sample, we first have to convert it to a location on the sheet.
+		// THEN, we will be able to make more interesting events...
+
+		// this is a key step!
+		// the event engine figures out which patterned regions contains
+		// this sample. This determines the set of event handlers the event
+		// should be sent to... The index hands them back in the order that the pattern maps were
+		// registered, just as if we had walked the list of pattern maps ourselves.
+		final PenSample sample = penEvent.getOriginalSample();
+		final double xVal = sample.getX();
+		final double yVal = sample.getY();
+		final long lookupStart = ToolkitMetrics.start();
+		final List<PatternSpaceIndex.Entry> regionsUnderSample = state.regionsUnderSample;
+		patternSpaceIndex.getEntriesContaining(xVal, yVal, regionsUnderSample);
+		ToolkitMetrics.record(ToolkitMetrics.Stage.REGION_LOOKUP, lookupStart);
+		ToolkitMetrics.count(ToolkitMetrics.Stage.REGION_LOOKUP, regionsUnderSample.size());
+
+		for (final PatternSpaceIndex.Entry entry : regionsUnderSample) {
+			final PatternCoordinateConverter coordinateConverter = entry.getConverter();
+
+			// which sheet are we on?
+			final Sheet sheet = entry.getMapping().getSheet();
+
+			// which region are we on?
+			final String regionName = coordinateConverter.getRegionName();
+			final Region region = sheet.getRegion(regionName);
+
+			// where are we on this region?
+			// the event will only build a PercentageCoordinates object if a handler asks for it
+			state.lastKnownPercentageX = coordinateConverter.getRelativeX(xVal, yVal);
+			state.lastKnownPercentageY = coordinateConverter.getRelativeY(xVal, yVal);
+			state.lastKnownRegionWidth = coordinateConverter.getWidth();
+			state.lastKnownRegionHeight = coordinateConverter.getHeight();
+			penEvent.setPercentageLocation(state.lastKnownPercentageX, state.lastKnownRegionWidth,
+					state.lastKnownPercentageY, state.lastKnownRegionHeight);
+
+			// does this region have any event handlers?
+			// if not, just go onto the next region
+			final List<EventHandler> eventHandlers = region.getEventHandlers();
+			// send the event to every event handler!
+			// so long as the event is not consumed
+			for (EventHandler eh : eventHandlers) {
+				eventHandledAtLeastOnce = true;
+				monitoredHandleEvent(eh, penEvent);
+				mostRecentEventHandlers.add(eh);
+				if (penEvent.isConsumed()) {
+					// we are done handling this event
+					// look at no more event handlers
+					// look at no more regions
+					// DebugUtils.println("Event Consumed");
+					return;
+				}
+			} // check the next event handler
+		} // check the next matching region
 
-					// does this region have any event handlers?
-					// if not, just go onto the next region
-					final List<EventHandler> eventHandlers = region.getEventHandlers();
-					// send the event to every event handler!
-					// so long as the event is not consumed
-					for (EventHandler eh : eventHandlers) {
-						eventHandledAtLeastOnce = true;
-						monitoredHandleEvent(eh, penEvent);
-						mostRecentEventHandlers.add(eh);
-						if (penEvent.isConsumed()) {
-							// we are done handling this event
-							// look at no more event handlers
-							// look at no more pattern maps
-							// DebugUtils.println("Event Consumed");
-							return;
-						}
-					} // check the next event handler
-				} // check the next coordinate converter / matching region
-			} // check the next pattern map
-
-			// if none of the handlers own this event, we send the event to our "catch-all" event handlers...
-			if (!eventHandledAtLeastOnce) {
-				for (EventHandler eh : catchAllHandlers) {
-					eventHandledAtLeastOnce = true;
-					monitoredHandleEvent(eh, penEvent);
-					mostRecentEventHandlers.add(eh);
-				} // check the next event handler
-			}
+		// if none of the handlers own this event, we send the event to our "catch-all" event handlers...
+		if (!eventHandledAtLeastOnce) {
+			for (EventHandler eh : catchAllHandlers) {
+				eventHandledAtLeastOnce = true;
+				monitoredHandleEvent(eh, penEvent);
+				mostRecentEventHandlers.add(eh);
+			} // check the next event handler
+		}
 
-			// if in the end, no one has had a chance to deal with this event yet
-			// we sent this event to ALL the regions we know about!
-			// TODO: This doesn't really make sense... we should reevaluate it
-			// remove it for now
-			// eventHandledAtLeastOnce = sendEventToAllKnownRegions(penEvent, eventHandledAtLeastOnce);
+		// if in the end, no one has had a chance to deal with this event yet
+		// we sent this event to ALL the regions we know about!
+		// TODO: This doesn't really make sense... we should reevaluate it
+		// remove it for now
+		// eventHandledAtLeastOnce = sendEventToAllKnownRegions(penEvent, eventHandledAtLeastOnce,
+		// mostRecentEventHandlers);
 
-			// if this application has no sheets or regions... it'll fall all the way to here
-			if (!eventHandledAtLeastOnce) {
-				DebugUtils.println("Event Not Mapped to any Regions: " + penEvent);
-				monitoredHandleEvent(null, penEvent);
-			}
+		// if this application has no sheets or regions... it'll fall all the way to here
+		if (!eventHandledAtLeastOnce) {
+			DebugUtils.println("Event Not Mapped to any Regions: " + penEvent);
+			monitoredHandleEvent(null, penEvent);
 		}
 	}
 
 	@SuppressWarnings("unused")
-	private boolean sendEventToAllKnownRegions(PenEvent penEvent, boolean eventHandledAtLeastOnce) {
+	private boolean sendEventToAllKnownRegions(PenEvent penEvent, boolean eventHandledAtLeastOnce,
+			List<EventHandler> mostRecentEventHandlers) {
 		if (!eventHandledAtLeastOnce) {
 			// before, we would just trash it...
 			// however, this new approach allows us to avoid common errors
@@ -283,7 +610,9 @@ public class EventDispatcher {
 	 */
 	private void monitoredHandleEvent(EventHandler handler, PenEvent event) {
 		if (handler != null) {
+			final long start = ToolkitMetrics.start();
 			handler.handleEvent(event);
+			ToolkitMetrics.recordHandler(handler.getClass(), start);
 		}
 		if (toolkitMonitor != null) {
 			toolkitMonitor.eventHandled(handler, event);
@@ -314,11 +643,14 @@ public class EventDispatcher {
 	 */
 	public void registerPatternMapForEventHandling(PatternToSheetMapping mapping) {
 		// DebugUtils.println("Registering A Pattern Location to Sheet Location Map");
-		if (patternToSheetMaps.contains(mapping)) {
-			// DebugUtils.println("EventEngine is already aware of this pattern map.");
-			return;
+		synchronized (patternToSheetMaps) {
+			if (patternToSheetMaps.contains(mapping)) {
+				// DebugUtils.println("EventEngine is already aware of this pattern map.");
+				return;
+			}
+			patternToSheetMaps.add(mapping);
+			patternSpaceIndex.addMapping(mapping);
 		}
-		patternToSheetMaps.add(mapping);
 	}
 
 	/**
@@ -329,7 +661,12 @@ public class EventDispatcher {
 	public void registerPatternMapsForEventHandling(Collection<PatternToSheetMapping> patternMaps) {
 		// DebugUtils.println("Registering the (Pattern Location --> Sheet Location) Maps " + "[" +
 		// patternMaps + "]");
-		patternToSheetMaps.addAll(patternMaps);
+		synchronized (patternToSheetMaps) {
+			patternToSheetMaps.addAll(patternMaps);
+			for (PatternToSheetMapping mapping : patternMaps) {
+				patternSpaceIndex.addMapping(mapping);
+			}
+		}
 		// DebugUtils.println("Registered " + patternMaps.size() + " New Maps");
 	}
 
@@ -355,7 +692,10 @@ public class EventDispatcher {
 	 * To reset the event engine/dispatcher at runtime.
 	 */
 	public void unregisterAllPatternMaps() {
-		patternToSheetMaps.clear();
+		synchronized (patternToSheetMaps) {
+			patternToSheetMaps.clear();
+			patternSpaceIndex.clear();
+		}
 	}
 
 	/**
@@ -363,7 +703,12 @@ public class EventDispatcher {
 	 *            forget about this pattern map for this session...
 	 */
 	public void unregisterPatternMapForEventHandling(PatternToSheetMapping patternMap) {
-		patternToSheetMaps.remove(patternMap);
+		synchronized (patternToSheetMaps) {
+			patternToSheetMaps.remove(patternMap);
+			if (!patternToSheetMaps.contains(patternMap)) {
+				patternSpaceIndex.removeMapping(patternMap);
+			}
+		}
 	}
 
 	/**
@@ -372,7 +717,12 @@ public class EventDispatcher {
 	 * @param patternMaps
 	 */
 	public void unregisterPatternMapsForEventHandling(Collection<PatternToSheetMapping> patternMaps) {
-		patternToSheetMaps.removeAll(patternMaps);
+		synchronized (patternToSheetMaps) {
+			patternToSheetMaps.removeAll(patternMaps);
+			for (PatternToSheetMapping mapping : patternMaps) {
+				patternSpaceIndex.removeMapping(mapping);
+			}
+		}
 	}
 
 	/**
@@ -382,6 +732,102 @@ public class EventDispatcher {
 	 */
 	public void unregisterPen(InputDevice pen) {
 		removePenFromInternalLists(pen, penToListener.get(pen));
+		final PenState state = penStates.remove(pen.getID() == null ? "" : pen.getID());
+		if (state != null) {
+			synchronized (state) {
+				// the pen's listener may still be delivering a sample; it must not start a new lane
+				state.retired = true;
+				if (state.lane != null) {
+					// it finishes the events it already has
+					state.lane.shutdown();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return whether each pen's events are dispatched on their own lane
+	 */
+	public boolean isPerPenDispatch() {
+		return perPenDispatch;
+	}
+
+	/**
+	 * Turns per pen dispatch on or off. When it is on, each pen's samples are handed to that pen's lane: one
+	 * thread that dispatches the pen's events in order, fed by a bounded queue (see
+	 * setPerPenQueueCapacity(...)). The pens' threads then only copy and queue samples, so one pen's slow
+	 * handler does not hold up the other pens, and many pens (e.g., a classroom) can be dispatched at once.
+	 * 
+	 * Handlers that are shared by several pens (or listen to several pens' regions) may then be called from
+	 * several threads at once, so they must be thread safe. Switch this before the pens start streaming.
+	 * 
+	 * @param perPen
+	 *            false by default
+	 */
+	public void setPerPenDispatch(boolean perPen) {
+		perPenDispatch = perPen;
+		for (PenState state : penStates.values()) {
+			synchronized (state) {
+				// a pen's thread that has not noticed the switch yet must not start a new lane
+				state.retired = !perPen;
+				if (!perPen && state.lane != null) {
+					// it finishes the events it already has
+					state.lane.shutdown();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Applies to lanes that are started after this call.
+	 * 
+	 * @param capacity
+	 *            how many events a pen's lane may hold before the pen's thread has to wait for room
+	 *            (DEFAULT_PER_PEN_QUEUE_CAPACITY by default)
+	 */
+	public void setPerPenQueueCapacity(int capacity) {
+		perPenQueueCapacity = capacity;
+	}
+
+	/**
+	 * Turns the recycling of PenEvent objects on or off. When it is on, the EventDispatcher creates one
+	 * PenEvent per pen, and reuses it for every sample that pen sends. This keeps the garbage collector quiet
+	 * when many pens are streaming at once. However, an event handler that wants to keep an event (or its
+	 * PenSample) around after handleEvent(...) returns must keep event.copy() instead. The toolkit's own
+	 * handlers already do this.
+	 * 
+	 * @param recycle
+	 */
+	public void setRecycleEvents(boolean recycle) {
+		recycleEvents = recycle;
+	}
+
+	/**
+	 * Simplifies this pen's strokes before any event handler sees them, so that handlers (and the ink they
+	 * collect) get a fraction of the samples. Every sample that we drop is within the tolerance of the
+	 * samples that we dispatch. A kept sample may be dispatched a few samples late (with its own timestamp),
+	 * as we cannot know that we need it until the pen turns away. Pen down and pen up events are never
+	 * dropped.
+	 * 
+	 * @param pen
+	 * @param tolerance
+	 *            e.g., new PatternDots(1). Pass in null to dispatch every sample (the default).
+	 */
+	public void setSimplification(InputDevice pen, Units tolerance) {
+		if (tolerance == null) {
+			penToSimplifier.remove(pen);
+		} else {
+			penToSimplifier.put(pen, new StrokeSimplifier(tolerance));
+		}
+	}
+
+	/**
+	 * @param pen
+	 * @return the simplifier for this pen (ask it for getReductionRatio()), or null if we dispatch every
+	 *         sample
+	 */
+	public StrokeSimplifier getSimplifier(InputDevice pen) {
+		return penToSimplifier.get(pen);
 	}
 
 	/**
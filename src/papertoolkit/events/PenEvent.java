@@ -1,7 +1,9 @@
 package papertoolkit.events;
 
 import papertoolkit.pen.PenSample;
-import papertoolkit.units.Size;
+import papertoolkit.units.Inches;
+import papertoolkit.units.Percentage;
+import papertoolkit.units.Units;
 import papertoolkit.units.coordinates.PercentageCoordinates;
 import papertoolkit.units.coordinates.StreamedPatternCoordinates;
 
@@ -18,6 +20,16 @@ import papertoolkit.units.coordinates.StreamedPatternCoordinates;
  */
 public class PenEvent {
 
+	/**
+	 * Until the event is located on a region, it is located at 0%,0% of a Letter-sized sheet.
+	 */
+	private static final Units DEFAULT_LOCATION_HEIGHT = new Inches(11);
+
+	/**
+	 * @see #DEFAULT_LOCATION_HEIGHT
+	 */
+	private static final Units DEFAULT_LOCATION_WIDTH = new Inches(8.5);
+
 	/**
 	 * Whether this event should not be processed anymore by handlers deeper in the queue. FALSE by default.
 	 * An Event Handler should set it to be consumed if it is NOT OK for other handlers to deal with this
@@ -33,9 +45,30 @@ public class PenEvent {
 	private PenEventType eventType = PenEventType.SAMPLE;
 
 	/**
-	 * Where did the event occur?
+	 * Where did the event occur? This is built lazily (from the percentages below) the first time someone
+	 * asks for it, as most events pass through the dispatcher without anyone looking at their Units.
 	 */
-	private PercentageCoordinates locationOnRegion = new PercentageCoordinates(0, 0, new Size());
+	private PercentageCoordinates locationOnRegion;
+
+	/**
+	 * The region's height, which percentageY is a percentage of.
+	 */
+	private transient Units locationMaxY = DEFAULT_LOCATION_HEIGHT;
+
+	/**
+	 * The region's width, which percentageX is a percentage of.
+	 */
+	private transient Units locationMaxX = DEFAULT_LOCATION_WIDTH;
+
+	/**
+	 * Where did the event occur, as a percentage of the width of the region?
+	 */
+	private transient double percentageX = 0;
+
+	/**
+	 * Where did the event occur, as a percentage of the height of the region?
+	 */
+	private transient double percentageY = 0;
 
 	/**
 	 * Which pen generated this event?
@@ -52,13 +85,19 @@ public class PenEvent {
 	 */
 	private PenSample penSample;
 
+	/**
+	 * True if the EventDispatcher will reuse this object for the pen's next sample.
+	 */
+	private transient boolean recycled = false;
+
 	/**
 	 * True if the event is dispatched in real-time. False if it is being read from a pen synchronization.
 	 */
 	private boolean realtimeFlag = true;
 
 	/**
-	 * When was this event generated, in system time (milliseconds).
+	 * When was this event generated, in system time (milliseconds). For batched (non-realtime) events, this is
+	 * the time the sample was written by the pen instead, so that replays keep their original pacing.
 	 */
 	private long creationTimestamp;
 
@@ -79,7 +118,8 @@ public class PenEvent {
 		// note that the penSample's timestamp may be different!
 		// it should be CLOSE to our creationTimestamp, if this is a RealTime event
 		// if it is batched, or replayed, the timestamp will be very different!
-		creationTimestamp = System.currentTimeMillis();
+		// so for those, we use the sample's time, which handlers can still use to tell strokes apart
+		creationTimestamp = timestampFor(sample, isRealtime);
 		penSample = sample;
 		penName = thePenName;
 		eventType = type;
@@ -93,6 +133,26 @@ public class PenEvent {
 		consumed = true;
 	}
 
+	/**
+	 * When the EventDispatcher is recycling events (see EventDispatcher.setRecycleEvents(...)), the PenEvent
+	 * (and its PenSample) that your handler receives will be reused for the pen's next sample. If you need to
+	 * keep the event around after handleEvent(...) returns, keep a copy instead.
+	 * 
+	 * @return a copy of this event, with its own copy of the original sample
+	 */
+	public PenEvent copy() {
+		final PenEvent copy = new PenEvent(penID, penName, penSample == null ? null : penSample.copy(),
+				eventType, realtimeFlag);
+		copy.creationTimestamp = creationTimestamp;
+		copy.consumed = consumed;
+		copy.locationOnRegion = locationOnRegion;
+		copy.percentageX = percentageX;
+		copy.percentageY = percentageY;
+		copy.locationMaxX = locationMaxX;
+		copy.locationMaxY = locationMaxY;
+		return copy;
+	}
+
 	/**
 	 * WARNING: This is a dangerous method to use, if you do not know what you are doing. The original pen
 	 * samples have not been converted into the region's local coordinate system, so if the region happens to
@@ -128,9 +188,61 @@ public class PenEvent {
 	 * @return the location of the event on the parent region.
 	 */
 	public PercentageCoordinates getPercentageLocation() {
+		if (locationOnRegion == null) {
+			// the transient fields are missing if this event was unserialized from XML
+			final Units width = (locationMaxX == null) ? DEFAULT_LOCATION_WIDTH : locationMaxX;
+			final Units height = (locationMaxY == null) ? DEFAULT_LOCATION_HEIGHT : locationMaxY;
+			locationOnRegion = new PercentageCoordinates( //
+					new Percentage(percentageX, width), //
+					new Percentage(percentageY, height));
+		}
 		return locationOnRegion;
 	}
 
+	/**
+	 * The same as getPercentageLocation().getPercentageInXDirection(), without creating any objects.
+	 * 
+	 * @return the location of the event, as a percentage of the width of the parent region
+	 */
+	public double getPercentageX() {
+		if (locationOnRegion != null) {
+			return locationOnRegion.getPercentageInXDirection();
+		}
+		return percentageX;
+	}
+
+	/**
+	 * The same as getPercentageLocation().getPercentageInYDirection(), without creating any objects.
+	 * 
+	 * @return the location of the event, as a percentage of the height of the parent region
+	 */
+	public double getPercentageY() {
+		if (locationOnRegion != null) {
+			return locationOnRegion.getPercentageInYDirection();
+		}
+		return percentageY;
+	}
+
+	/**
+	 * @return the height of the region that getPercentageY() is a percentage of
+	 */
+	public Units getRegionHeight() {
+		if (locationOnRegion != null && locationOnRegion.getY() instanceof Percentage) {
+			return ((Percentage) locationOnRegion.getY()).getMaximumValue();
+		}
+		return (locationMaxY == null) ? DEFAULT_LOCATION_HEIGHT : locationMaxY;
+	}
+
+	/**
+	 * @return the width of the region that getPercentageX() is a percentage of
+	 */
+	public Units getRegionWidth() {
+		if (locationOnRegion != null && locationOnRegion.getX() instanceof Percentage) {
+			return ((Percentage) locationOnRegion.getX()).getMaximumValue();
+		}
+		return (locationMaxX == null) ? DEFAULT_LOCATION_WIDTH : locationMaxX;
+	}
+
 	/**
 	 * WARNING: See getOriginalSample(). Do not use this value unless you _know_ what you are doing. It is OK
 	 * to use this value if you are doing simple calculations and you are SURE that the samples all come from
@@ -143,12 +255,26 @@ public class PenEvent {
 	}
 
 	/**
-	 * @return the creation/dispatch timestamp of this event...
+	 * @return the creation/dispatch timestamp of this event... or, if it is not a realtime event, the
+	 *         timestamp of its sample
 	 */
 	public long getTimestamp() {
 		return creationTimestamp;
 	}
 
+	/**
+	 * @param sample
+	 * @param isRealtime
+	 * @return now, for realtime events; the sample's timestamp for batched ones (which may be replayed much
+	 *         faster than they were written)
+	 */
+	private static long timestampFor(PenSample sample, boolean isRealtime) {
+		if (isRealtime || sample == null) {
+			return System.currentTimeMillis();
+		}
+		return sample.getTimestamp();
+	}
+
 	/**
 	 * @return a flag to let us know what type of event this is... DOWN, SAMPLE, or UP
 	 */
@@ -170,6 +296,14 @@ public class PenEvent {
 		return realtimeFlag;
 	}
 
+	/**
+	 * @return whether the EventDispatcher will reuse this object (and its PenSample) for the pen's next
+	 *         sample. If so, handlers that keep the event around should keep copy() instead.
+	 */
+	public boolean isRecycled() {
+		return recycled;
+	}
+
 	/**
 	 * @return if this event object represents the pen touching down on the page
 	 */
@@ -184,6 +318,23 @@ public class PenEvent {
 		return eventType.equals(PenEventType.UP);
 	}
 
+	/**
+	 * Reinitializes this event, so that the EventDispatcher can reuse it for the next sample from the same
+	 * pen. See copy().
+	 * 
+	 * @param sample
+	 * @param type
+	 * @param isRealtime
+	 */
+	void recycle(PenSample sample, PenEventType type, boolean isRealtime) {
+		creationTimestamp = timestampFor(sample, isRealtime);
+		penSample = sample;
+		eventType = type;
+		realtimeFlag = isRealtime;
+		consumed = false;
+		setPercentageLocation(0, DEFAULT_LOCATION_WIDTH, 0, DEFAULT_LOCATION_HEIGHT);
+	}
+
 	/**
 	 * @param rtFlag
 	 */
@@ -191,6 +342,14 @@ public class PenEvent {
 		realtimeFlag = rtFlag;
 	}
 
+	/**
+	 * @param flag
+	 *            whether the EventDispatcher will reuse this object for the pen's next sample.
+	 */
+	void setRecycled(boolean flag) {
+		recycled = flag;
+	}
+
 	/**
 	 * Very low level data in case you want to process it.
 	 * 
@@ -216,6 +375,27 @@ public class PenEvent {
 		locationOnRegion = location;
 	}
 
+	/**
+	 * Sets the location without building a PercentageCoordinates object. One will be built if someone calls
+	 * getPercentageLocation().
+	 * 
+	 * @param pctX
+	 *            percentage of the region's width
+	 * @param width
+	 *            the region's width
+	 * @param pctY
+	 *            percentage of the region's height
+	 * @param height
+	 *            the region's height
+	 */
+	public void setPercentageLocation(double pctX, Units width, double pctY, Units height) {
+		locationOnRegion = null;
+		percentageX = pctX;
+		locationMaxX = width;
+		percentageY = pctY;
+		locationMaxY = height;
+	}
+
 	/**
 	 * @param modifier
 	 *            describes the type of PenEvent (whether the pen just came down, just went up, or is
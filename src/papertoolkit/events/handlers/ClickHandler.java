@@ -2,6 +2,7 @@ package papertoolkit.events.handlers;
 
 import papertoolkit.events.EventHandler;
 import papertoolkit.events.PenEvent;
+import papertoolkit.pen.streaming.PenUpDebouncer;
 
 /**
  * <p>
@@ -45,8 +46,6 @@ public abstract class ClickHandler extends EventHandler {
 	 */
 	private class ClickNotifier implements Runnable {
 
-		private boolean doNotNotify;
-
 		private PenEvent event;
 
 		public ClickNotifier(PenEvent myEvent) {
@@ -57,27 +56,11 @@ public abstract class ClickHandler extends EventHandler {
 		 * @see java.lang.Runnable#run()
 		 */
 		public void run() {
-			try {
-				Thread.sleep(MILLIS_TO_DELAY);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-			if (doNotNotify) {
-				// someone told us to cancel
-				return;
-			}
 			released(event);
 			clicked(event);
 			lastClickTime = event.getTimestamp();
 			penDownHappened = false;
 		}
-
-		/**
-		 * @param b
-		 */
-		public void setDoNotNotify(boolean b) {
-			doNotNotify = b;
-		}
 	}
 
 	/**
@@ -96,11 +79,6 @@ public abstract class ClickHandler extends EventHandler {
 	 */
 	private boolean filterJitteryPenEvents = true;
 
-	/**
-	 * 
-	 */
-	private ClickNotifier lastClickNotifier;
-	
 	/**
 	 * If the current click time is really close to the last click time, we can signal a double click.
 	 */
@@ -147,7 +125,7 @@ public abstract class ClickHandler extends EventHandler {
 	 */
 	public void handleEvent(PenEvent event) {
 		if (event.isTypePenDown()) {
-			long currPenDownTime = System.currentTimeMillis();
+			long currPenDownTime = event.getTimestamp();
 			long diff = currPenDownTime - lastPenUpTime;
 			if (diff > MILLIS_TO_DELAY) {
 				// long enough... so a new pen down!
@@ -155,14 +133,11 @@ public abstract class ClickHandler extends EventHandler {
 				penDownHappened = true;
 			} else {
 				// just filter this out by cancelling the notifier
-				if (lastClickNotifier != null) {
-					lastClickNotifier.setDoNotNotify(true);
-					lastClickNotifier = null;
-				}
+				PenUpDebouncer.getInstance().cancel(this, event.getPenID());
 			}
 		} else if (event.isTypePenUp()) {
 
-			lastPenUpTime = System.currentTimeMillis();
+			lastPenUpTime = event.getTimestamp();
 
 			// really, this should always be true
 			if (penDownHappened) {
@@ -173,8 +148,8 @@ public abstract class ClickHandler extends EventHandler {
 				}
 
 				if (filterJitteryPenEvents) {
-					lastClickNotifier = new ClickNotifier(lastEvent);
-					new Thread(lastClickNotifier).start();
+					PenUpDebouncer.getInstance().schedule(this, event.getPenID(), MILLIS_TO_DELAY,
+							new ClickNotifier(lastEvent));
 				} else {
 					released(lastEvent);
 					clicked(lastEvent);
@@ -183,7 +158,8 @@ public abstract class ClickHandler extends EventHandler {
 				}
 			}
 		}
-		lastEvent = event;
+		// recycled events will be overwritten by the next sample, so we keep a copy
+		lastEvent = event.isRecycled() ? event.copy() : event;
 
 		// do not consume the event (event has a consumed property that we do not set here)
 	}
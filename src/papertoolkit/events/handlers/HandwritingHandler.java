@@ -5,6 +5,9 @@ import java.awt.event.ActionListener;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import javax.swing.Timer;
 
@@ -122,12 +125,34 @@ public abstract class HandwritingHandler extends EventHandler {
 		}
 	}
 
+	/**
+	 * Returns right away, so that you can call it from the event dispatching thread.
+	 * 
+	 * @return the top-ranked ASCII translation for the ink strokes, when the server answers
+	 */
+	public Future<String> recognizeHandwritingInBackground() {
+		if (strokes.size() == 0) {
+			final FutureTask<String> nothing = new FutureTask<String>(new Callable<String>() {
+				public String call() {
+					return "";
+				}
+			});
+			nothing.run();
+			return nothing;
+		}
+		// copying the list holds its lock, so the pen's thread cannot add a stroke while we read them
+		return recognizerService.getClient().recognize(new Ink(new ArrayList<InkStroke>(strokes)));
+	}
+
 	/**
 	 * @return a list of the top ten recognized results (including the top one, at position 0)
 	 */
 	public List<String> recognizeHandwritingWithAlternatives() {
-		recognizeHandwriting();
-		return recognizerService.getAlternatives();
+		if (strokes.size() == 0) {
+			return new ArrayList<String>();
+		}
+		// one request, so another handler's recognition cannot come between the ink and its alternatives
+		return recognizerService.getAlternatives(new Ink(new ArrayList<InkStroke>(strokes)));
 	}
 
 	/*
@@ -11,6 +11,8 @@ import papertoolkit.events.PenEvent;
 import papertoolkit.pen.PenSample;
 import papertoolkit.pen.ink.Ink;
 import papertoolkit.pen.ink.InkStroke;
+import papertoolkit.pen.ink.StrokeSimplifier;
+import papertoolkit.pen.streaming.PenUpDebouncer;
 import papertoolkit.units.PatternDots;
 import papertoolkit.units.Units;
 import papertoolkit.units.coordinates.PercentageCoordinates;
@@ -46,8 +48,6 @@ public abstract class InkHandler extends EventHandler {
 	 */
 	private class InkNotifier implements Runnable {
 
-		private boolean doNotNotify;
-
 		private InkStroke lastTempStroke;
 
 		private List<PenSample> strokeSamples;
@@ -65,16 +65,6 @@ public abstract class InkHandler extends EventHandler {
 		 * @see java.lang.Runnable#run()
 		 */
 		public void run() {
-			try {
-				Thread.sleep(MILLIS_TO_DELAY);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-			if (doNotNotify) {
-				// someone told us to cancel
-				return;
-			}
-
 			if (lastTempStroke != null) {
 				strokes.remove(lastTempStroke);
 			}
@@ -83,13 +73,6 @@ public abstract class InkHandler extends EventHandler {
 			// this stroke.");
 			addStrokeAndNotifyListeners(event, strokeSamples);
 		}
-
-		/**
-		 * @param b
-		 */
-		public void setDoNotNotify(boolean b) {
-			doNotNotify = b;
-		}
 	}
 
 	/**
@@ -128,11 +111,6 @@ public abstract class InkHandler extends EventHandler {
 	 */
 	private double distanceTraveled = 0;
 
-	/**
-	 * 
-	 */
-	private InkNotifier lastInkNotifier;
-
 	/**
 	 * The System time of the most recent pen up event.
 	 */
@@ -169,6 +147,11 @@ public abstract class InkHandler extends EventHandler {
 	 */
 	private boolean notifyAfterEnoughDistance = false;
 
+	/**
+	 * If not null, we keep only the samples that this lets through. See setSimplification(...).
+	 */
+	private StrokeSimplifier simplifier;
+
 	/**
 	 * This should be synchronized, as multiple threads are working on it.
 	 */
@@ -183,6 +166,22 @@ public abstract class InkHandler extends EventHandler {
 		// nothing
 	}
 
+	/**
+	 * Adds the sample to the current stroke, unless the simplifier drops it.
+	 * 
+	 * @param sample
+	 */
+	private void addSample(PenSample sample) {
+		if (simplifier == null) {
+			currentStrokeSamples.add(sample);
+			return;
+		}
+		final PenSample kept = simplifier.offer(sample);
+		if (kept != null) {
+			currentStrokeSamples.add(kept);
+		}
+	}
+
 	/**
 	 * @param strokeSamples
 	 */
@@ -256,6 +255,14 @@ public abstract class InkHandler extends EventHandler {
 		}
 	}
 
+	/**
+	 * @return the simplifier for our strokes (ask it for getReductionRatio()), or null if we keep every
+	 *         sample
+	 */
+	public StrokeSimplifier getSimplifier() {
+		return simplifier;
+	}
+
 	/**
 	 * @return
 	 */
@@ -281,7 +288,7 @@ public abstract class InkHandler extends EventHandler {
 		final double yDots = yPct.getValueInPatternDots();
 
 		if (event.isTypePenDown()) {
-			currPenDownTime = System.currentTimeMillis();
+			currPenDownTime = timestamp;
 			timeDiffBetweenPenUpAndPenDown = currPenDownTime - lastPenUpTime;
 			// DebugUtils.println("The pen was up for " +
 			// timeDiffBetweenPenUpAndPenDown + "
@@ -293,7 +300,6 @@ public abstract class InkHandler extends EventHandler {
 				// not a pen error!
 
 				// let the last ink notifier run
-				lastInkNotifier = null;
 
 				// reset the distance traveled
 				distanceTraveled = 0;
@@ -302,34 +308,46 @@ public abstract class InkHandler extends EventHandler {
 
 				// We should start a new stroke!
 				currentStrokeSamples = new ArrayList<PenSample>();
-				currentStrokeSamples.add(new PenSample(xDots, yDots, 128, timestamp));
+				if (simplifier != null) {
+					simplifier.reset();
+				}
+				addSample(new PenSample(xDots, yDots, 128, timestamp));
 			} else {
 				// we'll assume this is a pen manufacturing error (jitter)!
 
 				// "kill" the last notifier if possible (best effort)
-				lastInkNotifier.setDoNotNotify(true);
-				lastInkNotifier = null;
+				PenUpDebouncer.getInstance().cancel(this, event.getPenID());
 
 				// add this sample back to the current stroke
-				currentStrokeSamples.add(new PenSample(xDots, yDots, 128, timestamp));
+				addSample(new PenSample(xDots, yDots, 128, timestamp));
 			}
 		} else if (event.isTypePenUp()) {
 			// the pen is lifted from the page
 
 			// record the time of the pen up
-			lastPenUpTime = System.currentTimeMillis();
+			lastPenUpTime = timestamp;
+
+			// the simplifier may be holding back the last sample of the stroke
+			if (simplifier != null) {
+				final PenSample last = simplifier.flush();
+				if (last != null) {
+					currentStrokeSamples.add(last);
+				}
+			}
 
 			// we need to notify our listeners
 			// notify after a short delay, because we may actually update the
 			// current stroke
 			// if there is a pen error
-			lastInkNotifier = new InkNotifier(event, currentStrokeSamples, mostRecentlyAddedTemporaryStroke);
-			new Thread(lastInkNotifier).start();
+			// recycled events will be overwritten before the notifier runs, so it gets a copy
+			PenUpDebouncer.getInstance().schedule(this, event.getPenID(), MILLIS_TO_DELAY,
+					new InkNotifier(event.isRecycled() ? event.copy() : event, currentStrokeSamples,
+							mostRecentlyAddedTemporaryStroke));
 
 			// System.out.println("Collected " + strokes.size() + " strokes so
 			// far.");
 		} else { // regular sample
-			currentStrokeSamples.add(new PenSample(xDots, yDots, 128, timestamp));
+			addSample(new PenSample(xDots, yDots, 128, timestamp));
 
 			// are we supposed to notify after enough distance?
 			if (notifyAfterEnoughDistance) {
@@ -367,6 +385,18 @@ public abstract class InkHandler extends EventHandler {
 		}
 	}
 
+	/**
+	 * Simplifies strokes as they are written, so that we store (and render) a fraction of the samples. Every
+	 * sample that we drop is within the tolerance of the stroke that we keep. Call this before the pen comes
+	 * down.
+	 * 
+	 * @param tolerance
+	 *            e.g., new PatternDots(1). Pass in null to keep every sample (the default).
+	 */
+	public void setSimplification(Units tolerance) {
+		simplifier = tolerance == null ? null : new StrokeSimplifier(tolerance);
+	}
+
 	/**
 	 * @see papertoolkit.events.ContentFilter#toString()
 	 */
@@ -69,8 +69,14 @@ public abstract class StrokeHandler extends EventHandler {
 				mostRecentStroke = new InkStroke();
 			}
 			
-			mostRecentStroke.addSample(event.getOriginalSample());
-			lastEvent = event;
+			// recycled events (and their samples) will be overwritten by the next sample, so we keep copies
+			if (event.isRecycled()) {
+				mostRecentStroke.addSample(event.getOriginalSample().copy());
+				lastEvent = event.copy();
+			} else {
+				mostRecentStroke.addSample(event.getOriginalSample());
+				lastEvent = event;
+			}
 		}
 		// do not consume the event (event has a consumed property that we do not set here)
 	}
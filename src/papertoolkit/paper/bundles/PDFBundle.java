@@ -1,11 +1,11 @@
 package papertoolkit.paper.bundles;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 
 import papertoolkit.paper.Bundle;
+import papertoolkit.paper.Sheet;
+import papertoolkit.paper.sheets.PDFReaderCache;
 import papertoolkit.paper.sheets.PDFSheet;
 
 import com.lowagie.text.pdf.PdfReader;
@@ -14,7 +14,8 @@ import com.lowagie.text.pdf.PdfReader;
 /**
  * <p>
  * Create a Bundle that contains PDFSheets. The PDF manipulation code in this class leverages iText.
- * This class exists to enable us to open an existing PDF and modify its pages.
+ * This class exists to enable us to open an existing PDF and modify its pages. The file is parsed once, and
+ * its reader is shared by all of the sheets (see PDFReaderCache).
  * </p>
  * <p>
  * <span class="BSDLicense"> This software is distributed under the <a
@@ -50,17 +51,30 @@ public class PDFBundle extends Bundle {
 	 */
 	private void addPDFSheetsFromFile() {
 		try {
-			final PdfReader reader = new PdfReader(new FileInputStream(file));
-			numSheets = reader.getNumberOfPages();
-			reader.close();
-			for (int i = 0; i < numSheets; i++) {
-				// (i+1) because Page Numbers start from 1
-				addSheets(new PDFSheet(file, i + 1));
+			final PdfReader reader = PDFReaderCache.acquire(file);
+			try {
+				synchronized (reader) {
+					numSheets = reader.getNumberOfPages();
+				}
+				for (int i = 0; i < numSheets; i++) {
+					// (i+1) because Page Numbers start from 1
+					addSheets(new PDFSheet(file, i + 1));
+				}
+			} finally {
+				// the sheets hold on to the reader now
+				PDFReaderCache.release(reader);
 			}
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
+
+	/**
+	 * Closes all of the sheets, which closes the PDF file once no other sheet uses it.
+	 */
+	public void close() {
+		for (Sheet s : getSheets()) {
+			((PDFSheet) s).close();
+		}
+	}
 }
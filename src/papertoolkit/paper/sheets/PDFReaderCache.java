@@ -0,0 +1,132 @@
+package papertoolkit.paper.sheets;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.RandomAccessFileOrArray;
+
+/**
+ * <p>
+ * Shares one PdfReader per PDF file, so that the sheets of a PDFBundle (one per page) do not each parse the
+ * whole file and keep their own copy in memory. The readers are opened in iText's partial mode: only the
+ * cross reference table is read up front, and each page's objects are read from the file when someone asks
+ * for them.
+ * </p>
+ * <p>
+ * Readers are counted: every acquire(...) needs a matching release(...), and the reader is closed when the
+ * last user releases it. If the file has changed on disk since its reader was opened, the next acquire(...)
+ * opens a new reader; the old one stays open until its users release it.
+ * </p>
+ * <p>
+ * A shared reader must not be modified, or handed to a PdfStamper (which changes its reader, and refuses to
+ * use it twice). Stamp a copy(...) instead.
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+public class PDFReaderCache {
+
+	/**
+	 * One open reader, and how many users it has.
+	 */
+	private static class SharedReader {
+		private final long lastModified;
+
+		private final String path;
+
+		private final PdfReader reader;
+
+		private int referenceCount = 0;
+
+		private SharedReader(String filePath, long modified, PdfReader pdfReader) {
+			path = filePath;
+			lastModified = modified;
+			reader = pdfReader;
+		}
+	}
+
+	/**
+	 * Every reader that is still open, including ones that were replaced because their files changed.
+	 */
+	private static final Map<PdfReader, SharedReader> openReaders = new IdentityHashMap<PdfReader, SharedReader>();
+
+	/**
+	 * The newest reader for each file (by canonical path).
+	 */
+	private static final Map<String, SharedReader> readersByPath = new HashMap<String, SharedReader>();
+
+	/**
+	 * Call release(...) when you are done with the reader.
+	 *
+	 * @param pdfFile
+	 * @return the shared reader for this file
+	 * @throws IOException
+	 *             if the file cannot be opened or parsed
+	 */
+	public static synchronized PdfReader acquire(File pdfFile) throws IOException {
+		final String path = pdfFile.getCanonicalPath();
+		final long lastModified = pdfFile.lastModified();
+
+		SharedReader shared = readersByPath.get(path);
+		if (shared == null || shared.lastModified != lastModified) {
+			// null owner password; a RandomAccessFileOrArray makes the reader read objects lazily
+			final PdfReader reader = new PdfReader(new RandomAccessFileOrArray(path), null);
+			shared = new SharedReader(path, lastModified, reader);
+			readersByPath.put(path, shared);
+			openReaders.put(reader, shared);
+		}
+		shared.referenceCount++;
+		return shared.reader;
+	}
+
+	/**
+	 * Makes a private copy of a shared reader, without parsing the file again. Use it for things that modify
+	 * the reader, like stamping. Close the copy when you are done. Do not call selectPages(...) on the copy:
+	 * in iText 1.4, the copy shares its list of pages with the original.
+	 *
+	 * @param sharedReader
+	 * @return
+	 */
+	public static PdfReader copy(PdfReader sharedReader) {
+		// the shared reader loads objects lazily, so it must not change while we copy it
+		synchronized (sharedReader) {
+			return new PdfReader(sharedReader);
+		}
+	}
+
+	/**
+	 * @return how many readers are open (for debugging leaks)
+	 */
+	public static synchronized int getNumOpenReaders() {
+		return openReaders.size();
+	}
+
+	/**
+	 * @param reader
+	 *            a reader returned by acquire(...). Do not use it after releasing it.
+	 */
+	public static synchronized void release(PdfReader reader) {
+		final SharedReader shared = openReaders.get(reader);
+		if (shared == null) {
+			return; // already closed
+		}
+		shared.referenceCount--;
+		if (shared.referenceCount > 0) {
+			return;
+		}
+
+		openReaders.remove(reader);
+		if (readersByPath.get(shared.path) == shared) {
+			readersByPath.remove(shared.path);
+		}
+		reader.close();
+	}
+}
@@ -1,8 +1,6 @@
 package papertoolkit.paper.sheets;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 
 import papertoolkit.paper.Sheet;
@@ -21,6 +19,10 @@ import com.lowagie.text.pdf.PdfReader;
  * multipage PDFs.
  * </p>
  * <p>
+ * All the sheets made from one file share its PdfReader (see PDFReaderCache). Call close() when you no longer
+ * need the sheet, so that the reader can be closed once no sheet uses it.
+ * </p>
+ * <p>
  * <span class="BSDLicense"> This software is distributed under the <a
  * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>.</span>
  * </p>
@@ -54,15 +56,17 @@ public class PDFSheet extends Sheet {
 
 		pageNum = pageNumber;
 		try {
-			pdfReader = new PdfReader(new FileInputStream(file));
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+			pdfReader = PDFReaderCache.acquire(file);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 
 		// PDF pages count from 1, not 0
-		final int numberOfPages = pdfReader.getNumberOfPages();
+		final int numberOfPages;
+		final Rectangle pageSize;
+		synchronized (pdfReader) {
+			numberOfPages = pdfReader.getNumberOfPages();
+		}
 		if (pageNum < 1) {
 			System.out.println("WARNING: pageNum: " + pageNum
 					+ " is an invalid page. Setting it to 1. (PDFSheet.java)");
@@ -75,13 +79,39 @@ public class PDFSheet extends Sheet {
 		}
 
 		// get the size of page
-		final Rectangle pageSize = pdfReader.getPageSize(pageNum);
+		synchronized (pdfReader) {
+			pageSize = pdfReader.getPageSize(pageNum);
+		}
 		setSize(new Points(pageSize.width()), new Points(pageSize.height()));
 
 		// hmm... how should we handle rotations?
 		// DebugUtils.println("The Rotation of the PDFSheet is: " + pdfReader.getPageRotation(pageNumber));
 	}
 
+	/**
+	 * Lets go of the shared reader. Do not render this sheet afterward.
+	 */
+	public synchronized void close() {
+		if (pdfReader != null) {
+			PDFReaderCache.release(pdfReader);
+			pdfReader = null;
+		}
+	}
+
+	/**
+	 * @return the PDF file this sheet comes from
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return which page of the file this sheet is (counting from 1)
+	 */
+	public int getPageNumber() {
+		return pageNum;
+	}
+
 	/**
 	 * @see papertoolkit.paper.Sheet#getRenderer()
 	 */
@@ -90,9 +120,10 @@ public class PDFSheet extends Sheet {
 	}
 
 	/**
-	 * @return
+	 * @return the reader for the whole file, which is shared with the other sheets made from it. Do not modify
+	 *         it; see PDFReaderCache.copy(...).
 	 */
-	public PdfReader getReader() {
+	public synchronized PdfReader getReader() {
 		return pdfReader;
 	}
 }
@@ -0,0 +1,112 @@
+package papertoolkit.pattern;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>
+ * One .pattern file, mapped into memory, with the offset of each row. Reading a piece of a row is a matter of
+ * copying its characters out of the mapping, instead of opening the file and reading every line above it.
+ * Each row is a line of u/d/l/r characters, one per dot; lines may end in \n or \r\n.
+ * </p>
+ * <p>
+ * Thread safe, as we only use the buffer's absolute get(...) methods.
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+class PatternFile {
+
+	private final ByteBuffer buffer;
+
+	/**
+	 * Not counting the line terminator.
+	 */
+	private final int[] rowLengths;
+
+	private final int[] rowOffsets;
+
+	/**
+	 * Maps the file, and finds where each row starts.
+	 *
+	 * @param patternFile
+	 * @throws IOException
+	 */
+	PatternFile(File patternFile) throws IOException {
+		final RandomAccessFile file = new RandomAccessFile(patternFile, "r");
+		try {
+			// the mapping stays valid after we close the file
+			buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+		} finally {
+			file.close();
+		}
+
+		// count the rows, so we can size the index
+		final int size = buffer.limit();
+		int numRows = 0;
+		for (int i = 0; i < size; i++) {
+			if (buffer.get(i) == '\n') {
+				numRows++;
+			}
+		}
+		if (size > 0 && buffer.get(size - 1) != '\n') {
+			numRows++; // the last line has no terminator
+		}
+
+		rowOffsets = new int[numRows];
+		rowLengths = new int[numRows];
+		int row = 0;
+		int start = 0;
+		for (int i = 0; i <= size && row < numRows; i++) {
+			if (i == size || buffer.get(i) == '\n') {
+				int end = i;
+				if (end > start && buffer.get(end - 1) == '\r') {
+					end--;
+				}
+				rowOffsets[row] = start;
+				rowLengths[row] = end - start;
+				row++;
+				start = i + 1;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of dots in the first row
+	 */
+	int getNumColumns() {
+		return rowLengths.length == 0 ? 0 : rowLengths[0];
+	}
+
+	int getNumRows() {
+		return rowOffsets.length;
+	}
+
+	/**
+	 * @param row
+	 * @param startColumn
+	 * @param endColumn
+	 *            exclusive
+	 * @return the dots from startColumn up to endColumn (or the end of the row, if it is shorter), or null if
+	 *         there is no such row
+	 */
+	String readRow(int row, int startColumn, int endColumn) {
+		if (row < 0 || row >= rowOffsets.length) {
+			return null;
+		}
+		final int end = Math.min(endColumn, rowLengths[row]);
+		final int offset = rowOffsets[row];
+		final char[] dots = new char[Math.max(0, end - startColumn)];
+		for (int i = 0; i < dots.length; i++) {
+			dots[i] = (char) (buffer.get(offset + startColumn + i) & 0xFF);
+		}
+		return new String(dots);
+	}
+}
@@ -9,6 +9,8 @@ import java.io.IOException;
 import java.io.LineNumberReader;
 import java.util.HashMap;
 import java.util.InvalidPropertiesFormatException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -41,6 +43,39 @@ import papertoolkit.util.files.FileUtils;
  */
 public class PatternPackage {
 
+	/**
+	 * Pieces of pattern that we have read recently, shared by all packages (and so, by all
+	 * TiledPatternGenerators). Keyed by the file and the (clamped) region. Least recently used first.
+	 */
+	private static final LinkedHashMap<String, String[]> cachedPatternRegions = new LinkedHashMap<String, String[]>(
+			16, 0.75f, true);
+
+	/**
+	 * Pattern files that we have indexed, shared by all packages.
+	 */
+	private static final Map<File, PatternFile> indexedPatternFiles = new HashMap<File, PatternFile>();
+
+	/**
+	 * Bounds the region cache. Each dot is one char, so this is about 16 MB of Strings.
+	 */
+	private static final long MAX_CACHED_DOTS = 8 * 1024 * 1024;
+
+	private static long numCachedDots = 0;
+
+	/**
+	 * Forgets the pattern that we have read, and the indices of the pattern files. Call this if you replace
+	 * the .pattern files on disk while the program is running.
+	 */
+	public static void clearPatternCache() {
+		synchronized (cachedPatternRegions) {
+			cachedPatternRegions.clear();
+			numCachedDots = 0;
+		}
+		synchronized (indexedPatternFiles) {
+			indexedPatternFiles.clear();
+		}
+	}
+
 	/**
 	 * @return the Pattern Packages that are available to the system. Packages are stored in the directory
 	 *         (pattern/). We return a Map<String, PatternPackage> so you can address the package by name.
@@ -230,6 +265,38 @@ public class PatternPackage {
 		readPropertiesFromConfigFile(new File(patternDefinitionPath, "config.xml"));
 	}
 
+	/**
+	 * @param rows
+	 * @return how many dots are in the rows (the missing rows have none)
+	 */
+	private static long countDots(String[] rows) {
+		long numDots = 0;
+		for (String row : rows) {
+			if (row != null) {
+				numDots += row.length();
+			}
+		}
+		return numDots;
+	}
+
+	/**
+	 * Memory maps and indexes the file the first time we ask for it.
+	 * 
+	 * @param patternFile
+	 * @return
+	 * @throws IOException
+	 */
+	private static PatternFile getIndexedPatternFile(File patternFile) throws IOException {
+		synchronized (indexedPatternFiles) {
+			PatternFile indexed = indexedPatternFiles.get(patternFile);
+			if (indexed == null) {
+				indexed = new PatternFile(patternFile);
+				indexedPatternFiles.put(patternFile, indexed);
+			}
+			return indexed;
+		}
+	}
+
 	/**
 	 * @return the minimum horizontal physical (streamed) coordinate
 	 */
@@ -379,30 +446,43 @@ public class PatternPackage {
 			return pattern;
 		}
 
-		// read the file and populate the array with jitter directions
-		// open up file numPatternFile
 		final File patternFile = numToPatternFile.get(numPatternFile);
 
-		BufferedReader br = null;
-		try {
-			br = new BufferedReader(new FileReader(patternFile));
-
-			// skip the requested number of vertical lines
-			while (startDotsY > 0) {
-				br.readLine();
-				startDotsY--;
+		// have we read this piece recently?
+		final String key = patternFile.getAbsolutePath() + ":" + startDotsX + "," + startDotsY + ","
+				+ numDotsAcross + "," + numDotsDown;
+		synchronized (cachedPatternRegions) {
+			final String[] cached = cachedPatternRegions.get(key);
+			if (cached != null) {
+				return cached.clone();
 			}
+		}
 
-			// for each of the remaining lines, crop out the requested part of the string
+		// the index lets us jump straight to the rows we need, and crop out the requested columns
+		try {
+			final PatternFile indexedFile = getIndexedPatternFile(patternFile);
 			for (int i = 0; i < numDotsDown; i++) {
-				String line = br.readLine();
-				pattern[i] = line.substring(startDotsX, rightMostDot);
+				pattern[i] = indexedFile.readRow(startDotsY + i, startDotsX, rightMostDot);
 			}
-
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
+			return pattern;
+		}
+
+		// remember it, and forget the least recently used pieces if we are holding too many dots
+		final long numDots = countDots(pattern);
+		if (numDots <= MAX_CACHED_DOTS) {
+			synchronized (cachedPatternRegions) {
+				if (cachedPatternRegions.put(key, pattern.clone()) == null) {
+					numCachedDots += numDots;
+				}
+				final Iterator<String[]> lruFirst = cachedPatternRegions.values().iterator();
+				while (numCachedDots > MAX_CACHED_DOTS && lruFirst.hasNext()) {
+					final String[] evicted = lruFirst.next();
+					numCachedDots -= countDots(evicted);
+					lruFirst.remove();
+				}
+			}
 		}
 		return pattern;
 	}
@@ -147,7 +147,9 @@ public class TiledPatternGenerator {
 	/**
 	 * Returned pattern that is tiled appropriately, and automatically selected from the pattern package. By
 	 * default, this pattern generator class will keep track of which pattern it has given you, and will give
-	 * you unique pattern (if possible) every time you call this method.
+	 * you unique pattern (if possible) every time you call this method. Threads may share a generator, but
+	 * then the pattern each one gets depends on timing. To make it deterministic, reserve the pattern in a
+	 * fixed order first (see SheetRenderer.reservePattern()).
 	 * 
 	 * @param width
 	 *            the amount of pattern we need
@@ -155,7 +157,7 @@ public class TiledPatternGenerator {
 	 * 
 	 * @return
 	 */
-	public TiledPattern getPattern(Units width, Units height) {
+	public synchronized TiledPattern getPattern(Units width, Units height) {
 		// DebugUtils.println("getPattern Called " + ++numTimesGetPatternCalled + " times...");
 
 		final long numDotsX = Math.round(width.getValueInPatternDots());
@@ -252,7 +254,7 @@ public class TiledPatternGenerator {
 	 * Resets the tracked history in this object. The next call to getPattern(...) will start over at the
 	 * default state after calling this function.
 	 */
-	public void resetUniquePatternTracker() {
+	public synchronized void resetUniquePatternTracker() {
 		patternFileNumber = 0;
 		lastDotUsedY = 0;
 		lastDotUsedX = 0;
@@ -280,7 +282,7 @@ public class TiledPatternGenerator {
 	 * 
 	 * @param num
 	 */
-	public void setPatternFileNumber(int num) {
+	public synchronized void setPatternFileNumber(int num) {
 		resetUniquePatternTracker();
 		patternFileNumber = num;
 	}
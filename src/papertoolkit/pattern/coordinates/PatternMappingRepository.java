@@ -0,0 +1,298 @@
+package papertoolkit.pattern.coordinates;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import papertoolkit.PaperToolkit;
+import papertoolkit.paper.Region;
+import papertoolkit.pattern.coordinates.conversion.PatternCoordinateConverter;
+import papertoolkit.util.files.FileUtils;
+
+/**
+ * <p>
+ * Holds the contents of the pattern mapping files (*.patternInfo.xml) in one directory, so that each
+ * PatternToSheetMapping can look up its regions without listing the directory and parsing every file again.
+ * Each file is parsed once, and its converters are indexed by RegionID. When two files bind the same region,
+ * the file that comes later in the directory listing wins, as it did when each mapping read the files itself.
+ * </p>
+ * <p>
+ * We notice changes by polling: a lookup lists the directory again if the last listing is more than a second
+ * old, and re-parses only the files that have appeared, or whose size or modification time have changed.
+ * Files that disappear are dropped from the index. Call markStale() to force a new listing on the next
+ * lookup.
+ * </p>
+ * <p>
+ * Each lookup returns new converters (built from the XML we kept), so a sheet may modify its converters
+ * without affecting other sheets, or the repository.
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+public class PatternMappingRepository {
+
+	/**
+	 * One parsed mapping file. We keep each converter as XML, and build a new one for every lookup.
+	 */
+	private static class MappingFile {
+		private final long lastModified;
+
+		private final long length;
+
+		private final Map<RegionID, String> regionIDToXML;
+
+		private MappingFile(long modified, long fileLength, Map<RegionID, String> converters) {
+			lastModified = modified;
+			length = fileLength;
+			regionIDToXML = converters;
+		}
+	}
+
+	/**
+	 * files end with .patternInfo.xml
+	 */
+	private static final String[] PATTERN_INFO_EXTENSION_FILTER = new String[] { "patternInfo.xml" };
+
+	/**
+	 * How old the directory listing can get before a lookup lists it again.
+	 */
+	private static final long RESCAN_INTERVAL_MILLIS = 1000;
+
+	/**
+	 * One repository per directory.
+	 */
+	private static final Map<File, PatternMappingRepository> repositories = new HashMap<File, PatternMappingRepository>();
+
+	/**
+	 * Tells every repository that a mapping file was written (or deleted), so that they parse it again even
+	 * if its size and modification time look the same.
+	 *
+	 * @param xmlFile
+	 */
+	public static synchronized void fileChanged(File xmlFile) {
+		for (PatternMappingRepository repository : repositories.values()) {
+			repository.forget(xmlFile);
+		}
+	}
+
+	/**
+	 * @return the repository for the default mappings directory (PaperToolkit/mappings/)
+	 */
+	public static PatternMappingRepository getInstance() {
+		return getInstance(new File(PaperToolkit.getToolkitRootPath(), "mappings"));
+	}
+
+	/**
+	 * @param mappingsDirectory
+	 * @return the repository for the *.patternInfo.xml files in this directory
+	 */
+	public static synchronized PatternMappingRepository getInstance(File mappingsDirectory) {
+		final File dir = mappingsDirectory.getAbsoluteFile();
+		PatternMappingRepository repository = repositories.get(dir);
+		if (repository == null) {
+			repository = new PatternMappingRepository(dir);
+			repositories.put(dir, repository);
+		}
+		return repository;
+	}
+
+	private final File directory;
+
+	/**
+	 * Every file we have parsed, including ones loaded explicitly from outside our directory.
+	 */
+	private final Map<File, MappingFile> files = new HashMap<File, MappingFile>();
+
+	/**
+	 * The converters of all the files in our directory, merged in listing order.
+	 */
+	private final Map<RegionID, String> index = new HashMap<RegionID, String>();
+
+	/**
+	 * The files in our directory, in listing order, as of the last scan.
+	 */
+	private List<File> indexedFiles = new ArrayList<File>();
+
+	private long lastScanTime;
+
+	private int numParses = 0;
+
+	private boolean stale = true;
+
+	private PatternMappingRepository(File mappingsDirectory) {
+		directory = mappingsDirectory;
+	}
+
+	/**
+	 * Drops the file, so it is parsed again the next time we need it.
+	 *
+	 * @param xmlFile
+	 */
+	private synchronized void forget(File xmlFile) {
+		files.remove(xmlFile.getAbsoluteFile());
+		stale = true;
+	}
+
+	/**
+	 * @param regions
+	 * @return the converters bound to these regions by the files in our directory (regions that no file
+	 *         mentions are left out)
+	 */
+	public synchronized Map<Region, PatternCoordinateConverter> getConverters(Collection<Region> regions) {
+		rescanIfStale();
+		return lookUp(index, regions);
+	}
+
+	/**
+	 * @param xmlFile
+	 *            any mapping file, in our directory or not
+	 * @param regions
+	 * @return the converters bound to these regions by this file, or null if the file does not exist
+	 */
+	public synchronized Map<Region, PatternCoordinateConverter> getConverters(File xmlFile,
+			Collection<Region> regions) {
+		final MappingFile mappingFile = parse(xmlFile.getAbsoluteFile());
+		if (mappingFile == null) {
+			return null;
+		}
+		return lookUp(mappingFile.regionIDToXML, regions);
+	}
+
+	/**
+	 * @return the directory whose files we index
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return how many times we have parsed a mapping file (for checking that we do not parse too often)
+	 */
+	public synchronized int getNumParses() {
+		return numParses;
+	}
+
+	/**
+	 * @param regionIDToXML
+	 * @param regions
+	 * @return a new converter for each region that is in the map
+	 */
+	private Map<Region, PatternCoordinateConverter> lookUp(Map<RegionID, String> regionIDToXML,
+			Collection<Region> regions) {
+		final Map<Region, PatternCoordinateConverter> converters = new HashMap<Region, PatternCoordinateConverter>();
+		for (Region r : regions) {
+			final String xml = regionIDToXML.get(new RegionID(r));
+			if (xml != null) {
+				converters.put(r, (PatternCoordinateConverter) PaperToolkit.fromXML(xml));
+			}
+		}
+		return converters;
+	}
+
+	/**
+	 * Makes the next lookup list the directory again.
+	 */
+	public synchronized void markStale() {
+		stale = true;
+	}
+
+	/**
+	 * @param xmlFile
+	 *            an absolute path
+	 * @return the file's converters, parsed again only if the file has changed since we last parsed it, or
+	 *         null if it does not exist (or is not a mapping file)
+	 */
+	@SuppressWarnings("unchecked")
+	private MappingFile parse(File xmlFile) {
+		final long lastModified = xmlFile.lastModified();
+		final long length = xmlFile.length();
+		if (lastModified == 0L) {
+			// it does not exist (anymore)
+			files.remove(xmlFile);
+			return null;
+		}
+
+		final MappingFile cached = files.get(xmlFile);
+		if (cached != null && cached.lastModified == lastModified && cached.length == length) {
+			return cached;
+		}
+
+		numParses++;
+		final Object o = PaperToolkit.fromXML(xmlFile);
+		if (!(o instanceof Map)) {
+			files.remove(xmlFile);
+			return null;
+		}
+		final Map<RegionID, PatternCoordinateConverter> regionIDToPattern = (Map<RegionID, PatternCoordinateConverter>) o;
+		final Map<RegionID, String> regionIDToXML = new HashMap<RegionID, String>();
+		for (RegionID rid : regionIDToPattern.keySet()) {
+			regionIDToXML.put(rid, PaperToolkit.toXML(regionIDToPattern.get(rid)));
+		}
+		final MappingFile mappingFile = new MappingFile(lastModified, length, regionIDToXML);
+		files.put(xmlFile, mappingFile);
+		return mappingFile;
+	}
+
+	/**
+	 * Lists our directory again (if the last listing is old), parses the new and changed files, and rebuilds
+	 * the index if anything changed.
+	 */
+	private void rescanIfStale() {
+		final long now = System.currentTimeMillis();
+		if (!stale && now - lastScanTime < RESCAN_INTERVAL_MILLIS) {
+			return;
+		}
+		stale = false;
+		lastScanTime = now;
+
+		final List<File> listing = new ArrayList<File>();
+		if (directory.isDirectory()) {
+			for (File f : FileUtils.listVisibleFiles(directory, PATTERN_INFO_EXTENSION_FILTER)) {
+				listing.add(f.getAbsoluteFile());
+			}
+		}
+
+		boolean changed = !listing.equals(indexedFiles);
+		final List<MappingFile> mappingFiles = new ArrayList<MappingFile>(listing.size());
+		for (File f : listing) {
+			final MappingFile before = files.get(f);
+			final MappingFile after = parse(f);
+			if (after != before) {
+				changed = true;
+			}
+			if (after != null) {
+				mappingFiles.add(after);
+			}
+		}
+
+		// drop the files that have left our directory
+		for (File f : indexedFiles) {
+			if (!listing.contains(f)) {
+				files.remove(f);
+			}
+		}
+		indexedFiles = listing;
+
+		if (changed) {
+			index.clear();
+			for (MappingFile mappingFile : mappingFiles) {
+				index.putAll(mappingFile.regionIDToXML);
+			}
+		}
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public synchronized String toString() {
+		return "PatternMappingRepository {" + directory + ", " + indexedFiles.size() + " files, " + index.size()
+				+ " regions, " + numParses + " parses}";
+	}
+}
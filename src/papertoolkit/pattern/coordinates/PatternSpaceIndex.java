@@ -0,0 +1,425 @@
+package papertoolkit.pattern.coordinates;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import papertoolkit.pattern.coordinates.conversion.PatternCoordinateConverter;
+import papertoolkit.pattern.coordinates.conversion.TiledPatternCoordinateConverter;
+import papertoolkit.units.PatternDots;
+import papertoolkit.units.coordinates.StreamedPatternCoordinates;
+
+/**
+ * <p>
+ * A global index over the pattern space of every registered PatternToSheetMapping. The pattern space is
+ * chopped into square cells (a tile-grid hash), and each TiledPatternCoordinateConverter is filed under every
+ * cell that its bounding box touches. Given a streamed (x,y), we only have to test the handful of converters
+ * that live in that one cell, instead of every region on every sheet.
+ * </p>
+ * <p>
+ * Converters whose bounds are not known ahead of time (e.g., FlexiblePatternCoordinateConverter, which
+ * anchors itself to the first sample it sees) and converters that span a gigantic number of cells are kept
+ * in a small list that is tested on every lookup, exactly as before.
+ * </p>
+ * <p>
+ * The index is updated incrementally: adding or removing a mapping only touches that mapping's converters.
+ * PatternToSheetMapping tells us when its regions are re-bound, so we can re-file its converters. If you
+ * mutate a converter in place (e.g., by calling setOriginInDots(...) on it) after registering it, you should
+ * call its mapping's notifyIndices() so that the index can pick up the new bounds.
+ * </p>
+ * <p>
+ * Updates are synchronized, because mappings may be re-bound (and thus re-filed) from any thread. Lookups do
+ * not lock at all, so that many pens can look up their samples at once: they read an immutable snapshot of
+ * the cells. An update throws the snapshot away, and the next lookup builds a new one. Mappings are rarely
+ * re-bound once an application is running, so we rarely copy.
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+public class PatternSpaceIndex {
+
+	/**
+	 * One converter, filed under its parent mapping.
+	 */
+	public static class Entry {
+
+		private PatternCoordinateConverter converter;
+
+		private PatternToSheetMapping mapping;
+
+		/**
+		 * The order in which the mapping was registered. Lookups report entries in this order, so that event
+		 * consumption works the same way as when we walked the list of pattern maps.
+		 */
+		private long mappingOrder;
+
+		/**
+		 * The range of cells this entry was filed under. We remember it so that we can unfile the entry
+		 * even if its converter has been changed in the meantime.
+		 */
+		private long minCol, minRow, maxCol, maxRow;
+
+		/**
+		 * Whether this entry lives in the grid (as opposed to the always-tested list, or nowhere).
+		 */
+		private boolean inGrid = false;
+
+		/**
+		 * Null if this converter is not a tiled converter.
+		 */
+		private TiledPatternCoordinateConverter tiledConverter;
+
+		private Entry(PatternToSheetMapping map, PatternCoordinateConverter conv, long order) {
+			mapping = map;
+			converter = conv;
+			mappingOrder = order;
+		}
+
+		/**
+		 * @return the converter for the region that contains the queried location
+		 */
+		public PatternCoordinateConverter getConverter() {
+			return converter;
+		}
+
+		/**
+		 * @return the mapping (and thus, the sheet) that owns the converter
+		 */
+		public PatternToSheetMapping getMapping() {
+			return mapping;
+		}
+	}
+
+	/**
+	 * A copy of the cells and the always-tested entries, which is never modified once it is published.
+	 */
+	private static class Snapshot {
+		private final Entry[] alwaysTestedEntries;
+
+		private final Map<Long, Entry[]> cells;
+
+		private Snapshot(Map<Long, Entry[]> theCells, Entry[] alwaysTested) {
+			cells = theCells;
+			alwaysTestedEntries = alwaysTested;
+		}
+	}
+
+	/**
+	 * 256 dots is a little less than 3 inches of paper. Most regions will land in a handful of cells.
+	 */
+	public static final int DEFAULT_CELL_SIZE_IN_DOTS = 256;
+
+	/**
+	 * If a converter's bounds would be filed under more cells than this, we test it on every lookup instead.
+	 * Tiled converters that stripe across the pattern space can be very wide.
+	 */
+	private static final int MAX_CELLS_PER_ENTRY = 4096;
+
+	/**
+	 * Packs a cell's column and row into one key.
+	 */
+	private static long cellKey(long col, long row) {
+		return (col << 32) | (row & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Cell Key --> the converters whose bounds touch that cell.
+	 */
+	private Map<Long, List<Entry>> cells = new HashMap<Long, List<Entry>>();
+
+	private final double cellSize;
+
+	/**
+	 * Converters that we cannot (or should not) file under cells.
+	 */
+	private List<Entry> alwaysTestedEntries = new ArrayList<Entry>();
+
+	/**
+	 * Each indexed mapping, and the entries we created for it.
+	 */
+	private Map<PatternToSheetMapping, List<Entry>> mappingToEntries = new HashMap<PatternToSheetMapping, List<Entry>>();
+
+	/**
+	 * Each indexed mapping, and the order in which it was added.
+	 */
+	private Map<PatternToSheetMapping, Long> mappingOrders = new HashMap<PatternToSheetMapping, Long>();
+
+	/**
+	 * Increases every time we see a new mapping.
+	 */
+	private long nextMappingOrder = 0;
+
+	/**
+	 * What lookups read. Null after an update, until the next lookup.
+	 */
+	private volatile Snapshot snapshot;
+
+	/**
+	 * Creates an index with the default cell size.
+	 */
+	public PatternSpaceIndex() {
+		this(DEFAULT_CELL_SIZE_IN_DOTS);
+	}
+
+	/**
+	 * @param cellSizeInDots
+	 *            the width and height of each grid cell, in pattern dots
+	 */
+	public PatternSpaceIndex(int cellSizeInDots) {
+		cellSize = cellSizeInDots;
+	}
+
+	/**
+	 * Files every converter of this mapping into the index. Adding a mapping that is already indexed does
+	 * nothing.
+	 *
+	 * @param mapping
+	 */
+	public synchronized void addMapping(PatternToSheetMapping mapping) {
+		if (mappingToEntries.containsKey(mapping)) {
+			return;
+		}
+		final long order = nextMappingOrder++;
+		mappingOrders.put(mapping, order);
+		indexMapping(mapping, order);
+		mapping.addIndex(this);
+		snapshot = null;
+	}
+
+	/**
+	 * Forget about everything.
+	 */
+	public synchronized void clear() {
+		for (PatternToSheetMapping mapping : mappingToEntries.keySet()) {
+			mapping.removeIndex(this);
+		}
+		mappingToEntries.clear();
+		mappingOrders.clear();
+		cells.clear();
+		alwaysTestedEntries.clear();
+		snapshot = null;
+	}
+
+	/**
+	 * @param mapping
+	 * @return whether we are indexing this mapping
+	 */
+	public synchronized boolean containsMapping(PatternToSheetMapping mapping) {
+		return mappingToEntries.containsKey(mapping);
+	}
+
+	/**
+	 * Finds every converter that contains this location. This replaces walking each pattern map and calling
+	 * getCoordinateConvertersForSample(...).
+	 *
+	 * @param xValPatternDots
+	 *            streamed x coordinate
+	 * @param yValPatternDots
+	 *            streamed y coordinate
+	 * @param results
+	 *            we clear this list and fill it with the matching entries, in mapping-registration order. Pass
+	 *            in the same list each time to avoid allocating one per sample (but do not share it between
+	 *            threads).
+	 */
+	public void getEntriesContaining(double xValPatternDots, double yValPatternDots, List<Entry> results) {
+		results.clear();
+
+		Snapshot current = snapshot;
+		if (current == null) {
+			current = takeSnapshot();
+		}
+
+		final long col = (long) Math.floor(xValPatternDots / cellSize);
+		final long row = (long) Math.floor(yValPatternDots / cellSize);
+		final Entry[] cell = current.cells.get(cellKey(col, row));
+		if (cell != null) {
+			for (Entry e : cell) {
+				if (e.tiledConverter.contains(xValPatternDots, yValPatternDots)
+						&& isInsideRelativeBounds(e.converter, xValPatternDots, yValPatternDots)) {
+					insertInOrder(results, e);
+				}
+			}
+		}
+
+		if (current.alwaysTestedEntries.length > 0) {
+			StreamedPatternCoordinates coord = null;
+			for (Entry e : current.alwaysTestedEntries) {
+				final boolean contained;
+				if (e.tiledConverter != null) {
+					contained = e.tiledConverter.contains(xValPatternDots, yValPatternDots);
+				} else {
+					if (coord == null) {
+						coord = new StreamedPatternCoordinates(new PatternDots(xValPatternDots),
+								new PatternDots(yValPatternDots));
+					}
+					contained = e.converter.contains(coord);
+				}
+				if (contained && isInsideRelativeBounds(e.converter, xValPatternDots, yValPatternDots)) {
+					insertInOrder(results, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the number of mappings in this index
+	 */
+	public synchronized int getNumMappings() {
+		return mappingToEntries.size();
+	}
+
+	/**
+	 * @param mapping
+	 * @param order
+	 */
+	private void indexMapping(PatternToSheetMapping mapping, long order) {
+		final List<Entry> entries = new ArrayList<Entry>();
+		for (PatternCoordinateConverter converter : mapping.getRegionToPatternMapping().values()) {
+			final Entry entry = new Entry(mapping, converter, order);
+			entries.add(entry);
+
+			if (!(converter instanceof TiledPatternCoordinateConverter)) {
+				alwaysTestedEntries.add(entry);
+				continue;
+			}
+
+			final TiledPatternCoordinateConverter tiled = (TiledPatternCoordinateConverter) converter;
+			entry.tiledConverter = tiled;
+			final double minX = tiled.getOriginXInDots();
+			final double minY = tiled.getOriginYInDots();
+			final double maxX = tiled.getMaxXInDots();
+			final double maxY = tiled.getMaxYInDots();
+			if (!(maxX > minX) || !(maxY > minY)) {
+				// an uninitialized (or empty) converter can never contain a sample
+				continue;
+			}
+
+			final long minCol = (long) Math.floor(minX / cellSize);
+			final long minRow = (long) Math.floor(minY / cellSize);
+			final long maxCol = (long) Math.floor(maxX / cellSize);
+			final long maxRow = (long) Math.floor(maxY / cellSize);
+			if ((maxCol - minCol + 1) * (maxRow - minRow + 1) > MAX_CELLS_PER_ENTRY) {
+				alwaysTestedEntries.add(entry);
+				continue;
+			}
+
+			entry.minCol = minCol;
+			entry.minRow = minRow;
+			entry.maxCol = maxCol;
+			entry.maxRow = maxRow;
+			entry.inGrid = true;
+			for (long col = minCol; col <= maxCol; col++) {
+				for (long row = minRow; row <= maxRow; row++) {
+					final Long key = cellKey(col, row);
+					List<Entry> cell = cells.get(key);
+					if (cell == null) {
+						cell = new ArrayList<Entry>(2);
+						cells.put(key, cell);
+					}
+					cell.add(entry);
+				}
+			}
+		}
+		mappingToEntries.put(mapping, entries);
+	}
+
+	/**
+	 * Keeps the results sorted by mapping order. The lists are tiny, so an insertion sort is plenty.
+	 */
+	private void insertInOrder(List<Entry> results, Entry e) {
+		int i = results.size();
+		while (i > 0 && results.get(i - 1).mappingOrder > e.mappingOrder) {
+			i--;
+		}
+		results.add(i, e);
+	}
+
+	/**
+	 * This is the same fallback check that PatternToSheetMapping.getCoordinateConvertersForSample(...) does.
+	 * Some tiled converters claim to contain a sample that is really just off the edge of the region.
+	 */
+	private boolean isInsideRelativeBounds(PatternCoordinateConverter converter, double xVal, double yVal) {
+		return !(converter.getRelativeX(xVal, yVal) > 100 || converter.getRelativeY(xVal, yVal) > 100);
+	}
+
+	/**
+	 * The mapping has re-bound its regions. Re-file its converters, keeping its place in line.
+	 *
+	 * @param mapping
+	 */
+	synchronized void mappingChanged(PatternToSheetMapping mapping) {
+		final List<Entry> oldEntries = mappingToEntries.get(mapping);
+		if (oldEntries == null) {
+			return;
+		}
+		unindexMapping(mapping);
+		indexMapping(mapping, mappingOrders.get(mapping));
+		snapshot = null;
+	}
+
+	/**
+	 * Takes the converters of this mapping out of the index.
+	 *
+	 * @param mapping
+	 */
+	public synchronized void removeMapping(PatternToSheetMapping mapping) {
+		if (unindexMapping(mapping)) {
+			mappingOrders.remove(mapping);
+			mapping.removeIndex(this);
+			snapshot = null;
+		}
+	}
+
+	/**
+	 * @return a new snapshot of the cells, which we publish for the lookups
+	 */
+	private synchronized Snapshot takeSnapshot() {
+		if (snapshot != null) {
+			// another lookup beat us to it
+			return snapshot;
+		}
+		final Map<Long, Entry[]> cellsCopy = new HashMap<Long, Entry[]>(cells.size() * 2);
+		for (Map.Entry<Long, List<Entry>> cell : cells.entrySet()) {
+			cellsCopy.put(cell.getKey(), cell.getValue().toArray(new Entry[cell.getValue().size()]));
+		}
+		final Snapshot s = new Snapshot(cellsCopy, alwaysTestedEntries.toArray(new Entry[alwaysTestedEntries
+				.size()]));
+		snapshot = s;
+		return s;
+	}
+
+	/**
+	 * @param mapping
+	 * @return true if the mapping was indexed
+	 */
+	private boolean unindexMapping(PatternToSheetMapping mapping) {
+		final List<Entry> entries = mappingToEntries.remove(mapping);
+		if (entries == null) {
+			return false;
+		}
+		alwaysTestedEntries.removeAll(entries);
+		for (Entry e : entries) {
+			if (!e.inGrid) {
+				continue;
+			}
+			for (long col = e.minCol; col <= e.maxCol; col++) {
+				for (long row = e.minRow; row <= e.maxRow; row++) {
+					final Long key = cellKey(col, row);
+					final List<Entry> cell = cells.get(key);
+					if (cell != null) {
+						cell.remove(e);
+						if (cell.isEmpty()) {
+							cells.remove(key);
+						}
+					}
+				}
+			}
+		}
+		return true;
+	}
+}
@@ -8,6 +8,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import papertoolkit.PaperToolkit;
 import papertoolkit.paper.Region;
@@ -20,7 +21,6 @@ import papertoolkit.units.coordinates.PercentageCoordinates;
 import papertoolkit.units.coordinates.StreamedPatternCoordinates;
 import papertoolkit.util.DebugUtils;
 import papertoolkit.util.MathUtils;
-import papertoolkit.util.files.FileUtils;
 
 /**
  * <p>
@@ -46,9 +46,10 @@ import papertoolkit.util.files.FileUtils;
 public class PatternToSheetMapping {
 
 	/**
-	 * files end with .patternInfo.xml
+	 * The pattern space indices (usually just the EventDispatcher's) that have filed our converters. We tell
+	 * them whenever our regions are re-bound to pattern. Indices may add or remove themselves from any thread.
 	 */
-	private static final String[] PATTERN_INFO_EXTENSION_FILTER = new String[] { "patternInfo.xml" };
+	private CopyOnWriteArrayList<PatternSpaceIndex> indices = new CopyOnWriteArrayList<PatternSpaceIndex>();
 
 	/**
 	 * Binds regions to pattern bounds, specified in logical (batched) and physical (streamed) coordinates.
@@ -80,6 +81,14 @@ public class PatternToSheetMapping {
 		loadConfigurationFromAutomaticallyDiscoveredXMLFiles();
 	}
 
+	/**
+	 * @param index
+	 *            will be notified when our region to pattern bindings change
+	 */
+	void addIndex(PatternSpaceIndex index) {
+		indices.addIfAbsent(index);
+	}
+
 	/**
 	 * Checks whether this mapping contains the pen sample (streamed coordinates). If it does, it returns the
 	 * TiledPatternCoordinateConverter object for that sample. If not, it returns null.
@@ -161,6 +170,7 @@ public class PatternToSheetMapping {
 				regionToPatternBounds.put(r, new TiledPatternCoordinateConverter(r.getName()));
 			}
 		}
+		notifyIndices();
 	}
 
 	/**
@@ -168,42 +178,49 @@ public class PatternToSheetMapping {
 	 * 
 	 * TODO For each application name, we have a subdirectory (e.g., PaperToolkit/mappings/HelloWorld/). We
 	 * will search in the appropriate subdirectory.
+	 * 
+	 * The files are parsed once per process, by the PatternMappingRepository, and not once per sheet.
 	 */
 	private void loadConfigurationFromAutomaticallyDiscoveredXMLFiles() {
-		final List<File> patternInfoFiles = FileUtils.listVisibleFiles(new File(PaperToolkit
-				.getToolkitRootPath(), "mappings"), PATTERN_INFO_EXTENSION_FILTER);
-		for (File f : patternInfoFiles) {
-			// DebugUtils.println("Trying to automatically load " + f.getName());
-			loadConfigurationFromXML(f);
-		}
+		final Map<Region, PatternCoordinateConverter> converters = PatternMappingRepository.getInstance()
+				.getConverters(regionToPatternBounds.keySet());
+		regionToPatternBounds.putAll(converters);
+		notifyIndices();
 	}
 
 	/**
 	 * On Nov 9, 2006, I changed this to use the interface... I'll need to run some regression tests to make
 	 * sure I didn't break anything.
 	 * 
+	 * The repository keeps the parsed file, so loading it for another sheet does not parse it again (unless
+	 * it has changed).
+	 * 
 	 * @param xmlFile
 	 */
-	@SuppressWarnings("unchecked")
 	public boolean loadConfigurationFromXML(File xmlFile) {
-		if (!xmlFile.exists()) {
+		// for each region, there should be a specification of the pattern information
+		final Map<Region, PatternCoordinateConverter> converters = PatternMappingRepository.getInstance()
+				.getConverters(xmlFile, regionToPatternBounds.keySet());
+		if (converters == null) {
 			// DebugUtils.println("PatternMapping cannot be found at: " + xmlFile.getAbsolutePath());
 			return false;
 		}
 
-		// for each region, there should be a specification of the pattern information
-		final HashMap<RegionID, PatternCoordinateConverter> regionIDToPattern = (HashMap<RegionID, PatternCoordinateConverter>) PaperToolkit
-				.fromXML(xmlFile);
-		for (Region r : regionToPatternBounds.keySet()) {
-			final RegionID xmlKey = new RegionID(r);
+		// loads the information into our map
+		regionToPatternBounds.putAll(converters);
+		notifyIndices();
+		return true;
+	}
 
-			// loads the information into our map
-			if (regionIDToPattern.containsKey(xmlKey)) {
-				// DebugUtils.println("Loaded Pattern Configuration for " + xmlKey);
-				regionToPatternBounds.put(r, regionIDToPattern.get(xmlKey));
-			}
+	/**
+	 * Lets the pattern space indices re-file our converters. We call this whenever we bind a region to a new
+	 * converter. If you change one of our converters in place instead (e.g., the SheetRenderer does, when it
+	 * assigns pattern to the regions), call this afterward, or the indices will keep the old bounds.
+	 */
+	public void notifyIndices() {
+		for (PatternSpaceIndex index : indices) {
+			index.mappingChanged(this);
 		}
-		return true;
 	}
 
 	/**
@@ -213,6 +230,14 @@ public class PatternToSheetMapping {
 		System.out.println(this);
 	}
 
+	/**
+	 * @param index
+	 *            no longer needs to hear about changes to this mapping
+	 */
+	void removeIndex(PatternSpaceIndex index) {
+		indices.remove(index);
+	}
+
 	/**
 	 * Due to xstream's inability to serial/unserialize really complicated classes, we will save only a
 	 * regionName+origin --> pattern info mapping
@@ -237,6 +262,7 @@ public class PatternToSheetMapping {
 				xmlFile.delete();
 			}
 			PaperToolkit.toXML(regionIDToPattern, new FileOutputStream(xmlFile));
+			PatternMappingRepository.fileChanged(xmlFile);
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		}
@@ -255,6 +281,7 @@ public class PatternToSheetMapping {
 			// updating an already-known region OR
 			// adding a new region (probably added to the sheet after this object was constructed)
 			regionToPatternBounds.put(r, coordinateInfo);
+			notifyIndices();
 		} else {
 			System.err.println("PatternLocationToSheetLocationMapping.java: Region unknown. "
 					+ "Please add it to the sheet before updating this mapping.");
@@ -1,6 +1,7 @@
 package papertoolkit.pattern.coordinates.conversion;
 
 import papertoolkit.paper.Region;
+import papertoolkit.units.PatternDots;
 import papertoolkit.units.Percentage;
 import papertoolkit.units.Units;
 import papertoolkit.units.coordinates.PercentageCoordinates;
@@ -84,6 +85,13 @@ public class FlexiblePatternCoordinateConverter implements PatternCoordinateConv
 		return widthInDots * heightInDots;
 	}
 
+	/**
+	 * @see papertoolkit.pattern.coordinates.conversion.PatternCoordinateConverter#getHeight()
+	 */
+	public Units getHeight() {
+		return height;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -113,6 +121,35 @@ public class FlexiblePatternCoordinateConverter implements PatternCoordinateConv
 				new Percentage(pctY, height)); // fraction of height
 	}
 
+	/**
+	 * @see papertoolkit.pattern.coordinates.conversion.PatternCoordinateConverter#getRelativeX(double, double)
+	 */
+	public double getRelativeX(double xValPatternDots, double yValPatternDots) {
+		if (anchor == null) {
+			setAnchor(new StreamedPatternCoordinates(new PatternDots(xValPatternDots), new PatternDots(
+					yValPatternDots)));
+		}
+		return (xValPatternDots - anchorXVal) / widthInDots * 100;
+	}
+
+	/**
+	 * @see papertoolkit.pattern.coordinates.conversion.PatternCoordinateConverter#getRelativeY(double, double)
+	 */
+	public double getRelativeY(double xValPatternDots, double yValPatternDots) {
+		if (anchor == null) {
+			setAnchor(new StreamedPatternCoordinates(new PatternDots(xValPatternDots), new PatternDots(
+					yValPatternDots)));
+		}
+		return (yValPatternDots - anchorYVal) / heightInDots * 100;
+	}
+
+	/**
+	 * @see papertoolkit.pattern.coordinates.conversion.PatternCoordinateConverter#getWidth()
+	 */
+	public Units getWidth() {
+		return width;
+	}
+
 	/**
 	 * We need an upper left corner... The anchor will be the minX,minY of the region.
 	 * 
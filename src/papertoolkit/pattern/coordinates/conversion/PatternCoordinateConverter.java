@@ -1,5 +1,6 @@
 package papertoolkit.pattern.coordinates.conversion;
 
+import papertoolkit.units.Units;
 import papertoolkit.units.coordinates.PercentageCoordinates;
 import papertoolkit.units.coordinates.StreamedPatternCoordinates;
 
@@ -23,6 +24,34 @@ public interface PatternCoordinateConverter {
 
 	public PercentageCoordinates getRelativeLocation(StreamedPatternCoordinates coord);
 
+	/**
+	 * Same as getRelativeLocation(...).getPercentageInXDirection(), but without creating any objects. The
+	 * event dispatcher calls this once per sample, so it should be cheap.
+	 * 
+	 * @param xValPatternDots
+	 *            streamed x coordinate
+	 * @param yValPatternDots
+	 *            streamed y coordinate
+	 * @return the location of the sample across this patch, as a percentage of its width
+	 */
+	public double getRelativeX(double xValPatternDots, double yValPatternDots);
+
+	/**
+	 * @see #getRelativeX(double, double)
+	 * @return the location of the sample down this patch, as a percentage of its height
+	 */
+	public double getRelativeY(double xValPatternDots, double yValPatternDots);
+
+	/**
+	 * @return the width that relative x locations are a percentage of
+	 */
+	public Units getWidth();
+
+	/**
+	 * @return the height that relative y locations are a percentage of
+	 */
+	public Units getHeight();
+
 	/**
 	 * @return the area, in pattern dots squared, of this patch.
 	 */
@@ -381,6 +381,34 @@ public class TiledPatternCoordinateConverter implements PatternCoordinateConvert
 		return numTotalDotsAcross * numTotalDotsDown;
 	}
 
+	/**
+	 * @return the right boundary (exclusive), in physical (streamed) pattern dots
+	 */
+	public double getMaxXInDots() {
+		return maxX;
+	}
+
+	/**
+	 * @return the bottom boundary (exclusive), in physical (streamed) pattern dots
+	 */
+	public double getMaxYInDots() {
+		return maxY;
+	}
+
+	/**
+	 * @return the left boundary, in physical (streamed) pattern dots
+	 */
+	public double getOriginXInDots() {
+		return originX;
+	}
+
+	/**
+	 * @return the top boundary, in physical (streamed) pattern dots
+	 */
+	public double getOriginYInDots() {
+		return originY;
+	}
+
 	/**
 	 * The name of the SINGLE REGION that this coordinate converter handles.
 	 * 
@@ -390,6 +418,13 @@ public class TiledPatternCoordinateConverter implements PatternCoordinateConvert
 		return regionName;
 	}
 
+	/**
+	 * @see papertoolkit.pattern.coordinates.conversion.PatternCoordinateConverter#getHeight()
+	 */
+	public Units getHeight() {
+		return numTotalDotsDownObj;
+	}
+
 	/**
 	 * Convert the input coordinate into a percentage location relative to this tile configuration (a region
 	 * that has tiled pattern)
@@ -397,41 +432,50 @@ public class TiledPatternCoordinateConverter implements PatternCoordinateConvert
 	 * @return
 	 */
 	public PercentageCoordinates getRelativeLocation(StreamedPatternCoordinates coord) {
+		final double xVal = coord.getXVal();
+		final double yVal = coord.getYVal();
+		return new PercentageCoordinates( // 
+				new Percentage(getRelativeX(xVal, yVal), numTotalDotsAcrossObj), // fraction of width
+				new Percentage(getRelativeY(xVal, yVal), numTotalDotsDownObj)); // fraction of height
+	}
 
-		final double xOffset = coord.getXVal() - originX;
-		final double yOffset = coord.getYVal() - originY;
-
+	/**
+	 * @see papertoolkit.pattern.coordinates.conversion.PatternCoordinateConverter#getRelativeX(double, double)
+	 */
+	public double getRelativeX(double xValPatternDots, double yValPatternDots) {
+		final double xOffset = xValPatternDots - originX;
 		final double xRelativeToTile = xOffset
-				- (getTileNumHorizontal(coord) * numDotsHorizontalBetweenTiles);
-		final double yRelativeToTile = yOffset - (getTileNumVertical(coord) * numDotsVerticalBetweenTiles);
+				- (getTileNumHorizontal(xValPatternDots) * numDotsHorizontalBetweenTiles);
+		final int tileCol = getTileOffset(xValPatternDots, yValPatternDots) % numTilesAcross;
 
-		final int tileOffset = getTileNumber(coord) - startingTile;
-
-		final int tileRow = tileOffset / numTilesAcross;
-		final int tileCol = tileOffset % numTilesAcross;
-
-		// how many dots are we in x & y
-		// this is the coordinate in absolute dots, relative to the upper left corner of the region
+		// how many dots are we in x
+		// this is the coordinate in absolute dots, relative to the left edge of the region
 		final double totalDotsX = tileCol * dotsPerTileHorizontal + xRelativeToTile;
-		final double totalDotsY = tileRow * dotsPerTileVertical + yRelativeToTile;
 
 		if (hasClippingBounds) {
-			// DebugUtils.println(totalDotsX + " in X: [" + clipX + " " + (clipX + clipW) + "]");
-			// DebugUtils.println(totalDotsY + " in Y: [" + clipY + " " + (clipY + clipH) + "]");
+			return (totalDotsX - clipX) / clipW * 100;
+		} else {
+			return totalDotsX / numTotalDotsAcross * 100;
+		}
+	}
 
-			final double pctX = (totalDotsX - clipX) / clipW * 100;
-			final double pctY = (totalDotsY - clipY) / clipH * 100;
+	/**
+	 * @see papertoolkit.pattern.coordinates.conversion.PatternCoordinateConverter#getRelativeY(double, double)
+	 */
+	public double getRelativeY(double xValPatternDots, double yValPatternDots) {
+		final double yOffset = yValPatternDots - originY;
+		final double yRelativeToTile = yOffset
+				- (getTileNumVertical(yValPatternDots) * numDotsVerticalBetweenTiles);
+		final int tileRow = getTileOffset(xValPatternDots, yValPatternDots) / numTilesAcross;
 
-			return new PercentageCoordinates( // 
-					new Percentage(pctX, numTotalDotsAcrossObj), // fraction of width
-					new Percentage(pctY, numTotalDotsDownObj)); // fraction of height
-		} else {
-			final double pctX = totalDotsX / numTotalDotsAcross * 100;
-			final double pctY = totalDotsY / numTotalDotsDown * 100;
+		// how many dots are we in y
+		// this is the coordinate in absolute dots, relative to the top edge of the region
+		final double totalDotsY = tileRow * dotsPerTileVertical + yRelativeToTile;
 
-			return new PercentageCoordinates( // 
-					new Percentage(pctX, numTotalDotsAcrossObj), // fraction of width
-					new Percentage(pctY, numTotalDotsDownObj)); // fraction of height
+		if (hasClippingBounds) {
+			return (totalDotsY - clipY) / clipH * 100;
+		} else {
+			return totalDotsY / numTotalDotsDown * 100;
 		}
 	}
 
@@ -463,6 +507,25 @@ public class TiledPatternCoordinateConverter implements PatternCoordinateConvert
 		return startingTile + Math.max(tileNumHoriz, tileNumVert);
 	}
 
+	/**
+	 * The same as getTileNumber(...) - startingTile, without creating a StreamedPatternCoordinates.
+	 * 
+	 * @return the offset of the tile (from the top-left tile) that contains this location
+	 */
+	private int getTileOffset(double xVal, double yVal) {
+		if (!contains(xVal, yVal)) {
+			return -1 - startingTile;
+		}
+		return Math.max(getTileNumHorizontal(xVal), getTileNumVertical(yVal));
+	}
+
+	/**
+	 * @see papertoolkit.pattern.coordinates.conversion.PatternCoordinateConverter#getWidth()
+	 */
+	public Units getWidth() {
+		return numTotalDotsAcrossObj;
+	}
+
 	/**
 	 * Works on Raw Coordinates
 	 * 
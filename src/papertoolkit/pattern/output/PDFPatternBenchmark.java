@@ -0,0 +1,116 @@
+package papertoolkit.pattern.output;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import papertoolkit.pattern.TiledPattern;
+import papertoolkit.pattern.TiledPatternGenerator;
+import papertoolkit.units.Inches;
+import papertoolkit.units.Units;
+
+import com.lowagie.text.Document;
+import com.lowagie.text.DocumentException;
+import com.lowagie.text.Rectangle;
+import com.lowagie.text.pdf.PdfWriter;
+
+/**
+ * <p>
+ * Renders letter size pages covered in pattern with each PatternDotRendering, and reports the time and the
+ * PDF size per page. Every rendering gets the same pattern, so the numbers are comparable. The renderings
+ * take turns for a few rounds, and we report each one's best round, so that warming up the JIT does not
+ * favor whichever runs last. Usage: PDFPatternBenchmark [numPages] [numRounds] [outputDir]
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ * 
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+public class PDFPatternBenchmark {
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 * @throws DocumentException
+	 */
+	public static void main(String[] args) throws IOException, DocumentException {
+		final int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		final int numRounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		final File outputDir = args.length > 2 ? new File(args[2]) : new File(System
+				.getProperty("java.io.tmpdir"));
+
+		final PDFPatternBenchmark benchmark = new PDFPatternBenchmark(new TiledPatternGenerator());
+		final PatternDotRendering[] renderings = PatternDotRendering.values();
+		final long[] bestNanos = new long[renderings.length];
+		Arrays.fill(bestNanos, Long.MAX_VALUE);
+		for (int round = 0; round < numRounds; round++) {
+			for (int i = 0; i < renderings.length; i++) {
+				final File pdf = new File(outputDir, "PatternBenchmark_" + renderings[i] + ".pdf");
+				bestNanos[i] = Math.min(bestNanos[i], benchmark.render(renderings[i], numPages, pdf));
+			}
+		}
+
+		for (int i = 0; i < renderings.length; i++) {
+			final File pdf = new File(outputDir, "PatternBenchmark_" + renderings[i] + ".pdf");
+			System.out.println(String.format("%-10s %d pages  %8.1f ms/page  %8.1f KB/page  (%s)",
+					renderings[i], numPages, bestNanos[i] / 1000000.0 / numPages, pdf.length() / 1024.0
+							/ numPages, pdf.getAbsolutePath()));
+		}
+	}
+
+	private final TiledPatternGenerator generator;
+
+	private final Units pageHeight = new Inches(11);
+
+	private final Units pageWidth = new Inches(8.5);
+
+	/**
+	 * @param patternGenerator
+	 *            we reset it before each run
+	 */
+	public PDFPatternBenchmark(TiledPatternGenerator patternGenerator) {
+		generator = patternGenerator;
+	}
+
+	/**
+	 * @param rendering
+	 * @param numPages
+	 * @param pdf
+	 * @return nanoseconds spent rendering and writing the PDF (not counting getting the pattern)
+	 * @throws IOException
+	 * @throws DocumentException
+	 */
+	public long render(PatternDotRendering rendering, int numPages, File pdf) throws IOException,
+			DocumentException {
+		generator.resetUniquePatternTracker();
+		final TiledPattern[] patterns = new TiledPattern[numPages];
+		for (int i = 0; i < numPages; i++) {
+			patterns[i] = generator.getPattern(pageWidth, pageHeight);
+		}
+
+		final long start = System.nanoTime();
+		final FileOutputStream out = new FileOutputStream(pdf);
+		try {
+			final Document doc = new Document(new Rectangle(0, 0, (float) pageWidth.getValueInPoints(),
+					(float) pageHeight.getValueInPoints()), 0, 0, 0, 0);
+			final PdfWriter writer = PdfWriter.getInstance(doc, out);
+			doc.open();
+			for (int i = 0; i < numPages; i++) {
+				if (i > 0) {
+					doc.newPage();
+				}
+				final PDFPatternGenerator pgen = new PDFPatternGenerator(writer.getDirectContent(), pageWidth,
+						pageHeight);
+				pgen.setDotRendering(rendering);
+				pgen.renderPattern(patterns[i], new Inches(0), new Inches(0));
+			}
+			doc.close();
+		} finally {
+			out.close();
+		}
+		return System.nanoTime() - start;
+	}
+}
@@ -13,6 +13,7 @@ import papertoolkit.util.DebugUtils;
 import papertoolkit.util.MathUtils;
 
 import com.lowagie.text.DocumentException;
+import com.lowagie.text.Rectangle;
 import com.lowagie.text.pdf.BaseFont;
 import com.lowagie.text.pdf.PdfContentByte;
 import com.lowagie.text.pdf.PdfTemplate;
@@ -23,7 +24,9 @@ import com.lowagie.text.pdf.PdfTemplate;
  * iText library to create and manipulate PDFs.
  * </p>
  * <p>
- * The circle approach works best. We draw and fill a circle the size of an Anoto pattern dot.
+ * The circle approach works best. We draw and fill a circle the size of an Anoto pattern dot. Drawing each
+ * row of dots as one path (see PatternDotRendering.ROW_PATHS) draws the same circles, with fewer PDF
+ * operators.
  * </p>
  * <p>
  * Other approaches that this class supports:
@@ -77,11 +80,21 @@ public class PDFPatternGenerator {
 	 */
 	private static final int DEFAULT_JITTER = 5;
 
+	/**
+	 * Radius of the dot, in hundredths of a millimeter. This is key (the right size).
+	 */
+	private static final float DEFAULT_DOT_RADIUS = 2.8f;
+
 	/**
 	 * 
 	 */
 	private static final int DEFAULT_PADDING = 30;
 
+	/**
+	 * With ROW_PATHS, we write out this many rows at a time.
+	 */
+	private static final int NUM_ROWS_PER_BAND = 64;
+
 	/**
 	 * 
 	 */
@@ -139,6 +152,16 @@ public class PDFPatternGenerator {
 	 */
 	private String dotSymbol;
 
+	/**
+	 * Radius of the dot, including the size adjustment.
+	 */
+	private float dotRadius;
+
+	/**
+	 * Template-based drawing of dots seems better. Use this by default.
+	 */
+	private PatternDotRendering dotRendering = PatternDotRendering.TEMPLATE;
+
 	/**
 	 * A circle that is drawn over and over again, for the dot pattern.
 	 */
@@ -161,11 +184,6 @@ public class PDFPatternGenerator {
 	 */
 	private BaseFont patternFont;
 
-	/**
-	 * Template-based drawing of dots seems better. Use this by default.
-	 */
-	private boolean useTemplateInsteadOfFont = true;
-
 	/**
 	 * The width of the PDFdocument.
 	 */
@@ -194,9 +212,7 @@ public class PDFPatternGenerator {
 		content.transform(AffineTransform.getScaleInstance(convertHundredthsOfMMToPoints,
 				convertHundredthsOfMMToPoints));
 
-		if (useTemplateInsteadOfFont) {
-			createDotTemplate(0 /* default */);
-		}
+		createDotTemplate(0 /* default */);
 
 		// even if we are using templates, initialize fonts... for debugging
 		// initializePatternFont_Tahoma();
@@ -209,15 +225,41 @@ public class PDFPatternGenerator {
 	 * @param patternDotSizeAdjustment
 	 */
 	public void adjustPatternSize(int patternDotSizeAdjustment) {
-		if (useTemplateInsteadOfFont) {
-			// if template aproach
-			createDotTemplate(patternDotSizeAdjustment);
-		} else {
+		if (dotRendering == PatternDotRendering.FONT) {
 			// if font approach
 			fontSize += patternDotSizeAdjustment;
+		} else {
+			// if template or path aproach
+			createDotTemplate(patternDotSizeAdjustment);
 		}
 	}
 
+	/**
+	 * Starts a template for the next band of rows. It is set up to stroke the dots as round-capped, single
+	 * point subpaths (x y m h), which PDF paints as filled circles. Inside the band, the origin is the center of the first row's first (unjittered) dot, and
+	 * y points up, so dots are drawn at small whole numbers, which keeps the PDF small.
+	 * 
+	 * @param xLeft
+	 * @param yTop
+	 *            distance from the top of the page to the band's first row
+	 * @param numCols
+	 * @param numRows
+	 * @param heightInHundredths
+	 * @return
+	 */
+	private PdfTemplate beginBand(int xLeft, int yTop, int numCols, int numRows, float heightInHundredths) {
+		// leave room for the jitter and the dot itself
+		final float margin = DEFAULT_JITTER + 2 * DEFAULT_DOT_RADIUS + dotRadius;
+		final PdfTemplate band = content.createTemplate(0, 0);
+		band.setMatrix(1, 0, 0, 1, xLeft + DEFAULT_DOT_RADIUS, heightInHundredths - yTop + DEFAULT_DOT_RADIUS);
+		band.setBoundingBox(new Rectangle(-margin, -(numRows - 1) * DEFAULT_PADDING - margin, //
+				(numCols - 1) * DEFAULT_PADDING + margin, margin));
+		band.setColorStroke(patternColor);
+		band.setLineWidth(2 * dotRadius);
+		band.setLineCap(PdfContentByte.LINE_CAP_ROUND);
+		return band;
+	}
+
 	/**
 	 * defaultRadius = 3 works great
 	 * 
@@ -226,16 +268,37 @@ public class PDFPatternGenerator {
 	 */
 	private void createDotTemplate(float adjustment) {
 		float radiusAdjustment = 0.5f * adjustment;
-		final float defaultRadius = 2.8f; // this is key (the right size)
-		float xCenter = defaultRadius;
-		float yCenter = defaultRadius;
+		float xCenter = DEFAULT_DOT_RADIUS;
+		float yCenter = DEFAULT_DOT_RADIUS;
+		dotRadius = DEFAULT_DOT_RADIUS + radiusAdjustment;
 
 		// the dot as a pdf template (a rubber stamp)
 		dotTemplate = content.createTemplate(2 * xCenter + 1, 2 * yCenter + 1);
-		dotTemplate.circle(xCenter, yCenter, defaultRadius + radiusAdjustment);
+		dotTemplate.circle(xCenter, yCenter, dotRadius);
 		dotTemplate.fill();
 	}
 
+	/**
+	 * Places the finished band on the page, and writes it out to the PDF right away.
+	 * 
+	 * @param band
+	 */
+	private void endBand(PdfTemplate band) {
+		content.addTemplate(band, 0, 0);
+		try {
+			content.getPdfWriter().releaseTemplate(band);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return how we draw each dot
+	 */
+	public PatternDotRendering getDotRendering() {
+		return dotRendering;
+	}
+
 	/**
 	 * 21 works for both laser and wide-format inkjet.
 	 */
@@ -287,7 +350,7 @@ public class PDFPatternGenerator {
 		final float heightInHundredths = (float) (heightOfPDF * convertPointsToHundredthsOfMM);
 
 		// if we use the font approach
-		if (!useTemplateInsteadOfFont) {
+		if (dotRendering == PatternDotRendering.FONT) {
 			content.beginText();
 			// GRAY, etc. do not work! The printer will do halftoning, which messes things up.
 			content.setFontAndSize(patternFont, fontSize);
@@ -308,8 +371,16 @@ public class PDFPatternGenerator {
 		int yJitter = 0;
 		char currentJitterDirection;
 
+		// the band of rows we are drawing, if we draw paths
+		PdfTemplate band = null;
+
 		for (int row = 0; row < numRows; row++) {
 
+			if (dotRendering == PatternDotRendering.ROW_PATHS && row % NUM_ROWS_PER_BAND == 0) {
+				band = beginBand(initX, gridYPosition, numCols, Math.min(NUM_ROWS_PER_BAND, numRows - row),
+						heightInHundredths);
+			}
+
 			final String patternRow = pattern.getPatternOnRow(row);
 			final int rowLength = patternRow.length();
 
@@ -341,13 +412,22 @@ public class PDFPatternGenerator {
 					break;
 				}
 
-				if (useTemplateInsteadOfFont) {
+				switch (dotRendering) {
+				case TEMPLATE:
 					content.addTemplate(dotTemplate, gridXPosition + xJitter, //
 							heightInHundredths - (gridYPosition + yJitter));
-				} else {
+					break;
+				case ROW_PATHS:
+					// the same center as the template's circle, relative to the start of this row
+					final int xCenter = gridXPosition - initX + xJitter;
+					band.moveTo(xCenter, -yJitter);
+					band.closePath();
+					break;
+				case FONT:
 					content.showTextAligned(PdfContentByte.ALIGN_CENTER, dotSymbol, //
 							gridXPosition + xJitter + X_FONT_OFFSET, //
 							heightInHundredths - (gridYPosition + yJitter + Y_FONT_OFFSET), 0);
+					break;
 				}
 
 				gridXPosition += DEFAULT_PADDING;
@@ -356,13 +436,32 @@ public class PDFPatternGenerator {
 			gridXPosition = initX;
 			gridYPosition += DEFAULT_PADDING;
 			// System.out.println();
+
+			if (band != null) {
+				// one stroke paints the whole row; then move down to the next row
+				band.stroke();
+				band.concatCTM(1, 0, 0, 1, 0, -DEFAULT_PADDING);
+				if (row % NUM_ROWS_PER_BAND == NUM_ROWS_PER_BAND - 1 || row == numRows - 1) {
+					endBand(band);
+					band = null;
+				}
+			}
 		}
 
-		if (!useTemplateInsteadOfFont) {
+		if (dotRendering == PatternDotRendering.FONT) {
 			content.endText();
 		}
 	}
 
+	/**
+	 * Call this before rendering pattern. TEMPLATE is the default.
+	 * 
+	 * @param rendering
+	 */
+	public void setDotRendering(PatternDotRendering rendering) {
+		dotRendering = rendering;
+	}
+
 	/**
 	 * @param c
 	 */
@@ -0,0 +1,33 @@
+package papertoolkit.pattern.output;
+
+/**
+ * <p>
+ * How the PDFPatternGenerator puts each pattern dot on the page.
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ * 
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+public enum PatternDotRendering {
+
+	/**
+	 * One bullet character per dot, in the pattern font.
+	 */
+	FONT,
+
+	/**
+	 * Each row of dots is one path. A dot is a single point with round caps, which the printer paints as a
+	 * filled circle of the same size as the TEMPLATE dot. Rows are grouped into bands, and each band is
+	 * written out to the PDF as soon as it is done, so we never hold a whole page of dots in memory. This
+	 * makes smaller files, faster.
+	 */
+	ROW_PATHS,
+
+	/**
+	 * One stamp of a filled circle (a PdfTemplate) per dot.
+	 */
+	TEMPLATE
+}
@@ -241,7 +241,8 @@ public class Pen extends InputDevice {
 
 		// start a client to listen to the pen...
 		if (livePenClient == null && !isLive()) {
-			livePenClient = new PenClient(hostDomainNameOrIPAddr, penServerTcpIpPort, ClientServerType.JAVA);
+			// binary samples are much cheaper to parse; we fall back to XML if the server is an older one
+			livePenClient = new PenClient(hostDomainNameOrIPAddr, penServerTcpIpPort, ClientServerType.BINARY);
 			livePenClient.connect();
 			liveMode = true;
 
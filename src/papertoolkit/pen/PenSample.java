@@ -109,6 +109,16 @@ public class PenSample implements Serializable {
 		penUp = isPenUp;
 	}
 
+	/**
+	 * Listeners that keep samples around (instead of processing them right away) should keep copies, as the
+	 * PenStreamingConnection and EventDispatcher can be asked to reuse their sample objects.
+	 * 
+	 * @return a new sample with the same values
+	 */
+	public PenSample copy() {
+		return new PenSample(x, y, force, timestamp, penUp);
+	}
+
 	public double getDistanceFrom(PenSample otherSample) {
 		return MathUtils.distance(x, y, otherSample.x, otherSample.y);
 	}
@@ -155,6 +165,23 @@ public class PenSample implements Serializable {
 		return penUp;
 	}
 
+	/**
+	 * Overwrites all the values of this sample, so that it can be reused.
+	 * 
+	 * @param theX
+	 * @param theY
+	 * @param theForce
+	 * @param theTimestamp
+	 * @param isPenUp
+	 */
+	public void set(double theX, double theY, int theForce, long theTimestamp, boolean isPenUp) {
+		timestamp = theTimestamp;
+		x = theX;
+		y = theY;
+		force = theForce;
+		penUp = isPenUp;
+	}
+
 	/**
 	 * @param f
 	 */
@@ -0,0 +1,44 @@
+package papertoolkit.pen.gesture.dollar;
+
+import java.util.List;
+
+import papertoolkit.pen.gesture.evaluation.GestureClassifier;
+import papertoolkit.pen.gesture.evaluation.GestureClassifierFactory;
+import papertoolkit.pen.gesture.evaluation.LabeledGesture;
+
+/**
+ * <p>
+ * Lets the GestureEvaluator test the $1 recognizer. Each fold gets a DollarRecognizer with one template per
+ * training example (and none of the predefined templates).
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+public class DollarClassifierFactory implements GestureClassifierFactory {
+
+	/**
+	 * @see papertoolkit.pen.gesture.evaluation.GestureClassifierFactory#getName()
+	 */
+	public String getName() {
+		return "$1";
+	}
+
+	/**
+	 * @see papertoolkit.pen.gesture.evaluation.GestureClassifierFactory#train(java.util.List)
+	 */
+	public GestureClassifier train(List<LabeledGesture> trainingSet) {
+		final DollarRecognizer recognizer = new DollarRecognizer(false);
+		for (LabeledGesture example : trainingSet) {
+			recognizer.addTemplate(example.getLabel(), DollarRecognizer.makeArray(example.getStroke()));
+		}
+		return new GestureClassifier() {
+			public String classify(LabeledGesture example) {
+				return recognizer.recognize(example.getStroke()).getName();
+			}
+		};
+	}
+}
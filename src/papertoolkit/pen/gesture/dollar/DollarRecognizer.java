@@ -1,11 +1,22 @@
 package papertoolkit.pen.gesture.dollar;
 
+import java.awt.geom.Rectangle2D;
+import java.nio.DoubleBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
-import papertoolkit.pen.PenSample;
 import papertoolkit.pen.ink.InkStroke;
+import papertoolkit.util.DaemonThreadFactory;
+import papertoolkit.util.LatencyHistogram;
+import papertoolkit.util.ToolkitMetrics;
 import papertoolkit.util.MathUtils;
 
 /**
@@ -65,112 +76,190 @@ public class DollarRecognizer {
 		}
 	}
 
-	private static class Rectangle {
-		double Height;
-		double Width;
-		double X;
-		double Y;
-
-		Rectangle(double x, double y, double width, double height) {
-			X = x;
-			Y = y;
-			Width = width;
-			Height = height;
+	/**
+	 * The best match so far, shared by the threads that score one candidate. Ties go to the template that
+	 * was added first, so the answer does not depend on how the work was split up.
+	 */
+	private static class BestMatch {
+		private volatile double distance = Double.MAX_VALUE;
+		private int index = 0;
+
+		synchronized void offer(double d, int i) {
+			if (d < distance || (d == distance && i < index)) {
+				distance = d;
+				index = i;
+			}
 		}
 	}
 
+	/**
+	 * A gesture, resampled and normalized just like the candidates.
+	 */
 	private static class Template {
 		String Name;
-		ArrayList<Pt> Points;
+
+		/**
+		 * Protractor's vector: the points, centered and scaled to unit length.
+		 */
+		final double[] Unit = new double[2 * NumPoints];
+
+		final double[] X = new double[NumPoints];
+		final double[] Y = new double[NumPoints];
 
 		public Template(String name, ArrayList<Pt> points) {
+			this(name, toX(points), toY(points), points.size());
+		}
+
+		public Template(String name, double[] x, double[] y, int len) {
 			Name = name;
-			Points = Resample(points, NumPoints);
-			Points = RotateToZero(Points);
-			Points = ScaleToSquare(Points, SquareSize);
-			Points = TranslateToOrigin(Points);
+			Normalize(x, y, len, X, Y);
+			Vectorize(X, Y, Unit);
 		}
 	}
 
 	private static final double AnglePrecision = 2.0;
 	private static final double AngleRange = 45.0;
 	private static final double HalfDiagonal = 0.5 * Math.sqrt(250.0 * 250.0 + 250.0 * 250.0);
+
+	/**
+	 * How long recognize(...) takes, across all recognizers. It is one of the toolkit's metrics.
+	 */
+	private static final LatencyHistogram latency = ToolkitMetrics.Stage.GESTURE_RECOGNITION.getLatency();
+
 	private static final int NumPoints = 64;
+
+	/**
+	 * With fewer templates than this, it is not worth handing the work to other threads.
+	 */
+	private static final int ParallelThreshold = 256;
 	private static final double Phi = 0.5 * (-1.0 + Math.sqrt(5.0)); // Golden Ratio
+
+	/**
+	 * Scores large template sets. Shared by all recognizers.
+	 */
+	private static ExecutorService pool;
 	private static final double SquareSize = 250.0;
 
-	private static Rectangle BoundingBox(ArrayList<Pt> points) {
+	/**
+	 * Sorts the template indices by their Protractor distance.
+	 */
+	private static void SortByProtractorDistance(final Integer[] order, final double[] protractor) {
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				final int c = Double.compare(protractor[a], protractor[b]);
+				return c != 0 ? c : a.compareTo(b);
+			}
+		});
+	}
+
+	private static Rectangle2D BoundingBox(double[] x, double[] y) {
 		double minX = Double.MAX_VALUE;
 		double maxX = Double.MIN_VALUE;
 		double minY = Double.MAX_VALUE;
 		double maxY = Double.MIN_VALUE;
 
-		for (Pt pt : points) {
-			if (pt.X < minX) {
-				minX = pt.X;
+		for (int i = 0; i < x.length; i++) {
+			if (x[i] < minX) {
+				minX = x[i];
 			}
-			if (pt.X > maxX) {
-				maxX = pt.X;
+			if (x[i] > maxX) {
+				maxX = x[i];
 			}
-			if (pt.Y < minY) {
-				minY = pt.Y;
+			if (y[i] < minY) {
+				minY = y[i];
 			}
-			if (pt.Y > maxY) {
-				maxY = pt.Y;
+			if (y[i] > maxY) {
+				maxY = y[i];
 			}
 		}
-		return new Rectangle(minX, minY, maxX - minX, maxY - minY);
+		return new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY);
 	}
 
-	private static Pt Centroid(ArrayList<Pt> points) {
-		double x = 0.0;
-		double y = 0.0;
-
-		for (Pt pt : points) {
-			x += pt.X;
-			y += pt.Y;
+	private static double Centroid(double[] v) {
+		double sum = 0.0;
+		for (double d : v) {
+			sum += d;
 		}
-
-		double numPoints = points.size();
-		x /= numPoints;
-		y /= numPoints;
-		return new Pt(x, y);
+		return sum / v.length;
 	}
 
-	private static double DistanceAtAngle(ArrayList<Pt> points, Template T, double theta) {
-		ArrayList<Pt> newpoints = RotateBy(points, theta);
-		return PathDistance(newpoints, T.Points);
+	/**
+	 * The candidate is rotated by theta about its centroid (cx, cy). Nothing is allocated.
+	 */
+	private static double DistanceAtAngle(double[] x, double[] y, double cx, double cy, Template T,
+			double theta) {
+		final double cos = Math.cos(theta);
+		final double sin = Math.sin(theta);
+		double d = 0.0;
+		for (int i = 0; i < x.length; i++) {
+			final double qx = (x[i] - cx) * cos - (y[i] - cy) * sin + cx;
+			final double qy = (x[i] - cx) * sin + (y[i] - cy) * cos + cy;
+			d += MathUtils.distance(qx, qy, T.X[i], T.Y[i]);
+		}
+		return d / x.length;
 	}
 
-	private static double DistanceAtBestAngle(ArrayList<Pt> points, Template T, double a, double b,
-			double threshold) {
+	private static double DistanceAtBestAngle(double[] x, double[] y, double cx, double cy, Template T,
+			double a, double b, double threshold) {
 		double x1 = Phi * a + (1.0 - Phi) * b;
-		double f1 = DistanceAtAngle(points, T, x1);
+		double f1 = DistanceAtAngle(x, y, cx, cy, T, x1);
 		double x2 = (1.0 - Phi) * a + Phi * b;
-		double f2 = DistanceAtAngle(points, T, x2);
+		double f2 = DistanceAtAngle(x, y, cx, cy, T, x2);
 		while (Math.abs(b - a) > threshold) {
 			if (f1 < f2) {
 				b = x2;
 				x2 = x1;
 				f2 = f1;
 				x1 = Phi * a + (1.0 - Phi) * b;
-				f1 = DistanceAtAngle(points, T, x1);
+				f1 = DistanceAtAngle(x, y, cx, cy, T, x1);
 			} else {
 				a = x1;
 				x1 = x2;
 				f1 = f2;
 				x2 = (1.0 - Phi) * a + Phi * b;
-				f2 = DistanceAtAngle(points, T, x2);
+				f2 = DistanceAtAngle(x, y, cx, cy, T, x2);
 			}
 		}
 		return Math.min(f1, f2);
 	}
 
+	/**
+	 * Rotating the candidate about its centroid c does not change how far each point is from c. So, by the
+	 * triangle inequality, no rotation can bring the candidate any closer to the template than this. If this
+	 * is already worse than our best match, we do not need to search for the best angle.
+	 */
+	private static double LowerBound(double[] x, double[] y, double cx, double cy, Template T) {
+		double d = 0.0;
+		for (int i = 0; i < x.length; i++) {
+			final double r = MathUtils.distance(x[i], y[i], cx, cy);
+			final double s = MathUtils.distance(T.X[i], T.Y[i], cx, cy);
+			d += Math.abs(r - s);
+		}
+		return d / x.length;
+	}
+
+	/**
+	 * @return how long recognition has been taking, across all recognizers
+	 */
+	public static LatencyHistogram getLatencyHistogram() {
+		return latency;
+	}
+
+	private static synchronized ExecutorService getPool() {
+		if (pool == null) {
+			pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+					new DaemonThreadFactory("Dollar Recognizer"));
+		}
+		return pool;
+	}
+
 	public static ArrayList<Pt> makeArray(InkStroke stroke) {
-		final List<PenSample> samples = stroke.getSamples();
-		final ArrayList<Pt> list = new ArrayList<Pt>();
-		for (PenSample s: samples) {
-			list.add(new Pt(s.x, s.y));
+		// read the coordinates directly, instead of making a PenSample for each one
+		final DoubleBuffer x = stroke.getXView();
+		final DoubleBuffer y = stroke.getYView();
+		final ArrayList<Pt> list = new ArrayList<Pt>(x.limit());
+		for (int i = 0; i < x.limit(); i++) {
+			list.add(new Pt(x.get(i), y.get(i)));
 		}
 		return list;
 	};
@@ -181,115 +270,195 @@ public class DollarRecognizer {
 		return list;
 	};
 
-	private static double PathDistance(ArrayList<Pt> pts1, ArrayList<Pt> pts2) {
-		double d = 0.0;
-		for (int i = 0; i < pts1.size(); i++) { // assumes pts1.length == pts2.length
-			Pt pt1 = pts1.get(i);
-			Pt pt2 = pts2.get(i);
-			d += MathUtils.distance(pt1.X, pt1.Y, pt2.X, pt2.Y);
-		}
-		return d / pts1.size();
+	/**
+	 * Resample, RotateToZero, ScaleToSquare, and TranslateToOrigin, all on flat arrays.
+	 */
+	private static void Normalize(double[] x, double[] y, int len, double[] outX, double[] outY) {
+		Resample(x, y, len, outX, outY);
+		RotateToZero(outX, outY);
+		ScaleToSquare(outX, outY, SquareSize);
+		TranslateToOrigin(outX, outY);
 	}
 
-	private static double PathLength(ArrayList<Pt> points) {
+	private static double PathLength(double[] x, double[] y, int len) {
 		double d = 0.0;
-		for (int i = 1; i < points.size(); i++) {
-			Pt pt1 = points.get(i - 1);
-			Pt pt2 = points.get(i);
-			d += MathUtils.distance(pt1.X, pt1.Y, pt2.X, pt2.Y);
+		for (int i = 1; i < len; i++) {
+			d += MathUtils.distance(x[i - 1], y[i - 1], x[i], y[i]);
 		}
 		return d;
 	}
 
+	/**
+	 * Protractor's closed-form distance: the angle between the two unit vectors, after rotating one of them
+	 * to best match the other. It is much cheaper than the golden section search, so we use it to decide
+	 * which templates to try first.
+	 */
+	private static double ProtractorDistance(double[] v1, double[] v2) {
+		double a = 0.0;
+		double b = 0.0;
+		for (int i = 0; i < v1.length; i += 2) {
+			a += v1[i] * v2[i] + v1[i + 1] * v2[i + 1];
+			b += v1[i] * v2[i + 1] - v1[i + 1] * v2[i];
+		}
+		return Math.acos(Math.min(1.0, Math.sqrt(a * a + b * b)));
+	}
+
 	//
 	// Helper functions from this point down
 	//
-	private static ArrayList<Pt> Resample(ArrayList<Pt> points, int n) {
-		double I = PathLength(points) / (n - 1); // interval length
+
+	/**
+	 * Fills (outX, outY) with points spaced evenly along the path. Unlike the original, this does not insert
+	 * anything into the input.
+	 */
+	private static void Resample(double[] x, double[] y, int len, double[] outX, double[] outY) {
+		final int n = outX.length;
+		double I = PathLength(x, y, len) / (n - 1); // interval length
 		double D = 0.0;
-		ArrayList<Pt> newpoints = new ArrayList<Pt>();
-		newpoints.add(points.get(0));
-		for (int i = 1; i < points.size(); i++) {
-
-			Pt prevPt = points.get(i - 1);
-			Pt currPt = points.get(i);
-
-			double p1X = prevPt.X;
-			double p1Y = prevPt.Y;
-			double p2X = currPt.X;
-			double p2Y = currPt.Y;
-
-			double d = MathUtils.distance(p1X, p1Y, p2X, p2Y);
-			if ((D + d) >= I) {
-				double qx = prevPt.X + ((I - D) / d) * (currPt.X - prevPt.X);
-				double qy = prevPt.Y + ((I - D) / d) * (currPt.Y - prevPt.Y);
-				Pt q = new Pt(qx, qy);
-				newpoints.add(q); // append new point 'q'
-				points.add(i, q);// insert 'q' at position i in points s.t. 'q' will be the next i
-				D = 0.0;
-			} else {
-				D += d;
+		int count = 0;
+		outX[count] = x[0];
+		outY[count++] = y[0];
+		double prevX = x[0];
+		double prevY = y[0];
+		if (I > 0) {
+			for (int i = 1; i < len && count < n; i++) {
+				final double d = MathUtils.distance(prevX, prevY, x[i], y[i]);
+				if ((D + d) >= I) {
+					final double qx = prevX + ((I - D) / d) * (x[i] - prevX);
+					final double qy = prevY + ((I - D) / d) * (y[i] - prevY);
+					outX[count] = qx; // append new point 'q'
+					outY[count++] = qy;
+					prevX = qx; // 'q' will be the start of the next segment, which ends at point i again
+					prevY = qy;
+					i--;
+					D = 0.0;
+				} else {
+					D += d;
+					prevX = x[i];
+					prevY = y[i];
+				}
 			}
 		}
 		// somtimes we fall a rounding-error short of adding the last point, so add it if so
-		if (newpoints.size() == n - 1) {
-			newpoints.add(points.get(points.size() - 1));
+		while (count < n) {
+			outX[count] = x[len - 1];
+			outY[count++] = y[len - 1];
+		}
+	}
+
+	// rotates a set of points, in place
+	private static void RotateBy(double[] x, double[] y, double theta) {
+		final double cx = Centroid(x);
+		final double cy = Centroid(y);
+		final double cos = Math.cos(theta);
+		final double sin = Math.sin(theta);
+		for (int i = 0; i < x.length; i++) {
+			final double qx = (x[i] - cx) * cos - (y[i] - cy) * sin + cx;
+			final double qy = (x[i] - cx) * sin + (y[i] - cy) * cos + cy;
+			x[i] = qx;
+			y[i] = qy;
 		}
+	}
 
-		return newpoints;
+	private static void RotateToZero(double[] x, double[] y) {
+		double theta = Math.atan2(Centroid(y) - y[0], Centroid(x) - x[0]);
+		RotateBy(x, y, -theta);
 	}
 
-	// rotates a set of points
-	private static ArrayList<Pt> RotateBy(ArrayList<Pt> points, double theta) {
-		Pt c = Centroid(points);
-		ArrayList<Pt> newpoints = new ArrayList<Pt>();
-		for (Pt pt : points) {
-			double qx = (pt.X - c.X) * Math.cos(theta) - (pt.Y - c.Y) * Math.sin(theta) + c.X;
-			double qy = (pt.X - c.X) * Math.sin(theta) + (pt.Y - c.Y) * Math.cos(theta) + c.Y;
-			newpoints.add(new Pt(qx, qy));
+	private static void ScaleToSquare(double[] x, double[] y, double size) {
+		Rectangle2D B = BoundingBox(x, y);
+		for (int i = 0; i < x.length; i++) {
+			x[i] = x[i] * (size / B.getWidth());
+			y[i] = y[i] * (size / B.getHeight());
 		}
-		return newpoints;
 	}
 
-	private static ArrayList<Pt> RotateToZero(ArrayList<Pt> points) {
-		Pt c = Centroid(points);
-		Pt firstPt = points.get(0);
-		double theta = Math.atan2(c.Y - firstPt.Y, c.X - firstPt.X);
-		return RotateBy(points, -theta);
+	/**
+	 * Shuts down the threads that score large template sets. They are daemons, so you only need this if you
+	 * want them gone before the VM exits.
+	 */
+	public static synchronized void shutdownPool() {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	private static double[] toX(ArrayList<Pt> points) {
+		final double[] x = new double[points.size()];
+		for (int i = 0; i < x.length; i++) {
+			x[i] = points.get(i).X;
+		}
+		return x;
 	}
 
-	private static ArrayList<Pt> ScaleToSquare(ArrayList<Pt> points, double size) {
-		Rectangle B = BoundingBox(points);
-		ArrayList<Pt> newpoints = new ArrayList<Pt>();
-		for (Pt pt : points) {
-			double qx = pt.X * (size / B.Width);
-			double qy = pt.Y * (size / B.Height);
-			newpoints.add(new Pt(qx, qy));
+	private static double[] toY(ArrayList<Pt> points) {
+		final double[] y = new double[points.size()];
+		for (int i = 0; i < y.length; i++) {
+			y[i] = points.get(i).Y;
 		}
-		return newpoints;
+		return y;
 	}
 
-	private static ArrayList<Pt> TranslateToOrigin(ArrayList<Pt> points) {
-		Pt c = Centroid(points);
-		ArrayList<Pt> newpoints = new ArrayList<Pt>();
-		for (Pt pt : points) {
-			double qx = pt.X - c.X;
-			double qy = pt.Y - c.Y;
-			newpoints.add(new Pt(qx, qy));
+	private static void TranslateToOrigin(double[] x, double[] y) {
+		final double cx = Centroid(x);
+		final double cy = Centroid(y);
+		for (int i = 0; i < x.length; i++) {
+			x[i] -= cx;
+			y[i] -= cy;
+		}
+	}
+
+	/**
+	 * Interleaves the (already centered) points into v, and scales v to unit length.
+	 */
+	private static void Vectorize(double[] x, double[] y, double[] v) {
+		double sum = 0.0;
+		for (int i = 0; i < x.length; i++) {
+			v[2 * i] = x[i];
+			v[2 * i + 1] = y[i];
+			sum += x[i] * x[i] + y[i] * y[i];
+		}
+		final double magnitude = Math.sqrt(sum);
+		if (magnitude > 0) {
+			for (int i = 0; i < v.length; i++) {
+				v[i] /= magnitude;
+			}
 		}
-		return newpoints;
 	}
 
 	private final ArrayList<Template> originalTemplates;
 	private ArrayList<Template> templates;
 
+	/**
+	 * How many templates we skipped, because their lower bound was worse than the best match.
+	 */
+	private final AtomicLong numPruned = new AtomicLong();
+
+	/**
+	 * How many templates we compared with the golden section search.
+	 */
+	private final AtomicLong numSearched = new AtomicLong();
+
 
 	public DollarRecognizer() {
+		this(true);
+	}
+
+	/**
+	 * @param loadPredefinedTemplates
+	 *            false, to start with no templates at all (e.g., to evaluate a set of user-trained templates)
+	 */
+	public DollarRecognizer(boolean loadPredefinedTemplates) {
+		templates = new ArrayList<Template>();
+		if (!loadPredefinedTemplates) {
+			originalTemplates = new ArrayList<Template>();
+			return;
+		}
 
 		//
 		// one predefined template for each gesture type
 		//
-		templates = new ArrayList<Template>();
 		templates.add(new Template("check", makeArray(new Pt(91, 185), new Pt(93, 185), new Pt(95, 185),
 				new Pt(97, 185), new Pt(100, 188), new Pt(102, 189), new Pt(104, 190), new Pt(106, 193),
 				new Pt(108, 195), new Pt(110, 198), new Pt(112, 201), new Pt(114, 204), new Pt(115, 207),
@@ -515,7 +684,7 @@ public class DollarRecognizer {
 	//
 	// add/delete new templates
 	//
-	public int addTemplate(String name, ArrayList<Pt> points) {
+	public synchronized int addTemplate(String name, ArrayList<Pt> points) {
 		templates.add(new Template(name, points)); // append new template
 		int num = 0;
 		for (int i = 0; i < templates.size(); i++) {
@@ -526,36 +695,125 @@ public class DollarRecognizer {
 		return num; // number of templates with this name...
 	}
 
-	public int deleteUserTemplates() {
+	public synchronized int deleteUserTemplates() {
 		templates = new ArrayList<Template>(originalTemplates); // clear beyond the original set
 		return templates.size();
 	}
 
-	public RecognitionResult recognize(ArrayList<Pt> points) {
-		if (points.size() < 2) {
-			return new RecognitionResult(templates.get(0).Name, 0.1); // too small!
-		}
-		points = Resample(points, NumPoints);
-		points = RotateToZero(points);
-		points = ScaleToSquare(points, SquareSize);
-		points = TranslateToOrigin(points);
+	/**
+	 * @return the fraction of templates that we did not have to search, thanks to the lower bound
+	 */
+	public double getPrunedFraction() {
+		final long pruned = numPruned.get();
+		final long total = pruned + numSearched.get();
+		return total == 0 ? 0 : pruned / (double) total;
+	}
 
-		double b = Double.MAX_VALUE;
+	public RecognitionResult recognize(ArrayList<Pt> points) {
+		return recognize(toX(points), toY(points), points.size());
+	}
 
-		int t = 0;
+	/**
+	 * Reads the stroke's coordinates directly.
+	 */
+	public RecognitionResult recognize(InkStroke stroke) {
+		final int n = stroke.getNumSamples();
+		final double[] x = new double[n];
+		final double[] y = new double[n];
+		stroke.getXView().get(x);
+		stroke.getYView().get(y);
+		return recognize(x, y, n);
+	}
 
-		for (int i = 0; i < templates.size(); i++) {
-			double d = DistanceAtBestAngle(points, templates.get(i), -AngleRange, +AngleRange, AnglePrecision);
-			if (d < b) {
-				b = d;
-				t = i;
+	/**
+	 * Tries the templates in order of their Protractor distance, so that we find a good match early. Then,
+	 * any template whose lower bound is worse than the best match can be skipped. With many templates, the
+	 * work is split across a pool of threads, which share the best match. The answer is the same as
+	 * comparing every template, one after the other. If we are interrupted while the threads are working, we
+	 * keep the interrupt flag set, and return a result with no name and a score of zero.
+	 */
+	private RecognitionResult recognize(double[] px, double[] py, int len) {
+		final Template[] candidates;
+		synchronized (this) {
+			candidates = templates.toArray(new Template[templates.size()]);
+		}
+		if (candidates.length == 0) {
+			return new RecognitionResult(null, 0.0); // nothing to compare against
+		}
+		if (len < 2) {
+			return new RecognitionResult(candidates[0].Name, 0.1); // too small!
+		}
+		final long start = System.nanoTime();
+
+		final double[] x = new double[NumPoints];
+		final double[] y = new double[NumPoints];
+		Normalize(px, py, len, x, y);
+		final double[] unit = new double[2 * NumPoints];
+		Vectorize(x, y, unit);
+		final double cx = Centroid(x);
+		final double cy = Centroid(y);
+
+		final double[] protractor = new double[candidates.length];
+		final Integer[] order = new Integer[candidates.length];
+		for (int i = 0; i < candidates.length; i++) {
+			protractor[i] = ProtractorDistance(unit, candidates[i].Unit);
+			order[i] = i;
+		}
+		SortByProtractorDistance(order, protractor);
+
+		final BestMatch best = new BestMatch();
+		if (candidates.length < ParallelThreshold) {
+			score(x, y, cx, cy, candidates, order, 0, 1, best);
+		} else {
+			// deal the templates out like cards, so every thread gets some of the most promising ones
+			final int numParts = Runtime.getRuntime().availableProcessors();
+			final List<Callable<Object>> parts = new ArrayList<Callable<Object>>(numParts);
+			for (int p = 0; p < numParts; p++) {
+				final int first = p;
+				parts.add(Executors.callable(new Runnable() {
+					public void run() {
+						score(x, y, cx, cy, candidates, order, first, numParts, best);
+					}
+				}));
+			}
+			try {
+				for (Future<Object> f : getPool().invokeAll(parts)) {
+					f.get();
+				}
+			} catch (InterruptedException e) {
+				// we did not score every template, so we cannot say what the best match is
+				Thread.currentThread().interrupt();
+				return new RecognitionResult(null, 0.0);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
 			}
 		}
-		double score = 1.0 - (b / HalfDiagonal);
-		return new RecognitionResult(templates.get(t).Name, score);
+
+		final double score = 1.0 - (best.distance / HalfDiagonal);
+		latency.record(System.nanoTime() - start);
+		ToolkitMetrics.count(ToolkitMetrics.Stage.GESTURE_RECOGNITION, 1);
+		return new RecognitionResult(candidates[best.index].Name, score);
 	}
-	
-	public RecognitionResult recognize(InkStroke stroke) {
-		return recognize(makeArray(stroke));
+
+	/**
+	 * Scores every stride'th template in the given order, starting with order[first].
+	 */
+	private void score(double[] x, double[] y, double cx, double cy, Template[] candidates,
+			Integer[] order, int first, int stride, BestMatch best) {
+		long pruned = 0;
+		long searched = 0;
+		for (int k = first; k < order.length; k += stride) {
+			final int i = order[k];
+			final Template T = candidates[i];
+			if (LowerBound(x, y, cx, cy, T) > best.distance) {
+				pruned++;
+				continue;
+			}
+			searched++;
+			final double d = DistanceAtBestAngle(x, y, cx, cy, T, -AngleRange, +AngleRange, AnglePrecision);
+			best.offer(d, i);
+		}
+		numPruned.addAndGet(pruned);
+		numSearched.addAndGet(searched);
 	}
 }
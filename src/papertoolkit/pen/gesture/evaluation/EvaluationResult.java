@@ -0,0 +1,266 @@
+package papertoolkit.pen.gesture.evaluation;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import papertoolkit.util.LatencyHistogram;
+
+/**
+ * <p>
+ * What a GestureEvaluator run found: the confusion matrix (actual label by assigned label), per-class
+ * precision and recall, and how long the recognizer took. printReport(...) writes it all out, and ends with
+ * a one-line summary that is easy to grep for when tracking runs over time.
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+public class EvaluationResult {
+
+	/**
+	 * The column for examples that the recognizer could not assign to anything.
+	 */
+	public static final String UNKNOWN = "(none)";
+
+	/**
+	 * How long each classify(...) call took.
+	 */
+	private final LatencyHistogram classifyLatency;
+
+	/**
+	 * How long it took to compare a test example with one training example: each classify(...) call's time,
+	 * divided by the size of its fold's training set.
+	 */
+	private final LatencyHistogram comparisonLatency;
+
+	/**
+	 * [actual][assigned]
+	 */
+	private final int[][] confusion;
+
+	private final String foldStrategyName;
+
+	private final List<String> labels;
+
+	private final int numFolds;
+
+	private final String recognizerName;
+
+	/**
+	 * How long it took to train all the folds' recognizers (added up, not wall clock).
+	 */
+	private final long trainingNanos;
+
+	/**
+	 * How long the whole run took.
+	 */
+	private final long wallNanos;
+
+	/**
+	 * @param actual
+	 *            the examples' labels
+	 * @param assigned
+	 *            what the recognizer said, in the same order (null if it had no answer)
+	 */
+	EvaluationResult(String theRecognizerName, String theFoldStrategyName, int theNumFolds,
+			List<String> actual, List<String> assigned, LatencyHistogram theClassifyLatency,
+			LatencyHistogram theComparisonLatency, long theTrainingNanos, long theWallNanos) {
+		recognizerName = theRecognizerName;
+		foldStrategyName = theFoldStrategyName;
+		numFolds = theNumFolds;
+		classifyLatency = theClassifyLatency;
+		comparisonLatency = theComparisonLatency;
+		trainingNanos = theTrainingNanos;
+		wallNanos = theWallNanos;
+
+		final TreeSet<String> all = new TreeSet<String>(actual);
+		for (String a : assigned) {
+			all.add(a == null ? UNKNOWN : a);
+		}
+		labels = Collections.unmodifiableList(new ArrayList<String>(all));
+		confusion = new int[labels.size()][labels.size()];
+		for (int i = 0; i < actual.size(); i++) {
+			final String a = assigned.get(i);
+			confusion[indexOf(actual.get(i))][indexOf(a == null ? UNKNOWN : a)]++;
+		}
+	}
+
+	/**
+	 * @return the fraction of examples that were assigned their own label
+	 */
+	public double getAccuracy() {
+		final int n = getNumClassified();
+		return n == 0 ? 0 : getNumCorrect() / (double) n;
+	}
+
+	/**
+	 * @return how long classify(...) took
+	 */
+	public LatencyHistogram getClassifyLatency() {
+		return classifyLatency;
+	}
+
+	/**
+	 * @return how long it took to compare a test example with one training example
+	 */
+	public LatencyHistogram getComparisonLatency() {
+		return comparisonLatency;
+	}
+
+	/**
+	 * @param actual
+	 * @param assigned
+	 * @return how many examples labeled actual were assigned the other label
+	 */
+	public int getCount(String actual, String assigned) {
+		final int a = indexOf(actual);
+		final int b = indexOf(assigned);
+		return a < 0 || b < 0 ? 0 : confusion[a][b];
+	}
+
+	/**
+	 * @return the labels that index the rows and columns of the confusion matrix, in alphabetical order
+	 */
+	public List<String> getLabels() {
+		return labels;
+	}
+
+	public int getNumClassified() {
+		int n = 0;
+		for (int[] row : confusion) {
+			for (int count : row) {
+				n += count;
+			}
+		}
+		return n;
+	}
+
+	public int getNumCorrect() {
+		int n = 0;
+		for (int i = 0; i < confusion.length; i++) {
+			n += confusion[i][i];
+		}
+		return n;
+	}
+
+	public int getNumFolds() {
+		return numFolds;
+	}
+
+	/**
+	 * @param label
+	 * @return of the examples that were assigned this label, the fraction that really were one (0 if none
+	 *         were assigned it)
+	 */
+	public double getPrecision(String label) {
+		final int j = indexOf(label);
+		if (j < 0) {
+			return 0;
+		}
+		int assigned = 0;
+		for (int i = 0; i < confusion.length; i++) {
+			assigned += confusion[i][j];
+		}
+		return assigned == 0 ? 0 : confusion[j][j] / (double) assigned;
+	}
+
+	/**
+	 * @param label
+	 * @return of the examples with this label, the fraction that were recognized as one (0 if there were
+	 *         none)
+	 */
+	public double getRecall(String label) {
+		final int i = indexOf(label);
+		if (i < 0) {
+			return 0;
+		}
+		int actual = 0;
+		for (int count : confusion[i]) {
+			actual += count;
+		}
+		return actual == 0 ? 0 : confusion[i][i] / (double) actual;
+	}
+
+	/**
+	 * @return classifications per second of wall clock time, including training
+	 */
+	public double getThroughput() {
+		return wallNanos == 0 ? 0 : getNumClassified() / (wallNanos / 1e9);
+	}
+
+	/**
+	 * @return how long training took, added up over all folds
+	 */
+	public double getTrainingMillis() {
+		return trainingNanos / 1e6;
+	}
+
+	/**
+	 * @return how long the whole evaluation took
+	 */
+	public double getWallMillis() {
+		return wallNanos / 1e6;
+	}
+
+	private int indexOf(String label) {
+		return Collections.binarySearch(labels, label);
+	}
+
+	/**
+	 * Writes out the confusion matrix, precision and recall for each class, timing, and a summary line.
+	 *
+	 * @param out
+	 */
+	public void printReport(PrintStream out) {
+		out.println("Recognizer: " + recognizerName);
+		out.println("Folds: " + foldStrategyName + " (" + numFolds + ")");
+		out.println();
+		out.println("Confusion matrix (rows are actual labels, columns are assigned labels):");
+		for (int i = 0; i < labels.size(); i++) {
+			out.println("  [" + i + "] " + labels.get(i));
+		}
+		final StringBuilder header = new StringBuilder("      ");
+		for (int j = 0; j < labels.size(); j++) {
+			header.append(String.format("%6s", "[" + j + "]"));
+		}
+		out.println(header);
+		for (int i = 0; i < labels.size(); i++) {
+			final StringBuilder row = new StringBuilder(String.format("%6s", "[" + i + "]"));
+			for (int j = 0; j < labels.size(); j++) {
+				row.append(String.format("%6d", confusion[i][j]));
+			}
+			out.println(row);
+		}
+		out.println();
+		out.println(String.format("%-24s %9s %9s", "Class", "Precision", "Recall"));
+		for (String label : labels) {
+			if (label.equals(UNKNOWN)) {
+				continue;
+			}
+			out.println(String.format("%-24s %9.3f %9.3f", label, getPrecision(label), getRecall(label)));
+		}
+		out.println();
+		out.println("Training: " + String.format("%.1f", getTrainingMillis()) + "ms over all folds");
+		out.println("Classification: " + classifyLatency);
+		out.println("Comparison: " + comparisonLatency);
+		out.println();
+		out.println(toString());
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "EvaluationResult {recognizer=" + recognizerName + " folds=" + foldStrategyName + " classified="
+				+ getNumClassified() + " accuracy=" + String.format("%.4f", getAccuracy()) + " throughput="
+				+ String.format("%.1f", getThroughput()) + "/s meanLatency="
+				+ String.format("%.3f", classifyLatency.getMeanMillis()) + "ms wall="
+				+ String.format("%.0f", getWallMillis()) + "ms}";
+	}
+}
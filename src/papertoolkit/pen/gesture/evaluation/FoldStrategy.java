@@ -0,0 +1,171 @@
+package papertoolkit.pen.gesture.evaluation;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * <p>
+ * Splits the examples into folds. Each fold trains a recognizer on some examples, and tests it on the
+ * others. These are the same splits that the GestureDatabase console runs: leave one out, leave a random
+ * chunk out, and leave one user out.
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+public abstract class FoldStrategy {
+
+	/**
+	 * One training set, and the examples to test against it.
+	 */
+	public static class Fold {
+
+		private final String name;
+
+		private final List<LabeledGesture> testSet;
+
+		private final List<LabeledGesture> trainingSet;
+
+		public Fold(String theName, List<LabeledGesture> training, List<LabeledGesture> test) {
+			name = theName;
+			trainingSet = training;
+			testSet = test;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public List<LabeledGesture> getTestSet() {
+			return testSet;
+		}
+
+		public List<LabeledGesture> getTrainingSet() {
+			return trainingSet;
+		}
+	}
+
+	/**
+	 * @param fraction
+	 *            how much to leave out in each trial (e.g., 0.1)
+	 * @param trials
+	 * @param seed
+	 *            so that runs on different days (or with different recognizers) use the same folds
+	 * @return each trial leaves out a random chunk of the examples
+	 */
+	public static FoldStrategy leaveChunkOut(final double fraction, final int trials, final long seed) {
+		return new FoldStrategy("leave " + Math.round(fraction * 100) + "% out x" + trials) {
+			public List<Fold> split(List<LabeledGesture> examples) {
+				final Random rand = new Random(seed);
+				final List<Fold> folds = new ArrayList<Fold>();
+				for (int trial = 0; trial < trials; trial++) {
+					final List<LabeledGesture> training = new ArrayList<LabeledGesture>();
+					final List<LabeledGesture> test = new ArrayList<LabeledGesture>();
+					for (LabeledGesture example : examples) {
+						if (rand.nextDouble() < fraction) {
+							test.add(example);
+						} else {
+							training.add(example);
+						}
+					}
+					folds.add(new Fold("trial " + trial, training, test));
+				}
+				return folds;
+			}
+		};
+	}
+
+	/**
+	 * @return each example is tested against all the others
+	 */
+	public static FoldStrategy leaveOneOut() {
+		return new FoldStrategy("leave one out") {
+			public List<Fold> split(final List<LabeledGesture> examples) {
+				final List<Fold> folds = new ArrayList<Fold>(examples.size());
+				for (int i = 0; i < examples.size(); i++) {
+					// a view that skips example i, so we do not copy the whole list for every fold
+					final int left = i;
+					final List<LabeledGesture> training = new AbstractList<LabeledGesture>() {
+						public LabeledGesture get(int j) {
+							return examples.get(j < left ? j : j + 1);
+						}
+
+						public int size() {
+							return examples.size() - 1;
+						}
+					};
+					final List<LabeledGesture> test = new ArrayList<LabeledGesture>(1);
+					test.add(examples.get(i));
+					folds.add(new Fold("example " + i, training, test));
+				}
+				return folds;
+			}
+		};
+	}
+
+	/**
+	 * @return each author's examples are tested against everyone else's
+	 */
+	public static FoldStrategy leaveOneUserOut() {
+		return new FoldStrategy("leave one user out") {
+			public List<Fold> split(List<LabeledGesture> examples) {
+				final Map<String, List<LabeledGesture>> byAuthor =
+						new LinkedHashMap<String, List<LabeledGesture>>();
+				for (LabeledGesture example : examples) {
+					List<LabeledGesture> list = byAuthor.get(example.getAuthor());
+					if (list == null) {
+						list = new ArrayList<LabeledGesture>();
+						byAuthor.put(example.getAuthor(), list);
+					}
+					list.add(example);
+				}
+				final List<Fold> folds = new ArrayList<Fold>(byAuthor.size());
+				for (String author : byAuthor.keySet()) {
+					final List<LabeledGesture> training = new ArrayList<LabeledGesture>();
+					for (LabeledGesture example : examples) {
+						final String a = example.getAuthor();
+						if (a == null ? author != null : !a.equals(author)) {
+							training.add(example);
+						}
+					}
+					folds.add(new Fold("user " + author, training, byAuthor.get(author)));
+				}
+				return folds;
+			}
+		};
+	}
+
+	private final String name;
+
+	/**
+	 * @param theName
+	 *            shows up in reports
+	 */
+	protected FoldStrategy(String theName) {
+		name = theName;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @param examples
+	 * @return the folds, in a deterministic order
+	 */
+	public abstract List<Fold> split(List<LabeledGesture> examples);
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return name;
+	}
+}
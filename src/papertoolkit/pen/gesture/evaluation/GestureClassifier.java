@@ -0,0 +1,24 @@
+package papertoolkit.pen.gesture.evaluation;
+
+/**
+ * <p>
+ * A gesture recognizer that has been trained on one fold's training set. The GestureEvaluator calls
+ * classify(...) from many threads at once, so implementations must be thread safe.
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+public interface GestureClassifier {
+
+	/**
+	 * @param example
+	 *            a test example. Implementations must not look at its label; they get the whole example so
+	 *            that they can reuse whatever they have cached for it.
+	 * @return the label that the recognizer assigns to the example's stroke (or null, if it has no idea)
+	 */
+	public String classify(LabeledGesture example);
+}
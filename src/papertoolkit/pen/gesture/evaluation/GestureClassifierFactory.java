@@ -0,0 +1,31 @@
+package papertoolkit.pen.gesture.evaluation;
+
+import java.util.List;
+
+/**
+ * <p>
+ * Trains a new recognizer for each fold of an evaluation. See DollarClassifierFactory and
+ * ShapeContextClassifierFactory.
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+public interface GestureClassifierFactory {
+
+	/**
+	 * @return a short name for reports (e.g., "$1")
+	 */
+	public String getName();
+
+	/**
+	 * May be called from several threads at once (one per fold).
+	 *
+	 * @param trainingSet
+	 * @return a recognizer that knows about these examples, and nothing else
+	 */
+	public GestureClassifier train(List<LabeledGesture> trainingSet);
+}
@@ -0,0 +1,234 @@
+package papertoolkit.pen.gesture.evaluation;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import papertoolkit.pen.gesture.dollar.DollarClassifierFactory;
+import papertoolkit.pen.gesture.evaluation.FoldStrategy.Fold;
+import papertoolkit.pen.gesture.shapecontext.GestureDatabase;
+import papertoolkit.pen.gesture.shapecontext.ShapeContextClassifierFactory;
+import papertoolkit.util.DaemonThreadFactory;
+import papertoolkit.util.LatencyHistogram;
+
+/**
+ * <p>
+ * Evaluates a gesture recognizer without the GestureDatabase console, so that it can run in batch (e.g., on
+ * a build machine). Give it a way to train the recognizer, a way to split the examples into folds, and the
+ * examples. The folds are evaluated a batch at a time (as many folds as we have threads): the batch's
+ * recognizers are trained, every test example of those folds is classified, on all cores, and then the
+ * recognizers are let go, so memory stays bounded even when leaving one out. The result does not depend on
+ * the number of cores: examples are tallied in fold order.
+ * </p>
+ * <p>
+ * From the command line:
+ *
+ * <pre>
+ * GestureEvaluator database.xml [shapecontext | dollar] [user | chunk | one]
+ * </pre>
+ *
+ * where database.xml was saved by the GestureDatabase console.
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+public class GestureEvaluator {
+
+	/**
+	 * What happened to one test example.
+	 */
+	private static class Outcome {
+		private String assigned;
+
+		private long nanos;
+	}
+
+	/**
+	 * @param args
+	 *            the database file, then optionally the recognizer and the folds
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("Usage: GestureEvaluator database.xml [shapecontext | dollar] "
+					+ "[user | chunk | one]");
+			return;
+		}
+		final GestureDatabase database = GestureDatabase.Load(new FileReader(new File(args[0])));
+		final String recognizer = args.length > 1 ? args[1] : "shapecontext";
+		final String folds = args.length > 2 ? args[2] : "user";
+
+		final GestureClassifierFactory factory;
+		if (recognizer.equalsIgnoreCase("dollar")) {
+			factory = new DollarClassifierFactory();
+		} else {
+			factory = new ShapeContextClassifierFactory();
+		}
+
+		final FoldStrategy strategy;
+		if (folds.equalsIgnoreCase("chunk")) {
+			strategy = FoldStrategy.leaveChunkOut(0.1, 10, 0);
+		} else if (folds.equalsIgnoreCase("one")) {
+			strategy = FoldStrategy.leaveOneOut();
+		} else {
+			strategy = FoldStrategy.leaveOneUserOut();
+		}
+
+		final GestureEvaluator evaluator = new GestureEvaluator();
+		try {
+			evaluator.evaluate(factory, strategy, database.getExamples()).printReport(System.out);
+		} finally {
+			evaluator.shutdown();
+		}
+	}
+
+	/**
+	 * How many folds' recognizers we keep at once.
+	 */
+	private final int foldsPerBatch;
+
+	private final ExecutorService pool;
+
+	/**
+	 * Uses one thread per core.
+	 */
+	public GestureEvaluator() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param numThreads
+	 */
+	public GestureEvaluator(int numThreads) {
+		foldsPerBatch = Math.max(1, numThreads);
+		pool = Executors.newFixedThreadPool(Math.max(1, numThreads), new DaemonThreadFactory(
+				"Gesture Evaluator"));
+	}
+
+	/**
+	 * @param factory
+	 *            trains a recognizer for each fold
+	 * @param strategy
+	 *            splits the examples into folds
+	 * @param examples
+	 * @return the confusion matrix, precision/recall, and timing (per classification, and per comparison
+	 *         of a test example with one training example)
+	 */
+	public EvaluationResult evaluate(final GestureClassifierFactory factory, FoldStrategy strategy,
+			List<LabeledGesture> examples) {
+		final long start = System.nanoTime();
+		final List<Fold> folds = strategy.split(examples);
+		final LatencyHistogram latency = new LatencyHistogram(factory.getName() + " classify");
+		final LatencyHistogram comparisonLatency = new LatencyHistogram(factory.getName() + " comparison");
+		final List<String> actual = new ArrayList<String>();
+		final List<String> assigned = new ArrayList<String>();
+		final long[] trainingNanos = new long[folds.size()];
+
+		for (int first = 0; first < folds.size(); first += foldsPerBatch) {
+			final int end = Math.min(folds.size(), first + foldsPerBatch);
+
+			// train this batch's recognizers
+			final List<Callable<GestureClassifier>> trainers = new ArrayList<Callable<GestureClassifier>>();
+			for (int f = first; f < end; f++) {
+				final int fold = f;
+				final List<LabeledGesture> training = folds.get(f).getTrainingSet();
+				trainers.add(new Callable<GestureClassifier>() {
+					public GestureClassifier call() {
+						final long t = System.nanoTime();
+						final GestureClassifier classifier = factory.train(training);
+						trainingNanos[fold] = System.nanoTime() - t;
+						return classifier;
+					}
+				});
+			}
+			final List<GestureClassifier> classifiers = new ArrayList<GestureClassifier>(end - first);
+			for (Future<GestureClassifier> f : invokeAll(trainers)) {
+				classifiers.add(getResult(f));
+			}
+
+			// classify every test example of this batch's folds
+			final List<Callable<Outcome>> tests = new ArrayList<Callable<Outcome>>();
+			final List<Integer> comparisons = new ArrayList<Integer>();
+			for (int f = first; f < end; f++) {
+				final GestureClassifier classifier = classifiers.get(f - first);
+				final int numTemplates = folds.get(f).getTrainingSet().size();
+				for (final LabeledGesture example : folds.get(f).getTestSet()) {
+					actual.add(example.getLabel());
+					comparisons.add(numTemplates);
+					tests.add(new Callable<Outcome>() {
+						public Outcome call() {
+							final Outcome outcome = new Outcome();
+							final long t = System.nanoTime();
+							outcome.assigned = classifier.classify(example);
+							outcome.nanos = System.nanoTime() - t;
+							return outcome;
+						}
+					});
+				}
+			}
+			final List<Future<Outcome>> outcomes = invokeAll(tests);
+			for (int i = 0; i < outcomes.size(); i++) {
+				final Outcome outcome = getResult(outcomes.get(i));
+				assigned.add(outcome.assigned);
+				latency.record(outcome.nanos);
+				// each classification compares the example with every training example of its fold
+				final int numComparisons = comparisons.get(i);
+				if (numComparisons > 0) {
+					comparisonLatency.record(outcome.nanos / numComparisons);
+				}
+			}
+			// the classifiers (and whatever templates they hold) go away with this batch
+		}
+
+		long totalTrainingNanos = 0;
+		for (long t : trainingNanos) {
+			totalTrainingNanos += t;
+		}
+		return new EvaluationResult(factory.getName(), strategy.getName(), folds.size(), actual, assigned,
+				latency, comparisonLatency, totalTrainingNanos, System.nanoTime() - start);
+	}
+
+	/**
+	 * Unwraps the result of a task, rethrowing whatever it threw.
+	 */
+	private <T> T getResult(Future<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	private <T> List<Future<T>> invokeAll(List<Callable<T>> tasks) {
+		try {
+			return pool.invokeAll(tasks);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Stops our threads. They are daemons, so this is only needed if you want them gone right away.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+}
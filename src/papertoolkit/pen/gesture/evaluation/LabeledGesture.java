@@ -0,0 +1,65 @@
+package papertoolkit.pen.gesture.evaluation;
+
+import papertoolkit.pen.ink.InkStroke;
+
+/**
+ * <p>
+ * One example for evaluating a gesture recognizer: the stroke, what it is supposed to be, and who drew it
+ * (so that we can leave out one user at a time).
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+public class LabeledGesture {
+
+	private final String author;
+
+	private final String label;
+
+	private final InkStroke stroke;
+
+	/**
+	 * @param theLabel
+	 *            the name of the gesture class
+	 * @param theAuthor
+	 *            may be null, if we do not know who drew it
+	 * @param theStroke
+	 */
+	public LabeledGesture(String theLabel, String theAuthor, InkStroke theStroke) {
+		label = theLabel;
+		author = theAuthor;
+		stroke = theStroke;
+	}
+
+	/**
+	 * @return who drew this gesture (or null)
+	 */
+	public String getAuthor() {
+		return author;
+	}
+
+	/**
+	 * @return the name of the gesture class
+	 */
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * @return the ink
+	 */
+	public InkStroke getStroke() {
+		return stroke;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "LabeledGesture {" + label + " by " + author + ", " + stroke.getNumSamples() + " samples}";
+	}
+}
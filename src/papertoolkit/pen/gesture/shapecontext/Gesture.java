@@ -108,22 +108,29 @@ public class Gesture {
 		System.out.println("Rotation score: " + dNoRotationNoTime / dRotationNoTime);
 	}
 
+	/**
+	 * Inserts a match into the k nearest neighbors, which are sorted by distance.
+	 */
+	static void knnInsert(double d, String name, int k, double[] distance, String[] clazz) {
+		for (int i = 0; i < k; i++) {
+			if (d < distance[i]) {
+				for (int j = k - 1; j > i; j--) {
+					distance[j] = distance[j - 1];
+					clazz[j] = clazz[j - 1];
+				}
+				distance[i] = d;
+				clazz[i] = name;
+				break;
+			}
+		}
+	}
+
 	public void knnMatch(ShapeContext context, int k, double[] distance, String[] clazz, boolean verbose) {
 		for (int c = 0; c < contexts.size(); c++) {
 			ShapeContext gesture = contexts.get(c);
 			double d = ShapeHistogram.shapeContextMetric(context, gesture, rotationInvariant, timeSensitive,
 					verbose);
-			for (int i = 0; i < k; i++) {
-				if (d < distance[i]) {
-					for (int j = k - 1; j > i; j--) {
-						distance[j] = distance[j - 1];
-						clazz[j] = clazz[j - 1];
-					}
-					distance[i] = d;
-					clazz[i] = name;
-					break;
-				}
-			}
+			knnInsert(d, name, k, distance, clazz);
 		}
 	}
 
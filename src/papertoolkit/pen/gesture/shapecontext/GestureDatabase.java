@@ -12,11 +12,20 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.swing.JComponent;
 import javax.swing.JFrame;
@@ -28,12 +37,16 @@ import javax.swing.SpringLayout;
 import javax.swing.WindowConstants;
 
 import papertoolkit.pen.PenSample;
+import papertoolkit.pen.gesture.evaluation.FoldStrategy;
+import papertoolkit.pen.gesture.evaluation.GestureEvaluator;
+import papertoolkit.pen.gesture.evaluation.LabeledGesture;
 import papertoolkit.pen.ink.Ink;
 import papertoolkit.pen.ink.InkStroke;
 import papertoolkit.render.ink.InkRenderer;
 import papertoolkit.tools.components.InkPanel;
 import papertoolkit.units.Points;
 import papertoolkit.units.conversion.PixelsPerInch;
+import papertoolkit.util.DaemonThreadFactory;
 import papertoolkit.util.DebugUtils;
 import papertoolkit.util.WindowUtils;
 
@@ -65,6 +78,16 @@ public class GestureDatabase implements ActionListener, FocusListener {
 
 	private transient static JPanel statusPanel;
 
+	private transient static ExecutorService pool;
+
+	/**
+	 * When classifying a gesture, we can estimate its cost against every example, and then only match this
+	 * many of the closest ones properly (with munkres and the thin plate spline). The estimate is not a lower
+	 * bound on the real cost, so a shortlist may miss the true neighbors and change the classification. By
+	 * default (0), we match every example, which is slower, but gives the exact answer.
+	 */
+	public static int shortlistSize = 0;
+
 	private transient static BufferedReader stdin = new BufferedReader(new InputStreamReader(System.in));
 
 	/* Used by makeCompactGrid. */
@@ -74,6 +97,49 @@ public class GestureDatabase implements ActionListener, FocusListener {
 		return layout.getConstraints(c);
 	}
 
+	/**
+	 * Runs task.run(i) for every i from 0 to n-1, on all cores if parallel is true. Returns when they are
+	 * all done.
+	 */
+	private static void forEachIndex(final int n, boolean parallel, final IndexTask task) {
+		final int numParts = parallel ? Math.min(n, Runtime.getRuntime().availableProcessors()) : 1;
+		if (numParts <= 1) {
+			for (int i = 0; i < n; i++) {
+				task.run(i);
+			}
+			return;
+		}
+		final List<Callable<Object>> parts = new ArrayList<Callable<Object>>(numParts);
+		for (int p = 0; p < numParts; p++) {
+			final int first = p;
+			parts.add(Executors.callable(new Runnable() {
+				public void run() {
+					for (int i = first; i < n; i += numParts) {
+						task.run(i);
+					}
+				}
+			}));
+		}
+		try {
+			for (Future<Object> f : getPool().invokeAll(parts)) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	private static synchronized ExecutorService getPool() {
+		if (pool == null) {
+			pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+					new DaemonThreadFactory("Gesture Matcher"));
+		}
+		return pool;
+	}
+
 	public static void main(String[] args) {
 		getInkDisplay();
 	}
@@ -129,7 +195,8 @@ public class GestureDatabase implements ActionListener, FocusListener {
 					"12: Run leave-10%-out test", "13: Move gestures out of test",
 					"14: Run leave-one-user-out test", "15: Compute best examples per class",
 					"16: Run leave-10%-out test using only best examples", "17: Create best image",
-					"18: Generate gesture", "-1: Exit", "Option: " };
+					"18: Generate gesture", "19: Evaluate (leave one user out, in parallel)", "-1: Exit",
+					"Option: " };
 			JLabel[] labels = new JLabel[labelStrings.length];
 			JComponent[] fields = new JComponent[labelStrings.length];
 			int fieldNum = 0;
@@ -266,16 +333,28 @@ public class GestureDatabase implements ActionListener, FocusListener {
 		autotest(gestures);
 	}
 
-	public void autotest(ArrayList<Gesture> gestures) {
+	public void autotest(final ArrayList<Gesture> gestures) {
 		// use knn, most occurences or best average weight
 		int tested = 0;
 		int correct = 0;
+		// classify all the test contexts at once, on all cores
+		final List<ShapeContext> contexts = new ArrayList<ShapeContext>();
+		for (int i = 0; i < gestures.size(); i++) {
+			contexts.addAll(testGestures.get(i).contexts);
+		}
+		final String[] assignments = new String[contexts.size()];
+		forEachIndex(contexts.size(), true, new IndexTask() {
+			public void run(int i) {
+				assignments[i] = classify(contexts.get(i), false, gestures, null, false);
+			}
+		});
+		int c = 0;
 		for (int i = 0; i < gestures.size(); i++) {
 			Gesture gesture = gestures.get(i);
 			Gesture testGesture = testGestures.get(i);
 			for (ShapeContext context : testGesture.contexts) {
 				tested++;
-				String assignment = test(context, false, gestures);
+				String assignment = assignments[c++];
 				if (assignment.compareTo(gesture.name) == 0)
 					correct++;
 				else {
@@ -469,6 +548,15 @@ public class GestureDatabase implements ActionListener, FocusListener {
 		case 18:
 			generateGesture();
 			break;
+		case 19:
+			final GestureEvaluator evaluator = new GestureEvaluator();
+			try {
+				evaluator.evaluate(new ShapeContextClassifierFactory(), FoldStrategy.leaveOneUserOut(),
+						getExamples()).printReport(System.out);
+			} finally {
+				evaluator.shutdown();
+			}
+			break;
 		case -1:
 			System.out.println("Exiting.");
 			System.exit(0); // no automatic save on exit
@@ -533,6 +621,7 @@ public class GestureDatabase implements ActionListener, FocusListener {
 			sample.x += w - min_x;
 			sample.y += h - min_y;
 		}
+		context.clearCache();
 		InkStroke stroke = new InkStroke(context.controlPoints, new Points());
 		Ink ink = new Ink();
 		ink.addStroke(stroke);
@@ -591,6 +680,7 @@ public class GestureDatabase implements ActionListener, FocusListener {
 				mod = Math.min((int) (max_points * max_points - sample.y), mod);
 				sample.y += mod;
 			}
+			testExample.clearCache();
 			double[] distances = new double[bestExamples.size()];
 			double average = 0;
 			for (int c = 0; c < bestExamples.size(); c++) {
@@ -655,6 +745,7 @@ public class GestureDatabase implements ActionListener, FocusListener {
 					sample.x -= mod;
 				else
 					sample.y -= mod;
+				testExample.clearCache();
 			}
 			if (i % 100 == 0) {
 				System.out.println("Accepted " + acceptedWeak + " weak samples.");
@@ -669,6 +760,26 @@ public class GestureDatabase implements ActionListener, FocusListener {
 		}
 	}
 
+	/**
+	 * @return every training and test example, labeled with its gesture's name (for the GestureEvaluator)
+	 */
+	public List<LabeledGesture> getExamples() {
+		final List<LabeledGesture> examples = new ArrayList<LabeledGesture>();
+		for (Gesture gesture : gestures) {
+			for (ShapeContext context : gesture.contexts) {
+				examples.add(new ShapeContextExample(gesture.name, context));
+			}
+		}
+		for (Gesture testGesture : testGestures) {
+			final String name = testGesture.name.endsWith("TEST") ? testGesture.name.substring(0,
+					testGesture.name.length() - "TEST".length()) : testGesture.name;
+			for (ShapeContext context : testGesture.contexts) {
+				examples.add(new ShapeContextExample(name, context));
+			}
+		}
+		return examples;
+	}
+
 	public PenGestureListener getListener() {
 		return listener;
 	}
@@ -757,19 +868,30 @@ public class GestureDatabase implements ActionListener, FocusListener {
 	public void leaveOneOutOptimizeCostWeighting() {
 		// try a range from .1 to 2 for kicks
 		int[] errors = new int[11];
+		// every context is left out in turn, and classified against the rest (on all cores)
+		final List<ShapeContext> contexts = new ArrayList<ShapeContext>();
+		final List<Gesture> owners = new ArrayList<Gesture>();
+		for (Gesture gesture : gestures) {
+			for (int j = gesture.contexts.size() - 1; j >= 0; j--) {
+				contexts.add(gesture.contexts.get(j));
+				owners.add(gesture);
+			}
+		}
+		final String[] assignments = new String[contexts.size()];
 		for (int i = 1; i <= 10; i++) {
 			ShapeHistogram.costWeighting = i * .1;
-			for (Gesture gesture : gestures) {
-				for (int j = gesture.contexts.size() - 1; j >= 0; j--) {
-					ShapeContext context = gesture.contexts.get(j);
-					gesture.contexts.remove(context);
-					String assignment = test(context, false);
-					if (assignment.compareTo(gesture.name) != 0) {
-						errors[i]++;
-						test(context, true);
-						System.out.println(gesture.name + " misclassified as " + assignment);
-					}
-					gesture.addGesture(context);
+			forEachIndex(contexts.size(), true, new IndexTask() {
+				public void run(int c) {
+					assignments[c] = classify(contexts.get(c), false, gestures, contexts.get(c), false);
+				}
+			});
+			for (int c = 0; c < contexts.size(); c++) {
+				final Gesture gesture = owners.get(c);
+				final String assignment = assignments[c];
+				if (assignment.compareTo(gesture.name) != 0) {
+					errors[i]++;
+					classify(contexts.get(c), true, gestures, contexts.get(c), true);
+					System.out.println(gesture.name + " misclassified as " + assignment);
 				}
 			}
 			System.out
@@ -867,6 +989,17 @@ public class GestureDatabase implements ActionListener, FocusListener {
 		writer.close();
 	}
 
+	/**
+	 * Reads a database that was written by Save(...).
+	 * 
+	 * @param reader
+	 * @return
+	 */
+	public static GestureDatabase Load(Reader reader) {
+		XStream xstream = new XStream();
+		return (GestureDatabase) xstream.fromXML(reader);
+	}
+
 	public void Save(Writer writer) throws IOException {
 		XStream xstream = new XStream();
 		xstream.toXML(this, writer);
@@ -877,6 +1010,19 @@ public class GestureDatabase implements ActionListener, FocusListener {
 	}
 
 	public String test(ShapeContext context, boolean verbose, ArrayList<Gesture> gestures) {
+		return classify(context, verbose, gestures, null, true);
+	}
+
+	/**
+	 * The k-nearest-neighbor vote behind test(...).
+	 * 
+	 * @param excluded
+	 *            an example to skip (e.g., the context itself, for leave-one-out tests), or null
+	 * @param parallel
+	 *            whether to compare against the examples on all cores
+	 */
+	static String classify(final ShapeContext context, boolean verbose, ArrayList<Gesture> gestures,
+			ShapeContext excluded, boolean parallel) {
 		// do KNN
 		int k = 3;
 		double[] distance = new double[k];
@@ -886,10 +1032,59 @@ public class GestureDatabase implements ActionListener, FocusListener {
 			distance[i] = Double.MAX_VALUE;
 			index[i] = -1;
 		}
-		for (int i = 0; i < gestures.size(); i++) {
-			gestures.get(i).knnMatch(context, k, distance, clazz, verbose);
-			// double d = gestures.get(i).bestMatch(context);
-			// System.out.println("Category " + i + "(" + gestures.get(i).size() + " items): " + d);
+
+		// every example of every gesture, in order
+		final List<ShapeContext> examples = new ArrayList<ShapeContext>();
+		final List<Gesture> owners = new ArrayList<Gesture>();
+		for (Gesture gesture : gestures) {
+			for (ShapeContext example : gesture.contexts) {
+				if (example != excluded) {
+					examples.add(example);
+					owners.add(gesture);
+				}
+			}
+		}
+
+		// estimate the cost of each example (cheap, since the histograms are cached), and keep the closest
+		final Integer[] shortlist = new Integer[examples.size()];
+		for (int i = 0; i < shortlist.length; i++) {
+			shortlist[i] = i;
+		}
+		int numShortlisted = shortlist.length;
+		if (shortlistSize > 0 && shortlistSize < examples.size()) {
+			final double[] estimates = new double[examples.size()];
+			forEachIndex(examples.size(), parallel, new IndexTask() {
+				public void run(int i) {
+					final ShapeContext example = examples.get(i);
+					final Gesture owner = owners.get(i);
+					final double[][] costs = ShapeHistogram.computeCostMatrix(context, example,
+							owner.rotationInvariant, owner.timeSensitive);
+					estimates[i] = ShapeHistogram.estimateCost(costs, context.size(), example.size());
+				}
+			});
+			Arrays.sort(shortlist, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return Double.compare(estimates[a], estimates[b]);
+				}
+			});
+			numShortlisted = shortlistSize;
+			// back into their original order, so ties are broken as before
+			Arrays.sort(shortlist, 0, numShortlisted);
+		}
+
+		// match the shortlisted examples properly
+		final double[] distances = new double[numShortlisted];
+		final boolean verboseMatch = verbose;
+		forEachIndex(numShortlisted, parallel, new IndexTask() {
+			public void run(int s) {
+				final int i = shortlist[s];
+				final Gesture owner = owners.get(i);
+				distances[s] = ShapeHistogram.shapeContextMetric(context, examples.get(i),
+						owner.rotationInvariant, owner.timeSensitive, verboseMatch);
+			}
+		});
+		for (int s = 0; s < numShortlisted; s++) {
+			Gesture.knnInsert(distances[s], owners.get(shortlist[s]).name, k, distance, clazz);
 		}
 		if (verbose) {
 			System.out.println("Best matches are:");
@@ -939,6 +1134,13 @@ public class GestureDatabase implements ActionListener, FocusListener {
 		return min_clazz;
 	}
 
+	/**
+	 * A loop body, for forEachIndex.
+	 */
+	private interface IndexTask {
+		void run(int i);
+	}
+
 	private void testChunkOutOnBest(int trials) throws IOException {
 		for (int trial = 0; trial < trials; trial++) {
 			chunk(.1);
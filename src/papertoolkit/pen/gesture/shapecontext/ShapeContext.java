@@ -2,10 +2,18 @@ package papertoolkit.pen.gesture.shapecontext;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.lang.ref.SoftReference;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import papertoolkit.pen.PenSample;
+import papertoolkit.pen.ink.InkStroke;
 
 
 /**
@@ -22,6 +30,11 @@ public class ShapeContext {
 
 	public static int bands = 3;
 
+	/**
+	 * How many sets of histograms each ShapeContext remembers. See getShapeHistogram(...).
+	 */
+	private static final int MAX_CACHED_HISTOGRAMS = 8;
+
 	public static double[] logPolarAndTime(PenSample first, PenSample second, double distanceScaling,
 			double baseRotation) {
 		// normalize the times. actually, probably ought to normalize all of them -
@@ -54,6 +67,21 @@ public class ShapeContext {
 
 	ArrayList<PenSample> controlPoints = new ArrayList<PenSample>();
 
+	/**
+	 * Histograms that we have already generated, keyed by the number of points, the flags, and the number of
+	 * bands. Not saved with the database. Anyone who moves the control points relative to each other must
+	 * call clearCache(). The number of points depends on the example we are compared with, so we only keep
+	 * the most recently used MAX_CACHED_HISTOGRAMS sets. They are also held softly, so a large database does
+	 * not keep all of them in memory; the garbage collector reclaims them when memory runs low, and we
+	 * generate them again.
+	 */
+	private transient Map<String, SoftReference<ArrayList<ShapeHistogram>>> histogramCache;
+
+	/**
+	 * Resampled points, keyed by how many there are.
+	 */
+	private transient Map<Integer, double[][]> pointsCache;
+
 	public ShapeContext(ArrayList<PenSample> controlPointsInput, String authorName) {
 		this.authorName = authorName;
 		// filter this for dupes
@@ -81,6 +109,50 @@ public class ShapeContext {
 		// ANN ann = new ANN();
 	}
 
+	/**
+	 * Reads the stroke's coordinate arrays directly, and only makes PenSamples for the points we keep. The
+	 * stroke itself is not modified (the smoothed times go into our own control points).
+	 * 
+	 * @param stroke
+	 * @param authorName
+	 */
+	public ShapeContext(InkStroke stroke, String authorName) {
+		this.authorName = authorName;
+		final DoubleBuffer xs = stroke.getXView();
+		final DoubleBuffer ys = stroke.getYView();
+		final IntBuffer forces = stroke.getForceView();
+		final LongBuffer ts = stroke.getTimeView();
+		final int n = xs.limit();
+
+		// filter this for dupes, remembering which indices we kept
+		final int[] kept = new int[n];
+		int numKept = 0;
+		for (int i = 0; i < n; i++) {
+			final double x = xs.get(i);
+			final double y = ys.get(i);
+			boolean duplicate = false;
+			for (int k = 0; k < numKept; k++) {
+				if (x == xs.get(kept[k]) && y == ys.get(kept[k])) {
+					duplicate = true;
+					break;
+				}
+			}
+			if (!duplicate) {
+				kept[numKept++] = i;
+			}
+		}
+
+		// smooth time values, as above
+		for (int k = 0; k < numKept; k++) {
+			final int i = kept[k];
+			long time = ts.get(i);
+			if (k > 0 && k < numKept - 1) {
+				time = (long) (((double) ts.get(kept[k - 1]) + ts.get(i) + ts.get(kept[k + 1])) / 3);
+			}
+			controlPoints.add(new PenSample(xs.get(i), ys.get(i), forces.get(i), time));
+		}
+	}
+
 	double blend(int i, double t) {
 		switch (i) {
 		case 0:
@@ -132,6 +204,14 @@ public class ShapeContext {
 		return 0; // we only get here if an invalid i is specified
 	}
 
+	/**
+	 * Forgets the cached histograms and points. Call this after modifying the control points.
+	 */
+	public synchronized void clearCache() {
+		histogramCache = null;
+		pointsCache = null;
+	}
+
 	public ArrayList<ShapeHistogram> generateShapeHistogram(int points, int dummy_padding,
 			boolean rotationInvariant, boolean timeSensitive) {
 		// histogram for each point
@@ -211,7 +291,7 @@ public class ShapeContext {
 		for (PenSample sample : samples) {
 			ShapeHistogram histogram = new ShapeHistogram(bin_counts, mins, maxes, explicit_binning, bins,
 					bands);
-			PenSample tangent = tangents.get(samples.indexOf(sample)); // sue me, I'm lax
+			PenSample tangent = tangents.get(histograms.size()); // the index of this sample
 			double theta = rotationInvariant ? Math.atan2(tangent.y, tangent.x) : 0;
 			for (PenSample secondSample : samples) {
 				if (sample.equals(secondSample))
@@ -231,6 +311,49 @@ public class ShapeContext {
 		return histograms;
 	}
 
+	/**
+	 * Like generateShapeHistogram, but remembers the result, since we compare each example against many
+	 * others. The histograms are shared, so do not modify them.
+	 */
+	public synchronized ArrayList<ShapeHistogram> getShapeHistogram(int points, int dummy_padding,
+			boolean rotationInvariant, boolean timeSensitive) {
+		if (histogramCache == null) {
+			histogramCache = new LinkedHashMap<String, SoftReference<ArrayList<ShapeHistogram>>>(16, 0.75f,
+					true) {
+				private static final long serialVersionUID = 1L;
+
+				protected boolean removeEldestEntry(
+						Map.Entry<String, SoftReference<ArrayList<ShapeHistogram>>> eldest) {
+					return size() > MAX_CACHED_HISTOGRAMS;
+				}
+			};
+		}
+		final String key = points + "," + dummy_padding + "," + rotationInvariant + "," + timeSensitive + ","
+				+ bands;
+		final SoftReference<ArrayList<ShapeHistogram>> ref = histogramCache.get(key);
+		ArrayList<ShapeHistogram> histograms = ref == null ? null : ref.get();
+		if (histograms == null) {
+			histograms = generateShapeHistogram(points, dummy_padding, rotationInvariant, timeSensitive);
+			histogramCache.put(key, new SoftReference<ArrayList<ShapeHistogram>>(histograms));
+		}
+		return histograms;
+	}
+
+	/**
+	 * Like points(N), but remembers the result. The arrays are shared, so do not modify them.
+	 */
+	public synchronized double[][] getPoints(int N) {
+		if (pointsCache == null) {
+			pointsCache = new HashMap<Integer, double[][]>();
+		}
+		double[][] pts = pointsCache.get(N);
+		if (pts == null) {
+			pts = points(N);
+			pointsCache.put(N, pts);
+		}
+		return pts;
+	}
+
 	public double[][] points() {
 		return points(size());
 	}
@@ -0,0 +1,102 @@
+package papertoolkit.pen.gesture.shapecontext;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import papertoolkit.pen.gesture.evaluation.GestureClassifier;
+import papertoolkit.pen.gesture.evaluation.GestureClassifierFactory;
+import papertoolkit.pen.gesture.evaluation.LabeledGesture;
+
+/**
+ * <p>
+ * Lets the GestureEvaluator test the shape context recognizer. Each fold gets its own set of Gestures, and
+ * classifies with the same k-nearest-neighbor vote as GestureDatabase.test(...). Each example's
+ * ShapeContext (and thus its cached histograms) is shared by all the folds.
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+public class ShapeContextClassifierFactory implements GestureClassifierFactory {
+
+	/**
+	 * ShapeContexts that we made from examples' strokes. Examples do not override equals(), so this is
+	 * keyed by identity.
+	 */
+	private final Map<LabeledGesture, ShapeContext> contexts =
+			new ConcurrentHashMap<LabeledGesture, ShapeContext>();
+
+	private final boolean rotationInvariant;
+
+	private final boolean timeSensitive;
+
+	/**
+	 * Neither rotation invariant nor time sensitive, like a new Gesture.
+	 */
+	public ShapeContextClassifierFactory() {
+		this(false, false);
+	}
+
+	/**
+	 * @param isRotationInvariant
+	 * @param isTimeSensitive
+	 */
+	public ShapeContextClassifierFactory(boolean isRotationInvariant, boolean isTimeSensitive) {
+		rotationInvariant = isRotationInvariant;
+		timeSensitive = isTimeSensitive;
+	}
+
+	/**
+	 * @param example
+	 * @return the example's own ShapeContext, if it came from a GestureDatabase, or one made from its stroke
+	 */
+	private ShapeContext getContext(LabeledGesture example) {
+		if (example instanceof ShapeContextExample) {
+			return ((ShapeContextExample) example).getContext();
+		}
+		ShapeContext context = contexts.get(example);
+		if (context == null) {
+			context = new ShapeContext(example.getStroke(), example.getAuthor());
+			contexts.put(example, context);
+		}
+		return context;
+	}
+
+	/**
+	 * @see papertoolkit.pen.gesture.evaluation.GestureClassifierFactory#getName()
+	 */
+	public String getName() {
+		return "shape context" + (rotationInvariant ? " (rotation invariant)" : "")
+				+ (timeSensitive ? " (time sensitive)" : "") + " bands=" + ShapeContext.bands;
+	}
+
+	/**
+	 * @see papertoolkit.pen.gesture.evaluation.GestureClassifierFactory#train(java.util.List)
+	 */
+	public GestureClassifier train(List<LabeledGesture> trainingSet) {
+		final Map<String, Gesture> byLabel = new LinkedHashMap<String, Gesture>();
+		for (LabeledGesture example : trainingSet) {
+			Gesture gesture = byLabel.get(example.getLabel());
+			if (gesture == null) {
+				gesture = new Gesture(example.getLabel());
+				gesture.rotationInvariant = rotationInvariant;
+				gesture.timeSensitive = timeSensitive;
+				byLabel.put(example.getLabel(), gesture);
+			}
+			gesture.addGesture(getContext(example));
+		}
+		final ArrayList<Gesture> gestures = new ArrayList<Gesture>(byLabel.values());
+		return new GestureClassifier() {
+			public String classify(LabeledGesture example) {
+				// the evaluator already runs the examples in parallel
+				return GestureDatabase.classify(getContext(example), false, gestures, null, false);
+			}
+		};
+	}
+}
@@ -0,0 +1,39 @@
+package papertoolkit.pen.gesture.shapecontext;
+
+import papertoolkit.pen.gesture.evaluation.LabeledGesture;
+import papertoolkit.pen.ink.InkStroke;
+import papertoolkit.units.Points;
+
+/**
+ * <p>
+ * An example that came out of a GestureDatabase. It keeps its ShapeContext, so that the
+ * ShapeContextClassifierFactory can use it directly (along with its cached histograms), instead of building
+ * a new one from the stroke.
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+public class ShapeContextExample extends LabeledGesture {
+
+	private final ShapeContext context;
+
+	/**
+	 * @param label
+	 * @param theContext
+	 */
+	public ShapeContextExample(String label, ShapeContext theContext) {
+		super(label, theContext.authorName, new InkStroke(theContext.controlPoints, new Points()));
+		context = theContext;
+	}
+
+	/**
+	 * @return the shape context that this example was made from
+	 */
+	public ShapeContext getContext() {
+		return context;
+	}
+}
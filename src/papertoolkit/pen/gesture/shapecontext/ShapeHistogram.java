@@ -1,6 +1,7 @@
 package papertoolkit.pen.gesture.shapecontext;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import cern.colt.matrix.DoubleMatrix2D;
 import cern.colt.matrix.impl.DenseDoubleMatrix2D;
@@ -31,7 +32,15 @@ public class ShapeHistogram {
 
 	public static double costWeighting = .3;
 
-	static Pair Z0;
+	/**
+	 * How many points we add to each shape, so that points can be left unmatched.
+	 */
+	static final int DUMMY_PADDING = 6;
+
+	/**
+	 * Passed from step 4 to step 5 of munkres. One per thread, so that many shapes can be matched at once.
+	 */
+	private static final ThreadLocal<Pair> Z0 = new ThreadLocal<Pair>();
 
 	// ah, point arrays
 	static public DoubleMatrix2D bookstein(int N, double[][] X, double[][] X2, double beta_k,
@@ -285,21 +294,77 @@ public class ShapeHistogram {
 		return Math.max(rowMin, colMin);
 	}
 
+	/**
+	 * Compares the two shapes' histograms. The histograms (and thus, this matrix) do not depend on the
+	 * matching, so this is the cheap part of shapeContextMetric.
+	 */
+	public static double[][] computeCostMatrix(ShapeContext shape1, ShapeContext shape2,
+			boolean rotationInvariant, boolean timeSensitive) {
+		int N = Math.max(shape1.size(), shape2.size()) + DUMMY_PADDING;
+		ArrayList<ShapeHistogram> histogram1 = shape1.getShapeHistogram(N, DUMMY_PADDING,
+				rotationInvariant, timeSensitive);
+		ArrayList<ShapeHistogram> histogram2 = shape2.getShapeHistogram(N, DUMMY_PADDING,
+				rotationInvariant, timeSensitive);
+		// dummy value must vary as function of number of points used
+		return computeCostMatrix(histogram1, histogram2, shape1.size(), shape2.size(), 10);
+	}
+
+	/**
+	 * A cheap estimate of the shape context cost, for deciding which examples are worth matching properly.
+	 * Like shapeContextCost, except that every point may use its closest counterpart, instead of the one
+	 * that munkres assigns to it.
+	 * 
+	 * @param costs
+	 *            from computeCostMatrix
+	 * @param size1
+	 *            the first shape's size()
+	 * @param size2
+	 *            the second shape's size()
+	 */
+	public static double estimateCost(double[][] costs, int size1, int size2) {
+		final int rows = Math.min(size1, costs.length);
+		final int columns = Math.min(size2, costs.length);
+		if (rows == 0 || columns == 0) {
+			return Double.MAX_VALUE;
+		}
+		final double[] columnMins = new double[columns];
+		Arrays.fill(columnMins, Double.MAX_VALUE);
+		double rowMin = 0;
+		for (int i = 0; i < rows; i++) {
+			double m = Double.MAX_VALUE;
+			for (int j = 0; j < columns; j++) {
+				final double c = costs[i][j];
+				if (c < m)
+					m = c;
+				if (c < columnMins[j])
+					columnMins[j] = c;
+			}
+			rowMin += m;
+		}
+		double colMin = 0;
+		for (int j = 0; j < columns; j++)
+			colMin += columnMins[j];
+		return Math.max(rowMin / rows, colMin / columns);
+	}
+
 	public static double shapeContextMetric(ShapeContext shape1, ShapeContext shape2,
 			boolean rotationInvariant, boolean timeSensitive, boolean verbose) {
-		int dummy_padding = 6;
+		double[][] costs = computeCostMatrix(shape1, shape2, rotationInvariant, timeSensitive);
+		return shapeContextMetric(shape1, shape2, costs, verbose);
+	}
+
+	/**
+	 * @param costs
+	 *            from computeCostMatrix(shape1, shape2, ...)
+	 */
+	public static double shapeContextMetric(ShapeContext shape1, ShapeContext shape2, double[][] costs,
+			boolean verbose) {
+		int dummy_padding = DUMMY_PADDING;
 		int N = Math.max(shape1.size(), shape2.size()) + dummy_padding;
 		int n = N;// Math.min(shape1.size(), shape2.size()) + dummy_padding;
-		ArrayList<ShapeHistogram> histogram1 = shape1.generateShapeHistogram(N, dummy_padding,
-				rotationInvariant, timeSensitive);
-		ArrayList<ShapeHistogram> histogram2 = shape2.generateShapeHistogram(N, dummy_padding,
-				rotationInvariant, timeSensitive);
-		// dummy value must vary as function of number of points used
-		double[][] costs = computeCostMatrix(histogram1, histogram2, shape1.size(), shape2.size(),
-				10);
 		int[] matching = munkres(N, costs);
-		double[][] X1_new = shape1.points(N - dummy_padding);
-		double[][] X2_new = shape2.points(N - dummy_padding);
+		double[][] X1_new = shape1.getPoints(N - dummy_padding);
+		double[][] X2_new = shape2.getPoints(N - dummy_padding);
 		// take the NON-dummy points from both
 		// a point in X1 should not be matched to a dummy point; a point in X2 should not be matched
 		// from a dummy
@@ -458,7 +523,7 @@ public class ShapeHistogram {
 				R_cov[pair.row] = 1;
 				C_cov[col] = 0;
 			} else {
-				Z0 = pair;
+				Z0.set(pair);
 				return 5;
 			}
 		}
@@ -467,7 +532,7 @@ public class ShapeHistogram {
 	static public int step5(int n, double[][] C, int[][] M, int[] R_cov, int[] C_cov) {
 		int count = 1;
 		ArrayList<Pair> path = new ArrayList<Pair>();
-		path.add(Z0);
+		path.add(Z0.get());
 		boolean done = false;
 		while (!done) {
 			Pair last = path.get(path.size() - 1);
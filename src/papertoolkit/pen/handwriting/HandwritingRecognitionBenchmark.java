@@ -0,0 +1,182 @@
+package papertoolkit.pen.handwriting;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import papertoolkit.pen.PenSample;
+import papertoolkit.pen.ink.Ink;
+import papertoolkit.pen.ink.InkStroke;
+import papertoolkit.util.LatencyHistogram;
+import papertoolkit.util.ToolkitMetrics;
+
+/**
+ * <p>
+ * Sends the same ink to a handwriting recognition server in three ways, and reports the throughput and the
+ * latency of each: one request at a time (as the HandwritingRecognitionService used to), all at once (so the
+ * client spreads them over its connections), and all at once with the cache turned on. Without a host and
+ * port, it starts a LoopbackHandwritingServer, which follows the HWRecServer's protocol, so it runs anywhere.
+ * Usage: HandwritingRecognitionBenchmark [numRequests] [numDistinctInks] [host port]
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+public class HandwritingRecognitionBenchmark {
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 * @throws ExecutionException
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+		final int numRequests = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		final int numDistinctInks = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+		LoopbackHandwritingServer loopback = null;
+		final String host;
+		final int port;
+		if (args.length > 3) {
+			host = args[2];
+			port = Integer.parseInt(args[3]);
+		} else {
+			loopback = new LoopbackHandwritingServer(0);
+			loopback.start();
+			host = "localhost";
+			port = loopback.getPort();
+		}
+
+		final HandwritingRecognitionBenchmark benchmark = new HandwritingRecognitionBenchmark(host, port,
+				makeInks(numDistinctInks, new Random(42)));
+		// warm up the JIT (and the server)
+		benchmark.run(false, false, numRequests / 4);
+		System.out.println(benchmark.report("One at a time", false, false, numRequests));
+		System.out.println(benchmark.report("Concurrent", true, false, numRequests));
+		System.out.println(benchmark.report("Concurrent, cached", true, true, numRequests));
+
+		if (loopback != null) {
+			loopback.stop();
+		}
+	}
+
+	/**
+	 * @param numInks
+	 * @param random
+	 * @return the XML of inks with one to three wobbly strokes each
+	 */
+	private static List<String> makeInks(int numInks, Random random) {
+		final List<String> inks = new ArrayList<String>(numInks);
+		long time = System.currentTimeMillis();
+		for (int i = 0; i < numInks; i++) {
+			final List<InkStroke> strokes = new ArrayList<InkStroke>();
+			final int numStrokes = 1 + random.nextInt(3);
+			for (int s = 0; s < numStrokes; s++) {
+				final List<PenSample> samples = new ArrayList<PenSample>();
+				final int numSamples = 30 + random.nextInt(40);
+				final double turn = random.nextGaussian() * 0.3;
+				double angle = random.nextDouble() * 2 * Math.PI;
+				double x = 1000 + random.nextInt(500);
+				double y = 1000 + random.nextInt(500);
+				for (int j = 0; j < numSamples; j++) {
+					angle += turn + random.nextGaussian() * 0.1;
+					x += Math.cos(angle) * 10;
+					y += Math.sin(angle) * 10;
+					samples.add(new PenSample(x, y, 128, time));
+					time += 13;
+				}
+				strokes.add(new InkStroke(samples));
+			}
+			inks.add(new Ink(strokes).toXMLString(false /* no separator lines */));
+		}
+		return inks;
+	}
+
+	/**
+	 * How long the last run(...) took.
+	 */
+	private long elapsedNanos;
+
+	private final String host;
+
+	private final List<String> inks;
+
+	private final int port;
+
+	/**
+	 * @param serverHost
+	 * @param serverPort
+	 * @param inkXML
+	 *            the requests, which we send round robin
+	 */
+	public HandwritingRecognitionBenchmark(String serverHost, int serverPort, List<String> inkXML) {
+		host = serverHost;
+		port = serverPort;
+		inks = inkXML;
+	}
+
+	/**
+	 * @param name
+	 * @param concurrent
+	 * @param cached
+	 * @param numRequests
+	 * @return one line: the throughput, the latency of the requests that went to the server, and how many
+	 *         did not need to
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public String report(String name, boolean concurrent, boolean cached, int numRequests)
+			throws InterruptedException, ExecutionException {
+		final HandwritingRecognitionClient client = run(concurrent, cached, numRequests);
+		final LatencyHistogram latency = ToolkitMetrics.Stage.HANDWRITING_RECOGNITION.getLatency();
+		final double seconds = elapsedNanos / 1000000000.0;
+		return String.format("%-18s %6d requests %9.1f requests/s  p50<=%.3f ms  p99<=%.3f ms  "
+				+ "%d sent, %d from the cache", name, numRequests, numRequests / seconds, latency
+				.getPercentileMillis(50), latency.getPercentileMillis(99), client.getNumRequestsSent(), client
+				.getNumCacheHits());
+	}
+
+	/**
+	 * Sends numRequests requests with a new client, and waits for all the answers. Resets the
+	 * HANDWRITING_RECOGNITION metrics first, so they describe this run.
+	 *
+	 * @param concurrent
+	 *            false, to wait for each answer before making the next request
+	 * @param cached
+	 * @param numRequests
+	 * @return the client, which has been closed
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public HandwritingRecognitionClient run(boolean concurrent, boolean cached, int numRequests)
+			throws InterruptedException, ExecutionException {
+		final HandwritingRecognitionClient client = new HandwritingRecognitionClient(host, port);
+		if (!cached) {
+			client.setCacheSize(0);
+		}
+		ToolkitMetrics.reset();
+
+		final long start = System.nanoTime();
+		final List<Future<String>> answers = new ArrayList<Future<String>>(numRequests);
+		for (int i = 0; i < numRequests; i++) {
+			final Future<String> answer = client.recognize(inks.get(i % inks.size()));
+			if (concurrent) {
+				answers.add(answer);
+			} else {
+				answer.get();
+			}
+		}
+		for (Future<String> answer : answers) {
+			answer.get();
+		}
+		elapsedNanos = System.nanoTime() - start;
+		client.close();
+		return client;
+	}
+}
@@ -0,0 +1,712 @@
+package papertoolkit.pen.handwriting;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import papertoolkit.pen.ink.Ink;
+import papertoolkit.util.DaemonThreadFactory;
+import papertoolkit.util.DebugUtils;
+import papertoolkit.util.ToolkitMetrics;
+
+/**
+ * <p>
+ * Talks to a handwriting recognition server (the HWRecServer, or a LoopbackHandwritingServer) without making
+ * anyone wait for a round trip. Every request returns a Future right away. Worker threads send the requests
+ * and complete the Futures as the answers arrive.
+ * </p>
+ * <p>
+ * The server's line protocol has no request ids, and it cannot take more than one line at a time: the
+ * HWRecServer reads each line with a new reader, so anything else we had already sent is lost. It also sends
+ * nothing back when it cannot recognize the ink, or when [[topten]] has no alternatives to list. So each
+ * connection carries one request at a time: we send the ink, wait for the answer, and only then ask for the
+ * [[topten]] list (if the caller wants it). To keep several requests going at once, we open up to
+ * maxConnections connections, each with its own worker thread (the server serves each connection on its own
+ * thread).
+ * </p>
+ * <p>
+ * Answers are cached (by an MD5 hash of the ink's XML), so recognizing the same ink again is free. A request
+ * for ink that is already on its way to the server gets the Future of that request, rather than asking again.
+ * </p>
+ * <p>
+ * If the server takes longer than the timeout to answer, we fail the request with a TimeoutException, and
+ * drop its connection (a late answer would otherwise be taken for the next request's). At most
+ * maxPendingRequests requests may be unanswered at a time; a caller that would exceed it waits (up to the
+ * timeout) for one of them to finish.
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+public class HandwritingRecognitionClient {
+
+	/**
+	 * One connection to the server, used by one worker thread.
+	 */
+	private class Connection {
+		/**
+		 * Guarded by the client's lock.
+		 */
+		private boolean closed = false;
+
+		/**
+		 * The request that is waiting for an answer on this connection, if any. Guarded by the client's lock.
+		 */
+		private Request current;
+
+		private final BufferedReader in;
+
+		private final PrintWriter out;
+
+		private final Socket socket;
+
+		private Connection(Socket s) throws IOException {
+			socket = s;
+			out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(s.getOutputStream())));
+			in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+		}
+
+		/**
+		 * Sends the request, and waits for its answers. Runs on the connection's worker thread.
+		 *
+		 * @param request
+		 * @return false if the connection had to be dropped (and the request has been failed)
+		 */
+		private boolean ask(Request request) {
+			synchronized (HandwritingRecognitionClient.this) {
+				if (closed) {
+					fail(request, new IOException("The connection to the handwriting server was closed."));
+					return false;
+				}
+				current = request;
+			}
+			if (HandwritingRecognitionClient.this.closed) {
+				disconnect(this, new IOException("The handwriting recognition client was closed."));
+				return false;
+			}
+			try {
+				socket.setSoTimeout((int) Math.max(1, getTimeoutMillis()));
+				send(request.xml);
+				numRequestsSent.incrementAndGet();
+				ToolkitMetrics.count(ToolkitMetrics.Stage.HANDWRITING_RECOGNITION, 1);
+				request.text.complete(readLine());
+
+				if (request.alternatives != null) {
+					// only now, or the server would drop it
+					send("[[topten]]");
+					final List<String> alternatives = new ArrayList<String>();
+					String line;
+					while (!(line = readLine()).equals(END_OF_ALTERNATIVES)) {
+						alternatives.add(line);
+					}
+					request.alternatives.complete(alternatives);
+				}
+
+				synchronized (HandwritingRecognitionClient.this) {
+					current = null;
+				}
+				finished(request);
+				return true;
+			} catch (SocketTimeoutException e) {
+				disconnect(this, new TimeoutException("The handwriting server did not answer within "
+						+ getTimeoutMillis() + " ms."));
+				return false;
+			} catch (IOException e) {
+				disconnect(this, e);
+				return false;
+			}
+		}
+
+		/**
+		 * @return the next line from the server
+		 * @throws IOException
+		 *             if the server closes the connection, or does not answer within the timeout
+		 */
+		private String readLine() throws IOException {
+			final String line = in.readLine();
+			if (line == null) {
+				throw new IOException("The handwriting server closed the connection.");
+			}
+			return line;
+		}
+
+		/**
+		 * @param line
+		 * @throws IOException
+		 */
+		private void send(String line) throws IOException {
+			out.println(line);
+			out.flush();
+			if (out.checkError()) {
+				throw new IOException("Could not send the ink to the handwriting server.");
+			}
+		}
+	}
+
+	/**
+	 * One recognition, on its way to the server.
+	 */
+	private static class Request {
+		/**
+		 * Null, unless we also asked for the [[topten]] list.
+		 */
+		private final Result<List<String>> alternatives;
+
+		/**
+		 * How long a caller may wait for room to make the request, in System.nanoTime() terms.
+		 */
+		private final long deadline;
+
+		/**
+		 * Set by the first call to finished(...), so that we count each request only once.
+		 */
+		private final AtomicBoolean finished = new AtomicBoolean(false);
+
+		private final String key;
+
+		/**
+		 * From ToolkitMetrics.start().
+		 */
+		private final long start;
+
+		private final Result<String> text;
+
+		private final String xml;
+
+		private Request(String inkXML, String cacheKey, boolean withAlternatives, long timeoutNanos) {
+			xml = inkXML;
+			key = cacheKey;
+			text = new Result<String>();
+			alternatives = withAlternatives ? new Result<List<String>>() : null;
+			start = ToolkitMetrics.start();
+			deadline = System.nanoTime() + timeoutNanos;
+		}
+	}
+
+	/**
+	 * A Future that we complete ourselves, when the server answers.
+	 */
+	private static class Result<V> extends FutureTask<V> {
+		private static final Callable<Object> NOTHING = new Callable<Object>() {
+			public Object call() {
+				throw new IllegalStateException("Only the client completes a recognition result.");
+			}
+		};
+
+		@SuppressWarnings("unchecked")
+		private Result() {
+			super((Callable<V>) NOTHING);
+		}
+
+		private void complete(V value) {
+			set(value);
+		}
+
+		private void fail(Throwable cause) {
+			setException(cause);
+		}
+
+		/**
+		 * Does nothing; we are completed by complete(...) or fail(...).
+		 *
+		 * @see java.util.concurrent.FutureTask#run()
+		 */
+		public void run() {
+		}
+	}
+
+	private static final String END_OF_ALTERNATIVES = "[[endofalternatives]]";
+
+	private static final String EXIT = "[[exit]]";
+
+	/**
+	 * @param xml
+	 * @return the hex MD5 hash of the xml, which we use as the cache key
+	 */
+	private static String getInkHash(String xml) {
+		try {
+			final byte[] digest = MessageDigest.getInstance("MD5").digest(xml.getBytes("UTF-8"));
+			final StringBuilder sb = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// every JVM has MD5
+			return xml;
+		} catch (UnsupportedEncodingException e) {
+			// every JVM has UTF-8
+			return xml;
+		}
+	}
+
+	/**
+	 * Recent [[topten]] lists, by ink hash, including the ones that have not arrived yet.
+	 */
+	private final Map<String, Result<List<String>>> alternativesCache;
+
+	private int cacheSize = 256;
+
+	private volatile boolean closed = false;
+
+	/**
+	 * The open connections, so that close() can drop them.
+	 */
+	private final List<Connection> connections = new ArrayList<Connection>();
+
+	private final String host;
+
+	private int maxConnections = 4;
+
+	private int maxPendingRequests = 64;
+
+	private final AtomicLong numCacheHits = new AtomicLong();
+
+	/**
+	 * Worker threads that are waiting for a request.
+	 */
+	private int numIdleWorkers = 0;
+
+	/**
+	 * Requests that have been made, but not answered (or failed).
+	 */
+	private int numPendingRequests = 0;
+
+	private final AtomicLong numRequestsSent = new AtomicLong();
+
+	private final int port;
+
+	/**
+	 * Recent answers, by ink hash, including the ones that have not arrived yet.
+	 */
+	private final Map<String, Result<String>> textCache;
+
+	private final DaemonThreadFactory threads = new DaemonThreadFactory("Handwriting Recognition Client");
+
+	private volatile long timeoutNanos = TimeUnit.SECONDS.toNanos(10);
+
+	/**
+	 * Requests that no worker has picked up yet.
+	 */
+	private final LinkedBlockingQueue<Request> toSend = new LinkedBlockingQueue<Request>();
+
+	/**
+	 * One per connection, started as the requests pile up.
+	 */
+	private final List<Thread> workers = new ArrayList<Thread>();
+
+	/**
+	 * Does not connect until the first request.
+	 *
+	 * @param serverHost
+	 * @param serverPort
+	 */
+	public HandwritingRecognitionClient(String serverHost, int serverPort) {
+		host = serverHost;
+		port = serverPort;
+		textCache = newCache();
+		alternativesCache = newCache();
+	}
+
+	/**
+	 * Fails all pending requests and stops our threads. The client cannot be used afterward.
+	 */
+	public void close() {
+		final List<Connection> open;
+		synchronized (this) {
+			closed = true;
+			for (Thread worker : workers) {
+				worker.interrupt();
+			}
+			open = new ArrayList<Connection>(connections);
+		}
+		for (Connection c : open) {
+			disconnect(c, new IOException("The handwriting recognition client was closed."));
+		}
+		Request request;
+		while ((request = toSend.poll()) != null) {
+			fail(request, new IOException("The handwriting recognition client was closed."));
+		}
+	}
+
+	/**
+	 * @return a connection to the server
+	 * @throws IOException
+	 */
+	private Connection connect() throws IOException {
+		final Socket socket = new Socket();
+		socket.connect(new InetSocketAddress(host, port), (int) TimeUnit.NANOSECONDS.toMillis(timeoutNanos));
+		socket.setTcpNoDelay(true);
+		final Connection c = new Connection(socket);
+		synchronized (this) {
+			connections.add(c);
+		}
+		return c;
+	}
+
+	/**
+	 * Says [[exit]], closes the connection, and fails the request that is waiting for an answer on it. The
+	 * worker will connect again for its next request. The HWRecServer does not expect a connection to just go
+	 * away: it crashes when it reads the end of the stream, so we always say goodbye first.
+	 *
+	 * @param c
+	 * @param cause
+	 */
+	private void disconnect(Connection c, Throwable cause) {
+		final Request request;
+		synchronized (this) {
+			if (c.closed) {
+				return;
+			}
+			c.closed = true;
+			connections.remove(c);
+			request = c.current;
+			c.current = null;
+		}
+		if (!c.socket.isClosed()) {
+			// harmless if the server has already gone; the writer does not throw
+			c.out.println(EXIT);
+			c.out.flush();
+		}
+		try {
+			c.socket.close();
+		} catch (IOException e) {
+			// we are done with it anyway
+		}
+		if (request != null) {
+			fail(request, cause);
+		}
+	}
+
+	/**
+	 * @param request
+	 * @param cause
+	 */
+	private void fail(Request request, Throwable cause) {
+		if (!request.text.isDone()) {
+			request.text.fail(cause);
+		}
+		if (request.alternatives != null) {
+			request.alternatives.fail(cause);
+		}
+		synchronized (this) {
+			// ask the server again next time
+			if (textCache.get(request.key) == request.text) {
+				textCache.remove(request.key);
+			}
+			if (request.alternatives != null && alternativesCache.get(request.key) == request.alternatives) {
+				alternativesCache.remove(request.key);
+			}
+		}
+		finished(request);
+	}
+
+	/**
+	 * The request has been answered, or has failed. Lets a waiting caller make its request. Calling it again
+	 * for the same request does nothing.
+	 *
+	 * @param request
+	 */
+	private void finished(Request request) {
+		if (!request.finished.compareAndSet(false, true)) {
+			return;
+		}
+		ToolkitMetrics.record(ToolkitMetrics.Stage.HANDWRITING_RECOGNITION, request.start);
+		synchronized (this) {
+			numPendingRequests--;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * @return how many requests were answered from the cache (or joined a request for the same ink)
+	 */
+	public long getNumCacheHits() {
+		return numCacheHits.get();
+	}
+
+	/**
+	 * @return how many requests we have written to the server
+	 */
+	public long getNumRequestsSent() {
+		return numRequestsSent.get();
+	}
+
+	/**
+	 * @return how long we wait for an answer, in milliseconds
+	 */
+	public long getTimeoutMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(timeoutNanos);
+	}
+
+	/**
+	 * @return an access ordered map that forgets its eldest entries when it holds more than cacheSize
+	 */
+	private <V> Map<String, V> newCache() {
+		return new LinkedHashMap<String, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	/**
+	 * @param ink
+	 * @return the top-ranked ASCII translation of the ink, when the server answers
+	 */
+	public Future<String> recognize(Ink ink) {
+		return recognize(ink.toXMLString(false /* no separator lines */));
+	}
+
+	/**
+	 * @param xml
+	 *            one line of ink XML (see Ink.toXMLString(false))
+	 * @return the top-ranked ASCII translation of the ink, when the server answers
+	 */
+	public Future<String> recognize(String xml) {
+		final String key = getInkHash(xml);
+		synchronized (this) {
+			final Result<String> cached = textCache.get(key);
+			if (cached != null) {
+				numCacheHits.incrementAndGet();
+				return cached;
+			}
+		}
+		final Request request = new Request(xml, key, false, timeoutNanos);
+		if (!waitForRoom(request)) {
+			return request.text;
+		}
+		synchronized (this) {
+			textCache.put(key, request.text);
+		}
+		send(request);
+		return request.text;
+	}
+
+	/**
+	 * @param ink
+	 * @return the server's list of alternatives (usually ten, starting with the top-ranked one), when the
+	 *         server answers
+	 */
+	public Future<List<String>> recognizeWithAlternatives(Ink ink) {
+		return recognizeWithAlternatives(ink.toXMLString(false /* no separator lines */));
+	}
+
+	/**
+	 * @param xml
+	 *            one line of ink XML (see Ink.toXMLString(false))
+	 * @return the server's list of alternatives (usually ten, starting with the top-ranked one), when the
+	 *         server answers
+	 */
+	public Future<List<String>> recognizeWithAlternatives(String xml) {
+		final String key = getInkHash(xml);
+		synchronized (this) {
+			final Result<List<String>> cached = alternativesCache.get(key);
+			if (cached != null) {
+				numCacheHits.incrementAndGet();
+				return cached;
+			}
+		}
+		final Request request = new Request(xml, key, true, timeoutNanos);
+		if (!waitForRoom(request)) {
+			return request.alternatives;
+		}
+		synchronized (this) {
+			alternativesCache.put(key, request.alternatives);
+			if (!textCache.containsKey(key)) {
+				// the top result comes first, so it can answer recognize(...) too
+				textCache.put(key, request.text);
+			}
+		}
+		send(request);
+		return request.alternatives;
+	}
+
+	/**
+	 * Asks the server to exit, and closes this client.
+	 */
+	public void quitServer() {
+		try {
+			// on a connection of its own, so that no request is waiting for an answer on it
+			final Connection quitting = connect();
+			quitting.send("[[quitserver]]");
+			disconnect(quitting, new IOException("The handwriting server was asked to exit."));
+		} catch (IOException e) {
+			DebugUtils.println("Could not reach the handwriting server: " + e.getLocalizedMessage());
+		}
+		close();
+	}
+
+	/**
+	 * Queues the request, and starts another worker (and connection) if every worker is busy.
+	 *
+	 * @param request
+	 */
+	private void send(Request request) {
+		toSend.add(request);
+		synchronized (this) {
+			if (closed) {
+				// close() may have drained the queue before we added to it
+				if (toSend.remove(request)) {
+					fail(request, new IOException("The handwriting recognition client was closed."));
+				}
+				return;
+			}
+			if (toSend.size() > numIdleWorkers && workers.size() < maxConnections) {
+				final Thread worker = threads.newThread(new Runnable() {
+					public void run() {
+						serveRequests();
+					}
+				});
+				workers.add(worker);
+				worker.start();
+			}
+		}
+	}
+
+	/**
+	 * Sends the queued requests, one at a time, on one connection, connecting when we need to. Runs on a
+	 * worker thread, until the client is closed.
+	 */
+	private void serveRequests() {
+		Connection c = null;
+		try {
+			while (!closed) {
+				final Request request;
+				synchronized (this) {
+					numIdleWorkers++;
+				}
+				try {
+					request = toSend.take();
+				} finally {
+					synchronized (this) {
+						numIdleWorkers--;
+					}
+				}
+				if (c == null) {
+					try {
+						c = connect();
+					} catch (IOException e) {
+						fail(request, e);
+						continue;
+					}
+				}
+				if (!c.ask(request)) {
+					c = null; // the next request connects again
+				}
+			}
+		} catch (InterruptedException e) {
+			// closed
+		} finally {
+			if (c != null) {
+				disconnect(c, new IOException("The handwriting recognition client was closed."));
+			}
+			synchronized (this) {
+				workers.remove(Thread.currentThread());
+			}
+		}
+	}
+
+	/**
+	 * @param size
+	 *            how many answers (and lists of alternatives) to remember; 0 turns off caching
+	 */
+	public synchronized void setCacheSize(int size) {
+		cacheSize = size;
+		textCache.clear();
+		alternativesCache.clear();
+	}
+
+	/**
+	 * @param max
+	 *            how many connections (each carrying one request at a time) we may open to the server (4 by
+	 *            default)
+	 */
+	public synchronized void setMaxConnections(int max) {
+		maxConnections = Math.max(1, max);
+	}
+
+	/**
+	 * @param max
+	 *            how many requests may be unanswered at once (64 by default)
+	 */
+	public synchronized void setMaxPendingRequests(int max) {
+		maxPendingRequests = max;
+		notifyAll();
+	}
+
+	/**
+	 * @param millis
+	 *            how long we wait for an answer, and for room to make a request (10 seconds by default)
+	 */
+	public void setTimeoutMillis(long millis) {
+		timeoutNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	/**
+	 * Waits until fewer than maxPendingRequests requests are unanswered, and counts this one.
+	 *
+	 * @param request
+	 * @return false if we timed out (and failed the request)
+	 */
+	private boolean waitForRoom(Request request) {
+		if (closed) {
+			request.text.fail(new IOException("The handwriting recognition client was closed."));
+			if (request.alternatives != null) {
+				request.alternatives.fail(new IOException("The handwriting recognition client was closed."));
+			}
+			return false;
+		}
+		synchronized (this) {
+			try {
+				while (numPendingRequests >= maxPendingRequests) {
+					final long remainingNanos = request.deadline - System.nanoTime();
+					if (remainingNanos <= 0) {
+						break;
+					}
+					TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (numPendingRequests < maxPendingRequests) {
+				numPendingRequests++;
+				return true;
+			}
+		}
+		final RejectedExecutionException tooBusy = new RejectedExecutionException(maxPendingRequests
+				+ " handwriting recognition requests are already waiting for the server.");
+		request.text.fail(tooBusy);
+		if (request.alternatives != null) {
+			request.alternatives.fail(tooBusy);
+		}
+		return false;
+	}
+}
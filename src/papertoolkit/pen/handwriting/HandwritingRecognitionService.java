@@ -1,17 +1,16 @@
 package papertoolkit.pen.handwriting;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.Socket;
-import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import papertoolkit.PaperToolkit;
 import papertoolkit.application.config.Constants;
@@ -29,6 +28,11 @@ import papertoolkit.util.files.FileUtils;
  * then we call the exe again to start up the server.
  * </p>
  * <p>
+ * If a server is already listening on the port (e.g., a LoopbackHandwritingServer), we use it, and leave it
+ * running when we exit. The requests go through a HandwritingRecognitionClient, so callers on different
+ * threads do not wait for each other's round trips. Use getClient() to recognize ink in the background.
+ * </p>
+ * <p>
  * <span class="BSDLicense"> This software is distributed under the <a
  * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
  * </p>
@@ -57,16 +61,20 @@ public class HandwritingRecognitionService {
 		return instance;
 	}
 
-	private boolean clientInitialized;
-
-	private BufferedReader clientReader;
+	/**
+	 * Sends our requests to the server.
+	 */
+	private HandwritingRecognitionClient client;
 
-	private Socket clientSocket;
+	/**
+	 * The ink of the last call to recognizeHandwriting(...), for getAlternatives().
+	 */
+	private volatile String lastRecognizedXML;
 
 	/**
-	 * Write to this to send information to the server.
+	 * Did we start the server (as opposed to finding one already running)?
 	 */
-	private PrintWriter clientWriter;
+	private boolean serverLaunched;
 
 	/**
 	 * Has the server been started?
@@ -77,13 +85,23 @@ public class HandwritingRecognitionService {
 	 * This should only ever be called once, so we will start one server and one client.
 	 */
 	private HandwritingRecognitionService() {
-		initializeServer();
+		if (isServerRunning()) {
+			DebugUtils.println("Using the Handwriting Recognition Server that is already running.");
+			serverStarted = true;
+		} else {
+			serverLaunched = true;
+			initializeServer();
+		}
 		connectToServer();
 
-		// Exit the Server upon shutdown...
+		// Exit the Server upon shutdown (unless someone else started it)...
 		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
 			public void run() {
-				HandwritingRecognitionService.getInstance().exitServer();
+				if (serverLaunched) {
+					exitServer();
+				} else {
+					client.close();
+				}
 			}
 		}));
 	}
@@ -92,7 +110,7 @@ public class HandwritingRecognitionService {
 	 * Connect to the HWRecognition Server...
 	 */
 	private synchronized void connectToServer() {
-		if (clientInitialized) {
+		if (client != null) {
 			return;
 		}
 
@@ -105,61 +123,74 @@ public class HandwritingRecognitionService {
 			}
 		}
 
-		try {
-			clientSocket = new Socket(HWREC_SERVER, HWREC_PORT);
-			clientWriter = new PrintWriter(new BufferedWriter(new OutputStreamWriter(clientSocket
-					.getOutputStream())));
-			clientReader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-			clientInitialized = true;
-		} catch (UnknownHostException e) {
-			DebugUtils.println("Unknown Host: " + e.getLocalizedMessage());
-			clientInitialized = false;
-		} catch (IOException e) {
-			DebugUtils.println("IOException: " + e.getLocalizedMessage());
-			clientInitialized = false;
-		}
+		// it connects when we send the first request
+		client = new HandwritingRecognitionClient(HWREC_SERVER, HWREC_PORT);
 	}
 
 	/**
-	 * 
+	 * Ask the server to exit.... You can only call this once!
 	 */
-	private void disconnectClient() {
-		try {
-			clientSocket.close();
-		} catch (IOException e) {
-			e.printStackTrace();
+	public void exitServer() {
+		client.quitServer();
+	}
+
+	/**
+	 * @return the server's top ten alternatives for the ink of the last recognizeHandwriting(...) call. If
+	 *         several threads recognize ink at once, that may not be yours; call getAlternatives(Ink) instead.
+	 */
+	public List<String> getAlternatives() {
+		final String xml = lastRecognizedXML;
+		if (xml == null) {
+			return new ArrayList<String>();
 		}
+		return getResult(client.recognizeWithAlternatives(xml), new ArrayList<String>());
 	}
 
 	/**
-	 * Ask the server to exit.... You can only call this once!
+	 * @param ink
+	 * @return the server's top ten alternatives for this ink (including the top one, at position 0)
 	 */
-	public void exitServer() {
-		clientWriter.println("[[quitserver]]");
-		clientWriter.flush();
-		disconnectClient();
+	public List<String> getAlternatives(Ink ink) {
+		return getResult(client.recognizeWithAlternatives(ink), new ArrayList<String>());
 	}
 
 	/**
-	 * @return ask the server to provide the top ten alternatives... The server will respond with a list, and
-	 *         terminate that list with a token [[endofalternatives]]
+	 * @return the client that sends our requests, for recognizing ink in the background
 	 */
-	public List<String> getAlternatives() {
-		clientWriter.println("[[topten]]");
-		clientWriter.flush();
-		String line = null;
-		final List<String> alternatives = new ArrayList<String>();
+	public HandwritingRecognitionClient getClient() {
+		return client;
+	}
+
+	/**
+	 * @param result
+	 * @param otherwise
+	 * @return the result, or otherwise, if the request failed (the client times out requests for us)
+	 */
+	private <T> T getResult(Future<T> result, T otherwise) {
 		try {
-			while ((line = clientReader.readLine()) != null) {
-				if (line.equals("[[endofalternatives]]")) {
-					break;
-				}
-				alternatives.add(line);
-			}
+			return result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			DebugUtils.println("Handwriting Recognition failed: " + e.getCause());
+		}
+		return otherwise;
+	}
+
+	/**
+	 * @return whether a server is listening on the port already (we do not leave it waiting for a request)
+	 */
+	private boolean isServerRunning() {
+		try {
+			final Socket socket = new Socket(HWREC_SERVER, HWREC_PORT);
+			final PrintWriter writer = new PrintWriter(socket.getOutputStream());
+			writer.println("[[exit]]");
+			writer.flush();
+			socket.close();
+			return true;
 		} catch (IOException e) {
-			e.printStackTrace();
+			return false;
 		}
-		return alternatives;
 	}
 
 	/**
@@ -219,17 +250,11 @@ public class HandwritingRecognitionService {
 	 * @return
 	 */
 	public String recognizeHandwriting(String xml) {
-		clientWriter.println(xml);
-		clientWriter.flush();
-		try {
-			final String returnVal = clientReader.readLine();
-			return returnVal;
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		return "";
+		lastRecognizedXML = xml;
+		return getResult(client.recognize(xml), "");
 	}
-	
+
+
 	public String recognizeHandwriting(Ink ink) {
 		final String xml = ink.toXMLString(false /* no separator lines */);
 		return recognizeHandwriting(xml);
@@ -0,0 +1,294 @@
+package papertoolkit.pen.handwriting;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import papertoolkit.application.config.Constants;
+import papertoolkit.pen.gesture.dollar.DollarRecognizer;
+import papertoolkit.pen.ink.Ink;
+import papertoolkit.pen.ink.InkStroke;
+import papertoolkit.pen.ink.InkXMLParser;
+import papertoolkit.util.DaemonThreadFactory;
+import papertoolkit.util.DebugUtils;
+
+/**
+ * <p>
+ * A stand-in for the HWRecServer (which needs Windows and the Tablet PC recognizer), written in Java. It
+ * speaks the same line protocol: each line of ink XML is answered with one line of text, [[topten]] answers
+ * with the alternatives of the last recognition and [[endofalternatives]], [[exit]] closes the connection,
+ * and [[quitserver]] stops the server. Run it to develop and benchmark handwriting applications on any
+ * platform. The HandwritingRecognitionService uses it instead of starting the HWRecServer if it is already
+ * listening on the handwriting recognition port.
+ * </p>
+ * <p>
+ * It does not really read handwriting. Each stroke is recognized as a gesture by a DollarRecognizer, and the
+ * answer is the gestures' names, separated by spaces. The list of alternatives only holds that answer.
+ * Otherwise, it behaves like the HWRecServer, so that clients (and benchmarks) that work with it will work
+ * with the real one: it reads each line with a new reader, so any other lines that the client had already
+ * sent are lost; it does not answer at all if it cannot recognize the ink; it does not answer [[topten]] if
+ * the last line could not be recognized; and if a client disconnects without saying [[exit]], it stops (the
+ * HWRecServer crashes), so clients must say [[exit]] before they close a connection.
+ * </p>
+ * <p>
+ * Usage: LoopbackHandwritingServer [port]
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+public class LoopbackHandwritingServer {
+
+	/**
+	 * Matches a command, like [[topten]], as the HWRecServer does.
+	 */
+	private static final Pattern COMMAND = Pattern.compile("\\[\\[(.*?)\\]\\].*");
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		final int port = args.length > 0 ? Integer.parseInt(args[0]) : Constants.Ports.HANDWRITING_RECOGNITION;
+		final LoopbackHandwritingServer server = new LoopbackHandwritingServer(port);
+		server.start();
+		// the HWRecServer says this when it is ready
+		System.out.println("[[serverstarted]]");
+		server.waitUntilStopped();
+	}
+
+	/**
+	 * So that we can disconnect them when we stop.
+	 */
+	private final List<Socket> clients = Collections.synchronizedList(new ArrayList<Socket>());
+
+	private final ExecutorService clientThreads = Executors.newCachedThreadPool(new DaemonThreadFactory(
+			"Loopback Handwriting Server"));
+
+	private final int requestedPort;
+
+	private final DollarRecognizer recognizer;
+
+	private ServerSocket serverSocket;
+
+	private boolean stopped = false;
+
+	/**
+	 * Recognizes strokes with the DollarRecognizer's predefined gestures.
+	 *
+	 * @param port
+	 *            0 to pick any free port (see getPort())
+	 */
+	public LoopbackHandwritingServer(int port) {
+		this(port, new DollarRecognizer());
+	}
+
+	/**
+	 * @param port
+	 *            0 to pick any free port (see getPort())
+	 * @param strokeRecognizer
+	 *            recognizes each stroke; its templates are the "alphabet"
+	 */
+	public LoopbackHandwritingServer(int port, DollarRecognizer strokeRecognizer) {
+		requestedPort = port;
+		recognizer = strokeRecognizer;
+	}
+
+	/**
+	 * Accepts clients, and gives each one a thread, until we are stopped.
+	 */
+	private void acceptClients() {
+		while (true) {
+			final Socket client;
+			try {
+				client = serverSocket.accept();
+				clients.add(client);
+			} catch (IOException e) {
+				// stop() closes the server socket
+				stop();
+				return;
+			}
+			clientThreads.execute(new Runnable() {
+				public void run() {
+					talkToClient(client);
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return the port we are listening on, once we have started
+	 */
+	public synchronized int getPort() {
+		return serverSocket == null ? requestedPort : serverSocket.getLocalPort();
+	}
+
+	/**
+	 * @param xml
+	 *            one line of ink XML
+	 * @return the names of the gestures that the strokes look most like, separated by spaces (or null, if the
+	 *         xml is not ink, or has no strokes that we could recognize)
+	 */
+	public String recognize(String xml) {
+		final Ink ink = new Ink();
+		try {
+			new InkXMLParser(ink).parse(xml);
+		} catch (RuntimeException e) {
+			// not ink XML
+			DebugUtils.println("Loopback Handwriting Server: " + e);
+			return null;
+		}
+		final StringBuilder sb = new StringBuilder();
+		for (InkStroke stroke : ink.getStrokes()) {
+			final String name = recognizer.recognize(stroke).getName();
+			if (name == null) {
+				continue; // no templates
+			}
+			if (sb.length() > 0) {
+				sb.append(" ");
+			}
+			sb.append(name);
+		}
+		return sb.length() == 0 ? null : sb.toString();
+	}
+
+	/**
+	 * Starts listening. Returns right away; the clients are served on background threads.
+	 *
+	 * @throws IOException
+	 *             if we cannot listen on the port
+	 */
+	public synchronized void start() throws IOException {
+		serverSocket = new ServerSocket(requestedPort);
+		final DaemonThreadFactory acceptor = new DaemonThreadFactory("Loopback Handwriting Server Acceptor");
+		acceptor.newThread(new Runnable() {
+			public void run() {
+				acceptClients();
+			}
+		}).start();
+	}
+
+	/**
+	 * Stops listening, and disconnects all clients.
+	 */
+	public void stop() {
+		final ServerSocket listening;
+		synchronized (this) {
+			if (stopped) {
+				return;
+			}
+			stopped = true;
+			notifyAll();
+			listening = serverSocket;
+		}
+		try {
+			if (listening != null) {
+				listening.close();
+			}
+		} catch (IOException e) {
+			// we are done with it anyway
+		}
+		synchronized (clients) {
+			for (Socket client : clients) {
+				try {
+					client.close();
+				} catch (IOException e) {
+					// we are done with it anyway
+				}
+			}
+		}
+		clientThreads.shutdownNow();
+	}
+
+	/**
+	 * Serves one client until it disconnects, or asks us to quit. Runs on the client's thread.
+	 *
+	 * @param client
+	 */
+	private void talkToClient(Socket client) {
+		List<String> alternatives = null;
+		try {
+			client.setTcpNoDelay(true);
+			final PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(client
+					.getOutputStream())));
+			while (true) {
+				// a new reader each time, as the HWRecServer does: whatever else it buffered is lost
+				final BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
+				final String line = in.readLine();
+				if (line == null) {
+					// the HWRecServer does not check for the end of the stream, and the exception takes the
+					// whole server down
+					DebugUtils.println("Loopback Handwriting Server: a client disconnected without saying "
+							+ "[[exit]]. The HWRecServer would crash here, so we stop.");
+					stop();
+					break;
+				}
+				final Matcher command = COMMAND.matcher(line);
+				if (command.matches()) {
+					final String name = command.group(1).toLowerCase();
+					if (name.equals("exit")) {
+						break;
+					} else if (name.equals("quitserver")) {
+						stop();
+						break;
+					} else if (name.equals("topten")) {
+						// no answer at all, if there was no last recognition
+						if (alternatives != null) {
+							for (String alternative : alternatives) {
+								out.println(alternative);
+							}
+							out.println("[[endofalternatives]]");
+							out.flush();
+						}
+					}
+				} else {
+					final String text = recognize(line);
+					alternatives = null;
+					if (text != null) {
+						out.println(text);
+						out.flush();
+						alternatives = new ArrayList<String>();
+						alternatives.add(text);
+					}
+				}
+			}
+		} catch (IOException e) {
+			DebugUtils.println("Loopback Handwriting Server: " + e.getLocalizedMessage());
+		} finally {
+			clients.remove(client);
+			try {
+				client.close();
+			} catch (IOException e) {
+				// we are done with it anyway
+			}
+		}
+	}
+
+	/**
+	 * Blocks until someone calls stop(), or a client sends [[quitserver]].
+	 */
+	public synchronized void waitUntilStopped() {
+		while (!stopped) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+}
@@ -4,13 +4,16 @@ import java.awt.Color;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.io.File;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 import javax.swing.filechooser.FileSystemView;
 
 import papertoolkit.pattern.coordinates.PageAddress;
-import papertoolkit.pen.PenSample;
 import papertoolkit.render.ink.InkRenderer;
 import papertoolkit.util.DebugUtils;
 import papertoolkit.util.files.FileUtils;
@@ -179,13 +182,13 @@ public class Ink {
 		for (InkStroke s : strokes) {
 			sb.append("<stroke begin=\"" + s.getFirstTimestamp() + "\" end=\"" + s.getLastTimestamp() + "\">"
 					+ separator);
-			double[] x = s.getXSamples();
-			double[] y = s.getYSamples();
-			int[] f = s.getForceSamples();
-			long[] ts = s.getTimeSamples();
-			for (int i = 0; i < x.length; i++) {
-				sb.append("<p x=\"" + x[i] + "\" y=\"" + y[i] + //
-						"\" f=\"" + f[i] + "\" t=\"" + ts[i] + "\"/>");
+			final DoubleBuffer x = s.getXView();
+			final DoubleBuffer y = s.getYView();
+			final IntBuffer f = s.getForceView();
+			final LongBuffer ts = s.getTimeView();
+			for (int i = 0; i < x.limit(); i++) {
+				sb.append("<p x=\"").append(x.get(i)).append("\" y=\"").append(y.get(i)) //
+						.append("\" f=\"").append(f.get(i)).append("\" t=\"").append(ts.get(i)).append("\"/>");
 			}
 			sb.append("</stroke>" + separator);
 		}
@@ -215,11 +218,12 @@ public class Ink {
 		double n = 0;
 
 		for (InkStroke s : strokes) {
-			List<PenSample> samples = s.getSamples();
-			for (PenSample ps : samples) {
+			final DoubleBuffer x = s.getXView();
+			final DoubleBuffer y = s.getYView();
+			for (int i = 0; i < x.limit(); i++) {
 				n++;
-				meanX = (meanX * (n - 1) / n) + (ps.x / n);
-				meanY = (meanY * (n - 1) / n) + (ps.y / n);
+				meanX = (meanX * (n - 1) / n) + (x.get(i) / n);
+				meanY = (meanY * (n - 1) / n) + (y.get(i) / n);
 			}
 		}
 		return new Point2D.Double(meanX, meanY);
@@ -316,6 +320,21 @@ public class Ink {
 		new InkXMLParser(this).parse(xmlFileSource);
 	}
 
+	/**
+	 * Load strokes and other information from a binary ink file (see InkBinaryFormat). Like
+	 * loadFromXMLFile(...), it replaces the contents of this Ink object. The file is memory mapped, and each
+	 * stroke is only decoded when it is first accessed.
+	 * 
+	 * @param binaryFileSource
+	 */
+	public void loadFromBinaryFile(File binaryFileSource) {
+		try {
+			InkBinaryFormat.read(binaryFileSource, this);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
 	/**
 	 * @param s
 	 */
@@ -359,6 +378,19 @@ public class Ink {
 		FileUtils.writeStringToFile(toXMLString(true), xmlFileDest);
 	}
 
+	/**
+	 * Save this object out as a binary ink file, which is much smaller and faster to load than XML.
+	 * 
+	 * @param binaryFileDest
+	 */
+	public void saveToBinaryFile(File binaryFileDest) {
+		try {
+			InkBinaryFormat.write(this, binaryFileDest);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
 	/**
 	 * @param c
 	 */
@@ -393,6 +425,21 @@ public class Ink {
 		setSourcePageAddress(new PageAddress(pageAddrString));
 	}
 
+	/**
+	 * Used by InkBinaryFormat, which already knows the bounds, so that we do not have to decode every stroke
+	 * to compute them.
+	 */
+	void setStrokesAndBounds(List<InkStroke> theStrokes, double minStrokeX, double minStrokeY,
+			double maxStrokeX, double maxStrokeY, long firstTS, long lastTS) {
+		strokes = theStrokes;
+		minX = minStrokeX;
+		minY = minStrokeY;
+		maxX = maxStrokeX;
+		maxY = maxStrokeY;
+		minTS = firstTS;
+		maxTS = lastTS;
+	}
+
 	/**
 	 * @param src
 	 */
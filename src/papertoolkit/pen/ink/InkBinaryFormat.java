@@ -0,0 +1,409 @@
+package papertoolkit.pen.ink;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+import papertoolkit.pattern.coordinates.PageAddress;
+import papertoolkit.pen.ink.Ink.InkSource;
+
+/**
+ * <p>
+ * A compact binary container for Ink, for archiving lots of strokes. It is usually 10-20x smaller than
+ * Ink's XML, and much faster to load. All numbers are big-endian. The file looks like this:
+ * </p>
+ *
+ * <blockquote><code>
+ * MAGIC ("PTI1")<br>
+ * name, page address (varint length + UTF-8 bytes; a length of 0 means no address)<br>
+ * source type (byte)<br>
+ * bounds of the ink (4 doubles: minX, minY, maxX, maxY) and its first and last timestamps (2 longs)<br>
+ * number of strokes (varint)<br>
+ * for each stroke: the length of the stroke's record (varint), and then the record
+ * </code></blockquote>
+ *
+ * <p>
+ * A stroke record holds its number of samples (varint) and its bounds (4 doubles), followed by its samples,
+ * one column at a time. The x and y columns are delta encoded, after scaling every coordinate by the
+ * smallest power of two (up to 1024) that makes them all whole numbers. Anoto coordinates come in eighths
+ * of a dot, so this is almost always possible; if it is not, the stroke stores plain doubles, so we never
+ * lose precision. Timestamps are delta encoded too, and forces are stored as varints. All varints are
+ * zig-zag encoded, so that small negative deltas stay small.
+ * </p>
+ * <p>
+ * Since every stroke record is prefixed by its length, a reader can skip over strokes without decoding
+ * them. read(...) memory maps the file, and only decodes a stroke the first time someone asks for it.
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+public class InkBinaryFormat {
+
+	/**
+	 * The start of every binary ink file.
+	 */
+	public static final byte[] MAGIC = new byte[] { 'P', 'T', 'I', '1' };
+
+	/**
+	 * 2^10 = 1024ths of a dot is as fine as we go before we give up and store doubles.
+	 */
+	private static final int MAX_SCALE_SHIFT = 10;
+
+	/**
+	 * Marks a stroke whose coordinates are stored as plain doubles.
+	 */
+	private static final byte RAW_DOUBLES = (byte) 0x7F;
+
+	/**
+	 * Stays away from the edge of a double's 53 bits of precision.
+	 */
+	private static final double MAX_SCALED_VALUE = 1L << 52;
+
+	/**
+	 * @param xs
+	 * @param ys
+	 * @param n
+	 *            the number of values to look at in each column
+	 * @return the smallest shift such that every value times 2^shift is a whole number, or RAW_DOUBLES
+	 */
+	private static byte chooseScaleShift(DoubleBuffer xs, DoubleBuffer ys, int n) {
+		for (int shift = 0; shift <= MAX_SCALE_SHIFT; shift++) {
+			final double scale = 1 << shift;
+			if (isWhole(xs, n, scale) && isWhole(ys, n, scale)) {
+				return (byte) shift;
+			}
+		}
+		return RAW_DOUBLES;
+	}
+
+	/**
+	 * Decodes one stroke record.
+	 *
+	 * @param buffer
+	 *            positioned at the start of the record
+	 * @return the stroke
+	 */
+	static InkStroke decodeStroke(ByteBuffer buffer) {
+		final int n = (int) readVarLong(buffer);
+		final double minX = buffer.getDouble();
+		final double minY = buffer.getDouble();
+		final double maxX = buffer.getDouble();
+		final double maxY = buffer.getDouble();
+		final byte shift = buffer.get();
+
+		final double[] xs = new double[n];
+		final double[] ys = new double[n];
+		readCoordinateColumn(buffer, shift, xs);
+		readCoordinateColumn(buffer, shift, ys);
+
+		final long[] ts = new long[n];
+		long t = 0;
+		for (int i = 0; i < n; i++) {
+			t += readVarLong(buffer);
+			ts[i] = t;
+		}
+
+		final InkStroke stroke = new InkStroke();
+		for (int i = 0; i < n; i++) {
+			stroke.addSample(xs[i], ys[i], (int) readVarLong(buffer), ts[i]);
+		}
+		stroke.setBounds(minX, minY, maxX, maxY);
+		return stroke;
+	}
+
+	/**
+	 * @param values
+	 * @param n
+	 * @param scale
+	 * @return whether all values, times the scale, are (reasonably sized) whole numbers
+	 */
+	private static boolean isWhole(DoubleBuffer values, int n, double scale) {
+		for (int i = 0; i < n; i++) {
+			final double scaled = values.get(i) * scale;
+			if (scaled != Math.rint(scaled) || Math.abs(scaled) >= MAX_SCALED_VALUE) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Memory maps the file and reads the ink's header and the location of each stroke. The strokes are
+	 * decoded when they are first accessed.
+	 *
+	 * @param binaryFile
+	 * @return the ink
+	 * @throws IOException
+	 *             if the file cannot be read, or is not a binary ink file
+	 */
+	public static Ink read(File binaryFile) throws IOException {
+		final Ink ink = new Ink();
+		read(binaryFile, ink);
+		return ink;
+	}
+
+	/**
+	 * Replaces the contents of the ink with those of the file. The strokes are decoded when they are first
+	 * accessed.
+	 *
+	 * @param binaryFile
+	 * @param ink
+	 * @throws IOException
+	 */
+	static void read(File binaryFile, Ink ink) throws IOException {
+		final RandomAccessFile file = new RandomAccessFile(binaryFile, "r");
+		final ByteBuffer buffer;
+		try {
+			// the mapping stays valid after we close the file
+			buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+		} finally {
+			file.close();
+		}
+
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (buffer.get() != MAGIC[i]) {
+				throw new IOException(binaryFile + " is not a binary ink file.");
+			}
+		}
+		ink.setName(readString(buffer));
+		final String address = readString(buffer);
+		final InkSource source = InkSource.values()[buffer.get()];
+		if (address.length() > 0) {
+			ink.setSourcePageAddress(address);
+		}
+		ink.setSourceType(source);
+
+		final double minX = buffer.getDouble();
+		final double minY = buffer.getDouble();
+		final double maxX = buffer.getDouble();
+		final double maxY = buffer.getDouble();
+		final long minTS = buffer.getLong();
+		final long maxTS = buffer.getLong();
+
+		final int numStrokes = (int) readVarLong(buffer);
+		final int[] offsets = new int[numStrokes];
+		for (int i = 0; i < numStrokes; i++) {
+			final int length = (int) readVarLong(buffer);
+			offsets[i] = buffer.position();
+			buffer.position(buffer.position() + length);
+		}
+
+		ink.setStrokesAndBounds(new MappedInkStrokeList(buffer, offsets), minX, minY, maxX, maxY, minTS,
+				maxTS);
+	}
+
+	/**
+	 * @param buffer
+	 * @param shift
+	 * @param values
+	 *            filled in with the decoded column
+	 */
+	private static void readCoordinateColumn(ByteBuffer buffer, byte shift, double[] values) {
+		if (shift == RAW_DOUBLES) {
+			for (int i = 0; i < values.length; i++) {
+				values[i] = buffer.getDouble();
+			}
+			return;
+		}
+		final double scale = 1 << shift;
+		long v = 0;
+		for (int i = 0; i < values.length; i++) {
+			v += readVarLong(buffer);
+			values[i] = v / scale;
+		}
+	}
+
+	/**
+	 * @param buffer
+	 * @return a UTF-8 string, preceded by its length
+	 */
+	private static String readString(ByteBuffer buffer) {
+		final byte[] bytes = new byte[(int) readVarLong(buffer)];
+		buffer.get(bytes);
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (IOException e) {
+			// every JVM supports UTF-8
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * @param buffer
+	 * @return a zig-zag encoded varint
+	 */
+	private static long readVarLong(ByteBuffer buffer) {
+		long raw = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			raw |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return (raw >>> 1) ^ -(raw & 1);
+	}
+
+	/**
+	 * Writes the ink to a file in one pass. The ink may have been read from that very file, and still be
+	 * decoding its strokes from the file's mapping, so we never truncate the file: we write a new file next to
+	 * it, and then put the new file in its place. If anything goes wrong, the old file is left as it was.
+	 *
+	 * @param ink
+	 * @param binaryFileDest
+	 * @throws IOException
+	 */
+	public static void write(Ink ink, File binaryFileDest) throws IOException {
+		final File dest = binaryFileDest.getAbsoluteFile();
+		final File temp = File.createTempFile("ink", ".tmp", dest.getParentFile());
+		boolean written = false;
+		try {
+			writeTo(ink, temp);
+			written = true;
+		} finally {
+			if (!written) {
+				temp.delete();
+			}
+		}
+		if (temp.renameTo(dest)) {
+			return;
+		}
+		// some platforms will not rename over an existing file
+		if (!dest.delete()) {
+			temp.delete();
+			throw new IOException("Could not replace " + dest + " (is it still in use?)");
+		}
+		if (!temp.renameTo(dest)) {
+			throw new IOException("Could not rename " + temp + " to " + dest + "; the ink is in " + temp);
+		}
+	}
+
+	/**
+	 * @param ink
+	 * @param file
+	 *            a new file (the ink's strokes must not be mapped from it)
+	 * @throws IOException
+	 */
+	private static void writeTo(Ink ink, File file) throws IOException {
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.write(MAGIC);
+			writeString(out, ink.getName() == null ? "" : ink.getName());
+			final PageAddress address = ink.getSourcePageAddress();
+			writeString(out, address == null ? "" : address.toString());
+			out.writeByte(ink.getSourceType().ordinal());
+
+			out.writeDouble(ink.getMinX());
+			out.writeDouble(ink.getMinY());
+			out.writeDouble(ink.getMaxX());
+			out.writeDouble(ink.getMaxY());
+			out.writeLong(ink.getFirstTimestamp());
+			out.writeLong(ink.getLastTimestamp());
+
+			final List<InkStroke> strokes = ink.getStrokes();
+			writeVarLong(out, strokes.size());
+
+			// each record is built here first, so that we can write its length before it
+			final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+			final DataOutputStream record = new DataOutputStream(recordBytes);
+			for (InkStroke stroke : strokes) {
+				final int n = stroke.getNumSamples();
+				final DoubleBuffer xs = stroke.getXView();
+				final DoubleBuffer ys = stroke.getYView();
+				final IntBuffer forces = stroke.getForceView();
+				final LongBuffer times = stroke.getTimeView();
+
+				recordBytes.reset();
+				writeVarLong(record, n);
+				record.writeDouble(stroke.getMinX());
+				record.writeDouble(stroke.getMinY());
+				record.writeDouble(stroke.getMaxX());
+				record.writeDouble(stroke.getMaxY());
+				final byte shift = chooseScaleShift(xs, ys, n);
+				record.writeByte(shift);
+				writeCoordinateColumn(record, shift, xs, n);
+				writeCoordinateColumn(record, shift, ys, n);
+				long lastT = 0;
+				for (int i = 0; i < n; i++) {
+					final long t = times.get(i);
+					writeVarLong(record, t - lastT);
+					lastT = t;
+				}
+				for (int i = 0; i < n; i++) {
+					writeVarLong(record, forces.get(i));
+				}
+				record.flush();
+
+				writeVarLong(out, recordBytes.size());
+				recordBytes.writeTo(out);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @param out
+	 * @param shift
+	 * @param values
+	 * @param n
+	 * @throws IOException
+	 */
+	private static void writeCoordinateColumn(DataOutputStream out, byte shift, DoubleBuffer values, int n)
+			throws IOException {
+		if (shift == RAW_DOUBLES) {
+			for (int i = 0; i < n; i++) {
+				out.writeDouble(values.get(i));
+			}
+			return;
+		}
+		final double scale = 1 << shift;
+		long last = 0;
+		for (int i = 0; i < n; i++) {
+			final long v = (long) (values.get(i) * scale);
+			writeVarLong(out, v - last);
+			last = v;
+		}
+	}
+
+	/**
+	 * @param out
+	 * @param s
+	 * @throws IOException
+	 */
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		final byte[] bytes = s.getBytes("UTF-8");
+		writeVarLong(out, bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Writes a zig-zag encoded varint: 7 bits per byte, with the high bit set on all but the last byte.
+	 *
+	 * @param out
+	 * @param value
+	 * @throws IOException
+	 */
+	private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		long raw = (value << 1) ^ (value >> 63);
+		while ((raw & ~0x7FL) != 0) {
+			out.writeByte((int) ((raw & 0x7F) | 0x80));
+			raw >>>= 7;
+		}
+		out.writeByte((int) raw);
+	}
+}
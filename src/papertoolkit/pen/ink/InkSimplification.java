@@ -22,6 +22,10 @@ import papertoolkit.util.MathUtils;
  * If the stroke is turning in a different direction, then the threshold is much smaller...
  * </p>
  * <p>
+ * This filter has no bound on how far a dropped sample may be from the stroke. For the live ink path, see
+ * StrokeSimplifier, which does.
+ * </p>
+ * <p>
  * <span class="BSDLicense"> This software is distributed under the <a
  * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
  * </p>
@@ -135,7 +139,7 @@ public class InkSimplification {
 	public void simplifyStroke(InkStroke currentStroke) {
 		reset();
 
-		List<PenSample> samples = currentStroke.getSamples();
+		List<PenSample> samples = currentStroke.getSampleView();
 		List<PenSample> newSamples = new ArrayList<PenSample>();
 
 		for (PenSample s : samples) {
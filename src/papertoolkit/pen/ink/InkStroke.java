@@ -1,9 +1,14 @@
 package papertoolkit.pen.ink;
 
 import java.awt.geom.Rectangle2D;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.List;
@@ -25,6 +30,10 @@ import papertoolkit.util.MathUtils;
  * Anoto pattern tile, unless otherwise specified.
  * </p>
  * <p>
+ * The samples are kept in parallel arrays (x, y, force, and time), instead of one PenSample object per
+ * sample. This is a lot smaller, and lets renderers and recognizers read the coordinates through the
+ * getXView()... methods without copying anything. PenSample objects are only made when someone calls
+ * getSampleView() or getSamples().
  * </p>
  * <p>
  * <span class="BSDLicense"> This software is distributed under the <a
@@ -40,6 +49,16 @@ public class InkStroke {
 	 */
 	private static final PatternDots DEFAULT_REFERENCE_UNIT = new PatternDots();
 
+	/**
+	 * How many samples we make room for, before the arrays need to grow.
+	 */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * The force of each sample.
+	 */
+	private int[] forces;
+
 	/**
 	 * The bounds of this ink stroke. This is the rightmost x coordinate of any sample in this stroke.
 	 */
@@ -60,26 +79,57 @@ public class InkStroke {
 	 */
 	private double minY = Double.MAX_VALUE;
 
+	/**
+	 * How many entries of the arrays are in use.
+	 */
+	private int numSamples = 0;
+
 	/**
 	 * How to interpret our units.
 	 */
 	private Units referenceUnit;
 
 	/**
-	 * store it in any units you like, specified by referenceUnit.
+	 * The list that getSamples() handed out. Like before, changes made through it show up in this stroke, so
+	 * while we have one, we read our arrays back from it before using them.
+	 */
+	private List<PenSample> liveSamples;
+
+	/**
+	 * Made by getSampleView(), and thrown away whenever the stroke changes.
 	 */
-	private List<PenSample> samples = new ArrayList<PenSample>();
+	private List<PenSample> samples;
 
 	/**
 	 * The stroke width. It determines how wide the ink stroke will look when rendered.
 	 */
 	private double strokeWidth = 1.2;
 
+	/**
+	 * The timestamp of each sample.
+	 */
+	private long[] times;
+
+	/**
+	 * Changes whenever the samples change, so that caches (e.g., of rendered geometry) can tell.
+	 */
+	private int version = 0;
+
+	/**
+	 * Store the coordinates in any units you like, specified by referenceUnit.
+	 */
+	private double[] xs;
+
+	/**
+	 * 
+	 */
+	private double[] ys;
+
 	/**
 	 * Inkstroke in Pattern Dots...
 	 */
 	public InkStroke() {
-		referenceUnit = DEFAULT_REFERENCE_UNIT;
+		this(INITIAL_CAPACITY, DEFAULT_REFERENCE_UNIT);
 	}
 
 	/**
@@ -90,12 +140,26 @@ public class InkStroke {
 	 * @param reference
 	 */
 	public InkStroke(Collection<PenSample> currentStrokeSamples, Units reference) {
-		referenceUnit = reference;
+		this(currentStrokeSamples.size(), reference);
 		for (PenSample s : currentStrokeSamples) {
 			addSample(s.x, s.y, s.force, s.timestamp);
 		}
 	}
 
+	/**
+	 * @param capacity
+	 *            how many samples to make room for
+	 * @param reference
+	 */
+	private InkStroke(int capacity, Units reference) {
+		referenceUnit = reference;
+		final int n = Math.max(capacity, 1);
+		xs = new double[n];
+		ys = new double[n];
+		forces = new int[n];
+		times = new long[n];
+	}
+
 	/**
 	 * @param stroke
 	 */
@@ -110,7 +174,20 @@ public class InkStroke {
 	 * @param ts
 	 */
 	public void addSample(double x, double y, int force, long ts) {
-		samples.add(new PenSample(x, y, force, ts));
+		readBackLiveSamples();
+		if (numSamples == xs.length) {
+			ensureCapacity(xs.length + (xs.length >> 1) + 1);
+		}
+		if (liveSamples != null) {
+			liveSamples.add(new PenSample(x, y, force, ts));
+		}
+		xs[numSamples] = x;
+		ys[numSamples] = y;
+		forces[numSamples] = force;
+		times[numSamples] = ts;
+		numSamples++;
+		samples = null;
+		version++;
 
 		// update maxs and mins
 		minX = Math.min(x, minX);
@@ -120,16 +197,27 @@ public class InkStroke {
 	}
 
 	/**
+	 * Copies the sample's values into this stroke.
+	 * 
 	 * @param penSample
 	 */
 	public void addSample(PenSample penSample) {
-		samples.add(penSample);
+		addSample(penSample.x, penSample.y, penSample.force, penSample.timestamp);
+	}
 
-		// update maxs and mins
-		minX = Math.min(penSample.x, minX);
-		minY = Math.min(penSample.y, minY);
-		maxX = Math.max(penSample.x, maxX);
-		maxY = Math.max(penSample.y, maxY);
+	/**
+	 * Grows the arrays, if they cannot hold this many samples.
+	 * 
+	 * @param capacity
+	 */
+	private void ensureCapacity(int capacity) {
+		if (capacity <= xs.length) {
+			return;
+		}
+		xs = Arrays.copyOf(xs, capacity);
+		ys = Arrays.copyOf(ys, capacity);
+		forces = Arrays.copyOf(forces, capacity);
+		times = Arrays.copyOf(times, capacity);
 	}
 
 	/**
@@ -159,50 +247,59 @@ public class InkStroke {
 	 * @return
 	 */
 	public PenSample getEnd() {
-		return samples.get(samples.size() - 1);
+		readBackLiveSamples();
+		return getSample(numSamples - 1);
 	}
 
 	/**
 	 * @return the earliest time stamp of this stroke
 	 */
 	public long getFirstTimestamp() {
-		if (samples.size() == 0) {
+		readBackLiveSamples();
+		if (numSamples == 0) {
 			return Long.MAX_VALUE; // biggest possible timestamp! (i.e., invalid)
 		}
-		return samples.get(0).timestamp;
+		return times[0];
 	}
 
 	public Date getFirstTimestampAsDate() {
-		return new Date(samples.get(0).timestamp);
+		readBackLiveSamples();
+		return new Date(times[0]);
 	}
 
 	/**
-	 * @return
+	 * @return a copy of the forces
 	 */
 	public int[] getForceSamples() {
-		int numSamples = getNumSamples();
-		int[] f = new int[numSamples];
-		for (int i = 0; i < numSamples; i++) {
-			f[i] = samples.get(i).force;
-		}
-		return f;
+		readBackLiveSamples();
+		return Arrays.copyOf(forces, numSamples);
+	}
+
+	/**
+	 * @return the forces, without copying them (read only; see getXView())
+	 */
+	public IntBuffer getForceView() {
+		readBackLiveSamples();
+		return IntBuffer.wrap(forces, 0, numSamples).slice().asReadOnlyBuffer();
 	}
 
 	/**
 	 * @return
 	 */
 	public long getLastTimestamp() {
-		if (samples.size() == 0) {
+		readBackLiveSamples();
+		if (numSamples == 0) {
 			return Long.MIN_VALUE; // smallest possible timestamp! (i.e., invalid)
 		}
-		return samples.get(samples.size() - 1).timestamp;
+		return times[numSamples - 1];
 	}
 
 	/**
 	 * @return
 	 */
 	public Date getLastTimestampAsDate() {
-		return new Date(samples.get(samples.size() - 1).timestamp);
+		readBackLiveSamples();
+		return new Date(times[numSamples - 1]);
 	}
 
 	/**
@@ -246,7 +343,8 @@ public class InkStroke {
 	 * @return
 	 */
 	public int getNumSamples() {
-		return samples.size();
+		readBackLiveSamples();
+		return numSamples;
 	}
 
 	/**
@@ -256,87 +354,187 @@ public class InkStroke {
 		return referenceUnit;
 	}
 
-	public List<PenSample> getSamples() {
+	/**
+	 * @param i
+	 * @return a new PenSample holding the i-th sample
+	 */
+	private PenSample getSample(int i) {
+		readBackLiveSamples();
+		if (i < 0 || i >= numSamples) {
+			throw new IndexOutOfBoundsException("Sample " + i + " of " + numSamples);
+		}
+		return new PenSample(xs[i], ys[i], forces[i], times[i]);
+	}
+
+	/**
+	 * Makes PenSample objects for the samples the first time it is called (and again after the stroke
+	 * changes). If you only need the coordinates, the getXView()... methods are much cheaper.
+	 * 
+	 * @return the samples, which you may not add to, remove from, or modify (use addSample(...) or
+	 *         setSamples(...) instead)
+	 */
+	public List<PenSample> getSampleView() {
+		readBackLiveSamples();
+		if (samples == null) {
+			final List<PenSample> list = new ArrayList<PenSample>(numSamples);
+			for (int i = 0; i < numSamples; i++) {
+				list.add(new PenSample(xs[i], ys[i], forces[i], times[i]));
+			}
+			samples = Collections.unmodifiableList(list);
+		}
 		return samples;
 	}
 
+	/**
+	 * As before, you may change the samples through this list (add, remove, or modify them), and the stroke
+	 * will see it. It will not update the bounds, though. While anyone holds on to this list, every other
+	 * method has to read the samples back from it, which is slow.
+	 * 
+	 * @return the stroke's own list of samples
+	 * @deprecated use getSampleView() to read the samples, and addSample(...) or setSamples(...) to change
+	 *             them
+	 */
+	@Deprecated
+	public List<PenSample> getSamples() {
+		if (liveSamples == null) {
+			final List<PenSample> list = new ArrayList<PenSample>(numSamples);
+			for (int i = 0; i < numSamples; i++) {
+				list.add(new PenSample(xs[i], ys[i], forces[i], times[i]));
+			}
+			liveSamples = list;
+		}
+		return liveSamples;
+	}
+
 	/**
 	 * Returns the first sample in this stroke (start-point).
 	 * 
 	 * @return
 	 */
 	public PenSample getStart() {
-		return samples.get(0);
+		return getSample(0);
 	}
 
 	/**
-	 * @return
+	 * @return a copy of the timestamps
 	 */
 	public long[] getTimeSamples() {
-		int numSamples = getNumSamples();
-		long[] t = new long[numSamples];
-		for (int i = 0; i < numSamples; i++) {
-			t[i] = samples.get(i).timestamp;
-		}
-		return t;
+		readBackLiveSamples();
+		return Arrays.copyOf(times, numSamples);
+	}
+
+	/**
+	 * @return the timestamps, without copying them (read only; see getXView())
+	 */
+	public LongBuffer getTimeView() {
+		readBackLiveSamples();
+		return LongBuffer.wrap(times, 0, numSamples).slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return a number that changes whenever samples are added or replaced. If it is the same as before, so
+	 *         are the samples.
+	 */
+	public int getVersion() {
+		readBackLiveSamples();
+		return version;
 	}
 
 	public double getWidth() {
 		return strokeWidth;
 	}
-	
+
 //	public double getWidthWithForce() {
 //		return strokeWidth * (avg / baseline);
 //	}
 
 	/**
-	 * @return
+	 * @return a copy of the x coordinates
 	 */
 	public double[] getXSamples() {
-		int numSamples = getNumSamples();
-		double[] x = new double[numSamples];
-		for (int i = 0; i < numSamples; i++) {
-			x[i] = samples.get(i).x;
-		}
-		return x;
+		readBackLiveSamples();
+		return Arrays.copyOf(xs, numSamples);
 	}
 
 	/**
 	 * @return
 	 */
 	public int[] getXSamplesAsInts() {
-		int numSamples = getNumSamples();
+		readBackLiveSamples();
 		int[] xInts = new int[numSamples];
 		for (int i = 0; i < numSamples; i++) {
-			xInts[i] = MathUtils.rint(samples.get(i).x);
+			xInts[i] = MathUtils.rint(xs[i]);
 		}
 		return xInts;
 	}
 
 	/**
-	 * @return
+	 * A read only view of the x coordinates, without copying them. Index 0 is the first sample, and the
+	 * view's limit is the number of samples. Samples added to the stroke later on may or may not show up in
+	 * a view you already have, so ask for a new one after changing the stroke.
+	 * 
+	 * @return the x coordinates
+	 */
+	public DoubleBuffer getXView() {
+		readBackLiveSamples();
+		return DoubleBuffer.wrap(xs, 0, numSamples).slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return a copy of the y coordinates
 	 */
 	public double[] getYSamples() {
-		int numSamples = getNumSamples();
-		double[] y = new double[numSamples];
-		for (int i = 0; i < numSamples; i++) {
-			y[i] = samples.get(i).y;
-		}
-		return y;
+		readBackLiveSamples();
+		return Arrays.copyOf(ys, numSamples);
 	}
 
 	/**
 	 * @return
 	 */
 	public int[] getYSamplesAsInts() {
-		int numSamples = getNumSamples();
+		readBackLiveSamples();
 		int[] yInts = new int[numSamples];
 		for (int i = 0; i < numSamples; i++) {
-			yInts[i] = MathUtils.rint(samples.get(i).y);
+			yInts[i] = MathUtils.rint(ys[i]);
 		}
 		return yInts;
 	}
 
+	/**
+	 * @return the y coordinates, without copying them (read only; see getXView())
+	 */
+	public DoubleBuffer getYView() {
+		readBackLiveSamples();
+		return DoubleBuffer.wrap(ys, 0, numSamples).slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * Copies any changes made through the list from getSamples() into our arrays.
+	 */
+	private void readBackLiveSamples() {
+		if (liveSamples == null) {
+			return;
+		}
+		final int n = liveSamples.size();
+		ensureCapacity(n);
+		boolean changed = n != numSamples;
+		for (int i = 0; i < n; i++) {
+			final PenSample s = liveSamples.get(i);
+			if (!changed) {
+				changed = xs[i] != s.x || ys[i] != s.y || forces[i] != s.force || times[i] != s.timestamp;
+			}
+			xs[i] = s.x;
+			ys[i] = s.y;
+			forces[i] = s.force;
+			times[i] = s.timestamp;
+		}
+		numSamples = n;
+		if (changed) {
+			samples = null;
+			version++;
+		}
+	}
+
 	/**
 	 * @param minStrokeX
 	 * @param minStrokeY
@@ -382,8 +580,29 @@ public class InkStroke {
 		minY = mnY;
 	}
 
+	/**
+	 * Replaces the samples (but not the bounds) of this stroke. A list you got from getSamples() earlier no
+	 * longer belongs to this stroke.
+	 * 
+	 * @param newSamples
+	 */
 	public void setSamples(List<PenSample> newSamples) {
-		samples = newSamples;
+		final int n = Math.max(newSamples.size(), 1);
+		xs = new double[n];
+		ys = new double[n];
+		forces = new int[n];
+		times = new long[n];
+		numSamples = 0;
+		for (PenSample s : newSamples) {
+			xs[numSamples] = s.x;
+			ys[numSamples] = s.y;
+			forces[numSamples] = s.force;
+			times[numSamples] = s.timestamp;
+			numSamples++;
+		}
+		liveSamples = null;
+		samples = null;
+		version++;
 	}
 
 	/*
@@ -402,9 +621,10 @@ public class InkStroke {
 	}
 
 	public InkStroke getRecentered(double xOffset, double yOffset) {
-		InkStroke recenteredInkStroke = new InkStroke();
-		for (PenSample s : samples) {
-			recenteredInkStroke.addSample(new PenSample(s.x - xOffset, s.y - yOffset, s.force, s.timestamp));
+		readBackLiveSamples();
+		InkStroke recenteredInkStroke = new InkStroke(numSamples, DEFAULT_REFERENCE_UNIT);
+		for (int i = 0; i < numSamples; i++) {
+			recenteredInkStroke.addSample(xs[i] - xOffset, ys[i] - yOffset, forces[i], times[i]);
 		}
 		return recenteredInkStroke;
 	}
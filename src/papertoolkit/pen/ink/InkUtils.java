@@ -3,6 +3,9 @@ package papertoolkit.pen.ink;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.lang.reflect.Method;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -222,12 +225,12 @@ public class InkUtils {
 	 * @return
 	 */
 	public static double getMaxDistanceBetweenSamples(InkStroke stroke) {
-		List<PenSample> samples = stroke.getSamples();
-		PenSample currSample = samples.get(0);
+		final DoubleBuffer x = stroke.getXView();
+		final DoubleBuffer y = stroke.getYView();
 		double maxDistance = Double.MIN_VALUE;
-		for (PenSample s : samples) {
-			maxDistance = Math.max(s.getDistanceFrom(currSample), maxDistance);
-			currSample = s;
+		for (int i = 1; i < x.limit(); i++) {
+			maxDistance = Math.max(MathUtils.distance(x.get(i), y.get(i), x.get(i - 1), y.get(i - 1)),
+					maxDistance);
 		}
 		return maxDistance;
 	}
@@ -329,7 +332,7 @@ public class InkUtils {
 
 		List<StationaryPoint> pts = new ArrayList<StationaryPoint>();
 
-		List<PenSample> samples = stroke.getSamples();
+		List<PenSample> samples = stroke.getSampleView();
 		int numSamples = samples.size();
 		if (numSamples < 2) {
 			return new ArrayList<StationaryPoint>(); // empty list
@@ -396,9 +399,12 @@ public class InkUtils {
 	 */
 	public static InkStroke scale(InkStroke stroke, double scaleX, double scaleY) {
 		InkStroke scaledStroke = new InkStroke();
-		List<PenSample> samples = stroke.getSamples();
-		for (PenSample s: samples) {
-			scaledStroke.addSample(s.x*scaleX, s.y*scaleY, s.force, s.timestamp);
+		final DoubleBuffer x = stroke.getXView();
+		final DoubleBuffer y = stroke.getYView();
+		final IntBuffer f = stroke.getForceView();
+		final LongBuffer t = stroke.getTimeView();
+		for (int i = 0; i < x.limit(); i++) {
+			scaledStroke.addSample(x.get(i) * scaleX, y.get(i) * scaleY, f.get(i), t.get(i));
 		}
 		return scaledStroke;
 	}
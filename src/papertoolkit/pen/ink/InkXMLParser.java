@@ -3,6 +3,8 @@ package papertoolkit.pen.ink;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
 
 import javax.xml.stream.XMLInputFactory;
@@ -71,25 +73,42 @@ public class InkXMLParser {
 	 * @param xmlFileSource
 	 */
 	public void parse(File xmlFileSource) {
+		try {
+			parse(new FileReader(xmlFileSource));
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @param reader
+	 */
+	private void parse(Reader reader) {
 		// Create an input factory
 		final XMLInputFactory xmlif = XMLInputFactory.newInstance();
 		// Create an XML stream reader
 		XMLStreamReader xmlr;
 		try {
-			xmlr = xmlif.createXMLStreamReader(new FileReader(xmlFileSource));
+			xmlr = xmlif.createXMLStreamReader(reader);
 			// Loop over XML input stream and process events
 			while (xmlr.hasNext()) {
 				processEvent(xmlr);
 				xmlr.next();
 			}
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
 		} catch (XMLStreamException e) {
 			e.printStackTrace();
 		}
 
 	}
 
+	/**
+	 * @param xml
+	 *            the output of Ink.toXMLString(...), e.g., a request to the handwriting recognition server
+	 */
+	public void parse(String xml) {
+		parse(new StringReader(xml));
+	}
+
 	/**
 	 * @param xmlr
 	 * @param index
@@ -0,0 +1,94 @@
+package papertoolkit.pen.ink;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * The strokes of an Ink object that was read from a binary ink file. Each stroke stays encoded in the
+ * memory-mapped file until someone asks for it. After that, we keep the decoded stroke. The list can be
+ * modified like any other list of strokes.
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+class MappedInkStrokeList extends AbstractList<InkStroke> {
+
+	/**
+	 * The whole mapped file. We only ever read from duplicates of it, so its position never changes.
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * Either a decoded InkStroke, or the (Integer) offset of its record in the buffer.
+	 */
+	private final List<Object> entries;
+
+	/**
+	 * @param mappedFile
+	 * @param strokeOffsets
+	 *            where each stroke's record starts
+	 */
+	public MappedInkStrokeList(ByteBuffer mappedFile, int[] strokeOffsets) {
+		buffer = mappedFile;
+		entries = new ArrayList<Object>(strokeOffsets.length);
+		for (int offset : strokeOffsets) {
+			entries.add(offset);
+		}
+	}
+
+	/**
+	 * @see java.util.AbstractList#add(int, java.lang.Object)
+	 */
+	public synchronized void add(int index, InkStroke stroke) {
+		entries.add(index, stroke);
+		modCount++;
+	}
+
+	/**
+	 * @see java.util.AbstractList#get(int)
+	 */
+	public synchronized InkStroke get(int index) {
+		final Object entry = entries.get(index);
+		if (entry instanceof InkStroke) {
+			return (InkStroke) entry;
+		}
+		final ByteBuffer record = buffer.duplicate();
+		record.position((Integer) entry);
+		final InkStroke stroke = InkBinaryFormat.decodeStroke(record);
+		entries.set(index, stroke);
+		return stroke;
+	}
+
+	/**
+	 * @see java.util.AbstractList#remove(int)
+	 */
+	public synchronized InkStroke remove(int index) {
+		final InkStroke stroke = get(index);
+		entries.remove(index);
+		modCount++;
+		return stroke;
+	}
+
+	/**
+	 * @see java.util.AbstractList#set(int, java.lang.Object)
+	 */
+	public synchronized InkStroke set(int index, InkStroke stroke) {
+		final InkStroke old = get(index);
+		entries.set(index, stroke);
+		return old;
+	}
+
+	/**
+	 * @see java.util.AbstractCollection#size()
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+}
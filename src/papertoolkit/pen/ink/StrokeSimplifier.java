@@ -0,0 +1,242 @@
+package papertoolkit.pen.ink;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import papertoolkit.pen.PenSample;
+import papertoolkit.units.PatternDots;
+import papertoolkit.units.Units;
+
+/**
+ * <p>
+ * Simplifies a stroke while it is being written, one sample at a time, so that we never store (or render)
+ * the full pen rate. This is the "opening window" flavor of Douglas-Peucker: we remember the last sample we
+ * kept (the anchor), and hold back the newest sample. When a new sample arrives, we check that every sample
+ * since the anchor lies within the tolerance of the segment from the anchor to the new sample. If they do,
+ * the held sample is dropped. If one does not, the held sample is kept, and becomes the new anchor.
+ * </p>
+ * <p>
+ * So, every sample that we drop is within the tolerance of the polyline that we keep. The first sample of a
+ * stroke is always kept, and flush() hands back the held sample, so the last one is kept too. A kept sample
+ * is reported at most one sample late (or, on a long straight line, at most maxWindow samples late).
+ * </p>
+ * <p>
+ * One simplifier handles one pen's strokes, from one thread. See InkHandler.setSimplification(...) and
+ * EventDispatcher.setSimplification(...). Use getReductionRatio() to tune the tolerance.
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+public class StrokeSimplifier {
+
+	/**
+	 * One pattern dot is about 0.3 mm, which is well under the width of the ink.
+	 */
+	public static final Units DEFAULT_TOLERANCE = new PatternDots(1);
+
+	/**
+	 * At most this many samples wait in the window, so that checking a sample stays cheap, and a kept sample
+	 * is never reported too late.
+	 */
+	public static final int DEFAULT_MAX_WINDOW = 32;
+
+	private double anchorX;
+
+	private double anchorY;
+
+	private boolean hasAnchor = false;
+
+	/**
+	 * The newest sample, which we keep only if the next one does not fit.
+	 */
+	private PenSample held;
+
+	private final int maxWindow;
+
+	private long numSamplesIn = 0;
+
+	private long numSamplesOut = 0;
+
+	/**
+	 * Squared, in pattern dots.
+	 */
+	private final double toleranceSquared;
+
+	private final double[] windowX;
+
+	private final double[] windowY;
+
+	private int windowSize = 0;
+
+	/**
+	 * Uses the DEFAULT_TOLERANCE.
+	 */
+	public StrokeSimplifier() {
+		this(DEFAULT_TOLERANCE);
+	}
+
+	/**
+	 * @param tolerance
+	 *            how far a dropped sample may be from the simplified stroke
+	 */
+	public StrokeSimplifier(Units tolerance) {
+		this(tolerance, DEFAULT_MAX_WINDOW);
+	}
+
+	/**
+	 * @param tolerance
+	 *            how far a dropped sample may be from the simplified stroke
+	 * @param maxSamplesInWindow
+	 *            at most this many samples are dropped in a row
+	 */
+	public StrokeSimplifier(Units tolerance, int maxSamplesInWindow) {
+		final double dots = tolerance.getValueInPatternDots();
+		toleranceSquared = dots * dots;
+		maxWindow = Math.max(1, maxSamplesInWindow);
+		windowX = new double[maxWindow];
+		windowY = new double[maxWindow];
+	}
+
+	/**
+	 * @return the held sample, which is now the anchor
+	 */
+	private PenSample commitHeld() {
+		final PenSample kept = held;
+		held = null;
+		anchorX = kept.x;
+		anchorY = kept.y;
+		windowSize = 0;
+		numSamplesOut++;
+		return kept;
+	}
+
+	/**
+	 * @return true if every sample in the window is within the tolerance of the segment from the anchor to
+	 *         (x, y)
+	 */
+	private boolean fits(double x, double y) {
+		final double dx = x - anchorX;
+		final double dy = y - anchorY;
+		final double lengthSquared = dx * dx + dy * dy;
+		for (int i = 0; i < windowSize; i++) {
+			double px = windowX[i] - anchorX;
+			double py = windowY[i] - anchorY;
+			if (lengthSquared > 0) {
+				// distance to the closest point on the segment
+				final double t = Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSquared));
+				px -= t * dx;
+				py -= t * dy;
+			}
+			if (px * px + py * py > toleranceSquared) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Call this at pen up. If we simplify the next samples without calling reset() (e.g., the pen came back
+	 * down right away), they continue from the returned sample.
+	 *
+	 * @return the last sample of the stroke, if we have not reported it yet (or null)
+	 */
+	public PenSample flush() {
+		return held == null ? null : commitHeld();
+	}
+
+	public long getNumSamplesIn() {
+		return numSamplesIn;
+	}
+
+	public long getNumSamplesOut() {
+		return numSamplesOut;
+	}
+
+	/**
+	 * @return samples in per sample kept (e.g., 4.0 means we kept one in four), or 1 if we have not seen
+	 *         anything yet
+	 */
+	public double getReductionRatio() {
+		final long out = numSamplesOut + (held == null ? 0 : 1);
+		return out == 0 ? 1 : numSamplesIn / (double) out;
+	}
+
+	/**
+	 * @param sample
+	 *            the next sample of the stroke. It is not modified, and we keep a copy if we need one.
+	 * @return a sample to keep, or null if there is nothing to keep yet. This is the sample passed in if it
+	 *         starts the stroke, or an earlier sample that we were holding back.
+	 */
+	public PenSample offer(PenSample sample) {
+		numSamplesIn++;
+		if (!hasAnchor) {
+			hasAnchor = true;
+			anchorX = sample.x;
+			anchorY = sample.y;
+			numSamplesOut++;
+			return sample;
+		}
+
+		PenSample kept = null;
+		if (held != null && (windowSize == maxWindow || !fits(sample.x, sample.y))) {
+			kept = commitHeld();
+		}
+		windowX[windowSize] = sample.x;
+		windowY[windowSize] = sample.y;
+		windowSize++;
+		held = sample.copy();
+		return kept;
+	}
+
+	/**
+	 * Call this at pen down, to start a new stroke. The counts are not reset.
+	 */
+	public void reset() {
+		hasAnchor = false;
+		held = null;
+		windowSize = 0;
+	}
+
+	/**
+	 * Simplifies a stroke that has already been written (e.g., ink loaded from a file).
+	 *
+	 * @param stroke
+	 * @return a new stroke with the samples that we keep
+	 */
+	public InkStroke simplify(InkStroke stroke) {
+		reset();
+		final DoubleBuffer xs = stroke.getXView();
+		final DoubleBuffer ys = stroke.getYView();
+		final IntBuffer forces = stroke.getForceView();
+		final LongBuffer times = stroke.getTimeView();
+		final List<PenSample> samples = new ArrayList<PenSample>();
+		final PenSample sample = new PenSample(0, 0, 0, 0);
+		for (int i = 0; i < stroke.getNumSamples(); i++) {
+			sample.set(xs.get(i), ys.get(i), forces.get(i), times.get(i), false);
+			final PenSample kept = offer(sample);
+			if (kept != null) {
+				samples.add(kept == sample ? sample.copy() : kept);
+			}
+		}
+		final PenSample last = flush();
+		if (last != null) {
+			samples.add(last);
+		}
+		return new InkStroke(samples, stroke.getReferenceUnit());
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "StrokeSimplifier {" + numSamplesIn + " samples in, " + numSamplesOut + " kept, ratio "
+				+ String.format("%.2f", getReductionRatio()) + "}";
+	}
+}
@@ -0,0 +1,238 @@
+package papertoolkit.pen.streaming;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import papertoolkit.pen.streaming.PenServer.OverflowPolicy;
+
+/**
+ * <p>
+ * A bounded ring buffer of encoded samples, waiting to be written to one PenServer client. The pen's thread
+ * offers samples, and the PenServer's selector thread writes them out whenever the client's socket can take
+ * more bytes. A slow client only fills up its own queue; what happens then is up to the OverflowPolicy.
+ * </p>
+ * <p>
+ * A message that has been partially written is never dropped or replaced, since that would corrupt the
+ * stream.
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+class OutboundSampleQueue {
+
+	/**
+	 * Whether each message may be replaced by a newer one (i.e., it is a plain sample, and not a pen down or
+	 * pen up).
+	 */
+	private final boolean[] coalescable;
+
+	/**
+	 * The index of the oldest message.
+	 */
+	private int head = 0;
+
+	private final byte[][] messages;
+
+	private int numDropped = 0;
+
+	/**
+	 * How many messages at the head are headers, which must not be dropped or replaced.
+	 */
+	private int numPinned = 0;
+
+	private final OverflowPolicy policy;
+
+	private int size = 0;
+
+	/**
+	 * Whether any bytes have gone out over the wire yet.
+	 */
+	private boolean started = false;
+
+	/**
+	 * How many bytes of the oldest message have already gone out over the wire.
+	 */
+	private int writtenOfHead = 0;
+
+	/**
+	 * @param capacity
+	 *            the maximum number of messages to hold (at least 2)
+	 * @param overflowPolicy
+	 */
+	public OutboundSampleQueue(int capacity, OverflowPolicy overflowPolicy) {
+		final int cap = Math.max(2, capacity);
+		messages = new byte[cap][];
+		coalescable = new boolean[cap];
+		policy = overflowPolicy;
+	}
+
+	/**
+	 * Appends a message at the tail.
+	 */
+	private void append(byte[] msg, boolean canCoalesce) {
+		final int tail = slot(size);
+		messages[tail] = msg;
+		coalescable[tail] = canCoalesce;
+		size++;
+	}
+
+	/**
+	 * @return the index of the oldest message that we can drop (the head, unless it is partially written)
+	 */
+	private int firstRemovable() {
+		return Math.max(numPinned, writtenOfHead > 0 ? 1 : 0);
+	}
+
+	/**
+	 * @return how many messages we have dropped or replaced, because the client could not keep up
+	 */
+	public synchronized int getNumDropped() {
+		return numDropped;
+	}
+
+	/**
+	 * @return whether there is nothing left to write
+	 */
+	public synchronized boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @param msg
+	 *            an encoded message. We keep a reference to it, so do not modify it afterward (the same array
+	 *            may be shared by many clients).
+	 * @param canCoalesce
+	 *            whether a newer message may replace this one if the queue fills up
+	 * @return false if the queue is full and the policy says to disconnect this client
+	 */
+	public synchronized boolean offer(byte[] msg, boolean canCoalesce) {
+		if (size < messages.length) {
+			append(msg, canCoalesce);
+			return true;
+		}
+
+		switch (policy) {
+		case DISCONNECT:
+			return false;
+		case COALESCE_SAMPLES:
+			// replace the newest plain sample with this one, so the client sees the latest location
+			final int newest = size - 1;
+			if (canCoalesce && coalescable[slot(newest)] && newest >= firstRemovable()) {
+				messages[slot(newest)] = msg;
+				numDropped++;
+				return true;
+			}
+			// otherwise, make room by dropping the oldest plain sample, keeping pen downs and pen ups
+			int victim = -1;
+			for (int i = firstRemovable(); i < size; i++) {
+				if (coalescable[slot(i)]) {
+					victim = i;
+					break;
+				}
+			}
+			removeAt(victim == -1 ? firstRemovable() : victim);
+			break;
+		case DROP_OLDEST:
+			removeAt(firstRemovable());
+			break;
+		}
+		numDropped++;
+		append(msg, canCoalesce);
+		return true;
+	}
+
+	/**
+	 * Queues a message that must reach the client intact, like a format's magic bytes. No overflow policy
+	 * drops or replaces it. Offer headers before any samples.
+	 *
+	 * @param msg
+	 */
+	public synchronized void offerHeader(byte[] msg) {
+		if (size > numPinned) {
+			throw new IllegalStateException("Headers must be queued before any samples.");
+		}
+		append(msg, false);
+		numPinned++;
+	}
+
+	/**
+	 * If nothing has reached the client yet, forgets every queued message and queues this header in their
+	 * place (e.g., when the client asks for a different format before we have written anything).
+	 * 
+	 * @param header
+	 * @return false if the client has already received some bytes, in which case the queue is untouched
+	 */
+	public synchronized boolean restartWith(byte[] header) {
+		if (started) {
+			return false;
+		}
+		numDropped += size - numPinned;
+		while (size > 0) {
+			size--;
+			messages[slot(size)] = null;
+		}
+		numPinned = 0;
+		offerHeader(header);
+		return true;
+	}
+
+	/**
+	 * Shifts every newer message back by one, to fill the hole.
+	 *
+	 * @param i
+	 *            counted from the head
+	 */
+	private void removeAt(int i) {
+		for (int j = i; j < size - 1; j++) {
+			messages[slot(j)] = messages[slot(j + 1)];
+			coalescable[slot(j)] = coalescable[slot(j + 1)];
+		}
+		size--;
+		messages[slot(size)] = null;
+	}
+
+	/**
+	 * @param i
+	 *            counted from the head
+	 * @return the index into our arrays
+	 */
+	private int slot(int i) {
+		return (head + i) % messages.length;
+	}
+
+	/**
+	 * Writes as much as the (non-blocking) channel will take.
+	 *
+	 * @param channel
+	 * @return true if the queue is now empty
+	 * @throws IOException
+	 */
+	public synchronized boolean writeTo(SocketChannel channel) throws IOException {
+		while (size > 0) {
+			final byte[] msg = messages[head];
+			final int numWritten = channel.write(ByteBuffer.wrap(msg, writtenOfHead, msg.length
+					- writtenOfHead));
+			if (numWritten > 0) {
+				started = true;
+			}
+			writtenOfHead += numWritten;
+			if (writtenOfHead < msg.length) {
+				// the socket's send buffer is full
+				return false;
+			}
+			messages[head] = null;
+			head = (head + 1) % messages.length;
+			size--;
+			writtenOfHead = 0;
+			if (numPinned > 0) {
+				numPinned--;
+			}
+		}
+		return true;
+	}
+}
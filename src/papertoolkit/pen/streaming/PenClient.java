@@ -1,21 +1,28 @@
 package papertoolkit.pen.streaming;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
 import papertoolkit.PaperToolkit;
 import papertoolkit.pen.PenSample;
+import papertoolkit.pen.streaming.data.PenSampleBinaryFormat;
 import papertoolkit.pen.streaming.listeners.PenListener;
 import papertoolkit.util.DebugUtils;
+import papertoolkit.util.ToolkitMetrics;
 import papertoolkit.util.networking.ClientServerType;
 
 import com.thoughtworks.xstream.XStream;
@@ -40,7 +47,7 @@ public class PenClient {
 	private Socket clientSocket;
 
 	/**
-	 * This either listens for Java objects (Default) or Plain Text.
+	 * This either listens for Java objects (Default), binary samples, or Plain Text.
 	 */
 	private ClientServerType clientType;
 
@@ -74,7 +81,7 @@ public class PenClient {
 	 * @param port
 	 *            any
 	 * @param type
-	 *            in general, you want to use JAVA
+	 *            in general, you want to use BINARY (or JAVA, which sends each sample as XML)
 	 */
 	public PenClient(String serverName, int port, ClientServerType type) {
 		machineName = serverName;
@@ -126,54 +133,20 @@ public class PenClient {
 	}
 
 	/**
-	 * @return one of two runnables... (common case: JAVA runnable)
+	 * @return one of two runnables... (common case: JAVA or BINARY runnable)
 	 */
 	private Runnable getSocketListenerThreadBasedOnClientType() {
-		if (clientType == ClientServerType.JAVA) {
+		if (clientType == ClientServerType.JAVA || clientType == ClientServerType.BINARY) {
 			return new Runnable() {
 				boolean penIsDown = false;
 
 				public void run() {
 					try {
-						final BufferedReader br = setupSocketAndReader();
-						String line = null;
-						
-						while ((line = br.readLine()) != null) {
-							// System.out.println(line);
-
-							// reconstruct the sample from xml
-							// DebugUtils.println(line);
-							final PenSample sample = (PenSample) PaperToolkit.fromXML(line);
-							final boolean penIsUp = sample.isPenUp();
-
-							// TODO: Should we replace the time field in the sample with the time we received
-							// this sample?
-							// Currently, sample's time field is set to the PenServer's time...
-							// this might result in some clock skew between different pens...
-							// should there be an option to do this?
-
-							// basically implements a state machine... =)
-							if (!penIsDown && !penIsUp) {
-								penIsDown = true;
-								notifyListenersOfPenDown(sample);
-							} else if (penIsUp) {
-								penIsDown = false;
-								notifyListenersOfPenUp(sample);
-							} else {
-								// tell my listeners!
-								// June 12, 2006 & Nov 2, 2006
-								// the behavior here is the same as in pen connection
-								// where a .sample event is NOT generated when penUp or penDown happen
-								// samples are only generated while the pen is down
-								// (but not if it just came down)
-								if (penIsDown) {
-									notifyListenersOfPenSample(sample);
-								}
-							}
-
-							if (exitFlag) {
-								break;
-							}
+						final BufferedInputStream inputStream = new BufferedInputStream(setupSocket());
+						if (clientType == ClientServerType.BINARY && negotiateBinarySamples(inputStream)) {
+							readBinarySamples(inputStream);
+						} else {
+							readXMLSamples(inputStream);
 						}
 					} catch (UnknownHostException e) {
 						e.printStackTrace();
@@ -181,16 +154,90 @@ public class PenClient {
 						if (se.getMessage().contains("socket closed")) {
 							DebugUtils.println("PenClient's socket is now closed...");
 						}
+					} catch (EOFException eofe) {
+						DebugUtils.println("PenClient's socket is now closed...");
 					} catch (IOException e) {
 						e.printStackTrace();
 					}
 				}
+
+				/**
+				 * Basically implements a state machine... =)
+				 * 
+				 * @param sample
+				 */
+				private void handleSample(final PenSample sample) {
+					final boolean penIsUp = sample.isPenUp();
+
+					// TODO: Should we replace the time field in the sample with the time we received
+					// this sample?
+					// Currently, sample's time field is set to the PenServer's time...
+					// this might result in some clock skew between different pens...
+					// should there be an option to do this?
+
+					if (!penIsDown && !penIsUp) {
+						penIsDown = true;
+						notifyListenersOfPenDown(sample);
+					} else if (penIsUp) {
+						penIsDown = false;
+						notifyListenersOfPenUp(sample);
+					} else {
+						// tell my listeners!
+						// June 12, 2006 & Nov 2, 2006
+						// the behavior here is the same as in pen connection
+						// where a .sample event is NOT generated when penUp or penDown happen
+						// samples are only generated while the pen is down
+						// (but not if it just came down)
+						if (penIsDown) {
+							notifyListenersOfPenSample(sample);
+						}
+					}
+				}
+
+				/**
+				 * Reads fixed-width samples until the socket closes.
+				 */
+				private void readBinarySamples(InputStream inputStream) throws IOException {
+					final DataInputStream in = new DataInputStream(inputStream);
+					final byte[] packet = new byte[PenSampleBinaryFormat.PACKET_LENGTH];
+					final ByteBuffer buffer = ByteBuffer.wrap(packet);
+					while (!exitFlag) {
+						in.readFully(packet);
+						buffer.clear();
+						final long start = ToolkitMetrics.start();
+						final PenSample sample = PenSampleBinaryFormat.decode(buffer);
+						ToolkitMetrics.record(ToolkitMetrics.Stage.PEN_CLIENT_PARSE, start);
+						ToolkitMetrics.count(ToolkitMetrics.Stage.PEN_CLIENT_PARSE, 1);
+						handleSample(sample);
+					}
+				}
+
+				/**
+				 * Reads one XML sample per line until the socket closes.
+				 */
+				private void readXMLSamples(InputStream inputStream) throws IOException {
+					final BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
+					String line = null;
+					while ((line = br.readLine()) != null) {
+						// reconstruct the sample from xml
+						// DebugUtils.println(line);
+						final long start = ToolkitMetrics.start();
+						final PenSample sample = (PenSample) PaperToolkit.fromXML(line);
+						ToolkitMetrics.record(ToolkitMetrics.Stage.PEN_CLIENT_PARSE, start);
+						ToolkitMetrics.count(ToolkitMetrics.Stage.PEN_CLIENT_PARSE, 1);
+						handleSample(sample);
+
+						if (exitFlag) {
+							break;
+						}
+					}
+				}
 			};
 		} else { // PLAIN TEXT CLIENT
 			return new Runnable() {
 				public void run() {
 					try {
-						final BufferedReader br = setupSocketAndReader();
+						final BufferedReader br = new BufferedReader(new InputStreamReader(setupSocket()));
 						String line = null;
 						while ((line = br.readLine()) != null) {
 							// print the text of the pen sample to the console
@@ -210,6 +257,39 @@ public class PenClient {
 		}
 	}
 
+	/**
+	 * Asks the PenServer for binary samples. A server that understands will answer with the magic bytes.
+	 * An older server will just start sending XML, in which case we leave the stream untouched, so that it
+	 * can be read as XML.
+	 * 
+	 * @param inputStream
+	 *            must support mark/reset
+	 * @return true if the server will send binary samples
+	 * @throws IOException
+	 */
+	private boolean negotiateBinarySamples(InputStream inputStream) throws IOException {
+		final OutputStream out = clientSocket.getOutputStream();
+		out.write((PenSampleBinaryFormat.HELLO + "\n").getBytes());
+		out.flush();
+
+		final byte[] reply = new byte[PenSampleBinaryFormat.MAGIC.length];
+		inputStream.mark(reply.length);
+		int numRead = 0;
+		while (numRead < reply.length) {
+			final int n = inputStream.read(reply, numRead, reply.length - numRead);
+			if (n == -1) {
+				break;
+			}
+			numRead += n;
+		}
+		if (PenSampleBinaryFormat.startsWithMagic(reply)) {
+			return true;
+		}
+		inputStream.reset();
+		DebugUtils.println("The PenServer at " + machineName + " does not send binary samples. Using XML.");
+		return false;
+	}
+
 	/**
 	 * Pass this sample on to the listeners...
 	 * 
@@ -260,15 +340,13 @@ public class PenClient {
 	 * @throws UnknownHostException
 	 * @throws IOException
 	 */
-	private BufferedReader setupSocketAndReader() throws UnknownHostException, IOException {
+	private InputStream setupSocket() throws UnknownHostException, IOException {
 		// DebugUtils.println("Trying to connect to " + machineName + ":" + portNumber);
 		final InetAddress addr = InetAddress.getByName(machineName);
 		hostName = addr.getCanonicalHostName();
 		// DebugUtils.println("The resolved host name of this pen is: " + hostName);
 
 		clientSocket = new Socket(machineName, portNumber);
-		final InputStream inputStream = clientSocket.getInputStream();
-		final BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
-		return br;
+		return clientSocket.getInputStream();
 	}
 }
@@ -30,12 +30,11 @@ public class PenJitterFilter {
 
 	/**
 	 * <p>
+	 * Runs after the delay, if nobody cancels it.
 	 * </p>
 	 */
 	private class PenUpNotifier implements Runnable {
 
-		private boolean doNotNotify;
-
 		private PenSample s;
 
 		public PenUpNotifier(PenSample mySample) {
@@ -46,26 +45,15 @@ public class PenJitterFilter {
 		 * @see java.lang.Runnable#run()
 		 */
 		public void run() {
-			try {
-				Thread.sleep(MILLIS_TO_DELAY);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-			if (doNotNotify) {
-				// someone told us to cancel
-				return;
-			}
 			penUpCallback.penUp(s);
 		}
-
-		/**
-		 * @param b
-		 */
-		public void setDoNotNotify(boolean b) {
-			doNotNotify = b;
-		}
 	}
 
+	/**
+	 * The filter sits right on top of one pen's connection, so all of its pen ups are keyed under this ID.
+	 */
+	private static final String LOCAL_PEN_ID = "LocalPen";
+
 	/**
 	 * 
 	 */
@@ -76,11 +64,6 @@ public class PenJitterFilter {
 	 */
 	private static final long FILTER_THRESHOLD_MILLIS = 20;
 	
-	/**
-	 * 
-	 */
-	private PenUpNotifier lastPenUpNotifier;
-
 	/**
 	 * 
 	 */
@@ -104,10 +87,7 @@ public class PenJitterFilter {
 	 */
 	public void cancelLastPenUp() {
 		// just filter this out by canceling the notifier
-		if (lastPenUpNotifier != null) {
-			lastPenUpNotifier.setDoNotNotify(true);
-			lastPenUpNotifier = null;
-		}
+		PenUpDebouncer.getInstance().cancel(this, LOCAL_PEN_ID);
 	}
 
 	/**
@@ -122,7 +102,6 @@ public class PenJitterFilter {
 	 */
 	public void triggerPenUpAfterADelay(PenSample s) {
 		lastPenUpTimeStamp = System.currentTimeMillis();
-		lastPenUpNotifier = new PenUpNotifier(s);
-		new Thread(lastPenUpNotifier).start();
+		PenUpDebouncer.getInstance().schedule(this, LOCAL_PEN_ID, MILLIS_TO_DELAY, new PenUpNotifier(s));
 	}
 }
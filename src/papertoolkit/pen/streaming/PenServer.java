@@ -1,424 +1,852 @@
-package papertoolkit.pen.streaming;
-
-import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.ArrayList;
-import java.util.List;
-
-import papertoolkit.application.config.Constants;
-import papertoolkit.pen.PenSample;
-import papertoolkit.pen.streaming.PenJitterFilter.PenUpCallback;
-import papertoolkit.pen.streaming.data.PenServerFlashXMLSender;
-import papertoolkit.pen.streaming.data.PenServerJavaObjectXMLSender;
-import papertoolkit.pen.streaming.data.PenServerPlainTextSender;
-import papertoolkit.pen.streaming.data.PenServerSender;
-import papertoolkit.pen.streaming.listeners.PenListener;
-import papertoolkit.util.DebugUtils;
-import papertoolkit.util.communications.COMPort;
-import papertoolkit.util.networking.ClientServerType;
-
-/**
- * <p>
- * The PenServer also implements a simple filtering to clean up stray penUps that may come from bad
- * pens/pattern.
- * </p>
- * <p>
- * <span class="BSDLicense"> This software is distributed under the <a
- * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>.</span>
- * </p>
- * 
- * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> [ronyeh(AT)cs.stanford.edu]
- * @author Joel Brandt
- */
-public class PenServer implements PenListener {
-	/**
-	 * Hangs out here, accepting multiple client connections...
-	 */
-	private class ServerThread implements Runnable {
-		public void run() {
-			while (true) {
-				Socket s = null;
-				if (exitFlag) {
-					log("Closing Pen Server.");
-					break;
-				}
-				try {
-					s = serverSocket.accept();
-					log("Got a connection on port " + serverSocket.getLocalPort() + "...");
-					log("Client IP Addr is " + s.getRemoteSocketAddress());
-				} catch (IOException ioe) {
-					log("Error with server socket: " + ioe.getLocalizedMessage());
-				}
-				if (s != null) {
-					try {
-						DebugUtils.println("Pen Server Type: " + serverType);
-						switch (serverType) {
-						case PLAINTEXT:
-							outputs.add(new PenServerPlainTextSender(s));
-							break;
-						case JAVA:
-							outputs.add(new PenServerJavaObjectXMLSender(s));
-							break;
-						case FLASH:
-							outputs.add(new PenServerFlashXMLSender(s));
-							break;
-						}
-					} catch (IOException ioe) {
-						try {
-							s.close();
-						} catch (IOException ioe2) {
-							log("Error with server socket: " + ioe2.getLocalizedMessage());
-						}
-						log("Error creating output: " + ioe.getLocalizedMessage());
-					}
-				}
-			}
-		}
-	}
-
-	/**
-	 * The default port to which pen clients can connect...
-	 */
-	public static final int DEFAULT_JAVA_PORT = Constants.Ports.PEN_SERVER_JAVA;
-
-	/**
-	 * The default debug port.
-	 */
-	public static final int DEFAULT_PLAINTEXT_PORT = Constants.Ports.PEN_SERVER_PLAINTEXT;
-
-	/**
-	 * By default, we connect to the pen on COM5 (works for Nokia pens)...
-	 */
-	public static final COMPort DEFAULT_SERIAL_PORT = COMPort.COM5;
-
-	private static PenServer flashPenServer;
-
-	/**
-	 * The default pen server sends java objects across the wire.
-	 */
-	private static PenServer javaPenServer;
-	
-
-	/**
-	 * A connection to the local COM port.
-	 */
-	private static PenStreamingConnection penConnection;
-
-	/**
-	 * Set to true if we could not connect to the main java port. This means someone else has already started
-	 * a local PenServer.
-	 */
-	private static boolean penServerStartedBySomeoneElse = false;
-
-	/**
-	 * A debug pen server sends text across the wire.
-	 */
-	private static PenServer textPenServer;
-
-	/**
-	 * TODO: We may want to do the server started by someone else trick w/ the debug text server too...
-	 * 
-	 * @return whether there is a local Java server running.
-	 */
-	public static boolean isJavaServerStarted() {
-		return javaPenServer != null && penServerStartedBySomeoneElse;
-	}
-
-	/**
-	 * @return whether we have started a text server on the localhost (TODO: also, see isJavaServerStarted)
-	 */
-	public static boolean isTextServerStarted() {
-		return textPenServer != null;
-	}
-
-	/**
-	 * @param msg
-	 */
-	private static void log(String msg) {
-		DebugUtils.printlnWithStackOffset(msg, 1);
-	}
-
-	/**
-	 * @param args
-	 */
-	public static void main(String[] args) {
-		// default to COM5, ports 11025 and 11026
-		// you can specify these numbers through the arguments
-		COMPort serialPort = DEFAULT_SERIAL_PORT;
-		int tcpipPortJava = DEFAULT_JAVA_PORT;
-		int tcpipPortPlainText = DEFAULT_PLAINTEXT_PORT;
-
-		if (args.length >= 1) {
-			if (args[0].equals("?")) {
-				DebugUtils.println("Usage: PenServer [Serial Port] "
-						+ "[TCP/IP Port for Java] [TCP/IP Port for Plain Text]");
-				DebugUtils.println("Example: PenServer COM5 11025 11026");
-				System.exit(0);
-			} else {
-				serialPort = COMPort.valueOf(args[0]);
-			}
-		}
-
-		if (args.length >= 2) {
-			tcpipPortJava = Integer.parseInt(args[1]);
-		}
-		if (args.length >= 3) {
-			tcpipPortPlainText = Integer.parseInt(args[2]);
-		}
-
-		startBothServers(serialPort, tcpipPortJava, tcpipPortPlainText);
-	}
-
-	/**
-	 * Provides default implementation. It's unclear we want two servers going at the same time. Won't
-	 * performance be better if we only send one stream of data? Also, what about Multicast? Then, multiple
-	 * clients can listen in very easily. However, we'd need a server that will dole out the multicast
-	 * address... This is simpler for now.
-	 */
-	public static void startBothServers(COMPort serialPortName, int tcpipPortJava, int tcpipPortPlainText) {
-		startJavaServer(serialPortName, tcpipPortJava);
-		startTextServer(serialPortName, tcpipPortPlainText);
-	}
-
-	public static PenServer startFlashServer(COMPort comPort, int tcpipPort) {
-		try {
-			final ServerSocket flashServer = new ServerSocket(tcpipPort);
-
-			// provide access to this variable, so we can close a pen connection if necessary
-			penConnection = PenStreamingConnection.getInstance(comPort);
-			if (penConnection == null) {
-				DebugUtils.println("The PenServer could not connect to the local serial port.");
-				return null;
-			}
-			flashPenServer = new PenServer(flashServer, ClientServerType.FLASH);
-			penConnection.addPenListener(flashPenServer);
-		} catch (IOException ioe) {
-			log("A Pen Server (or some other server) already exists at " + tcpipPort);
-			log("We will try to connect to it....");
-			penServerStartedBySomeoneElse = true;
-		}
-		return flashPenServer;
-	}
-
-	/**
-	 * Provides default implementation. Only start the Java Server.
-	 */
-	public static void startJavaServer() {
-		startJavaServer(DEFAULT_SERIAL_PORT, DEFAULT_JAVA_PORT);
-	}
-
-	/**
-	 * Use the default java port...
-	 * 
-	 * @param serialPort
-	 *            customize the COM port
-	 */
-	public static void startJavaServer(COMPort serialPort) {
-		startJavaServer(serialPort, DEFAULT_JAVA_PORT);
-	}
-
-	/**
-	 * Start a Java server on this machine at the corresponding TCP/IP port. Add the java server as a listener
-	 * to the local pen connection (at the specified COM port).
-	 * 
-	 * @param tcpipPort
-	 */
-	public static PenServer startJavaServer(COMPort serialPort, int tcpipPort) {
-		try {
-			final ServerSocket javaServer = new ServerSocket(tcpipPort);
-
-			// provide access to this variable, so we can close a pen connection if necessary
-			penConnection = PenStreamingConnection.getInstance(serialPort);
-			if (penConnection == null) {
-				DebugUtils.println("The PenServer could not connect to the local serial port.");
-				return null;
-			}
-			javaPenServer = new PenServer(javaServer, ClientServerType.JAVA);
-			penConnection.addPenListener(javaPenServer);
-		} catch (IOException ioe) {
-			log("A Pen Server (or some other server) already exists at " + tcpipPort);
-			log("We will try to connect to it....");
-			penServerStartedBySomeoneElse = true;
-		}
-		return javaPenServer;
-	}
-
-	/**
-	 * Start at default ports...
-	 */
-	public static void startTextServer() {
-		startTextServer(DEFAULT_SERIAL_PORT, DEFAULT_PLAINTEXT_PORT);
-	}
-
-	/**
-	 * NOTE, you can only start one PenStreamingConnection at a time, on the local machine. Thus, if you have
-	 * created on one COM5, you cannot create another one at COM6, until you kill the connection.
-	 * 
-	 * @param tcpipPort
-	 */
-	public static void startTextServer(COMPort serialPort, int tcpipPort) {
-		try {
-			penConnection = PenStreamingConnection.getInstance(serialPort);
-			final ServerSocket textServer = new ServerSocket(tcpipPort);
-			textPenServer = new PenServer(textServer, ClientServerType.PLAINTEXT);
-			penConnection.addPenListener(textPenServer);
-		} catch (IOException ioe) {
-			log("Error with server socket: " + ioe.getLocalizedMessage());
-		}
-	}
-
-	/**
-	 * TODO: also reset the flag, so we can check if the javaServer port is owned again...
-	 */
-	public static void stopServers() {
-		if (javaPenServer != null) {
-			javaPenServer.stopServer();
-			javaPenServer = null;
-		}
-		if (textPenServer != null) {
-			textPenServer.stopServer();
-			textPenServer = null;
-		}
-	}
-
-	/**
-	 * Helps us break from the while loop (above).
-	 */
-	private boolean exitFlag = false;
-
-	/**
-	 * Weed out the spurious PENUP events that some NOKIA SU-1B pens throw...
-	 */
-	private PenJitterFilter jitterFilter;
-
-	/**
-	 * Serializes pen samples and sends it across the wire.
-	 */
-	private List<PenServerSender> outputs;
-
-	/**
-	 * So we know when pen ups are valid...
-	 */
-	private boolean penDownHasHappened = false;
-
-	/**
-	 * Is the pen currently UP (not touching a patterned page)
-	 */
-	private boolean penUp = true;
-
-	private ServerSocket serverSocket;
-
-	/**
-	 * TEXT or JAVA (default)
-	 */
-	private ClientServerType serverType;
-
-	private boolean verbose = false;
-
-	/**
-	 * @param ss
-	 * @param type
-	 */
-	public PenServer(ServerSocket ss, ClientServerType type) {
-		serverSocket = ss;
-		serverType = type;
-		outputs = new ArrayList<PenServerSender>();
-		jitterFilter = new PenJitterFilter(new PenUpCallback() {
-			public void penUp(PenSample s) {
-				penUp = true;
-				sample(s);
-			}
-		});
-
-		// start thread to accept connections
-		new Thread(new ServerThread()).start();
-	}
-
-	/**
-	 * @return is the pen currently up?
-	 */
-	public boolean isPenUp() {
-		return penUp;
-	}
-
-	/**
-	 * Since with a PenListener... a penDown event NEVER overlaps with a penSample event, we now must send a
-	 * sample over the wire for penDown events too!
-	 * 
-	 * @created Jun 12, 2006
-	 * @author Ron Yeh
-	 */
-	public void penDown(PenSample s) {
-		penDownHasHappened = true;
-		if (jitterFilter.happenedTooCloseToLastPenUp()) {
-			jitterFilter.cancelLastPenUp();
-		} else { // actual pen down!
-			penUp = false;
-			sample(s);
-			if (verbose) {
-				DebugUtils.println("Pen Down");
-			}
-		}
-	}
-
-	/**
-	 * We should not fire a pen up sample if no pen down has happned... This implies (with the Nokia SU-1B, at
-	 * least) that we are actually getting NO data at all...
-	 * 
-	 * @created Jun 12, 2006
-	 * @author Ron Yeh
-	 */
-	public void penUp(PenSample s) {
-		if (!penDownHasHappened) {
-			// ignore the spurious pen up event...
-			return;
-		}
-		penDownHasHappened = false;
-
-		// let the filter to figure this out
-		jitterFilter.triggerPenUpAfterADelay(s);
-	}
-
-	/**
-	 * @see papertoolkit.pen.streaming.listeners.PenListener#sample(papertoolkit.pen.PenSample)
-	 */
-	public void sample(PenSample sample) {
-		final List<PenServerSender> toRemove = new ArrayList<PenServerSender>();
-
-		for (PenServerSender out : outputs) {
-			try {
-				out.sendSample(sample);
-			} catch (IOException ioe) {
-				log("Error sending sample, removing output " + ioe.getLocalizedMessage());
-				toRemove.add(out);
-			}
-		}
-
-		for (PenServerSender penServerOutput : toRemove) {
-			penServerOutput.destroy();
-			outputs.remove(penServerOutput);
-		}
-	}
-
-	public void setVerbose(boolean b) {
-		verbose = b;
-	}
-
-	/**
-	 * Kills the local Java or Text Pen server... It also asks the PenConnection class to stop listening to
-	 * the COM port.
-	 */
-	private void stopServer() {
-		try {
-			log("PenServer::" + serverType + " on port " + serverSocket.getLocalPort() + " is stopping...");
-			exitFlag = true;
-			serverSocket.close();
-
-			penConnection.exit();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-	}
-
-}
+package papertoolkit.pen.streaming;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import papertoolkit.application.config.Constants;
+import papertoolkit.pen.PenSample;
+import papertoolkit.pen.streaming.PenJitterFilter.PenUpCallback;
+import papertoolkit.pen.streaming.data.PenSampleBinaryFormat;
+import papertoolkit.pen.streaming.data.PenServerFlashXMLSender;
+import papertoolkit.pen.streaming.data.PenServerJavaObjectXMLSender;
+import papertoolkit.pen.streaming.data.PenServerPlainTextSender;
+import papertoolkit.pen.streaming.listeners.PenListener;
+import papertoolkit.util.DebugUtils;
+import papertoolkit.util.ToolkitMetrics;
+import papertoolkit.util.communications.COMPort;
+import papertoolkit.util.networking.ClientServerType;
+
+/**
+ * <p>
+ * Streams the local pen's samples to any number of TCP/IP clients. One selector thread accepts clients and
+ * writes to them with non-blocking channels. The pen's thread only encodes each sample and drops it into
+ * every client's bounded queue, so a slow or stalled client can never hold up the pen or the other clients.
+ * When a client's queue fills up, the OverflowPolicy decides what to do.
+ * </p>
+ * <p>
+ * The PenServer also implements a simple filtering to clean up stray penUps that may come from bad
+ * pens/pattern.
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>.</span>
+ * </p>
+ * 
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> [ronyeh(AT)cs.stanford.edu]
+ * @author Joel Brandt
+ */
+public class PenServer implements PenListener {
+
+	/**
+	 * One subscriber. The pen's thread puts encoded samples into the queue, and the selector thread writes
+	 * them out.
+	 */
+	private class ClientConnection {
+
+		private SocketChannel channel;
+
+		/**
+		 * Set (from any thread) when the client fell too far behind and the policy says to drop it.
+		 */
+		private volatile boolean closeRequested = false;
+
+		/**
+		 * What we send to this client. Only changes (from JAVA to BINARY) while holding the queue's lock.
+		 */
+		private volatile ClientServerType format;
+
+		/**
+		 * Whatever a Java client has said so far. Null once it has said its first line, or if it is not a
+		 * Java client.
+		 */
+		private StringBuilder hello;
+
+		private SelectionKey key;
+
+		private OutboundSampleQueue queue;
+
+		/**
+		 * True while this client sits in pendingWrites, so that we wake up the selector at most once per
+		 * batch of samples.
+		 */
+		private AtomicBoolean writeRequested = new AtomicBoolean(false);
+
+		public ClientConnection(SocketChannel c) {
+			channel = c;
+			queue = new OutboundSampleQueue(maxQueuedSamplesPerClient, overflowPolicy);
+		}
+
+		/**
+		 * Called on the selector thread.
+		 */
+		public void close() {
+			clients.remove(this);
+			if (key != null) {
+				key.cancel();
+			}
+			try {
+				channel.close();
+			} catch (IOException ioe) {
+				log("Error closing client: " + ioe.getLocalizedMessage());
+			}
+			if (queue.getNumDropped() > 0) {
+				log("Client dropped " + queue.getNumDropped() + " samples because it could not keep up.");
+			}
+		}
+
+		/**
+		 * Called on the selector thread. Writes what we can, and asks to hear about it when the socket can
+		 * take more.
+		 * 
+		 * @throws IOException
+		 */
+		public void flush() throws IOException {
+			final boolean drained = queue.writeTo(channel);
+			final int ops = key.interestOps();
+			if (drained) {
+				key.interestOps(ops & ~SelectionKey.OP_WRITE);
+			} else {
+				key.interestOps(ops | SelectionKey.OP_WRITE);
+			}
+		}
+
+		/**
+		 * Called on the selector thread, with the Java client's first line. The client has been getting XML
+		 * since it connected. If it asked for binary samples before any XML reached it, we switch it over.
+		 * Otherwise, it has already seen the XML (and will read it as XML), so we keep sending XML.
+		 * 
+		 * @param askedForBinary
+		 */
+		private void heardHello(boolean askedForBinary) {
+			hello = null;
+			if (!askedForBinary) {
+				return;
+			}
+			final SocketAddress address = channel.socket().getRemoteSocketAddress();
+			synchronized (queue) {
+				if (!queue.restartWith(PenSampleBinaryFormat.MAGIC)) {
+					log("Client " + address + " asked for binary samples after it started getting XML.");
+					return;
+				}
+				format = ClientServerType.BINARY;
+			}
+			log("Client " + address + " asked for binary samples.");
+			// the client is waiting for the magic bytes before it reads any samples
+			requestWrite(this);
+		}
+
+		/**
+		 * Called on the selector thread. Clients do not send us anything except the HELLO, but reading
+		 * tells us when they hang up.
+		 * 
+		 * @throws IOException
+		 */
+		public void read() throws IOException {
+			readBuffer.clear();
+			final int numRead = channel.read(readBuffer);
+			if (numRead == -1) {
+				log("Client " + channel.socket().getRemoteSocketAddress() + " disconnected.");
+				close();
+				return;
+			}
+			if (hello == null) {
+				return;
+			}
+			readBuffer.flip();
+			while (readBuffer.hasRemaining()) {
+				final char c = (char) readBuffer.get();
+				if (c == '\n' || hello.length() >= MAX_HELLO_LENGTH) {
+					heardHello(hello.toString().trim().equals(PenSampleBinaryFormat.HELLO));
+					return;
+				}
+				hello.append(c);
+			}
+		}
+	}
+
+	/**
+	 * What to do when a client cannot keep up, and its outbound queue is full.
+	 */
+	public static enum OverflowPolicy {
+		/**
+		 * Replace the newest queued sample with the incoming one. Pen downs and pen ups are never replaced,
+		 * so the client still sees every stroke begin and end. This is the default.
+		 */
+		COALESCE_SAMPLES,
+
+		/**
+		 * Hang up on the client.
+		 */
+		DISCONNECT,
+
+		/**
+		 * Forget the oldest queued message.
+		 */
+		DROP_OLDEST
+	}
+
+	/**
+	 * Accepts new clients, listens for their HELLOs, and writes out their queues. Nothing on this thread ever
+	 * blocks on a client.
+	 */
+	private class SelectorThread implements Runnable {
+		public void run() {
+			while (!exitFlag) {
+				try {
+					selector.select();
+				} catch (IOException ioe) {
+					log("Error with selector: " + ioe.getLocalizedMessage());
+					break;
+				}
+				if (exitFlag) {
+					break;
+				}
+
+				ClientConnection pending;
+				while ((pending = pendingWrites.poll()) != null) {
+					pending.writeRequested.set(false);
+					if (pending.closeRequested) {
+						log("Disconnecting client " + pending.channel.socket().getRemoteSocketAddress()
+								+ ", as it could not keep up.");
+						pending.close();
+					} else if (pending.channel.isOpen()) {
+						try {
+							pending.flush();
+						} catch (IOException ioe) {
+							log("Error sending sample, removing output " + ioe.getLocalizedMessage());
+							pending.close();
+						} catch (CancelledKeyException cke) {
+							pending.close();
+						}
+					}
+				}
+
+				final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+						continue;
+					}
+					final ClientConnection client = (ClientConnection) key.attachment();
+					try {
+						if (key.isReadable()) {
+							client.read();
+						}
+						if (key.isValid() && key.isWritable()) {
+							client.flush();
+						}
+					} catch (IOException ioe) {
+						log("Error with client, removing output " + ioe.getLocalizedMessage());
+						client.close();
+					} catch (CancelledKeyException cke) {
+						client.close();
+					}
+				}
+			}
+
+			log("Closing Pen Server.");
+			for (ClientConnection client : clients) {
+				client.close();
+			}
+			try {
+				serverChannel.close();
+				selector.close();
+			} catch (IOException ioe) {
+				log("Error with server socket: " + ioe.getLocalizedMessage());
+			}
+		}
+
+		private void accept() {
+			try {
+				final SocketChannel channel = serverChannel.accept();
+				if (channel == null) {
+					return;
+				}
+				log("Got a connection on port " + serverChannel.socket().getLocalPort() + "...");
+				log("Client IP Addr is " + channel.socket().getRemoteSocketAddress());
+				DebugUtils.println("Pen Server Type: " + serverType);
+
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				final ClientConnection client = new ClientConnection(channel);
+				client.key = channel.register(selector, SelectionKey.OP_READ, client);
+				switch (serverType) {
+				case JAVA:
+					// XML from the start, but the client may ask for binary samples instead
+					client.hello = new StringBuilder();
+					client.format = ClientServerType.JAVA;
+					break;
+				case BINARY:
+					client.queue.offerHeader(PenSampleBinaryFormat.MAGIC);
+					client.format = ClientServerType.BINARY;
+					requestWrite(client);
+					break;
+				default:
+					client.format = serverType;
+					break;
+				}
+				clients.add(client);
+			} catch (IOException ioe) {
+				log("Error creating output: " + ioe.getLocalizedMessage());
+			}
+		}
+	}
+
+	/**
+	 * The default port to which pen clients can connect...
+	 */
+	public static final int DEFAULT_JAVA_PORT = Constants.Ports.PEN_SERVER_JAVA;
+
+	/**
+	 * The default debug port.
+	 */
+	public static final int DEFAULT_PLAINTEXT_PORT = Constants.Ports.PEN_SERVER_PLAINTEXT;
+
+	/**
+	 * How many encoded samples we will hold for a client that is not reading fast enough. At about 100
+	 * samples per second, this is a few seconds' worth.
+	 */
+	public static final int DEFAULT_MAX_QUEUED_SAMPLES_PER_CLIENT = 512;
+
+	/**
+	 * We never read more than this many characters when waiting for a client's HELLO.
+	 */
+	private static final int MAX_HELLO_LENGTH = 64;
+
+	/**
+	 * By default, we connect to the pen on COM5 (works for Nokia pens)...
+	 */
+	public static final COMPort DEFAULT_SERIAL_PORT = COMPort.COM5;
+
+	private static PenServer flashPenServer;
+
+	/**
+	 * The default pen server sends java objects across the wire.
+	 */
+	private static PenServer javaPenServer;
+	
+
+	/**
+	 * A connection to the local COM port.
+	 */
+	private static PenStreamingConnection penConnection;
+
+	/**
+	 * Set to true if we could not connect to the main java port. This means someone else has already started
+	 * a local PenServer.
+	 */
+	private static boolean penServerStartedBySomeoneElse = false;
+
+	/**
+	 * A debug pen server sends text across the wire.
+	 */
+	private static PenServer textPenServer;
+
+	/**
+	 * TODO: We may want to do the server started by someone else trick w/ the debug text server too...
+	 * 
+	 * @return whether there is a local Java server running.
+	 */
+	public static boolean isJavaServerStarted() {
+		return javaPenServer != null && penServerStartedBySomeoneElse;
+	}
+
+	/**
+	 * @return whether we have started a text server on the localhost (TODO: also, see isJavaServerStarted)
+	 */
+	public static boolean isTextServerStarted() {
+		return textPenServer != null;
+	}
+
+	/**
+	 * @param ss
+	 * @return the socket's own channel, or a new channel on the same port (after closing ss) if the socket
+	 *         was not opened through a ServerSocketChannel
+	 * @throws IOException
+	 */
+	private static ServerSocketChannel toChannel(ServerSocket ss) throws IOException {
+		if (ss.getChannel() != null) {
+			return ss.getChannel();
+		}
+		final int port = ss.getLocalPort();
+		log("Closing the server socket on port " + port + ", and listening on a new channel instead.");
+		ss.close();
+		final ServerSocketChannel channel = ServerSocketChannel.open();
+		try {
+			channel.socket().setReuseAddress(true);
+			channel.socket().bind(new InetSocketAddress(port));
+		} catch (IOException ioe) {
+			channel.close();
+			throw ioe;
+		}
+		return channel;
+	}
+
+	/**
+	 * @param msg
+	 */
+	private static void log(String msg) {
+		DebugUtils.printlnWithStackOffset(msg, 1);
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// default to COM5, ports 11025 and 11026
+		// you can specify these numbers through the arguments
+		COMPort serialPort = DEFAULT_SERIAL_PORT;
+		int tcpipPortJava = DEFAULT_JAVA_PORT;
+		int tcpipPortPlainText = DEFAULT_PLAINTEXT_PORT;
+
+		if (args.length >= 1) {
+			if (args[0].equals("?")) {
+				DebugUtils.println("Usage: PenServer [Serial Port] "
+						+ "[TCP/IP Port for Java] [TCP/IP Port for Plain Text]");
+				DebugUtils.println("Example: PenServer COM5 11025 11026");
+				System.exit(0);
+			} else {
+				serialPort = COMPort.valueOf(args[0]);
+			}
+		}
+
+		if (args.length >= 2) {
+			tcpipPortJava = Integer.parseInt(args[1]);
+		}
+		if (args.length >= 3) {
+			tcpipPortPlainText = Integer.parseInt(args[2]);
+		}
+
+		startBothServers(serialPort, tcpipPortJava, tcpipPortPlainText);
+	}
+
+	/**
+	 * Provides default implementation. It's unclear we want two servers going at the same time. Won't
+	 * performance be better if we only send one stream of data? Also, what about Multicast? Then, multiple
+	 * clients can listen in very easily. However, we'd need a server that will dole out the multicast
+	 * address... This is simpler for now.
+	 */
+	public static void startBothServers(COMPort serialPortName, int tcpipPortJava, int tcpipPortPlainText) {
+		startJavaServer(serialPortName, tcpipPortJava);
+		startTextServer(serialPortName, tcpipPortPlainText);
+	}
+
+	public static PenServer startFlashServer(COMPort comPort, int tcpipPort) {
+		try {
+			final ServerSocketChannel flashServer = openServerChannel(tcpipPort);
+
+			// provide access to this variable, so we can close a pen connection if necessary
+			penConnection = PenStreamingConnection.getInstance(comPort);
+			if (penConnection == null) {
+				DebugUtils.println("The PenServer could not connect to the local serial port.");
+				return null;
+			}
+			flashPenServer = new PenServer(flashServer, ClientServerType.FLASH);
+			penConnection.addPenListener(flashPenServer);
+		} catch (IOException ioe) {
+			log("A Pen Server (or some other server) already exists at " + tcpipPort);
+			log("We will try to connect to it....");
+			penServerStartedBySomeoneElse = true;
+		}
+		return flashPenServer;
+	}
+
+	/**
+	 * Provides default implementation. Only start the Java Server.
+	 */
+	public static void startJavaServer() {
+		startJavaServer(DEFAULT_SERIAL_PORT, DEFAULT_JAVA_PORT);
+	}
+
+	/**
+	 * Use the default java port...
+	 * 
+	 * @param serialPort
+	 *            customize the COM port
+	 */
+	public static void startJavaServer(COMPort serialPort) {
+		startJavaServer(serialPort, DEFAULT_JAVA_PORT);
+	}
+
+	/**
+	 * Start a Java server on this machine at the corresponding TCP/IP port. Add the java server as a listener
+	 * to the local pen connection (at the specified COM port).
+	 * 
+	 * @param tcpipPort
+	 */
+	public static PenServer startJavaServer(COMPort serialPort, int tcpipPort) {
+		try {
+			final ServerSocketChannel javaServer = openServerChannel(tcpipPort);
+
+			// provide access to this variable, so we can close a pen connection if necessary
+			penConnection = PenStreamingConnection.getInstance(serialPort);
+			if (penConnection == null) {
+				DebugUtils.println("The PenServer could not connect to the local serial port.");
+				return null;
+			}
+			javaPenServer = new PenServer(javaServer, ClientServerType.JAVA);
+			penConnection.addPenListener(javaPenServer);
+		} catch (IOException ioe) {
+			log("A Pen Server (or some other server) already exists at " + tcpipPort);
+			log("We will try to connect to it....");
+			penServerStartedBySomeoneElse = true;
+		}
+		return javaPenServer;
+	}
+
+	/**
+	 * Start at default ports...
+	 */
+	public static void startTextServer() {
+		startTextServer(DEFAULT_SERIAL_PORT, DEFAULT_PLAINTEXT_PORT);
+	}
+
+	/**
+	 * NOTE, you can only start one PenStreamingConnection at a time, on the local machine. Thus, if you have
+	 * created on one COM5, you cannot create another one at COM6, until you kill the connection.
+	 * 
+	 * @param tcpipPort
+	 */
+	public static void startTextServer(COMPort serialPort, int tcpipPort) {
+		try {
+			penConnection = PenStreamingConnection.getInstance(serialPort);
+			final ServerSocketChannel textServer = openServerChannel(tcpipPort);
+			textPenServer = new PenServer(textServer, ClientServerType.PLAINTEXT);
+			penConnection.addPenListener(textPenServer);
+		} catch (IOException ioe) {
+			log("Error with server socket: " + ioe.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * @param tcpipPort
+	 * @return a server channel bound to this port
+	 * @throws IOException
+	 *             if the port is taken
+	 */
+	private static ServerSocketChannel openServerChannel(int tcpipPort) throws IOException {
+		final ServerSocketChannel channel = ServerSocketChannel.open();
+		try {
+			channel.socket().bind(new InetSocketAddress(tcpipPort));
+		} catch (IOException ioe) {
+			channel.close();
+			throw ioe;
+		}
+		return channel;
+	}
+
+	/**
+	 * TODO: also reset the flag, so we can check if the javaServer port is owned again...
+	 */
+	public static void stopServers() {
+		if (javaPenServer != null) {
+			javaPenServer.stopServer();
+			javaPenServer = null;
+		}
+		if (textPenServer != null) {
+			textPenServer.stopServer();
+			textPenServer = null;
+		}
+	}
+
+	/**
+	 * Every connected client.
+	 */
+	private List<ClientConnection> clients = new CopyOnWriteArrayList<ClientConnection>();
+
+	/**
+	 * Helps us break from the while loop (above).
+	 */
+	private volatile boolean exitFlag = false;
+
+	/**
+	 * Weed out the spurious PENUP events that some NOKIA SU-1B pens throw...
+	 */
+	private PenJitterFilter jitterFilter;
+
+	/**
+	 * How many encoded samples we will hold for a client that is not reading fast enough.
+	 */
+	private int maxQueuedSamplesPerClient = DEFAULT_MAX_QUEUED_SAMPLES_PER_CLIENT;
+
+	/**
+	 * What to do when a client's queue fills up.
+	 */
+	private OverflowPolicy overflowPolicy = OverflowPolicy.COALESCE_SAMPLES;
+
+	/**
+	 * Identifies this server's pen in binary samples, so that relays can tell pens apart.
+	 */
+	private int penNumber = 0;
+
+	/**
+	 * So we know when pen ups are valid...
+	 */
+	private boolean penDownHasHappened = false;
+
+	/**
+	 * Is the pen currently UP (not touching a patterned page)
+	 */
+	private boolean penUp = true;
+
+	/**
+	 * Clients that have new samples queued up. The selector thread drains this.
+	 */
+	private Queue<ClientConnection> pendingWrites = new ConcurrentLinkedQueue<ClientConnection>();
+
+	/**
+	 * Only used by the selector thread.
+	 */
+	private ByteBuffer readBuffer = ByteBuffer.allocate(MAX_HELLO_LENGTH);
+
+	private Selector selector;
+
+	private ServerSocketChannel serverChannel;
+
+	/**
+	 * TEXT or JAVA (default)
+	 */
+	private ClientServerType serverType;
+
+	private boolean verbose = false;
+
+	/**
+	 * If ss was opened through a ServerSocketChannel (<code>ServerSocketChannel.open().socket()</code>), we
+	 * adopt that channel, and ss stays usable as the server's socket. Otherwise, the server cannot select on
+	 * it: we CLOSE ss, and bind a new channel to the same port. Anything else holding on to ss will then see
+	 * a closed socket.
+	 * 
+	 * @param ss
+	 * @param type
+	 * @throws IOException
+	 *             if we could not bind the new channel, or open a selector
+	 * @deprecated use {@link #PenServer(ServerSocketChannel, ClientServerType)}, which never closes the
+	 *             caller's socket
+	 */
+	@Deprecated
+	public PenServer(ServerSocket ss, ClientServerType type) throws IOException {
+		this(toChannel(ss), type);
+	}
+
+	/**
+	 * @param channel
+	 *            a bound server channel
+	 * @param type
+	 * @throws IOException
+	 *             if we could not open a selector
+	 */
+	public PenServer(ServerSocketChannel channel, ClientServerType type) throws IOException {
+		serverChannel = channel;
+		serverType = type;
+		jitterFilter = new PenJitterFilter(new PenUpCallback() {
+			public void penUp(PenSample s) {
+				penUp = true;
+				sendToClients(s, false);
+			}
+		});
+
+		selector = Selector.open();
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+		// start thread to accept connections and write to clients
+		new Thread(new SelectorThread(), "PenServer " + type).start();
+	}
+
+	/**
+	 * @return how many clients are connected right now
+	 */
+	public int getNumClients() {
+		return clients.size();
+	}
+
+	/**
+	 * @return is the pen currently up?
+	 */
+	public boolean isPenUp() {
+		return penUp;
+	}
+
+	/**
+	 * Since with a PenListener... a penDown event NEVER overlaps with a penSample event, we now must send a
+	 * sample over the wire for penDown events too!
+	 * 
+	 * @created Jun 12, 2006
+	 * @author Ron Yeh
+	 */
+	public void penDown(PenSample s) {
+		penDownHasHappened = true;
+		if (jitterFilter.happenedTooCloseToLastPenUp()) {
+			jitterFilter.cancelLastPenUp();
+		} else { // actual pen down!
+			penUp = false;
+			sendToClients(s, false);
+			if (verbose) {
+				DebugUtils.println("Pen Down");
+			}
+		}
+	}
+
+	/**
+	 * We should not fire a pen up sample if no pen down has happned... This implies (with the Nokia SU-1B, at
+	 * least) that we are actually getting NO data at all...
+	 * 
+	 * @created Jun 12, 2006
+	 * @author Ron Yeh
+	 */
+	public void penUp(PenSample s) {
+		if (!penDownHasHappened) {
+			// ignore the spurious pen up event...
+			return;
+		}
+		penDownHasHappened = false;
+
+		// let the filter to figure this out
+		jitterFilter.triggerPenUpAfterADelay(s);
+	}
+
+	/**
+	 * Called from any thread. Wakes up the selector at most once until it gets around to this client.
+	 */
+	private void requestWrite(ClientConnection client) {
+		if (client.writeRequested.compareAndSet(false, true)) {
+			pendingWrites.add(client);
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * @see papertoolkit.pen.streaming.listeners.PenListener#sample(papertoolkit.pen.PenSample)
+	 */
+	public void sample(PenSample sample) {
+		sendToClients(sample, !sample.isPenUp());
+	}
+
+	/**
+	 * Encodes the sample (once per format, no matter how many clients want it), and queues it up for every
+	 * client. This never blocks on the network.
+	 * 
+	 * @param sample
+	 * @param canCoalesce
+	 *            whether a slow client may see a newer sample in place of this one
+	 */
+	private void sendToClients(PenSample sample, boolean canCoalesce) {
+		final long start = ToolkitMetrics.start();
+		int numMessages = 0;
+		byte[] xml = null;
+		byte[] binary = null;
+		byte[] flash = null;
+		byte[] text = null;
+		for (ClientConnection client : clients) {
+			// hold the lock, so that a Java client cannot switch to binary between our encoding and offering
+			synchronized (client.queue) {
+				final byte[] msg;
+				switch (client.format) {
+				case BINARY:
+					if (binary == null) {
+						binary = PenSampleBinaryFormat.encode(sample, penNumber);
+					}
+					msg = binary;
+					break;
+				case FLASH:
+					if (flash == null) {
+						flash = PenServerFlashXMLSender.encodeForFlash(sample);
+					}
+					msg = flash;
+					break;
+				case PLAINTEXT:
+					if (text == null) {
+						text = PenServerPlainTextSender.encode(sample);
+					}
+					msg = text;
+					break;
+				default:
+					if (xml == null) {
+						xml = PenServerJavaObjectXMLSender.encode(sample);
+					}
+					msg = xml;
+					break;
+				}
+				if (!client.queue.offer(msg, canCoalesce)) {
+					client.closeRequested = true;
+				}
+			}
+			requestWrite(client);
+			numMessages++;
+		}
+		ToolkitMetrics.count(ToolkitMetrics.Stage.PEN_SERVER_FANOUT, numMessages);
+		ToolkitMetrics.record(ToolkitMetrics.Stage.PEN_SERVER_FANOUT, start);
+	}
+
+	/**
+	 * Applies to clients that connect after this call.
+	 * 
+	 * @param maxSamples
+	 *            how many samples we will queue up for a slow client (DEFAULT_MAX_QUEUED_SAMPLES_PER_CLIENT
+	 *            by default)
+	 */
+	public void setMaxQueuedSamplesPerClient(int maxSamples) {
+		maxQueuedSamplesPerClient = maxSamples;
+	}
+
+	/**
+	 * Applies to clients that connect after this call.
+	 * 
+	 * @param policy
+	 *            what to do when a slow client's queue fills up (COALESCE_SAMPLES by default)
+	 */
+	public void setOverflowPolicy(OverflowPolicy policy) {
+		overflowPolicy = policy;
+	}
+
+	/**
+	 * @param number
+	 *            identifies this server's pen in binary samples (0 by default)
+	 */
+	public void setPenNumber(int number) {
+		penNumber = number;
+	}
+
+	public void setVerbose(boolean b) {
+		verbose = b;
+	}
+
+	/**
+	 * Kills the local Java or Text Pen server... It also asks the PenConnection class to stop listening to
+	 * the COM port.
+	 */
+	private void stopServer() {
+		try {
+			log("PenServer::" + serverType + " on port " + serverChannel.socket().getLocalPort()
+					+ " is stopping...");
+			exitFlag = true;
+			// free up the port right away; the selector thread closes the clients
+			serverChannel.close();
+			selector.wakeup();
+
+			penConnection.exit();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+}
@@ -19,6 +19,7 @@ import papertoolkit.PaperToolkit;
 import papertoolkit.pen.PenSample;
 import papertoolkit.pen.streaming.listeners.PenListener;
 import papertoolkit.util.DebugUtils;
+import papertoolkit.util.ToolkitMetrics;
 import papertoolkit.util.communications.COMPort;
 import papertoolkit.util.files.FileUtils;
 
@@ -210,15 +211,42 @@ public class PenStreamingConnection implements SerialPortEventListener {
 	private InputStream inputStream;
 
 	/**
-	 * 
+	 * Where the pen was on the most recent sample, so that we can pass this information to the pen up event.
+	 */
+	private double lastX = 0;
+
+	/**
+	 * @see #lastX
+	 */
+	private double lastY = 0;
+
+	/**
+	 * If true, we reuse one sample object for all pen up events, and one for all other samples. Listeners
+	 * must then copy samples that they want to keep around.
+	 */
+	private boolean recycleSamples = false;
+
+	/**
+	 * Reused for pen ups when recycleSamples is true. Pen ups get their own object because the PenServer's
+	 * jitter filter holds on to a pen up for a few milliseconds.
 	 */
-	private PenSample lastSample;
+	private PenSample recycledPenUpSample;
+
+	/**
+	 * Reused for pen downs and regular samples when recycleSamples is true.
+	 */
+	private PenSample recycledSample;
 
 	/**
 	 * list of listeners; add a PenListener to this list to listen to pen events
 	 */
 	private List<PenListener> listeners = new ArrayList<PenListener>();
 
+	/**
+	 * Time spent in our listeners during the current serial event, which we do not count as decoding.
+	 */
+	private long listenerNanos;
+
 	/**
 	 * 
 	 */
@@ -234,6 +262,11 @@ public class PenStreamingConnection implements SerialPortEventListener {
 	 */
 	private boolean penIsUp = true;
 
+	/**
+	 * Serial events arrive one at a time, so we can read every one of them into the same buffer.
+	 */
+	private final byte[] readBuffer = new byte[20];
+
 	/**
 	 * 
 	 */
@@ -326,6 +359,16 @@ public class PenStreamingConnection implements SerialPortEventListener {
 
 	}
 
+	/**
+	 * @param listenersStart
+	 *            when we started calling the listeners (from ToolkitMetrics.start())
+	 */
+	private void addListenerTime(long listenersStart) {
+		if (listenersStart != 0) {
+			listenerNanos += System.nanoTime() - listenersStart;
+		}
+	}
+
 	/**
 	 * We process one byte at a time.
 	 * 
@@ -351,20 +394,24 @@ public class PenStreamingConnection implements SerialPortEventListener {
 			} else if (bCurrent == LENGTH_PEN_UP && bLast == 0x00 && bLastLast == ID_PEN_UP) {
 				// System.out.println("PEN UP");
 
-				double lastX = 0;
-				double lastY = 0;
-				if (lastSample != null) {
-					lastX = lastSample.x;
-					lastY = lastSample.y;
-				}
-
 				penIsUp = true;
+				final long listenersStart = ToolkitMetrics.start();
 				for (PenListener pl : listeners) {
 					// on October 27, 2006, I changed behavior so that the pen
 					// up sample
 					// now passes X & Y info
 					// before, it passed x=0, y=0
-					final PenSample penSample = new PenSample(lastX, lastY, 0, timestamp, true);
+					final PenSample penSample;
+					if (recycleSamples) {
+						if (recycledPenUpSample == null) {
+							recycledPenUpSample = new PenSample(lastX, lastY, 0, timestamp, true);
+						} else {
+							recycledPenUpSample.set(lastX, lastY, 0, timestamp, true);
+						}
+						penSample = recycledPenUpSample;
+					} else {
+						penSample = new PenSample(lastX, lastY, 0, timestamp, true);
+					}
 					// on June 12, 2006, I changed the behavior so that a
 					// .sample event is NOT
 					// generated on pen up. It simply passes the pen up event
@@ -373,6 +420,7 @@ public class PenStreamingConnection implements SerialPortEventListener {
 					// pl.sample(penSample);
 					pl.penUp(penSample);
 				}
+				addListenerTime(listenersStart);
 			}
 		} else if (nextUp == StreamingField.X) { // 4 bytes long, X
 			// Coordinate
@@ -428,11 +476,23 @@ public class PenStreamingConnection implements SerialPortEventListener {
 				System.out.flush();
 			}
 
-			final PenSample penSample = new PenSample(x + (xFraction * 0.125), y + (yFraction * 0.125),
-					force, timestamp, false);
+			final double sampleX = x + (xFraction * 0.125);
+			final double sampleY = y + (yFraction * 0.125);
+			final PenSample penSample;
+			if (recycleSamples) {
+				if (recycledSample == null) {
+					recycledSample = new PenSample(sampleX, sampleY, force, timestamp, false);
+				} else {
+					recycledSample.set(sampleX, sampleY, force, timestamp, false);
+				}
+				penSample = recycledSample;
+			} else {
+				penSample = new PenSample(sampleX, sampleY, force, timestamp, false);
+			}
 
 			if (penIsUp) {
 				penIsUp = false;
+				final long listenersStart = ToolkitMetrics.start();
 				for (PenListener pl : listeners) {
 					// Nov 12, 2006, I changed the behavior of .penDown to NOT
 					// send a .sample
@@ -444,9 +504,11 @@ public class PenStreamingConnection implements SerialPortEventListener {
 					// It is designed this way to facilitate calibration.
 					pl.penDown(penSample);
 				}
+				addListenerTime(listenersStart);
 			} else {
 				// pen is already down, so we just generate .sample events...
 
+				final long listenersStart = ToolkitMetrics.start();
 				for (PenListener pl : listeners) {
 					// June 12, 2006
 					// (ronyeh) I changed the behavior of pen listeners a bit
@@ -458,11 +520,13 @@ public class PenStreamingConnection implements SerialPortEventListener {
 					// (OR beware that others may have your samples too)
 					pl.sample(penSample);
 				}
+				addListenerTime(listenersStart);
 			}
 
 			// keep it around so that we can pass this information to the pen up
 			// event!
-			lastSample = penSample;
+			lastX = sampleX;
+			lastY = sampleY;
 
 			// reset our values
 			x = 0;
@@ -476,6 +540,17 @@ public class PenStreamingConnection implements SerialPortEventListener {
 		}
 	}
 
+	/**
+	 * Turns the recycling of PenSample objects on or off. When it is on, we reuse the same sample objects
+	 * for every sample that streams in from the pen, instead of creating one per sample. Any listener that
+	 * wants to keep a sample after its callback returns must call sample.copy().
+	 * 
+	 * @param recycle
+	 */
+	public void setRecycleSamples(boolean recycle) {
+		recycleSamples = recycle;
+	}
+
 	/**
 	 * Whenever data is available, send bytes one in a row to the processor.
 	 * 
@@ -504,7 +579,8 @@ public class PenStreamingConnection implements SerialPortEventListener {
 			break;
 
 		case SerialPortEvent.DATA_AVAILABLE: // there is data to process!
-			byte[] readBuffer = new byte[20];
+			final long start = ToolkitMetrics.start();
+			listenerNanos = 0;
 			try {
 				while (inputStream.available() > 0) {
 					int numBytes = inputStream.read(readBuffer);
@@ -513,9 +589,12 @@ public class PenStreamingConnection implements SerialPortEventListener {
 					for (int i = 0; i < numBytes; i++) {
 						handleByte(readBuffer[i]);
 					}
+					ToolkitMetrics.count(ToolkitMetrics.Stage.SERIAL_DECODE, numBytes);
 				}
 			} catch (IOException e) {
 			}
+			// the listeners' time is counted by their own stages
+			ToolkitMetrics.record(ToolkitMetrics.Stage.SERIAL_DECODE, start == 0 ? 0 : start + listenerNanos);
 
 			break;
 		}
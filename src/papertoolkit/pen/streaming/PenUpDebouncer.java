@@ -0,0 +1,264 @@
+package papertoolkit.pen.streaming;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import papertoolkit.util.DaemonThreadFactory;
+
+/**
+ * <p>
+ * Many pens jitter: they report a pen up, and then a pen down a few milliseconds later, in the middle of a
+ * stroke. So, the PenJitterFilter, InkHandler, and ClickHandler all wait a little while before they believe
+ * a pen up. They used to start (and put to sleep) a new thread for every pen up. Now, they schedule the pen
+ * up here, and cancel it if the pen comes back down in time.
+ * </p>
+ * <p>
+ * One timer thread serves the whole toolkit. When a pen up is due, it is handed to a small pool of reusable
+ * threads, so a slow handler cannot delay the pen ups of other pens.
+ * </p>
+ * <p>
+ * Pending pen ups are keyed by their owner (e.g., the handler) and the pen's ID, so that a pen down from one
+ * pen never cancels the pen up of another. We also count how many pen ups were scheduled, cancelled, and
+ * fired. The ratio of cancelled to scheduled tells you how often the jitter filters actually kick in.
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+public class PenUpDebouncer {
+
+	/**
+	 * The owner and the pen. Owners are compared by identity, as two handlers may be equal() and still need
+	 * their own pen ups.
+	 */
+	private static class Key {
+		private final Object owner;
+
+		private final String penID;
+
+		public Key(Object theOwner, String thePenID) {
+			owner = theOwner;
+			penID = thePenID;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			final Key k = (Key) o;
+			return owner == k.owner && (penID == null ? k.penID == null : penID.equals(k.penID));
+		}
+
+		public int hashCode() {
+			return System.identityHashCode(owner) * 31 + (penID == null ? 0 : penID.hashCode());
+		}
+	}
+
+	/**
+	 * A pending pen up. Exactly one of cancel() or the timer wins.
+	 */
+	public static class Token implements Runnable {
+
+		private static final int CANCELLED = 2;
+
+		private static final int FIRED = 1;
+
+		private static final int PENDING = 0;
+
+		/**
+		 * Set by the scheduling thread, after the timer may already have it, and read by whoever cancels.
+		 */
+		private volatile ScheduledFuture<?> future;
+
+		private final Key key;
+
+		private final PenUpDebouncer debouncer;
+
+		private final AtomicInteger state = new AtomicInteger(PENDING);
+
+		private final Runnable task;
+
+		private Token(PenUpDebouncer theDebouncer, Key theKey, Runnable theTask) {
+			debouncer = theDebouncer;
+			key = theKey;
+			task = theTask;
+		}
+
+		/**
+		 * @return true if the pen up had not fired yet (and now never will)
+		 */
+		public boolean cancel() {
+			if (!state.compareAndSet(PENDING, CANCELLED)) {
+				return false;
+			}
+			if (future != null) {
+				future.cancel(false);
+			}
+			debouncer.numCancelled.incrementAndGet();
+			debouncer.pending.remove(key, this);
+			return true;
+		}
+
+		/**
+		 * @return whether the pen up was cancelled
+		 */
+		public boolean isCancelled() {
+			return state.get() == CANCELLED;
+		}
+
+		/**
+		 * @return whether the pen up has fired
+		 */
+		public boolean hasFired() {
+			return state.get() == FIRED;
+		}
+
+		/**
+		 * Called by the timer thread. Hands the task over to the worker threads.
+		 *
+		 * @see java.lang.Runnable#run()
+		 */
+		public void run() {
+			if (!state.compareAndSet(PENDING, FIRED)) {
+				return;
+			}
+			debouncer.numFired.incrementAndGet();
+			debouncer.pending.remove(key, this);
+			debouncer.workers.execute(task);
+		}
+	}
+
+	private static PenUpDebouncer instance;
+
+	/**
+	 * @return the debouncer that the whole toolkit shares
+	 */
+	public static synchronized PenUpDebouncer getInstance() {
+		if (instance == null) {
+			instance = new PenUpDebouncer();
+		}
+		return instance;
+	}
+
+	private final AtomicLong numCancelled = new AtomicLong();
+
+	private final AtomicLong numFired = new AtomicLong();
+
+	private final AtomicLong numScheduled = new AtomicLong();
+
+	/**
+	 * The most recent pending pen up for each owner and pen.
+	 */
+	private final Map<Key, Token> pending = new ConcurrentHashMap<Key, Token>();
+
+	private final ScheduledExecutorService timer = Executors
+			.newSingleThreadScheduledExecutor(new DaemonThreadFactory("Pen Up Timer"));
+
+	/**
+	 * Runs the pen ups that are due. Threads are reused, and die off after a minute of idling. They are
+	 * daemons, so that pending pen ups never keep the VM alive.
+	 */
+	private final ExecutorService workers = Executors
+			.newCachedThreadPool(new DaemonThreadFactory("Pen Up Notifier"));
+
+	/**
+	 * Use getInstance().
+	 */
+	private PenUpDebouncer() {
+
+	}
+
+	/**
+	 * Cancels the most recent pending pen up of this owner's pen.
+	 *
+	 * @param owner
+	 * @param penID
+	 * @return true if there was a pen up that had not fired yet
+	 */
+	public boolean cancel(Object owner, String penID) {
+		final Token token = pending.get(new Key(owner, penID));
+		return token != null && token.cancel();
+	}
+
+	/**
+	 * @return the fraction of pen ups that turned out to be jitter (0 if none were scheduled)
+	 */
+	public double getCancelledFraction() {
+		final long scheduled = numScheduled.get();
+		return scheduled == 0 ? 0 : numCancelled.get() / (double) scheduled;
+	}
+
+	/**
+	 * @return how many pen ups were cancelled, because the pen came back down in time
+	 */
+	public long getNumCancelled() {
+		return numCancelled.get();
+	}
+
+	/**
+	 * @return how many pen ups were delivered
+	 */
+	public long getNumFired() {
+		return numFired.get();
+	}
+
+	/**
+	 * @return how many pen ups were scheduled
+	 */
+	public long getNumScheduled() {
+		return numScheduled.get();
+	}
+
+	/**
+	 * Zeroes the counts.
+	 */
+	public void resetCounts() {
+		numScheduled.set(0);
+		numCancelled.set(0);
+		numFired.set(0);
+	}
+
+	/**
+	 * Runs the task after a delay, unless someone cancels it first. A pen up that is already pending for
+	 * this owner's pen is left alone; it will still fire, unless it is cancelled through its own token.
+	 *
+	 * @param owner
+	 *            whoever is waiting on the pen up (e.g., a handler)
+	 * @param penID
+	 *            the pen that was lifted
+	 * @param delayMillis
+	 * @param task
+	 *            runs on one of our worker threads
+	 * @return a token for cancelling this pen up
+	 */
+	public Token schedule(Object owner, String penID, long delayMillis, Runnable task) {
+		final Key key = new Key(owner, penID);
+		final Token token = new Token(this, key, task);
+		numScheduled.incrementAndGet();
+		pending.put(key, token);
+		token.future = timer.schedule(token, delayMillis, TimeUnit.MILLISECONDS);
+		if (token.isCancelled()) {
+			// cancelled before it had a future to cancel; take it off the timer's queue
+			token.future.cancel(false);
+		}
+		return token;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "PenUpDebouncer {scheduled=" + numScheduled.get() + " cancelled=" + numCancelled.get()
+				+ " fired=" + numFired.get() + "}";
+	}
+}
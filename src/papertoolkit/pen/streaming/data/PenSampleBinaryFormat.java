@@ -0,0 +1,121 @@
+package papertoolkit.pen.streaming.data;
+
+import java.nio.ByteBuffer;
+
+import papertoolkit.pen.PenSample;
+
+/**
+ * <p>
+ * A compact, fixed-width encoding of a PenSample, for streaming samples from a PenServer to PenClients
+ * without going through XStream. Every sample takes exactly PACKET_LENGTH bytes (big-endian):
+ * </p>
+ * 
+ * <blockquote><code>
+ * [0] flags (bit 0 --> pen up)<br>
+ * [1-2] pen number (unsigned short, assigned by the PenServer)<br>
+ * [3-4] force (short)<br>
+ * [5-12] x (double)<br>
+ * [13-20] y (double)<br>
+ * [21-28] timestamp (long)
+ * </code></blockquote>
+ * 
+ * <p>
+ * The format is negotiated when a client connects to a Java PenServer. The client sends the HELLO line.
+ * A server that understands it replies with the four MAGIC bytes and then streams binary samples. A server
+ * that does not understand (or a client that never says hello) will stream XML, as before. The server
+ * sends XML from the moment a client connects, so a HELLO that arrives after the first XML sample went out
+ * is ignored; the client sees the '&lt;' and reads XML.
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ * 
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+public class PenSampleBinaryFormat {
+
+	/**
+	 * Set in the flags byte when the sample is a pen up.
+	 */
+	private static final byte FLAG_PEN_UP = 0x01;
+
+	/**
+	 * A client sends this line right after it connects, to ask for binary samples.
+	 */
+	public static final String HELLO = "PenClient BINARY";
+
+	/**
+	 * The server sends these bytes to acknowledge the HELLO. An XML stream can never start this way, as it
+	 * starts with a '&lt;'.
+	 */
+	public static final byte[] MAGIC = new byte[] { 'P', 'T', 'B', '1' };
+
+	/**
+	 * The number of bytes per sample.
+	 */
+	public static final int PACKET_LENGTH = 29;
+
+	/**
+	 * Reads one sample from the buffer's current position.
+	 * 
+	 * @param buffer
+	 *            must have at least PACKET_LENGTH bytes remaining
+	 * @return a new sample
+	 */
+	public static PenSample decode(ByteBuffer buffer) {
+		final byte flags = buffer.get();
+		buffer.getShort(); // the pen number; PenSamples do not carry it
+		final int force = buffer.getShort();
+		final double x = buffer.getDouble();
+		final double y = buffer.getDouble();
+		final long timestamp = buffer.getLong();
+		return new PenSample(x, y, force, timestamp, (flags & FLAG_PEN_UP) != 0);
+	}
+
+	/**
+	 * @param sample
+	 * @param penNumber
+	 *            identifies the pen, if a server relays more than one
+	 * @return a new packet holding this sample
+	 */
+	public static byte[] encode(PenSample sample, int penNumber) {
+		final byte[] packet = new byte[PACKET_LENGTH];
+		encode(sample, penNumber, ByteBuffer.wrap(packet));
+		return packet;
+	}
+
+	/**
+	 * Writes one sample at the buffer's current position.
+	 * 
+	 * @param sample
+	 * @param penNumber
+	 *            identifies the pen, if a server relays more than one
+	 * @param buffer
+	 *            must have at least PACKET_LENGTH bytes remaining
+	 */
+	public static void encode(PenSample sample, int penNumber, ByteBuffer buffer) {
+		buffer.put(sample.isPenUp() ? FLAG_PEN_UP : 0);
+		buffer.putShort((short) penNumber);
+		buffer.putShort((short) sample.getForce());
+		buffer.putDouble(sample.getX());
+		buffer.putDouble(sample.getY());
+		buffer.putLong(sample.getTimestamp());
+	}
+
+	/**
+	 * @param bytes
+	 * @return whether these (four or more) bytes start with MAGIC
+	 */
+	public static boolean startsWithMagic(byte[] bytes) {
+		if (bytes.length < MAGIC.length) {
+			return false;
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (bytes[i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,81 @@
+package papertoolkit.pen.streaming.data;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+import papertoolkit.pen.PenSample;
+
+/**
+ * <p>
+ * Sends Pen Samples over the wire in the fixed-width PenSampleBinaryFormat. This is much cheaper (for both
+ * the server and the client) than serializing every sample to XML.
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ * 
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+public class PenServerBinarySender implements PenServerSender {
+
+	private BufferedOutputStream bos;
+
+	/**
+	 * Reused for every sample.
+	 */
+	private final ByteBuffer packet = ByteBuffer.allocate(PenSampleBinaryFormat.PACKET_LENGTH);
+
+	/**
+	 * Written into every packet, so that clients of a relay can tell pens apart.
+	 */
+	private int penNumber;
+
+	private Socket sock;
+
+	/**
+	 * Acknowledges the client's request for binary samples, by sending the magic bytes.
+	 * 
+	 * @param s
+	 * @param thePenNumber
+	 * @throws IOException
+	 */
+	public PenServerBinarySender(Socket s, int thePenNumber) throws IOException {
+		sock = s;
+		penNumber = thePenNumber;
+		bos = new BufferedOutputStream(s.getOutputStream());
+		bos.write(PenSampleBinaryFormat.MAGIC);
+		bos.flush();
+	}
+
+	/**
+	 * @see papertoolkit.pen.streaming.data.PenServerSender#destroy()
+	 */
+	public void destroy() {
+		try {
+			if (bos != null) {
+				bos.close();
+				bos = null;
+			}
+			if (sock != null) {
+				sock.close();
+				sock = null;
+			}
+		} catch (IOException ioe) {
+			System.out.println("Got exception when destroying BinaryServerOutput: "
+					+ ioe.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * @see papertoolkit.pen.streaming.data.PenServerSender#sendSample(papertoolkit.pen.PenSample)
+	 */
+	public void sendSample(PenSample as) throws IOException {
+		packet.clear();
+		PenSampleBinaryFormat.encode(as, penNumber, packet);
+		bos.write(packet.array(), 0, PenSampleBinaryFormat.PACKET_LENGTH);
+		bos.flush();
+	}
+}
@@ -3,12 +3,19 @@ package papertoolkit.pen.streaming.data;
 import java.io.IOException;
 import java.net.Socket;
 
-import papertoolkit.PaperToolkit;
 import papertoolkit.pen.PenSample;
 import papertoolkit.util.DebugUtils;
 
 public class PenServerFlashXMLSender extends PenServerJavaObjectXMLSender {
 
+	/**
+	 * @param aSample
+	 * @return the bytes we send over the wire for this sample (XML, terminated the way Flash likes it)
+	 */
+	public static byte[] encodeForFlash(PenSample aSample) {
+		return (toCompactXML(aSample) + "\0\r\n").getBytes();
+	}
+
 	public PenServerFlashXMLSender(Socket s) throws IOException {
 		super(s);
 		DebugUtils.println("Flash Pen Server Sender Created");
@@ -18,22 +25,10 @@ public class PenServerFlashXMLSender extends PenServerJavaObjectXMLSender {
 	 * @see papertoolkit.pen.streaming.data.PenServerJavaObjectXMLSender#sendSample(papertoolkit.pen.PenSample)
 	 */
 	public void sendSample(PenSample aSample) throws IOException {
-		String xmlString = PaperToolkit.toXML(aSample);
-
-		// remove line endings
-		if (xmlString.contains("\n")) {
-			xmlString = xmlString.replace("\n", "");
-		}
-
-		// remove spaces
-		if (xmlString.contains(" ")) {
-			xmlString = xmlString.replace(" ", "");
-		}
-
 		// this is the ONLY LINE that changes from the parent...
-		bos.write((xmlString + "\0\r\n").getBytes());
+		bos.write(encodeForFlash(aSample));
 		if (aSample.isPenUp()) {
-			DebugUtils.println(xmlString);
+			DebugUtils.println(toCompactXML(aSample));
 		}
 		bos.flush();
 	}
@@ -22,6 +22,35 @@ import papertoolkit.util.SystemUtils;
  */
 public class PenServerJavaObjectXMLSender implements PenServerSender {
 
+	/**
+	 * @param as
+	 * @return the bytes we send over the wire for this sample (one line of XML)
+	 */
+	public static byte[] encode(PenSample as) {
+		return (toCompactXML(as) + SystemUtils.LINE_SEPARATOR).getBytes();
+	}
+
+	/**
+	 * Removes spaces and \n from the sample's XML, so that it fits on one line.
+	 * 
+	 * @param as
+	 * @return the XML for this sample
+	 */
+	public static String toCompactXML(PenSample as) {
+		String xmlString = PaperToolkit.toXML(as);
+
+		// remove line endings
+		if (xmlString.contains("\n")) {
+			xmlString = xmlString.replace("\n", "");
+		}
+
+		// remove spaces
+		if (xmlString.contains(" ")) {
+			xmlString = xmlString.replace(" ", "");
+		}
+		return xmlString;
+	}
+
 	/**
 	 * For subclasses to accesss. :-)
 	 */
@@ -65,19 +94,7 @@ public class PenServerJavaObjectXMLSender implements PenServerSender {
 	 * @see papertoolkit.pen.streaming.data.PenServerSender#sendSample(papertoolkit.pen.PenSample)
 	 */
 	public void sendSample(PenSample as) throws IOException {
-		String xmlString = PaperToolkit.toXML(as);
-
-		// remove line endings
-		if (xmlString.contains("\n")) {
-			xmlString = xmlString.replace("\n", "");
-		}
-
-		// remove spaces
-		if (xmlString.contains(" ")) {
-			xmlString = xmlString.replace(" ", "");
-		}
-
-		bos.write((xmlString + SystemUtils.LINE_SEPARATOR).getBytes());
+		bos.write(encode(as));
 		bos.flush();
 	}
 
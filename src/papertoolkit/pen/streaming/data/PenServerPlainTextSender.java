@@ -21,6 +21,14 @@ import papertoolkit.util.SystemUtils;
  */
 public class PenServerPlainTextSender implements PenServerSender {
 
+	/**
+	 * @param as
+	 * @return the bytes we send over the wire for this sample (one comma separated line)
+	 */
+	public static byte[] encode(PenSample as) {
+		return (as.toCommaSeparatedString() + SystemUtils.LINE_SEPARATOR).getBytes();
+	}
+
 	private Socket socket;
 	private BufferedOutputStream bos;
 
@@ -37,7 +45,7 @@ public class PenServerPlainTextSender implements PenServerSender {
 	 * @see papertoolkit.pen.streaming.data.PenServerSender#sendSample(papertoolkit.pen.PenSample)
 	 */
 	public void sendSample(PenSample as) throws IOException {
-		bos.write((as.toCommaSeparatedString() + SystemUtils.LINE_SEPARATOR).getBytes());
+		bos.write(encode(as));
 		bos.flush();
 	}
 
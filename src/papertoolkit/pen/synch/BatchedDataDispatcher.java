@@ -1,7 +1,9 @@
 package papertoolkit.pen.synch;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -9,11 +11,29 @@ import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import papertoolkit.PaperToolkit;
 import papertoolkit.application.config.Constants;
@@ -24,8 +44,8 @@ import papertoolkit.pattern.PatternPackage;
 import papertoolkit.pattern.coordinates.PageAddress;
 import papertoolkit.pen.PenSample;
 import papertoolkit.units.PatternDots;
+import papertoolkit.util.DaemonThreadFactory;
 import papertoolkit.util.DebugUtils;
-import papertoolkit.util.files.FileUtils;
 
 /**
  * <p>
@@ -55,12 +75,27 @@ public class BatchedDataDispatcher {
 	 */
 	public static final String EXIT_COMMAND = "[[exit]]";
 
-	private static final Pattern PATTERN_PEN_ID = Pattern.compile("<penID id=\"(.*?)\".*?>");
-	private static final Pattern PATTERN_BEGIN_PAGE = Pattern.compile("<page address=\"(.*?)\".*?>");
-	private static final Pattern PATTERN_BEGIN_STROKE = Pattern.compile("<stroke begin=\"(.*?)\".*?>");
-	private static final Pattern PATTERN_END_PAGE = Pattern.compile("</page>");
-	private static final Pattern PATTERN_END_STROKE = Pattern.compile("</stroke>");
-	private static final Pattern PATTERN_SAMPLE = Pattern.compile("<p x=\"(.*?)\" y=\"(.*?)\" f=\"(.*?)\" t=\"(.*?)\".*?/>");
+	/**
+	 * Pass this to setReplaySpeed(...) to dispatch batched data without pausing between strokes.
+	 */
+	public static final double AS_FAST_AS_POSSIBLE = Double.POSITIVE_INFINITY;
+
+	/**
+	 * How many events may wait in each pen lane before the reader blocks. This keeps memory bounded when the
+	 * handlers are slower than the parser.
+	 */
+	private static final int MAX_EVENTS_PER_LANE = 1024;
+
+	private static final String PAGE = "page";
+	private static final String PEN_ID = "penID";
+	private static final String SAMPLE = "p";
+	private static final String STROKE = "stroke";
+
+	/**
+	 * Reads batch files for dispatchInBackground(...), one at a time, so that the events of two files from
+	 * the same pen can never interleave.
+	 */
+	private ExecutorService backgroundReader;
 
 	/**
 	 * 
@@ -77,6 +112,17 @@ public class BatchedDataDispatcher {
 	 */
 	private boolean exitFlag = false;
 
+	/**
+	 * Each pen's events go to the same lane, so they are handled in order. The EventDispatcher still handles
+	 * one event at a time, so the lanes only let the reader keep parsing while the handlers work.
+	 */
+	private ThreadPoolExecutor[] penLanes;
+
+	/**
+	 * The futures from dispatchInBackground(...) that have not completed yet. stopDaemon() cancels them.
+	 */
+	private Set<Future<File>> pendingDispatches = Collections.synchronizedSet(new HashSet<Future<File>>());
+
 	/**
 	 * TODO: Used for converting batched coordinates to streaming coordinates, which can be passed to our
 	 * event handlers.
@@ -86,6 +132,12 @@ public class BatchedDataDispatcher {
 
 	private PatternDots referenceUnit = new PatternDots();
 
+	/**
+	 * 1 replays strokes in real time (pausing up to one second between strokes). 2 replays them twice as
+	 * fast, and so on.
+	 */
+	private double replaySpeed = 1.0;
+
 	/**
 	 * Wait for communication on a socket at this port.
 	 */
@@ -112,125 +164,252 @@ public class BatchedDataDispatcher {
 	}
 
 	/**
+	 * Reads the synched XML file in one pass, and dispatches each stroke's samples as we come across them. We
+	 * only ever hold on to one sample, so memory use does not grow with the size of the file.
+	 * 
 	 * @param xmlDataFile
 	 */
 	public void batchedDataArrived(File xmlDataFile) {
 		// parse it like we used to do... in BNet
 		DebugUtils.println("BatchEventHandler got the file: " + xmlDataFile);
 
-		// read in the whole request file into a String
-		// is this an issue if the xml file is large, say 20MB?
-		final StringBuilder requestBuffer = FileUtils.readFileIntoStringBuffer(xmlDataFile);
+		InputStream in = null;
+		XMLStreamReader reader = null;
+		try {
+			in = new BufferedInputStream(new FileInputStream(xmlDataFile));
+			reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+			dispatchBatchedData(reader, false);
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (XMLStreamException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				if (reader != null) {
+					reader.close();
+				}
+				if (in != null) {
+					in.close();
+				}
+			} catch (XMLStreamException e) {
+				e.printStackTrace();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
 
-		
-		// extract the pen ID
-		final Matcher matcherPenID = PATTERN_PEN_ID.matcher(requestBuffer);
+	/**
+	 * Walks the elements of the synched XML. The pen ID comes first (in the request information), and then
+	 * the pages, which contain the strokes, which contain the samples.
+	 * 
+	 * @param reader
+	 * @param inBackground
+	 *            whether to hand the events to the pen lanes (without pausing), instead of handling them on
+	 *            this thread
+	 * @throws XMLStreamException
+	 */
+	private void dispatchBatchedData(XMLStreamReader reader, boolean inBackground) throws XMLStreamException {
 		String penID = "0";
-		if (matcherPenID.find()) {
-			penID = matcherPenID.group(1);
-		}
-		
-		
-		final Matcher matcherPageBegin = PATTERN_BEGIN_PAGE.matcher(requestBuffer);
-		final Matcher matcherPageEnd = PATTERN_END_PAGE.matcher(requestBuffer);
+		final String penName = "Batched Pen";
 
 		// for simulating realtime
 		long lastPenUpTimestamp = 0L;
-		final String penName = "Batched Pen";
-
-		while (matcherPageBegin.find() && matcherPageEnd.find()) {
-			// DebugUtils.println("Processing Page: ");
-
-			// location of the opening tag <page ...>
-			final int beginTagEndIndex = matcherPageBegin.end();
-			final int beginTagStartIndex = matcherPageBegin.start();
-
-			// location of the closing tag </page>
-			final int endTagStartIndex = matcherPageEnd.start();
-			final int endTagEndIndex = matcherPageEnd.end();
-
-			// extract page address
-			final String pageAddress = matcherPageBegin.group(1);
-			// DebugUtils.println("Page Address: " + pageAddress);
-
-			// save where we got this ink, so we will know later on...
-			final PageAddress address = new PageAddress(pageAddress);
-
-			// extract front and end matter
-			// final String beginText = requestBuffer.substring(beginTagStartIndex, beginTagEndIndex);
-			// final String endText = requestBuffer.substring(endTagStartIndex, endTagEndIndex);
-
-			// extract text in between the begin and end tags
-			final String insideText = requestBuffer.substring(beginTagEndIndex, endTagStartIndex);
-			// System.out.println("Internal Text Length: " + insideText.length());
-			// System.out.println(insideText);
-
-			final Matcher matcherStrokeBegin = PATTERN_BEGIN_STROKE.matcher(insideText);
-			final Matcher matcherStrokeEnd = PATTERN_END_STROKE.matcher(insideText);
-			// look through the strokes for this page
-			while (matcherStrokeBegin.find() && matcherStrokeEnd.find()) {
-				final String strokeTimeStamp = matcherStrokeBegin.group(1);
-				final long ts = Long.parseLong(strokeTimeStamp);
-				// date/time of the beginning of the stroke!
-				DebugUtils.println("New Batched Stroke at Time: " + new Date(ts));
-
-				// samples between the <stroke...></stroke>
-				final String strokeSampleText = insideText.substring(matcherStrokeBegin.end(),
-						matcherStrokeEnd.start());
-
-				// store all the pen samples
-				final List<PenSample> samples = new ArrayList<PenSample>();
-
-				final Matcher matcherSample = PATTERN_SAMPLE.matcher(strokeSampleText);
-				while (matcherSample.find()) {
-					final String x = matcherSample.group(1);
-					final String y = matcherSample.group(2);
-					final String f = matcherSample.group(3);
-					final String t = matcherSample.group(4);
-
-					// make samples and stuff.... add it to the ink
-					// DebugUtils.println(x + " " + y + " f=" + f + " ts=" + t);
-
-					final PenSample sample = new PenSample(Double.parseDouble(x), Double.parseDouble(y),
-							Integer.parseInt(f), Long.parseLong(t));
-					samples.add(sample);
-				}
 
-				// dispatch the whole pen stroke
-				// TODO Figure out the handling with multiple pens, etc... at some point
-				// Figure out how to handle this in simulated REAL-TIME
-				for (int i = 0; i < samples.size(); i++) {
-					if (i == 0) {
-						long timeDiff = samples.get(i).timestamp - lastPenUpTimestamp;
-						if (timeDiff > 1000) { // 1 second, then we just wait one second
-							timeDiff = 1000L;
+		boolean insidePage = false;
+		boolean insideStroke = false;
+
+		// we do not know whether a sample is the last one in its stroke (and thus, a pen up) until we see the
+		// next sample or the </stroke>, so we hold on to it until then
+		PenSample heldSample = null;
+		boolean heldSampleIsFirst = false;
+
+		while (reader.hasNext()) {
+			final int eventType = reader.next();
+			if (eventType == XMLStreamConstants.START_ELEMENT) {
+				final String elementName = reader.getLocalName();
+				if (insideStroke && elementName.equals(SAMPLE)) {
+					final PenSample sample = new PenSample( //
+							Double.parseDouble(reader.getAttributeValue(null, "x")), //
+							Double.parseDouble(reader.getAttributeValue(null, "y")), //
+							Integer.parseInt(reader.getAttributeValue(null, "f")), //
+							Long.parseLong(reader.getAttributeValue(null, "t")));
+					if (heldSample == null) {
+						heldSampleIsFirst = true;
+					} else {
+						if (heldSampleIsFirst) {
+							if (!inBackground) {
+								waitBeforeNewStroke(heldSample.timestamp - lastPenUpTimestamp);
+							}
+							// DebugUtils.println("DOWN");
+							dispatch(inBackground, new PenEvent(penID, penName, heldSample,
+									PenEventType.DOWN, false));
+						} else {
+							// DebugUtils.println("P");
+							dispatch(inBackground, new PenEvent(penID, penName, heldSample,
+									PenEventType.SAMPLE, false));
 						}
-						try {
-							// pause a bit, up to 1 second... before triggering a new down sample
-							// this avoids the jitter filtering we have in some of the handler classes...
-							// TODO: We should remove that filtering, as we now have it in PenClient =\
-							Thread.sleep(timeDiff);
-						} catch (InterruptedException e) {
-							e.printStackTrace();
+						heldSampleIsFirst = false;
+					}
+					heldSample = sample;
+				} else if (insidePage && elementName.equals(STROKE)) {
+					insideStroke = true;
+					heldSample = null;
+					final long ts = Long.parseLong(reader.getAttributeValue(null, "begin"));
+					// date/time of the beginning of the stroke!
+					DebugUtils.println("New Batched Stroke at Time: " + new Date(ts));
+				} else if (elementName.equals(PAGE)) {
+					insidePage = true;
+					// save where we got this ink, so we will know later on...
+					final PageAddress address = new PageAddress(reader.getAttributeValue(null, "address"));
+					// DebugUtils.println("Page Address: " + address);
+				} else if (elementName.equals(PEN_ID)) {
+					penID = reader.getAttributeValue(null, "id");
+				}
+			} else if (eventType == XMLStreamConstants.END_ELEMENT) {
+				final String elementName = reader.getLocalName();
+				if (insideStroke && elementName.equals(STROKE)) {
+					insideStroke = false;
+					if (heldSample == null) {
+						continue;
+					}
+					// dispatch the whole pen stroke
+					// TODO Figure out the handling with multiple pens, etc... at some point
+					if (heldSampleIsFirst) {
+						// a stroke with only one sample
+						if (!inBackground) {
+							waitBeforeNewStroke(heldSample.timestamp - lastPenUpTimestamp);
 						}
-
-						// DebugUtils.println("DOWN");
-						eventDispatcher.handlePenEvent(new PenEvent(penID, penName, samples.get(i),
+						dispatch(inBackground, new PenEvent(penID, penName, heldSample,
 								PenEventType.DOWN, false));
-
-					} else if (i == samples.size() - 1) {
+					} else {
 						// DebugUtils.println("UP");
-						eventDispatcher.handlePenEvent(new PenEvent(penID, penName, samples.get(i),
+						dispatch(inBackground, new PenEvent(penID, penName, heldSample,
 								PenEventType.UP, false));
-						lastPenUpTimestamp = samples.get(i).timestamp;
-					} else {
-						// DebugUtils.println("P");
-						eventDispatcher.handlePenEvent(new PenEvent(penID, penName, samples.get(i),
-								PenEventType.SAMPLE, false));
+						lastPenUpTimestamp = heldSample.timestamp;
+					}
+					heldSample = null;
+				} else if (elementName.equals(PAGE)) {
+					insidePage = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param inBackground
+	 * @param event
+	 */
+	private void dispatch(boolean inBackground, final PenEvent event) {
+		if (!inBackground) {
+			eventDispatcher.handlePenEvent(event);
+			return;
+		}
+		getLane(event.getPenID()).execute(new Runnable() {
+			public void run() {
+				eventDispatcher.handlePenEvent(event);
+			}
+		});
+	}
+
+	/**
+	 * Reads the synched XML file on a background thread, and hands its events to the pen lanes, without
+	 * pausing between strokes. Each pen's events are handled in order (even across files). The handlers run
+	 * on the lanes' threads, and not on yours, but the EventDispatcher still handles one event at a time, as
+	 * it does for live pens. So, reading the file overlaps with handling its events, but the events of
+	 * different pens are not handled at the same time.
+	 * 
+	 * @param xmlDataFile
+	 * @return completes when every event in the file has been handled. If we could not read the whole file,
+	 *         get() throws an ExecutionException with the IOException or XMLStreamException as its cause (the
+	 *         events read before the error are still handled first). If stopDaemon() is called first, the
+	 *         future is cancelled.
+	 */
+	public Future<File> dispatchInBackground(final File xmlDataFile) {
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+		// runs after the file's last event
+		final FutureTask<File> done = new FutureTask<File>(new Callable<File>() {
+			public File call() throws Exception {
+				if (failure.get() != null) {
+					throw failure.get();
+				}
+				DebugUtils.println("Finished dispatching " + xmlDataFile);
+				return xmlDataFile;
+			}
+		}) {
+			protected void done() {
+				pendingDispatches.remove(this);
+			}
+		};
+		pendingDispatches.add(done);
+
+		final Runnable readFile = new Runnable() {
+			public void run() {
+				InputStream in = null;
+				XMLStreamReader reader = null;
+				try {
+					in = new BufferedInputStream(new FileInputStream(xmlDataFile));
+					reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+					dispatchBatchedData(reader, true);
+				} catch (IOException e) {
+					failure.set(e);
+				} catch (XMLStreamException e) {
+					failure.set(e);
+				} catch (RuntimeException e) {
+					failure.set(e);
+				} finally {
+					try {
+						if (reader != null) {
+							reader.close();
+						}
+						if (in != null) {
+							in.close();
+						}
+					} catch (XMLStreamException e) {
+						e.printStackTrace();
+					} catch (IOException e) {
+						e.printStackTrace();
 					}
 				}
+
+				if (failure.get() != null) {
+					DebugUtils.println("Could not read all of " + xmlDataFile + ": " + failure.get());
+				}
+
+				// the done task has to wait for the events in every lane
+				final int numLanes = getLanes().length;
+				final CountDownLatch lanesFlushed = new CountDownLatch(numLanes);
+				for (ThreadPoolExecutor lane : getLanes()) {
+					lane.execute(new Runnable() {
+						public void run() {
+							lanesFlushed.countDown();
+							if (lanesFlushed.getCount() == 0) {
+								done.run();
+							}
+						}
+					});
+				}
 			}
+		};
+		try {
+			getBackgroundReader().execute(readFile);
+		} catch (RejectedExecutionException e) {
+			// the daemon has been stopped
+			done.cancel(false);
 		}
+		return done;
+	}
+
+	/**
+	 * @return the thread that reads files for dispatchInBackground(...)
+	 */
+	private synchronized ExecutorService getBackgroundReader() {
+		if (backgroundReader == null) {
+			backgroundReader = Executors.newSingleThreadExecutor(new DaemonThreadFactory(
+					"Batched Data Reader"));
+		}
+		return backgroundReader;
 	}
 
 	/**
@@ -343,12 +522,103 @@ public class BatchedDataDispatcher {
 		};
 	}
 
+	/**
+	 * Pause a bit, up to 1 second... before triggering a new down sample. This avoids the jitter filtering we
+	 * have in some of the handler classes... TODO: We should remove that filtering, as we now have it in
+	 * PenClient =\
+	 * 
+	 * @param timeDiff
+	 *            the time between the last pen up and this pen down (which we shrink by the replay speed)
+	 */
+	private void waitBeforeNewStroke(long timeDiff) {
+		if (timeDiff > 1000) { // 1 second, then we just wait one second
+			timeDiff = 1000L;
+		}
+		final long waitMillis = (long) (timeDiff / replaySpeed);
+		if (waitMillis <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(waitMillis);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @param penID
+	 * @return the lane that handles this pen's events
+	 */
+	private ThreadPoolExecutor getLane(String penID) {
+		final ThreadPoolExecutor[] lanes = getLanes();
+		final int hash = penID == null ? 0 : penID.hashCode();
+		return lanes[(hash & 0x7FFFFFFF) % lanes.length];
+	}
+
+	/**
+	 * One single-threaded executor per processor. When a lane is full, whoever is adding to it waits.
+	 * 
+	 * @return the pen lanes
+	 */
+	private synchronized ThreadPoolExecutor[] getLanes() {
+		if (penLanes == null) {
+			final DaemonThreadFactory threadFactory = new DaemonThreadFactory("Batched Pen Lane");
+			final RejectedExecutionHandler waitForRoom = new RejectedExecutionHandler() {
+				public void rejectedExecution(Runnable r, ThreadPoolExecutor lane) {
+					if (lane.isShutdown()) {
+						return;
+					}
+					try {
+						lane.getQueue().put(r);
+					} catch (InterruptedException e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			penLanes = new ThreadPoolExecutor[Runtime.getRuntime().availableProcessors()];
+			for (int i = 0; i < penLanes.length; i++) {
+				penLanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+						new ArrayBlockingQueue<Runnable>(MAX_EVENTS_PER_LANE), threadFactory, waitForRoom);
+			}
+		}
+		return penLanes;
+	}
+
+	/**
+	 * @param speedFactor
+	 *            1 (the default) replays batched data in real time. Larger numbers replay it faster (e.g., 10
+	 *            is ten times as fast), and AS_FAST_AS_POSSIBLE does not pause at all. The events keep the
+	 *            pen's original timestamps either way.
+	 */
+	public void setReplaySpeed(double speedFactor) {
+		if (speedFactor <= 0) {
+			throw new IllegalArgumentException("The replay speed must be positive.");
+		}
+		replaySpeed = speedFactor;
+	}
+
 	/**
 	 * Tell the server to stop sending actions.
 	 */
 	public void stopDaemon() {
 		try {
 			exitFlag = true;
+			synchronized (this) {
+				if (backgroundReader != null) {
+					backgroundReader.shutdownNow();
+				}
+				if (penLanes != null) {
+					for (ThreadPoolExecutor lane : penLanes) {
+						lane.shutdownNow();
+					}
+				}
+			}
+			// their files (or lane flushes) will never run now
+			synchronized (pendingDispatches) {
+				for (Future<File> pending : new ArrayList<Future<File>>(pendingDispatches)) {
+					pending.cancel(false);
+				}
+			}
 			for (Socket client : clients) {
 				client.close();
 			}
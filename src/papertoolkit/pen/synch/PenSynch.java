@@ -177,7 +177,7 @@ public class PenSynch implements Synch {
 			List<InkStroke> strokes = ink.getStrokes();
 			for (InkStroke s : strokes) {
 				DebugUtils.println(s.toString());
-				List<PenSample> samples = s.getSamples();
+				List<PenSample> samples = s.getSampleView();
 				for (PenSample sample : samples) {
 					DebugUtils.println(sample);
 				}
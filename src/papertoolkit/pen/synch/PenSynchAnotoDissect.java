@@ -157,7 +157,7 @@ public class PenSynchAnotoDissect implements Synch {
 			List<InkStroke> strokes = ink.getStrokes();
 			for (InkStroke s : strokes) {
 				DebugUtils.println(s.toString());
-				List<PenSample> samples = s.getSamples();
+				List<PenSample> samples = s.getSampleView();
 				for (PenSample sample : samples) {
 					DebugUtils.println(sample);
 				}
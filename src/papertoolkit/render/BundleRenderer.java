@@ -1,13 +1,20 @@
 package papertoolkit.render;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import papertoolkit.paper.Bundle;
 import papertoolkit.paper.Sheet;
 import papertoolkit.pattern.TiledPatternGenerator;
-import papertoolkit.util.DebugUtils;
-
+import papertoolkit.util.DaemonThreadFactory;
 
 /**
  * <p>
@@ -29,22 +36,82 @@ public class BundleRenderer {
 	}
 
 	/**
-	 * Names them X1.pdf, X2.pdf, X3.pdf, etc...
+	 * Names them X_0.pdf, X_1.pdf, X_2.pdf, etc... Uses one thread per core.
 	 * 
 	 * @param parentPath
 	 * @param fileNameWithoutExtension
 	 */
 	public void renderToIndividualPDFs(File parentPath, String fileNameWithoutExtension) {
+		renderToIndividualPDFs(parentPath, fileNameWithoutExtension, //
+				Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Names them X_0.pdf, X_1.pdf, X_2.pdf, etc... First, we reserve pattern for every sheet, in order,
+	 * from one shared TiledPatternGenerator. Then, we render the sheets in parallel. Each sheet gets the same
+	 * pattern (and the same .patternInfo.xml) as if we had rendered them one at a time.
+	 * 
+	 * @param parentPath
+	 * @param fileNameWithoutExtension
+	 * @param numThreads
+	 *            1 renders the sheets one at a time, on this thread
+	 */
+	public void renderToIndividualPDFs(File parentPath, String fileNameWithoutExtension, int numThreads) {
 		final List<Sheet> sheets = bundle.getSheets();
 		final TiledPatternGenerator sharedPatternGenerator = new TiledPatternGenerator();
+
+		// the pattern allocation is sequential, so it does not depend on the number of threads
+		final List<SheetRenderer> renderers = new ArrayList<SheetRenderer>(sheets.size());
+		final List<File> destFiles = new ArrayList<File>(sheets.size());
+		final Map<Sheet, Sheet> distinctSheets = new IdentityHashMap<Sheet, Sheet>();
 		int n = 0;
 		for (Sheet s : sheets) {
-			final File destFile = new File(parentPath, fileNameWithoutExtension + "_" + n + ".pdf");
-//			DebugUtils.println("Rendering " + destFile);
 			final SheetRenderer sr = new SheetRenderer(s, sharedPatternGenerator);
-			sr.renderToPDF(destFile);
+			sr.reservePattern();
+			renderers.add(sr);
+			destFiles.add(new File(parentPath, fileNameWithoutExtension + "_" + n + ".pdf"));
+			distinctSheets.put(s, s);
 			n++;
 		}
+
+		// a sheet that is in the bundle twice has one pattern mapping, which we cannot fill in from two
+		// threads at once
+		if (numThreads <= 1 || sheets.size() <= 1 || distinctSheets.size() < sheets.size()) {
+			for (int i = 0; i < renderers.size(); i++) {
+				renderers.get(i).renderToPDF(destFiles.get(i));
+			}
+			return;
+		}
+
+		final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(renderers.size());
+		for (int i = 0; i < renderers.size(); i++) {
+			final SheetRenderer sr = renderers.get(i);
+			final File destFile = destFiles.get(i);
+			tasks.add(new Callable<Object>() {
+				public Object call() {
+					// DebugUtils.println("Rendering " + destFile);
+					sr.renderToPDF(destFile);
+					return null;
+				}
+			});
+		}
+		final ExecutorService pool = Executors.newFixedThreadPool(Math.min(numThreads, tasks.size()),
+				new DaemonThreadFactory("Bundle Renderer"));
+		try {
+			for (Future<Object> f : pool.invokeAll(tasks)) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
 	}
 
 	/**
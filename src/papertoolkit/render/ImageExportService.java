@@ -0,0 +1,188 @@
+package papertoolkit.render;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import papertoolkit.paper.Sheet;
+import papertoolkit.pen.ink.Ink;
+import papertoolkit.render.ink.InkRenderer;
+import papertoolkit.units.Pixels;
+import papertoolkit.units.Units;
+import papertoolkit.units.conversion.PixelsPerInch;
+import papertoolkit.util.DaemonThreadFactory;
+import papertoolkit.util.graphics.ImageUtils;
+
+/**
+ * <p>
+ * Renders sheets and ink to JPEG or PNG files in the background. Each export renders straight into a
+ * BufferedImage and encodes it, on a fixed number of threads, so exporting a thumbnail for every page of a
+ * synch does not tie up the caller's thread (or render one page at a time). Files whose names end in .png
+ * are written as PNGs, and everything else as JPEGs.
+ * </p>
+ * <p>
+ * Each method returns a Future, which gives back the file once it is written. Do not modify the Ink or
+ * Sheet until its future is done.
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+public class ImageExportService {
+
+	/**
+	 * @param image
+	 * @param dest
+	 * @return dest
+	 */
+	private static File write(BufferedImage image, File dest) {
+		if (dest.getName().toLowerCase().endsWith(".png")) {
+			ImageUtils.writeImageToPNG(image, dest);
+		} else {
+			ImageUtils.writeImageToJPEG(image, dest);
+		}
+		return dest;
+	}
+
+	private final ExecutorService pool;
+
+	/**
+	 * Uses one thread per core.
+	 */
+	public ImageExportService() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param numThreads
+	 *            at most this many images are rendered (and held in memory) at once
+	 */
+	public ImageExportService(int numThreads) {
+		pool = Executors.newFixedThreadPool(Math.max(1, numThreads), new DaemonThreadFactory("Image Export"));
+	}
+
+	/**
+	 * Renders the ink on an image just large enough to hold it. See InkRenderer.renderToJPEGRecentered(...).
+	 *
+	 * @param ink
+	 * @param dest
+	 * @return
+	 */
+	public Future<File> exportInk(final Ink ink, final File dest) {
+		return pool.submit(new Callable<File>() {
+			public File call() {
+				return write(new InkRenderer(ink).renderToBufferedImageRecentered(), dest);
+			}
+		});
+	}
+
+	/**
+	 * See InkRenderer.renderToJPEG(File, PixelsPerInch, Units, Units).
+	 *
+	 * @param ink
+	 * @param dest
+	 * @param resolution
+	 * @param width
+	 * @param height
+	 * @return
+	 */
+	public Future<File> exportInk(final Ink ink, final File dest, final PixelsPerInch resolution,
+			final Units width, final Units height) {
+		return pool.submit(new Callable<File>() {
+			public File call() {
+				return write(new InkRenderer(ink).renderToBufferedImage(resolution, width, height), dest);
+			}
+		});
+	}
+
+	/**
+	 * @param ink
+	 * @param dest
+	 * @param maxWidthPixels
+	 * @param maxHeightPixels
+	 * @return the ink, recentered and scaled down to fit in the given size
+	 */
+	public Future<File> exportInkThumbnail(final Ink ink, final File dest, final int maxWidthPixels,
+			final int maxHeightPixels) {
+		return pool.submit(new Callable<File>() {
+			public File call() {
+				return write(new InkRenderer(ink).renderToThumbnail(maxWidthPixels, maxHeightPixels), dest);
+			}
+		});
+	}
+
+	/**
+	 * Exports a thumbnail of each Ink object (e.g., each page of a synch) to the matching file.
+	 *
+	 * @param inks
+	 * @param destFiles
+	 *            one per ink, in the same order
+	 * @param maxWidthPixels
+	 * @param maxHeightPixels
+	 * @return one future per ink, in the same order
+	 */
+	public List<Future<File>> exportInkThumbnails(List<Ink> inks, List<File> destFiles, int maxWidthPixels,
+			int maxHeightPixels) {
+		if (inks.size() != destFiles.size()) {
+			throw new IllegalArgumentException("We need one file per Ink object (" + inks.size()
+					+ " Inks, but " + destFiles.size() + " files).");
+		}
+		final List<Future<File>> futures = new ArrayList<Future<File>>(inks.size());
+		for (int i = 0; i < inks.size(); i++) {
+			futures.add(exportInkThumbnail(inks.get(i), destFiles.get(i), maxWidthPixels, maxHeightPixels));
+		}
+		return futures;
+	}
+
+	/**
+	 * See SheetRenderer.renderToJPEG(File, Pixels).
+	 *
+	 * @param sheet
+	 * @param dest
+	 * @param destUnits
+	 * @return
+	 */
+	public Future<File> exportSheet(final Sheet sheet, final File dest, final Pixels destUnits) {
+		return pool.submit(new Callable<File>() {
+			public File call() {
+				return write(sheet.getRenderer().renderToBufferedImage(destUnits), dest);
+			}
+		});
+	}
+
+	/**
+	 * Exports each sheet to the matching file.
+	 *
+	 * @param sheets
+	 * @param destFiles
+	 *            one per sheet, in the same order
+	 * @param destUnits
+	 * @return one future per sheet, in the same order
+	 */
+	public List<Future<File>> exportSheets(List<Sheet> sheets, List<File> destFiles, Pixels destUnits) {
+		if (sheets.size() != destFiles.size()) {
+			throw new IllegalArgumentException("We need one file per Sheet (" + sheets.size()
+					+ " Sheets, but " + destFiles.size() + " files).");
+		}
+		final List<Future<File>> futures = new ArrayList<Future<File>>(sheets.size());
+		for (int i = 0; i < sheets.size(); i++) {
+			futures.add(exportSheet(sheets.get(i), destFiles.get(i), destUnits));
+		}
+		return futures;
+	}
+
+	/**
+	 * Finishes the exports that were already submitted, but accepts no new ones.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+}
@@ -4,13 +4,13 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.util.ArrayList;
 import java.util.List;
 
-import javax.media.jai.TiledImage;
-
 import org.jibble.epsgraphics.EpsGraphics2D;
 
 import papertoolkit.paper.Region;
@@ -20,6 +20,7 @@ import papertoolkit.pattern.TiledPatternGenerator;
 import papertoolkit.pattern.coordinates.PatternToSheetMapping;
 import papertoolkit.pattern.coordinates.conversion.TiledPatternCoordinateConverter;
 import papertoolkit.pattern.output.PDFPatternGenerator;
+import papertoolkit.pattern.output.PatternDotRendering;
 import papertoolkit.pattern.output.PostscriptPatternGenerator;
 import papertoolkit.units.Pixels;
 import papertoolkit.units.Points;
@@ -30,7 +31,6 @@ import papertoolkit.util.MathUtils;
 import papertoolkit.util.files.FileUtils;
 import papertoolkit.util.graphics.GraphicsUtils;
 import papertoolkit.util.graphics.ImageUtils;
-import papertoolkit.util.graphics.JAIUtils;
 
 import com.lowagie.text.Document;
 import com.lowagie.text.DocumentException;
@@ -76,6 +76,11 @@ public class SheetRenderer {
 	 */
 	private int patternDotSizeAdjustment = 0;
 
+	/**
+	 * How the pattern dots are drawn into the PDF.
+	 */
+	private PatternDotRendering patternDotRendering = PatternDotRendering.TEMPLATE;
+
 	/**
 	 * Populate this only when we render the pattern (renderToPDF). After we render to pdf, we can save the
 	 * information to a file, for so that we can run the application in the future without rendering more
@@ -89,6 +94,12 @@ public class SheetRenderer {
 	 */
 	protected boolean renderActiveRegionsWithPattern = true;
 
+	/**
+	 * Pattern set aside for this sheet's active regions (in the order of sheet.getRegions()) by
+	 * reservePattern(). If null, we ask the generator for pattern while we render.
+	 */
+	private List<TiledPattern> reservedPatterns;
+
 	/**
 	 * The sheet we are to render.
 	 */
@@ -141,10 +152,16 @@ public class SheetRenderer {
 		// this object will generate the right PDF (itext) calls to create pattern
 		final PDFPatternGenerator pgen = new PDFPatternGenerator(cb, sheet.getWidth(), sheet.getHeight());
 		pgen.setPatternColor(patternColor);
+		pgen.setDotRendering(patternDotRendering);
 
 		// adjust the font size of the pattern...
 		pgen.adjustPatternSize(patternDotSizeAdjustment);
 
+		// use up the reserved pattern, if there is any
+		final List<TiledPattern> reserved = reservedPatterns;
+		reservedPatterns = null;
+		int numReservedUsed = 0;
+
 		// render each region that is active
 		for (Region r : regions) {
 			if (!r.isActive()) {
@@ -167,7 +184,12 @@ public class SheetRenderer {
 			// by default, the pattern returned will be unique if possible (and a warning thrown
 			// otherwise). If you want to use the same pattern in different places, you will
 			// need to keep the returned pattern object around
-			final TiledPattern pattern = generator.getPattern(scaledWidth, scaledHeight);
+			final TiledPattern pattern;
+			if (reserved != null && numReservedUsed < reserved.size()) {
+				pattern = reserved.get(numReservedUsed++);
+			} else {
+				pattern = generator.getPattern(scaledWidth, scaledHeight);
+			}
 
 			// DebugUtils.println("Rendering Pattern for " + r.getName());
 			// render the pattern starting at the region's origin
@@ -185,8 +207,10 @@ public class SheetRenderer {
 			// tiledPatternInRegion.setRegionName(r.getName());
 			// now, this object is modified
 			// since it is already mapped to the correct region r, we do not need
-			// to do anything else!
+			// to do anything else... except tell the pattern space indices (below)
 		}
+		// the converters were changed in place, so let the event dispatcher's index pick up their new bounds
+		patternInformation.notifyIndices();
 
 		// /////////////////////////////////////////////////////
 		// /////////////////////////////////////////////////////
@@ -234,6 +258,8 @@ public class SheetRenderer {
 			patternCoordinateConverter.setPatternInformationByReadingItFrom(pgen.getPattern(),
 					regionLocation, r.getWidth(), r.getHeight());
 		}
+		// the converters were changed in place, so let the event dispatcher's index pick up their new bounds
+		patternInformation.notifyIndices();
 
 		return pgen.getPostscriptPattern();
 	}
@@ -288,6 +314,17 @@ public class SheetRenderer {
 	 *            Graphics2D's default 72ppi isn't always the right way to do it.
 	 */
 	public void renderToJPEG(File destJPEGFile, Pixels destUnits) {
+		ImageUtils.writeImageToJPEG(renderToBufferedImage(destUnits), destJPEGFile);
+	}
+
+	/**
+	 * Renders the sheet straight into an image that can be encoded as is (e.g., by ImageExportService).
+	 * 
+	 * @param destUnits
+	 *            the resolution of the image (see renderToJPEG(File, Pixels))
+	 * @return the sheet on a white background
+	 */
+	public BufferedImage renderToBufferedImage(Pixels destUnits) {
 		final Units width = sheet.getWidth();
 		final Units height = sheet.getHeight();
 
@@ -295,7 +332,7 @@ public class SheetRenderer {
 
 		final int w = MathUtils.rint(width.getValueIn(destUnits));
 		final int h = MathUtils.rint(height.getValueIn(destUnits));
-		final TiledImage image = JAIUtils.createWritableBufferWithoutAlpha(w, h);
+		final BufferedImage image = ImageUtils.createWritableBufferWithoutAlpha(w, h);
 		final Graphics2D graphics2D = image.createGraphics();
 		graphics2D.setRenderingHints(GraphicsUtils.getBestRenderingHints());
 
@@ -310,7 +347,7 @@ public class SheetRenderer {
 
 		renderToG2D(graphics2D);
 		graphics2D.dispose();
-		ImageUtils.writeImageToJPEG(image.getAsBufferedImage(), destJPEGFile);
+		return image;
 	}
 
 	/**
@@ -424,6 +461,24 @@ public class SheetRenderer {
 		savePatternInformation(); // do this automatically
 	}
 
+	/**
+	 * Takes the pattern for each active region from the generator now, in the same order (and so, the same
+	 * pattern) that renderToPDF(...) would. The next renderToPDF(...) uses this pattern instead of calling
+	 * the generator, so it can run on another thread while other sheets reserve or render. BundleRenderer
+	 * reserves pattern for all its sheets in order, and then renders them in parallel.
+	 */
+	public void reservePattern() {
+		final List<TiledPattern> reserved = new ArrayList<TiledPattern>();
+		if (renderActiveRegionsWithPattern) {
+			for (Region r : sheet.getRegions()) {
+				if (r.isActive()) {
+					reserved.add(generator.getPattern(r.getWidth(), r.getHeight()));
+				}
+			}
+		}
+		reservedPatterns = reserved;
+	}
+
 	/**
 	 * This saves an xml file with the same name/path, but different extension as the most-recently rendered
 	 * PDF file.
@@ -469,6 +524,15 @@ public class SheetRenderer {
 		patternColor = pColor;
 	}
 
+	/**
+	 * ROW_PATHS makes smaller PDFs, faster. TEMPLATE is the default.
+	 * 
+	 * @param rendering
+	 */
+	public void setPatternDotRendering(PatternDotRendering rendering) {
+		patternDotRendering = rendering;
+	}
+
 	/**
 	 * Useful for when rendering many sheets at a time. This can guarantee that the pattern is unique across
 	 * sheets. If you want to reset the pattern, or pick a particular sheet, you may, by interacting with the
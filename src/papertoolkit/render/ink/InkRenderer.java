@@ -3,11 +3,10 @@ package papertoolkit.render.ink;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.util.List;
 
-import javax.media.jai.TiledImage;
-
 import papertoolkit.pen.ink.Ink;
 import papertoolkit.pen.ink.InkStroke;
 import papertoolkit.units.Pixels;
@@ -18,11 +17,12 @@ import papertoolkit.util.DebugUtils;
 import papertoolkit.util.MathUtils;
 import papertoolkit.util.graphics.GraphicsUtils;
 import papertoolkit.util.graphics.ImageUtils;
-import papertoolkit.util.graphics.JAIUtils;
 
 /**
  * <p>
- * Renders Ink to a Graphics2D or PDF.
+ * Renders Ink to a Graphics2D or PDF. The renderToBufferedImage... methods draw straight into an image that
+ * can be encoded as is, and the renderToJPEG... methods encode those images. To export many images in the
+ * background, see ImageExportService.
  * </p>
  * <p>
  * <span class="BSDLicense"> This software is distributed under the <a
@@ -50,6 +50,68 @@ public class InkRenderer {
 		ink = theInk;
 	}
 
+	/**
+	 * @param image
+	 * @return a graphics context with our best rendering hints, after painting the image white
+	 */
+	private static Graphics2D createWhiteCanvas(BufferedImage image) {
+		final Graphics2D graphics2D = image.createGraphics();
+		graphics2D.setRenderingHints(GraphicsUtils.getBestRenderingHints());
+
+		// render a white canvas
+		graphics2D.setColor(Color.WHITE);
+		graphics2D.fillRect(0, 0, image.getWidth(), image.getHeight());
+		return graphics2D;
+	}
+
+	/**
+	 * @param widthPixels
+	 * @param heightPixels
+	 * @return the ink on a white image, in ink coordinates (one unit is one pixel)
+	 */
+	public BufferedImage renderToBufferedImage(int widthPixels, int heightPixels) {
+		final BufferedImage image = ImageUtils.createWritableBufferWithoutAlpha(widthPixels, heightPixels);
+		final Graphics2D graphics2D = createWhiteCanvas(image);
+		renderToG2D(graphics2D);
+		graphics2D.dispose();
+		return image;
+	}
+
+	/**
+	 * @param resolutionPixelsPerInch
+	 * @param width
+	 * @param height
+	 * @return the ink on a white image of the given physical size, at the given resolution
+	 */
+	public BufferedImage renderToBufferedImage(PixelsPerInch resolutionPixelsPerInch, Units width, Units height) {
+		Pixels pixels = new Pixels(1, resolutionPixelsPerInch);
+		final double scale = Points.ONE.getScalarMultipleToConvertTo(pixels);
+
+		final int wPixels = MathUtils.rint(width.getValueIn(pixels));
+		final int hPixels = MathUtils.rint(height.getValueIn(pixels));
+		final BufferedImage image = ImageUtils.createWritableBufferWithoutAlpha(wPixels, hPixels);
+		final Graphics2D graphics2D = createWhiteCanvas(image);
+
+		// transform the graphics such that we are in destUnits' pixels per inch, so that when we
+		// draw 72 Graphics2D pixels from now on, it will equal the correct number of output pixels
+		// in the JPEG.
+		// 
+		// TODO: Joel said that this next line is a bug, and ruins his blog app's ink alignment
+		// Can we figure out why? Why do we not need this line?
+		graphics2D.setTransform(AffineTransform.getScaleInstance(scale, scale));
+
+		renderToG2D(graphics2D);
+		graphics2D.dispose();
+		return image;
+	}
+
+	/**
+	 * @return the ink on a white image that is just large enough to hold it (plus a 10 pixel margin)
+	 */
+	public BufferedImage renderToBufferedImageRecentered() {
+		return renderToThumbnail(Integer.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
 	/**
 	 * @param g2d
 	 */
@@ -58,6 +120,21 @@ public class InkRenderer {
 			DebugUtils.println("Ink Object is NULL");
 			return;
 		}
+		renderToG2D(g2d, ink.getStrokes());
+	}
+
+	/**
+	 * Renders only some of our ink's strokes (e.g., the ones that touch one tile of an InkTileCache), in the
+	 * color that renderToG2D(g2d) would use.
+	 * 
+	 * @param g2d
+	 * @param strokes
+	 */
+	public void renderToG2D(Graphics2D g2d, List<InkStroke> strokes) {
+		if (ink == null) {
+			DebugUtils.println("Ink Object is NULL");
+			return;
+		}
 
 		// anti-aliased, high quality rendering
 		g2d.setRenderingHints(GraphicsUtils.getBestRenderingHints());
@@ -71,7 +148,6 @@ public class InkRenderer {
 		// DebugUtils.println("Rendering Ink with Color == " + inkColor);
 		g2d.setColor(inkColor);
 
-		final List<InkStroke> strokes = ink.getStrokes();
 		renderingTechnique.render(g2d, strokes);
 	}
 
@@ -83,17 +159,7 @@ public class InkRenderer {
 	 * @param destJPEGFile
 	 */
 	public void renderToJPEG(File destJPEGFile, int widthPixels, int heightPixels) {
-		final TiledImage image = JAIUtils.createWritableBufferWithoutAlpha(widthPixels, heightPixels);
-		final Graphics2D graphics2D = image.createGraphics();
-		graphics2D.setRenderingHints(GraphicsUtils.getBestRenderingHints());
-
-		// render a white canvas
-		graphics2D.setColor(Color.WHITE);
-		graphics2D.fillRect(0, 0, widthPixels, heightPixels);
-
-		renderToG2D(graphics2D);
-		graphics2D.dispose();
-		ImageUtils.writeImageToJPEG(image.getAsBufferedImage(), destJPEGFile);
+		ImageUtils.writeImageToJPEG(renderToBufferedImage(widthPixels, heightPixels), destJPEGFile);
 		// DebugUtils.println("Wrote the File");
 	}
 
@@ -102,30 +168,8 @@ public class InkRenderer {
 	 */
 	public void renderToJPEG(File destJPEGFile, PixelsPerInch resolutionPixelsPerInch, Units width,
 			Units height) {
-		Pixels pixels = new Pixels(1, resolutionPixelsPerInch);
-		final double scale = Points.ONE.getScalarMultipleToConvertTo(pixels);
-
-		final int wPixels = MathUtils.rint(width.getValueIn(pixels));
-		final int hPixels = MathUtils.rint(height.getValueIn(pixels));
-		final TiledImage image = JAIUtils.createWritableBufferWithoutAlpha(wPixels, hPixels);
-		final Graphics2D graphics2D = image.createGraphics();
-		graphics2D.setRenderingHints(GraphicsUtils.getBestRenderingHints());
-
-		// transform the graphics such that we are in destUnits' pixels per inch, so that when we
-		// draw 72 Graphics2D pixels from now on, it will equal the correct number of output pixels
-		// in the JPEG.
-		// 
-		// TODO: Joel said that this next line is a bug, and ruins his blog app's ink alignment
-		// Can we figure out why? Why do we not need this line?
-		graphics2D.setTransform(AffineTransform.getScaleInstance(scale, scale));
-
-		// render a white canvas
-		graphics2D.setColor(Color.WHITE);
-		graphics2D.fillRect(0, 0, wPixels, hPixels);
-
-		renderToG2D(graphics2D);
-		graphics2D.dispose();
-		ImageUtils.writeImageToJPEG(image.getAsBufferedImage(), destJPEGFile);
+		ImageUtils.writeImageToJPEG(renderToBufferedImage(resolutionPixelsPerInch, width, height),
+				destJPEGFile);
 		// DebugUtils.println("Wrote the File");
 	}
 
@@ -133,25 +177,43 @@ public class InkRenderer {
 	 * @param destFile
 	 */
 	public void renderToJPEGRecentered(File destFile) {
+		ImageUtils.writeImageToJPEG(renderToBufferedImageRecentered(), destFile);
+		// DebugUtils.println("Wrote the File");
+	}
+
+	/**
+	 * Like renderToBufferedImageRecentered(), but scaled down (never up) to fit in the given size. We draw
+	 * the strokes at the smaller scale, instead of shrinking a full size image.
+	 * 
+	 * @param maxWidthPixels
+	 * @param maxHeightPixels
+	 * @return
+	 */
+	public BufferedImage renderToThumbnail(int maxWidthPixels, int maxHeightPixels) {
+		if (ink == null || ink.getNumStrokes() == 0) {
+			// nothing to center on
+			return renderToBufferedImage(Math.max(1, Math.min(20, maxWidthPixels)), Math.max(1, Math.min(20,
+					maxHeightPixels)));
+		}
+
 		double minX = ink.getMinX();
 		double minY = ink.getMinY();
 		double maxX = ink.getMaxX();
 		double maxY = ink.getMaxY();
 		int w = (int) (maxX - minX) + 20;
 		int h = (int) (maxY - minY) + 20;
-		final TiledImage image = JAIUtils.createWritableBufferWithoutAlpha(w, h);
-		final Graphics2D graphics2D = image.createGraphics();
-		graphics2D.setRenderingHints(GraphicsUtils.getBestRenderingHints());
+		final double scale = Math.min(1, Math.min(maxWidthPixels / (double) w, maxHeightPixels / (double) h));
+		final int wPixels = Math.max(1, MathUtils.rint(w * scale));
+		final int hPixels = Math.max(1, MathUtils.rint(h * scale));
 
-		// render a white canvas
-		graphics2D.setColor(Color.WHITE);
-		graphics2D.fillRect(0, 0, w, h);
+		final BufferedImage image = ImageUtils.createWritableBufferWithoutAlpha(wPixels, hPixels);
+		final Graphics2D graphics2D = createWhiteCanvas(image);
+		graphics2D.scale(scale, scale);
 		graphics2D.translate(-(minX - 10), -(minY - 10));
 
 		renderToG2D(graphics2D);
 		graphics2D.dispose();
-		ImageUtils.writeImageToJPEG(image.getAsBufferedImage(), destFile);
-		// DebugUtils.println("Wrote the File");
+		return image;
 	}
 
 	/**
@@ -0,0 +1,435 @@
+package papertoolkit.render.ink;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import papertoolkit.pen.ink.Ink;
+import papertoolkit.pen.ink.InkStroke;
+import papertoolkit.util.graphics.GraphicsUtils;
+
+/**
+ * <p>
+ * Keeps rendered ink in square tiles, so that repainting a panel full of ink is a matter of copying the
+ * visible tiles, instead of replaying every stroke through the RenderingTechnique. The tiles are laid out in
+ * ink space at a given scale, so panning and recentering the ink does not throw them away. Each scale (zoom
+ * level) gets its own tiles, so zooming back to a scale we have seen is just as fast.
+ * </p>
+ * <p>
+ * Every time we render, we check the strokes against the ones we have already drawn (this does not render
+ * anything). A new stroke is drawn on top of the cached tiles that it touches. The tiles under a stroke that
+ * was removed (or changed color, or changed samples) are thrown away, and rendered again when they are next visible.
+ * Call clear() if the strokes change in some other way (e.g., a new rendering technique).
+ * </p>
+ * <p>
+ * Not thread safe. Use it from the thread that paints (i.e., the Swing thread).
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+public class InkTileCache {
+
+	/**
+	 * What we drew for one stroke.
+	 */
+	private static class StrokeState {
+
+		/**
+		 * In ink space, grown by the stroke's width, so that it covers everything we drew.
+		 */
+		private final Rectangle2D bounds;
+
+		private final Color color;
+
+		private final int version;
+
+		private StrokeState(InkStroke stroke, Color inkColor) {
+			final double pad = stroke.getWidth() + PADDING;
+			final Rectangle2D b = stroke.getBounds();
+			bounds = new Rectangle2D.Double(b.getX() - pad, b.getY() - pad, //
+					b.getWidth() + 2 * pad, b.getHeight() + 2 * pad);
+			color = inkColor;
+			version = stroke.getVersion();
+		}
+
+		/**
+		 * @return true if the stroke looks the same as when we drew it
+		 */
+		private boolean isCurrent(InkStroke stroke, Color inkColor) {
+			return version == stroke.getVersion()
+					&& (color == null ? inkColor == null : color.equals(inkColor));
+		}
+	}
+
+	/**
+	 * A stroke that we have not drawn yet.
+	 */
+	private static class NewStroke {
+		private final Ink ink;
+
+		private final InkStroke stroke;
+
+		private final Rectangle2D bounds;
+
+		private NewStroke(Ink theInk, InkStroke theStroke, Rectangle2D theBounds) {
+			ink = theInk;
+			stroke = theStroke;
+			bounds = theBounds;
+		}
+	}
+
+	/**
+	 * Identifies one tile: the column and row at one scale.
+	 */
+	private static class TileKey {
+		private final int column;
+
+		private final int row;
+
+		private final double scale;
+
+		private TileKey(double theScale, int theColumn, int theRow) {
+			scale = theScale;
+			column = theColumn;
+			row = theRow;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof TileKey)) {
+				return false;
+			}
+			final TileKey k = (TileKey) o;
+			return k.column == column && k.row == row && k.scale == scale;
+		}
+
+		public int hashCode() {
+			final long bits = Double.doubleToLongBits(scale);
+			return (int) (bits ^ (bits >>> 32)) * 31 * 31 + column * 31 + row;
+		}
+	}
+
+	/**
+	 * At 256x256 pixels, each tile takes 256 KB.
+	 */
+	public static final int DEFAULT_MAX_TILES = 128;
+
+	public static final int DEFAULT_TILE_SIZE = 256;
+
+	/**
+	 * Stands in for tiles with no ink on them, so that we do not allocate images for blank paper.
+	 */
+	private static final BufferedImage EMPTY = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+
+	/**
+	 * Catmull-Rom splines can overshoot the samples a little, and the debug rendering draws dots around
+	 * them. In ink units.
+	 */
+	private static final double PADDING = 4;
+
+	private final int maxTiles;
+
+	private long numStrokesComposited = 0;
+
+	private long numTilesRendered = 0;
+
+	private InkRenderer renderer;
+
+	/**
+	 * The strokes that are in our tiles.
+	 */
+	private Map<InkStroke, StrokeState> strokes = new IdentityHashMap<InkStroke, StrokeState>();
+
+	/**
+	 * In least recently used order, so that we throw away tiles that have not been seen in a while.
+	 */
+	private final LinkedHashMap<TileKey, BufferedImage> tiles;
+
+	private final int tileSize;
+
+	/**
+	 * @param inkRenderer
+	 */
+	public InkTileCache(InkRenderer inkRenderer) {
+		this(inkRenderer, DEFAULT_TILE_SIZE, DEFAULT_MAX_TILES);
+	}
+
+	/**
+	 * @param inkRenderer
+	 *            renders the tiles
+	 * @param tileSizePixels
+	 * @param maxNumTiles
+	 *            how many tiles to keep, over all scales
+	 */
+	public InkTileCache(InkRenderer inkRenderer, int tileSizePixels, final int maxNumTiles) {
+		renderer = inkRenderer;
+		tileSize = tileSizePixels;
+		maxTiles = maxNumTiles;
+		tiles = new LinkedHashMap<TileKey, BufferedImage>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<TileKey, BufferedImage> eldest) {
+				return size() > maxNumTiles;
+			}
+		};
+	}
+
+	/**
+	 * Throws away all the tiles.
+	 */
+	public void clear() {
+		tiles.clear();
+		strokes.clear();
+	}
+
+	/**
+	 * Draws the new strokes on top of the tiles that they touch.
+	 */
+	private void composite(List<NewStroke> added) {
+		final List<TileKey> blanks = new ArrayList<TileKey>();
+		for (Map.Entry<TileKey, BufferedImage> entry : tiles.entrySet()) {
+			final TileKey key = entry.getKey();
+			final Rectangle2D tileBounds = getTileBounds(key);
+			Graphics2D g2d = null;
+			for (NewStroke s : added) {
+				if (!s.bounds.intersects(tileBounds)) {
+					continue;
+				}
+				if (entry.getValue() == EMPTY) {
+					// render it from scratch when we next need it
+					blanks.add(key);
+					break;
+				}
+				if (g2d == null) {
+					g2d = createGraphics(entry.getValue(), key);
+				}
+				final List<InkStroke> one = new ArrayList<InkStroke>(1);
+				one.add(s.stroke);
+				renderer.setInk(s.ink);
+				renderer.renderToG2D(g2d, one);
+			}
+			if (g2d != null) {
+				g2d.dispose();
+			}
+		}
+		for (TileKey key : blanks) {
+			tiles.remove(key);
+		}
+		numStrokesComposited += added.size();
+	}
+
+	/**
+	 * @return a graphics that draws ink space onto this tile
+	 */
+	private Graphics2D createGraphics(BufferedImage image, TileKey key) {
+		final Graphics2D g2d = image.createGraphics();
+		g2d.setRenderingHints(GraphicsUtils.getBestRenderingHints());
+		g2d.translate(-key.column * tileSize, -key.row * tileSize);
+		g2d.scale(key.scale, key.scale);
+		return g2d;
+	}
+
+	public long getNumStrokesComposited() {
+		return numStrokesComposited;
+	}
+
+	public int getNumTilesCached() {
+		return tiles.size();
+	}
+
+	public long getNumTilesRendered() {
+		return numTilesRendered;
+	}
+
+	/**
+	 * @return the part of ink space that this tile covers
+	 */
+	private Rectangle2D getTileBounds(TileKey key) {
+		final double size = tileSize / key.scale;
+		return new Rectangle2D.Double(key.column * size, key.row * size, size, size);
+	}
+
+	/**
+	 * Throws away the tiles that overlap this part of ink space.
+	 */
+	private void invalidate(Rectangle2D bounds) {
+		final Iterator<TileKey> keys = tiles.keySet().iterator();
+		while (keys.hasNext()) {
+			if (bounds.intersects(getTileBounds(keys.next()))) {
+				keys.remove();
+			}
+		}
+	}
+
+	/**
+	 * Draws the ink into g2d, from our tiles where we can. If g2d is rotated or sheared, or the visible area
+	 * needs more tiles than we can keep, we render the ink directly instead.
+	 *
+	 * @param g2d
+	 *            transformed so that it draws in ink space
+	 * @param inks
+	 *            all the ink to show, in the order to draw it
+	 */
+	public void render(Graphics2D g2d, List<Ink> inks) {
+		final AffineTransform transform = g2d.getTransform();
+		final double scale = transform.getScaleX();
+		if (transform.getShearX() != 0 || transform.getShearY() != 0 || scale != transform.getScaleY()
+				|| scale <= 0) {
+			renderDirectly(g2d, inks);
+			return;
+		}
+
+		update(inks);
+
+		Rectangle2D visible = g2d.getClipBounds();
+		if (visible == null) {
+			for (StrokeState s : strokes.values()) {
+				if (visible == null) {
+					visible = (Rectangle2D) s.bounds.clone();
+				} else {
+					visible.add(s.bounds);
+				}
+			}
+			if (visible == null) {
+				return;
+			}
+		}
+		final int firstColumn = (int) Math.floor(visible.getMinX() * scale / tileSize);
+		final int lastColumn = (int) Math.floor(visible.getMaxX() * scale / tileSize);
+		final int firstRow = (int) Math.floor(visible.getMinY() * scale / tileSize);
+		final int lastRow = (int) Math.floor(visible.getMaxY() * scale / tileSize);
+		if ((long) (lastColumn - firstColumn + 1) * (lastRow - firstRow + 1) > maxTiles) {
+			renderDirectly(g2d, inks);
+			return;
+		}
+
+		// copy the tiles in device space, at whole pixels, so that they stay crisp
+		final long originX = Math.round(transform.getTranslateX());
+		final long originY = Math.round(transform.getTranslateY());
+		g2d.setTransform(AffineTransform.getTranslateInstance(originX, originY));
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int column = firstColumn; column <= lastColumn; column++) {
+				final TileKey key = new TileKey(scale, column, row);
+				BufferedImage tile = tiles.get(key);
+				if (tile == null) {
+					tile = renderTile(key, inks);
+					tiles.put(key, tile);
+				}
+				if (tile != EMPTY) {
+					g2d.drawImage(tile, column * tileSize, row * tileSize, null);
+				}
+			}
+		}
+		g2d.setTransform(transform);
+	}
+
+	private void renderDirectly(Graphics2D g2d, List<Ink> inks) {
+		for (Ink ink : inks) {
+			renderer.setInk(ink);
+			renderer.renderToG2D(g2d);
+		}
+	}
+
+	/**
+	 * @return the tile, or EMPTY if no strokes touch it
+	 */
+	private BufferedImage renderTile(TileKey key, List<Ink> inks) {
+		final Rectangle2D tileBounds = getTileBounds(key);
+		BufferedImage image = EMPTY;
+		Graphics2D g2d = null;
+		for (Ink ink : inks) {
+			final List<InkStroke> touching = new ArrayList<InkStroke>();
+			for (InkStroke stroke : ink.getStrokes()) {
+				final StrokeState state = strokes.get(stroke);
+				if (state != null && state.bounds.intersects(tileBounds)) {
+					touching.add(stroke);
+				}
+			}
+			if (touching.isEmpty()) {
+				continue;
+			}
+			if (g2d == null) {
+				image = new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_INT_ARGB);
+				g2d = createGraphics(image, key);
+			}
+			renderer.setInk(ink);
+			renderer.renderToG2D(g2d, touching);
+		}
+		if (g2d != null) {
+			g2d.dispose();
+		}
+		numTilesRendered++;
+		return image;
+	}
+
+	/**
+	 * @param inkRenderer
+	 *            renders the tiles from now on (this throws away the old tiles)
+	 */
+	public void setRenderer(InkRenderer inkRenderer) {
+		renderer = inkRenderer;
+		clear();
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "InkTileCache {" + tiles.size() + " tiles cached, " + numTilesRendered + " rendered, "
+				+ numStrokesComposited + " strokes composited}";
+	}
+
+	/**
+	 * Finds the strokes that were added, removed, or changed since we last rendered, and updates our tiles.
+	 */
+	private void update(List<Ink> inks) {
+		final Map<InkStroke, StrokeState> current =
+				new IdentityHashMap<InkStroke, StrokeState>(strokes.size() + 16);
+		final List<NewStroke> added = new ArrayList<NewStroke>();
+		final List<Rectangle2D> stale = new ArrayList<Rectangle2D>();
+		for (Ink ink : inks) {
+			final Color color = ink.getColor();
+			for (InkStroke stroke : ink.getStrokes()) {
+				if (stroke.getNumSamples() == 0) {
+					continue;
+				}
+				StrokeState state = strokes.remove(stroke);
+				if (state != null && !state.isCurrent(stroke, color)) {
+					stale.add(state.bounds);
+					state = null;
+				}
+				if (state == null) {
+					state = new StrokeState(stroke, color);
+					added.add(new NewStroke(ink, stroke, state.bounds));
+				}
+				current.put(stroke, state);
+			}
+		}
+
+		// whatever is left over was removed
+		for (StrokeState state : strokes.values()) {
+			stale.add(state.bounds);
+		}
+		strokes = current;
+
+		if (stale.size() > tiles.size()) {
+			tiles.clear();
+		} else {
+			for (Rectangle2D bounds : stale) {
+				invalidate(bounds);
+			}
+		}
+		if (!added.isEmpty() && !tiles.isEmpty()) {
+			composite(added);
+		}
+	}
+}
@@ -3,7 +3,9 @@ package papertoolkit.render.ink;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Shape;
 import java.awt.Stroke;
+import java.nio.DoubleBuffer;
 import java.util.List;
 
 import papertoolkit.pen.ink.InkStroke;
@@ -14,6 +16,11 @@ import papertoolkit.pen.ink.InkStroke;
  * stroke to write to the Graphics2D object.
  * </p>
  * <p>
+ * A technique that draws one path per stroke should build it in createShape(...), and draw what
+ * getShape(...) returns. The paths are kept in the StrokeGeometryCache, so they are built once per stroke,
+ * no matter how many times (or by how many renderers) the ink is drawn.
+ * </p>
+ * <p>
  * <span class="BSDLicense"> This software is distributed under the <a
  * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>.</span>
  * </p>
@@ -34,6 +41,36 @@ public class RenderingTechnique {
 	public void setDebug(boolean b) {
 		debug = b;
 	}
+
+	/**
+	 * Builds the path to draw for a stroke. Only called when the StrokeGeometryCache does not already have
+	 * it.
+	 * 
+	 * @param stroke
+	 * @return the path, or null if this technique does not draw paths
+	 */
+	protected Shape createShape(InkStroke stroke) {
+		return null;
+	}
+
+	/**
+	 * Techniques that return the same key must build the same paths, as they share them in the
+	 * StrokeGeometryCache. Override this if a technique has settings that change its paths.
+	 * 
+	 * @return by default, the name of the class
+	 */
+	protected String getGeometryKey() {
+		return getClass().getName();
+	}
+
+	/**
+	 * @param stroke
+	 * @return the path to draw for this stroke, from the StrokeGeometryCache if we have built it before. It
+	 *         is shared, so do not modify it.
+	 */
+	protected Shape getShape(InkStroke stroke) {
+		return StrokeGeometryCache.getInstance().getShape(this, stroke);
+	}
 	
 	public void render(Graphics2D g2d, final List<InkStroke> strokes) {
 		if (!debug) {
@@ -45,10 +82,10 @@ public class RenderingTechnique {
 		Color oldColor = g2d.getColor();
 		g2d.setColor(DEBUG_RED);
 		for (InkStroke stroke : strokes) {
-			final double[] x = stroke.getXSamples();
-			final double[] y = stroke.getYSamples();
+			final DoubleBuffer x = stroke.getXView();
+			final DoubleBuffer y = stroke.getYView();
 			for (int i = 0; i < stroke.getNumSamples(); i++) {
-				g2d.drawOval((int) x[i]-1, (int) y[i]-1, 3, 3);
+				g2d.drawOval((int) x.get(i)-1, (int) y.get(i)-1, 3, 3);
 			}
 		}
 		g2d.setColor(oldColor);
@@ -2,6 +2,8 @@ package papertoolkit.render.ink;
 
 import java.awt.BasicStroke;
 import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.nio.DoubleBuffer;
 import java.util.List;
 
 import papertoolkit.pen.ink.InkStroke;
@@ -20,16 +22,28 @@ import papertoolkit.util.geometry.CatmullRomSpline;
  */
 class RenderingTechniqueCatmullRom extends RenderingTechnique {
 
+	/**
+	 * @param stroke
+	 * @return a piecewise bezier path through the samples
+	 */
+	static Shape createSpline(InkStroke stroke) {
+		final CatmullRomSpline crspline = new CatmullRomSpline();
+		final DoubleBuffer x = stroke.getXView();
+		final DoubleBuffer y = stroke.getYView();
+		crspline.setPoints(x, y);
+		return crspline.getShape();
+	}
+
+	protected Shape createShape(InkStroke stroke) {
+		return createSpline(stroke);
+	}
+
 	public void render(Graphics2D g2d, List<InkStroke> strokes) {
 		super.render(g2d, strokes);
 		for (InkStroke stroke : strokes) {
 			double width = stroke.getWidth();
 			g2d.setStroke(new BasicStroke((float) width, BasicStroke.CAP_BUTT, BasicStroke.JOIN_ROUND));
-			final CatmullRomSpline crspline = new CatmullRomSpline();
-			final double[] x = stroke.getXSamples();
-			final double[] y = stroke.getYSamples();
-			crspline.setPoints(x, y);
-			g2d.draw(crspline.getShape());
+			g2d.draw(getShape(stroke));
 		}
 	}
 }
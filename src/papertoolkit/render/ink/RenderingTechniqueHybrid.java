@@ -2,14 +2,12 @@ package papertoolkit.render.ink;
 
 import java.awt.BasicStroke;
 import java.awt.Graphics2D;
-import java.awt.geom.Path2D;
+import java.awt.Shape;
 import java.util.List;
 
 import papertoolkit.pen.ink.InkStroke;
 import papertoolkit.pen.ink.InkUtils;
 import papertoolkit.util.ArrayUtils;
-import papertoolkit.util.DebugUtils;
-import papertoolkit.util.geometry.CatmullRomSpline;
 
 
 /**
@@ -27,39 +25,38 @@ class RenderingTechniqueHybrid extends RenderingTechnique {
 
 	protected int largeStrokeThreshold = 25;
 
+	/**
+	 * The threshold is part of the key, as it decides which path we build.
+	 * 
+	 * @see papertoolkit.render.ink.RenderingTechnique#getGeometryKey()
+	 */
+	protected String getGeometryKey() {
+		return super.getGeometryKey() + ":" + largeStrokeThreshold;
+	}
+
+	protected Shape createShape(InkStroke stroke) {
+		// this doubles as a good max velocity measure, since the samples come in at more or less a
+		// constant rate. If the max velocity is too high, we should probably use catmull rom.
+		// TODO: In the future, we should hybridize at an even finer granularity (i.e. within stroke)
+		// right now, we are hybridizing between strokes.
+		double maxDistanceBetweenSamples = InkUtils.getMaxDistanceBetweenSamples(stroke);
+
+		boolean largeStroke = maxDistanceBetweenSamples > largeStrokeThreshold;
+		if (largeStroke) {
+			return RenderingTechniqueCatmullRom.createSpline(stroke);
+		} else {
+			return RenderingTechniqueLinear.createPolyline(stroke);
+		}
+	}
+
 	public void render(Graphics2D g2d, List<InkStroke> strokes) {
 		super.render(g2d, strokes);
 
-		DebugUtils.println("Hybrid");
-		
 		for (InkStroke stroke : strokes) {
 			double width = stroke.getWidth();
 			final BasicStroke hybridStroke = new BasicStroke((float) width, BasicStroke.CAP_BUTT, BasicStroke.JOIN_ROUND);
 			g2d.setStroke(hybridStroke);
-
-			// this doubles as a good max velocity measure, since the samples come in at more or less a
-			// constant rate. If the max velocity is too high, we should probably use catmull rom.
-			// TODO: In the future, we should hybridize at an even finer granularity (i.e. within stroke)
-			// right now, we are hybridizing between strokes.
-			double maxDistanceBetweenSamples = InkUtils.getMaxDistanceBetweenSamples(stroke);
-
-			boolean largeStroke = maxDistanceBetweenSamples > largeStrokeThreshold;
-			if (largeStroke) {
-				final CatmullRomSpline crspline = new CatmullRomSpline();
-				final double[] x = stroke.getXSamples();
-				final double[] y = stroke.getYSamples();
-				crspline.setPoints(x, y);
-				g2d.draw(crspline.getShape());
-			} else {
-				final Path2D.Double path = new Path2D.Double();
-				final double[] x = stroke.getXSamples();
-				final double[] y = stroke.getYSamples();
-				path.moveTo(x[0], y[0]);
-				for (int i = 1; i < stroke.getNumSamples(); i++) {
-					path.lineTo(x[i], y[i]);
-				}
-				g2d.draw(path);
-			}
+			g2d.draw(getShape(stroke));
 		}
 	}
 }
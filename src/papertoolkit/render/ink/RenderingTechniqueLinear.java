@@ -1,7 +1,9 @@
 package papertoolkit.render.ink;
 
 import java.awt.Graphics2D;
+import java.awt.Shape;
 import java.awt.geom.Path2D;
+import java.nio.DoubleBuffer;
 import java.util.List;
 
 import papertoolkit.pen.ink.InkStroke;
@@ -20,19 +22,31 @@ import papertoolkit.pen.ink.InkStroke;
  */
 class RenderingTechniqueLinear extends RenderingTechnique {
 
+	/**
+	 * @param stroke
+	 * @return line segments connecting the samples
+	 */
+	static Shape createPolyline(InkStroke stroke) {
+		final Path2D.Double path = new Path2D.Double(Path2D.WIND_NON_ZERO, stroke.getNumSamples());
+		final DoubleBuffer x = stroke.getXView();
+		final DoubleBuffer y = stroke.getYView();
+		path.moveTo(x.get(0), y.get(0));
+		for (int i = 1; i < stroke.getNumSamples(); i++) {
+			path.lineTo(x.get(i), y.get(i));
+		}
+		return path;
+	}
+
+	protected Shape createShape(InkStroke stroke) {
+		return createPolyline(stroke);
+	}
+
 	public void render(Graphics2D g2d, List<InkStroke> strokes) {
 		super.render(g2d, strokes);
 		
 		g2d.setStroke(DEFAULT_INK_STROKE);
 		for (InkStroke stroke : strokes) {
-			final Path2D.Double path = new Path2D.Double();
-			final double[] x = stroke.getXSamples();
-			final double[] y = stroke.getYSamples();
-			path.moveTo(x[0], y[0]);
-			for (int i = 1; i < stroke.getNumSamples(); i++) {
-				path.lineTo(x[i], y[i]);
-			}
-			g2d.draw(path);
+			g2d.draw(getShape(stroke));
 		}
 	}
 }
@@ -1,7 +1,9 @@
 package papertoolkit.render.ink;
 
 import java.awt.Graphics2D;
+import java.awt.Shape;
 import java.awt.geom.GeneralPath;
+import java.nio.DoubleBuffer;
 import java.util.List;
 
 import papertoolkit.pen.ink.InkStroke;
@@ -23,63 +25,69 @@ class RenderingTechniqueQuadratic extends RenderingTechnique {
 
 	private static int ERROR_THRESHOLD = 500;
 
-	public void render(Graphics2D g2d, final List<InkStroke> strokes) {
-		super.render(g2d, strokes);
-		
-		g2d.setStroke(DEFAULT_INK_STROKE);
-		
-		// Each Stroke will be One Path (it's just more efficient this way)
-		for (final InkStroke s : strokes) {
+	/**
+	 * Each Stroke will be One Path (it's just more efficient this way)
+	 * 
+	 * @see papertoolkit.render.ink.RenderingTechnique#createShape(papertoolkit.pen.ink.InkStroke)
+	 */
+	protected Shape createShape(InkStroke s) {
+		final DoubleBuffer xArr = s.getXView();
+		final DoubleBuffer yArr = s.getYView();
+
+		final GeneralPath strokePath = new GeneralPath();
+		final int len = xArr.limit();
+		if (len > 0) {
+			strokePath.moveTo(xArr.get(0), yArr.get(0));
+		}
 
-			final double[] xArr = s.getXSamples();
-			final double[] yArr = s.getYSamples();
+		// keeps last known "good point"
+		double lastGoodX = xArr.get(0);
+		double lastGoodY = yArr.get(0);
+
+		// connect the samples w/ quadratic curve segments
+		// in the future, do catmull-rom, because that's ideal...
+		int numPointsCollected = 0;
+		for (int i = 0; i < len; i++) {
+			final double currX = xArr.get(i);
+			final double currY = yArr.get(i);
+
+			numPointsCollected++;
+
+			final double diffFromLastX = currX - lastGoodX;
+			final double diffFromLastY = currY - lastGoodY;
+
+			if (Math.abs(diffFromLastX) > ERROR_THRESHOLD || Math.abs(diffFromLastY) > ERROR_THRESHOLD) {
+				// too much error; eliminate totally random data...
+				// this usually arises from writing outside the margin onto disjoint pattern
+				// (like the anoto pidget)
+				// try just discarding this point!
+				// strokePath.lineTo(lastGoodX, lastGoodY);
+			} else {
+				// OK, not that much error
+				if (numPointsCollected == 2) {
+					numPointsCollected = 0;
+					strokePath.quadTo(lastGoodX, lastGoodY, currX, currY);
+				}
 
-			final GeneralPath strokePath = new GeneralPath();
-			final int len = xArr.length;
-			if (len > 0) {
-				strokePath.moveTo(xArr[0], yArr[0]);
+				// set the last known good point
+				lastGoodX = currX;
+				lastGoodY = currY;
 			}
+		}
 
-			// keeps last known "good point"
-			double lastGoodX = xArr[0];
-			double lastGoodY = yArr[0];
-
-			// connect the samples w/ quadratic curve segments
-			// in the future, do catmull-rom, because that's ideal...
-			int numPointsCollected = 0;
-			for (int i = 0; i < len; i++) {
-				final double currX = xArr[i];
-				final double currY = yArr[i];
-
-				numPointsCollected++;
-
-				final double diffFromLastX = currX - lastGoodX;
-				final double diffFromLastY = currY - lastGoodY;
-
-				if (Math.abs(diffFromLastX) > ERROR_THRESHOLD || Math.abs(diffFromLastY) > ERROR_THRESHOLD) {
-					// too much error; eliminate totally random data...
-					// this usually arises from writing outside the margin onto disjoint pattern
-					// (like the anoto pidget)
-					// try just discarding this point!
-					// strokePath.lineTo(lastGoodX, lastGoodY);
-				} else {
-					// OK, not that much error
-					if (numPointsCollected == 2) {
-						numPointsCollected = 0;
-						strokePath.quadTo(lastGoodX, lastGoodY, currX, currY);
-					}
-
-					// set the last known good point
-					lastGoodX = currX;
-					lastGoodY = currY;
-				}
-			}
+		// if there's any points left, just render them
+		if (numPointsCollected == 1) {
+			strokePath.lineTo(lastGoodX, lastGoodY);
+		}
+		return strokePath;
+	}
 
-			// if there's any points left, just render them
-			if (numPointsCollected == 1) {
-				strokePath.lineTo(lastGoodX, lastGoodY);
-			}
-			g2d.draw(strokePath);
+	public void render(Graphics2D g2d, final List<InkStroke> strokes) {
+		super.render(g2d, strokes);
+		
+		g2d.setStroke(DEFAULT_INK_STROKE);
+		for (final InkStroke s : strokes) {
+			g2d.draw(getShape(s));
 		}
 	}
 
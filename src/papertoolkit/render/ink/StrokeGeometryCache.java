@@ -0,0 +1,151 @@
+package papertoolkit.render.ink;
+
+import java.awt.Shape;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import papertoolkit.pen.ink.InkStroke;
+
+/**
+ * <p>
+ * Remembers the path that each RenderingTechnique built for each stroke, so that drawing the same ink again
+ * (repainting a panel, rendering it to a JPEG, rendering tiles) does not recompute the spline control points
+ * or rebuild the path. There is one cache for the whole process, shared by every InkRenderer.
+ * </p>
+ * <p>
+ * A path is reused only if the stroke has the same version (see InkStroke.getVersion()) as when the path was
+ * built. We hold the strokes weakly, so the cache never keeps ink alive, and the paths softly, so the garbage
+ * collector can take them back when memory runs low.
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+public class StrokeGeometryCache {
+
+	/**
+	 * One technique's path for one version of a stroke.
+	 */
+	private static class Geometry {
+		private final String key;
+
+		private final Shape shape;
+
+		private final int version;
+
+		private Geometry(String geometryKey, int strokeVersion, Shape theShape) {
+			key = geometryKey;
+			version = strokeVersion;
+			shape = theShape;
+		}
+	}
+
+	private static StrokeGeometryCache instance;
+
+	/**
+	 * @return the cache shared by all the rendering techniques
+	 */
+	public static synchronized StrokeGeometryCache getInstance() {
+		if (instance == null) {
+			instance = new StrokeGeometryCache();
+		}
+		return instance;
+	}
+
+	/**
+	 * Usually one entry per stroke, unless it is drawn with several techniques.
+	 */
+	private final Map<InkStroke, List<SoftReference<Geometry>>> geometries =
+			new WeakHashMap<InkStroke, List<SoftReference<Geometry>>>();
+
+	private long numHits = 0;
+
+	private long numMisses = 0;
+
+	private StrokeGeometryCache() {
+		// use getInstance()
+	}
+
+	/**
+	 * Forgets all the paths.
+	 */
+	public synchronized void clear() {
+		geometries.clear();
+	}
+
+	/**
+	 * @return how many times we handed back a path that we already had
+	 */
+	public synchronized long getNumHits() {
+		return numHits;
+	}
+
+	/**
+	 * @return how many times we had to build a path
+	 */
+	public synchronized long getNumMisses() {
+		return numMisses;
+	}
+
+	/**
+	 * @param technique
+	 * @param stroke
+	 * @return the technique's path for the stroke. It is shared, so do not modify it.
+	 */
+	Shape getShape(RenderingTechnique technique, InkStroke stroke) {
+		final String key = technique.getGeometryKey();
+		final int version = stroke.getVersion();
+		synchronized (this) {
+			final List<SoftReference<Geometry>> list = geometries.get(stroke);
+			if (list != null) {
+				for (SoftReference<Geometry> ref : list) {
+					final Geometry g = ref.get();
+					if (g != null && g.version == version && g.key.equals(key)) {
+						numHits++;
+						return g.shape;
+					}
+				}
+			}
+		}
+
+		// build it outside the lock, so that other threads can keep drawing
+		final Shape shape = technique.createShape(stroke);
+		synchronized (this) {
+			numMisses++;
+			List<SoftReference<Geometry>> list = geometries.get(stroke);
+			if (list == null) {
+				list = new ArrayList<SoftReference<Geometry>>(1);
+				geometries.put(stroke, list);
+			}
+			for (int i = list.size() - 1; i >= 0; i--) {
+				final Geometry g = list.get(i).get();
+				if (g == null || g.key.equals(key)) {
+					list.remove(i);
+				}
+			}
+			list.add(new SoftReference<Geometry>(new Geometry(key, version, shape)));
+		}
+		return shape;
+	}
+
+	/**
+	 * @return how many strokes we have paths for (some of which may have been collected)
+	 */
+	public synchronized int size() {
+		return geometries.size();
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public synchronized String toString() {
+		return "StrokeGeometryCache {" + geometries.size() + " strokes, " + numHits + " hits, " + numMisses
+				+ " misses}";
+	}
+}
@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.util.List;
 
 import papertoolkit.paper.Region;
+import papertoolkit.paper.sheets.PDFReaderCache;
 import papertoolkit.paper.sheets.PDFSheet;
 import papertoolkit.render.SheetRenderer;
 import papertoolkit.units.coordinates.Coordinates;
@@ -102,18 +103,24 @@ public class PDFSheetRenderer extends SheetRenderer {
 		try {
 			final FileOutputStream fileOutputStream = new FileOutputStream(destPDFFile);
 
-			final PdfReader reader = pdfSheet.getReader();
-			DebugUtils.println("NumPages in Existing PDF: " + reader.getNumberOfPages());
-
-			// allows us to stamp on top of an existing PDF
-			final PdfStamper stamp = new PdfStamper(reader, fileOutputStream);
-
-			// change the content on top of page 1
-			// bottom layer for regions
-			final PdfContentByte topLayer = stamp.getOverContent(1 /* page number */);
-			final PdfContentByte bottomLayer = stamp.getUnderContent(1);
-			renderToPDFContentLayers(destPDFFile, topLayer, bottomLayer);
-			stamp.close();
+			// a stamper changes its reader, so we stamp a copy of the shared one
+			// (do not selectPages(...) on the copy; it shares the page list with the original)
+			final PdfReader reader = PDFReaderCache.copy(pdfSheet.getReader());
+			final int pageNumber = pdfSheet.getPageNumber();
+
+			try {
+				// allows us to stamp on top of an existing PDF
+				final PdfStamper stamp = new PdfStamper(reader, fileOutputStream);
+
+				// change the content on top of this sheet's page
+				// bottom layer for regions
+				final PdfContentByte topLayer = stamp.getOverContent(pageNumber);
+				final PdfContentByte bottomLayer = stamp.getUnderContent(pageNumber);
+				renderToPDFContentLayers(destPDFFile, topLayer, bottomLayer);
+				stamp.close();
+			} finally {
+				reader.close();
+			}
 			
 			// save the pattern info to the same directory automatically
 			savePatternInformation(); // do this automatically
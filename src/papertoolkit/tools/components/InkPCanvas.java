@@ -20,6 +20,10 @@ import edu.umd.cs.piccolo.nodes.PPath;
  * A Piccolo Canvas. Uses simple quadTo rendering for now, but allows some interactivity.
  * </p>
  * <p>
+ * Each stroke is its own PPath, so Piccolo only repaints the area under new strokes (and skips strokes
+ * that are off screen). Do not repaint the whole layer when ink arrives.
+ * </p>
+ * <p>
  * <span class="BSDLicense"> This software is distributed under the <a
  * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
  * </p>
@@ -70,7 +74,6 @@ public class InkPCanvas extends PCanvas {
 	public void addInk(Ink ink) {
 		inkWell.add(ink);
 		addInkPaths(ink.getStrokes(), ink.getColor());
-		getLayer().repaint();
 	}
 
 	/**
@@ -146,7 +149,8 @@ public class InkPCanvas extends PCanvas {
 	}
 
 	/**
-	 * Internal method for adding ink paths to the strokes layer.
+	 * Internal method for adding ink paths to the strokes layer. Adding a child invalidates just that child's
+	 * bounds, so Piccolo will repaint only the new strokes.
 	 * 
 	 * @param strokes
 	 */
@@ -154,9 +158,7 @@ public class InkPCanvas extends PCanvas {
 		// Each Stroke will be One PPath (it's just more efficient this way)
 		for (final InkStroke s : strokes) {
 			final CatmullRomSpline crspline = new CatmullRomSpline();
-			final double[] x = s.getXSamples();
-			final double[] y = s.getYSamples();
-			crspline.setPoints(x, y);
+			crspline.setPoints(s.getXView(), s.getYView());
 
 			final PPath strokePath = new PPath(crspline.getShape());
 
@@ -168,7 +170,6 @@ public class InkPCanvas extends PCanvas {
 			strokePath.addAttribute("timestamp", new Long(s.getFirstTimestamp()));
 			strokesContainer.addChild(strokePath);
 		}
-		strokesContainer.repaint();
 	}
 
 	/**
@@ -179,7 +180,6 @@ public class InkPCanvas extends PCanvas {
 	public void addInkWithDefaultColor(Ink ink) {
 		inkWell.add(ink);
 		addInkPaths(ink.getStrokes(), defaultInkColor);
-		getLayer().repaint();
 	}
 
 	/**
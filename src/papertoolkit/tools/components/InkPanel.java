@@ -21,6 +21,7 @@ import javax.swing.SwingUtilities;
 import papertoolkit.pen.ink.Ink;
 import papertoolkit.pen.ink.InkStroke;
 import papertoolkit.render.ink.InkRenderer;
+import papertoolkit.render.ink.InkTileCache;
 import papertoolkit.util.DebugUtils;
 import papertoolkit.util.graphics.GraphicsUtils;
 
@@ -35,6 +36,10 @@ import papertoolkit.util.graphics.GraphicsUtils;
  * color are in fact the same color!
  * </p>
  * <p>
+ * The rendered ink is kept in tiles (see InkTileCache), so repainting does not replay every stroke. New
+ * strokes are drawn into the tiles they touch, and each zoom level keeps its own tiles.
+ * </p>
+ * <p>
  * <span class="BSDLicense"> This software is distributed under the <a
  * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
  * </p>
@@ -98,6 +103,11 @@ public class InkPanel extends JPanel {
 
 	private int tempDX = 0;
 
+	/**
+	 * Rendered ink, in tiles. Null if we replay the strokes on every paint.
+	 */
+	private InkTileCache tileCache;
+
 	private int tempDY = 0;
 
 	private int zoomLevel = 0;
@@ -119,6 +129,7 @@ public class InkPanel extends JPanel {
 		setBackground(bgColor);
 		renderer = inkRenderer;
 		renderer.useCatmullRomRendering(); // catmull-rom by default...
+		tileCache = new InkTileCache(renderer);
 
 		addMouseListeners();
 	}
@@ -258,6 +269,7 @@ public class InkPanel extends JPanel {
 	 */
 	public void displayInvertedInkColor() {
 		invertInkColors = true;
+		invalidateInkCache();
 	}
 
 	/**
@@ -309,6 +321,14 @@ public class InkPanel extends JPanel {
 		synchronized (inkWell) {
 			recenter(g2d, inkWell);
 
+			if (tileCache != null) {
+				if (invertInkColors) {
+					renderer.useInvertedInkColors();
+				}
+				tileCache.render(g2d, inkWell);
+				return;
+			}
+
 			for (Ink ink : inkWell) {
 				renderer.setInk(ink);
 				if (invertInkColors) {
@@ -319,6 +339,25 @@ public class InkPanel extends JPanel {
 		}
 	}
 
+	/**
+	 * @return the tiles of rendered ink (e.g., to see how many tiles it has rendered), or null if tiling is
+	 *         turned off
+	 */
+	public InkTileCache getTileCache() {
+		return tileCache;
+	}
+
+	/**
+	 * Throws away the rendered ink, so that the next paint renders every visible stroke again. We notice
+	 * strokes that are added, removed, or given new samples, so this is only needed if something else
+	 * changes how the ink looks.
+	 */
+	public void invalidateInkCache() {
+		if (tileCache != null) {
+			tileCache.clear();
+		}
+	}
+
 	/**
 	 * @param g2d
 	 */
@@ -389,33 +428,56 @@ public class InkPanel extends JPanel {
 	 */
 	public void setRenderer(InkRenderer r) {
 		renderer = r;
+		if (tileCache != null) {
+			tileCache.setRenderer(r);
+		}
 	}
 
 	/**
+	 * Each scale gets its own tiles, so switching back and forth between a few scales stays fast.
+	 * 
 	 * @param theScale
 	 */
 	public void setScale(double theScale) {
 		inkScale = theScale;
 	}
+
+	/**
+	 * @param flag
+	 *            if false, we replay every stroke on every paint (as we used to). True by default.
+	 */
+	public void setTileCaching(boolean flag) {
+		if (!flag) {
+			tileCache = null;
+		} else if (tileCache == null) {
+			tileCache = new InkTileCache(renderer);
+		}
+		repaint();
+	}
 	
 	public void useLinearRendering() {
 		renderer.useLineRendering();
+		invalidateInkCache();
 	}
 	
 	public void useCatmullRomRendering() {
 		renderer.useCatmullRomRendering();
+		invalidateInkCache();
 	}
 
 	public void useHybridRendering() {
 		renderer.useHybridRendering();
+		invalidateInkCache();
 	}
 
 	public void useQuadraticRendering() {
 		renderer.useQuadraticRendering();
+		invalidateInkCache();
 	}
 
 	public void setDebugRendering(boolean flag) {
 		renderer.setDebugRendering(flag);
+		invalidateInkCache();
 	}
 
 }
@@ -0,0 +1,162 @@
+package papertoolkit.tools.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import papertoolkit.events.EventHandler;
+import papertoolkit.events.PenEvent;
+import papertoolkit.units.Units;
+
+/**
+ * <p>
+ * A fixed-size ring of handled events, written by the event dispatch threads and read by the monitor's
+ * publisher thread. Recording an event copies a few fields into preallocated arrays, with one compare and
+ * set, and no locks or allocation, so that the monitor costs the dispatch path next to nothing. All the
+ * formatting happens later, on the publisher thread.
+ * </p>
+ * <p>
+ * Any number of threads may record, but only one thread may poll. If the publisher falls behind and the
+ * ring fills up, new events are dropped (and counted), rather than making the dispatcher wait.
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+class MonitorEventRing {
+
+	/**
+	 * One event, copied out of the ring. The poller reuses it.
+	 */
+	static class Record {
+		EventHandler handler;
+
+		double percentageX;
+
+		double percentageY;
+
+		Units regionHeight;
+
+		Units regionWidth;
+
+		long timestamp;
+	}
+
+	private final EventHandler[] handlers;
+
+	private final int mask;
+
+	private final AtomicLong numDropped = new AtomicLong();
+
+	/**
+	 * The sequence number that the poller will read next. Only the poller writes it.
+	 */
+	private volatile long nextToRead = 0;
+
+	/**
+	 * The next sequence number that a recorder will claim.
+	 */
+	private final AtomicLong nextToWrite = new AtomicLong();
+
+	private final double[] percentageX;
+
+	private final double[] percentageY;
+
+	/**
+	 * For each slot, the sequence number of the event in it, set once the event is completely written.
+	 */
+	private final AtomicLongArray published;
+
+	private final Units[] regionHeight;
+
+	private final Units[] regionWidth;
+
+	private final long[] timestamp;
+
+	/**
+	 * @param capacity
+	 *            rounded up to a power of two
+	 */
+	MonitorEventRing(int capacity) {
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		mask = size - 1;
+		handlers = new EventHandler[size];
+		timestamp = new long[size];
+		percentageX = new double[size];
+		percentageY = new double[size];
+		regionWidth = new Units[size];
+		regionHeight = new Units[size];
+		published = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			published.set(i, -1);
+		}
+	}
+
+	/**
+	 * @return how many events were dropped because the ring was full
+	 */
+	long getNumDropped() {
+		return numDropped.get();
+	}
+
+	/**
+	 * Copies the next event into the record. Call it from one thread only.
+	 *
+	 * @param record
+	 * @return false if there are no more events (for now)
+	 */
+	boolean poll(Record record) {
+		final long sequence = nextToRead;
+		final int slot = (int) sequence & mask;
+		if (published.get(slot) != sequence) {
+			// empty, or a recorder has claimed the slot but not finished writing it
+			return false;
+		}
+		record.handler = handlers[slot];
+		record.timestamp = timestamp[slot];
+		record.percentageX = percentageX[slot];
+		record.percentageY = percentageY[slot];
+		record.regionWidth = regionWidth[slot];
+		record.regionHeight = regionHeight[slot];
+
+		// do not keep the handler alive
+		handlers[slot] = null;
+		nextToRead = sequence + 1;
+		return true;
+	}
+
+	/**
+	 * @param handler
+	 * @param event
+	 *            we copy what we need, so the event may be recycled as soon as we return
+	 * @return false if the ring was full, and the event was dropped
+	 */
+	boolean record(EventHandler handler, PenEvent event) {
+		final int capacity = mask + 1;
+		long sequence;
+		do {
+			sequence = nextToWrite.get();
+			if (sequence - nextToRead >= capacity) {
+				numDropped.incrementAndGet();
+				return false;
+			}
+		} while (!nextToWrite.compareAndSet(sequence, sequence + 1));
+
+		final int slot = (int) sequence & mask;
+		handlers[slot] = handler;
+		timestamp[slot] = event.getTimestamp();
+		percentageX[slot] = event.getPercentageX();
+		percentageY[slot] = event.getPercentageY();
+		regionWidth[slot] = event.getRegionWidth();
+		regionHeight[slot] = event.getRegionHeight();
+
+		// the poller sees the fields above once it sees this
+		published.lazySet(slot, sequence);
+		return true;
+	}
+}
@@ -28,15 +28,27 @@ import papertoolkit.util.DebugUtils;
  */
 public class MonitorInputHandling {
 
+	/**
+	 * Handled events, waiting for the publisher thread.
+	 */
+	private final MonitorEventRing events = new MonitorEventRing(8192);
+
+	/**
+	 * Only the publisher thread uses these.
+	 */
 	private EventHandler lastEventHandler;
 	private long lastEventHandlerTimestamp = 0L;
 	private ToolkitMonitoringService monitoringService;
+	private final MonitorEventRing.Record record = new MonitorEventRing.Record();
 
 	public MonitorInputHandling(ToolkitMonitoringService toolkitMonitoringService) {
 		monitoringService = toolkitMonitoringService;
 
 		PaperToolkit toolkit = toolkitMonitoringService.getToolkit();
 
+		// describe our events to the clients, in the background
+		toolkitMonitoringService.getPublisher().setMonitor(this);
+
 		// instrument the event dispatcher
 		EventDispatcher eventDispatcher = toolkit.getEventDispatcher();
 		eventDispatcher.setMonitor(this);
@@ -68,18 +80,16 @@ public class MonitorInputHandling {
 	}
 
 	/**
-	 * Report when event handlers change...
+	 * Turns the events recorded since the last call into messages. Called by the publisher thread, so that
+	 * the dispatch thread does not build any strings. We report when event handlers change, and otherwise
+	 * send the pen samples, to be displayed in the datagrid.
 	 * 
-	 * @param handler
-	 * @param event
+	 * @param batch
 	 */
-	public void eventHandled(EventHandler handler, PenEvent event) {
-		// intercept system outs too!
-		// using System.setOut and the DebugUtils trick
+	void describeHandledEvents(MonitorPublisher.Batch batch) {
+		while (events.poll(record)) {
+			final EventHandler handler = record.handler;
 
-		DebugUtils.println("Sending Event Handled Information: " + handler);
-
-		if (handler != null) {
 			// show a new group entry if it has changed...
 			// otherwise, send all pen downs and ups to be displayed in the datagrid
 			if (lastEventHandler != handler) {
@@ -91,7 +101,7 @@ public class MonitorInputHandling {
 
 				if (parentRegions.size() == 0) {
 					DebugUtils.println("No Parent Regions");
-					return;
+					continue;
 				}
 
 				// really, the handler name should be sufficient, but we'll send this duplicate info for
@@ -115,29 +125,48 @@ public class MonitorInputHandling {
 				}
 				sheetAndRegions.append("</eventHandledOnSheet>");
 
-				monitoringService.outputToClients("<eventHandler component=\"" + firstRegion.getName()
-						+ "\" handlerName=\"" + handler.getClass().getSuperclass().getSimpleName()
-						+ "\" time=\"" + event.getTimestamp() + "\" rX=\"" + rX + "\" rY=\"" + rY
-						+ "\" rW=\"" + rW + "\" rH=\"" + rH + "\" />");
+				batch.add("<eventHandler component=\"" + firstRegion.getName() + "\" handlerName=\""
+						+ handler.getClass().getSuperclass().getSimpleName() + "\" time=\""
+						+ record.timestamp + "\" rX=\"" + rX + "\" rY=\"" + rY + "\" rW=\"" + rW
+						+ "\" rH=\"" + rH + "\" />");
 
-				monitoringService.outputToClients(sheetAndRegions.toString());
+				batch.add(sheetAndRegions.toString());
 
 				lastEventHandler = handler;
-				lastEventHandlerTimestamp = event.getTimestamp();
+				lastEventHandlerTimestamp = record.timestamp;
 			} else {
 				// same handler... send ink over instead!
-
-				monitoringService.outputToClients("<penSampleHandled xInches=\""
-						+ event.getPercentageLocation().getX().getValueInInches() + "\" yInches=\""
-						+ event.getPercentageLocation().getY().getValueInInches() + "\" />");
-
+				batch.addSample("<penSampleHandled xInches=\""
+						+ record.percentageX / 100 * record.regionWidth.getValueInInches() + "\" yInches=\""
+						+ record.percentageY / 100 * record.regionHeight.getValueInInches() + "\" />");
 			}
+		}
+		record.handler = null;
+	}
+
+	/**
+	 * Report when event handlers change... This is called on the dispatch thread for every event, so it only
+	 * records the event. The publisher thread describes it to the clients later.
+	 * 
+	 * @param handler
+	 * @param event
+	 */
+	public void eventHandled(EventHandler handler, PenEvent event) {
+		if (handler != null) {
+			events.record(handler, event);
 		} else {
 			// TODO: Dump these into the pen data panel somewhere
 			// monitoringService.outputToClients("Unhandled Pen Strokes: " + event);
 		}
 	}
 
+	/**
+	 * @return how many handled events we could not report, because the publisher fell behind
+	 */
+	public long getNumDroppedEvents() {
+		return events.getNumDropped();
+	}
+
 	/**
 	 * @param dev
 	 * @param sample
@@ -0,0 +1,238 @@
+package papertoolkit.tools.monitor;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import papertoolkit.util.DaemonThreadFactory;
+
+/**
+ * <p>
+ * Sends the monitor's messages to its clients from a background thread, so that no toolkit thread ever
+ * writes to a socket. Every PUBLISH_INTERVAL_MILLIS, we gather the queued messages and the events in the
+ * MonitorInputHandling's ring, and write them to each client as one batch, with one flush.
+ * </p>
+ * <p>
+ * Most messages go to every client. Pen samples are different: there can be hundreds per second, so each
+ * client gets at most maxSamplesPerSecond of them. When a batch has more samples than a client may take, we
+ * send an evenly spaced subset that always includes the batch's last sample.
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+class MonitorPublisher {
+
+	/**
+	 * The messages of one round, in order, with the pen samples marked.
+	 */
+	static class Batch {
+		private final List<String> messages = new ArrayList<String>();
+
+		private int numSamples = 0;
+
+		private final BitSet samples = new BitSet();
+
+		/**
+		 * @param msg
+		 *            sent to every client
+		 */
+		void add(String msg) {
+			messages.add(msg);
+		}
+
+		/**
+		 * @param msg
+		 *            a pen sample, which a busy client may not get
+		 */
+		void addSample(String msg) {
+			samples.set(messages.size());
+			messages.add(msg);
+			numSamples++;
+		}
+
+		private void clear() {
+			messages.clear();
+			samples.clear();
+			numSamples = 0;
+		}
+	}
+
+	/**
+	 * One connected client, and how many samples it may still receive.
+	 */
+	private static class Client {
+		private boolean hasCachedMessages = false;
+
+		private long lastRefill = System.currentTimeMillis();
+
+		private final PrintWriter out;
+
+		private double sampleAllowance;
+
+		private Client(PrintWriter writer, int maxSamplesPerSecond) {
+			out = writer;
+			sampleAllowance = maxSamplesPerSecond;
+		}
+	}
+
+	/**
+	 * How often we send what has accumulated.
+	 */
+	private static final long PUBLISH_INTERVAL_MILLIS = 50;
+
+	/**
+	 * Everything we published before the first client connected, so that it can catch up. Only the publisher
+	 * thread touches it.
+	 */
+	private final List<String> cachedMessages = new ArrayList<String>();
+
+	private final List<Client> clients = new CopyOnWriteArrayList<Client>();
+
+	private final Batch batch = new Batch();
+
+	private volatile int maxSamplesPerSecond = 60;
+
+	private final ConcurrentLinkedQueue<String> messages = new ConcurrentLinkedQueue<String>();
+
+	/**
+	 * Null until the toolkit is instrumented.
+	 */
+	private volatile MonitorInputHandling monitor;
+
+	private final ScheduledExecutorService thread = Executors
+			.newSingleThreadScheduledExecutor(new DaemonThreadFactory("Toolkit Monitor Publisher"));
+
+	MonitorPublisher() {
+		thread.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					publish();
+				} catch (RuntimeException e) {
+					// keep publishing; an exception would cancel the schedule
+					e.printStackTrace();
+				}
+			}
+		}, PUBLISH_INTERVAL_MILLIS, PUBLISH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param writer
+	 *            will receive the cached messages, and then everything we publish
+	 */
+	void addClient(PrintWriter writer) {
+		clients.add(new Client(writer, maxSamplesPerSecond));
+	}
+
+	/**
+	 * @param msg
+	 *            queued for the next batch
+	 */
+	void enqueue(String msg) {
+		messages.add(msg);
+	}
+
+	int getMaxSamplesPerSecond() {
+		return maxSamplesPerSecond;
+	}
+
+	/**
+	 * Sends everything that has accumulated since the last round. Runs on the publisher thread.
+	 */
+	private void publish() {
+		String msg;
+		while ((msg = messages.poll()) != null) {
+			batch.add(msg);
+		}
+		final MonitorInputHandling inputMonitor = monitor;
+		if (inputMonitor != null) {
+			inputMonitor.describeHandledEvents(batch);
+		}
+
+		if (clients.isEmpty()) {
+			// keep them for later (samples are too fleeting to be worth it)
+			for (int i = 0; i < batch.messages.size(); i++) {
+				if (!batch.samples.get(i)) {
+					cachedMessages.add(batch.messages.get(i));
+				}
+			}
+			batch.clear();
+			return;
+		}
+
+		final long now = System.currentTimeMillis();
+		final int maxSamples = maxSamplesPerSecond;
+		for (Client client : clients) {
+			if (!client.hasCachedMessages) {
+				for (String cached : cachedMessages) {
+					client.out.println(cached);
+				}
+				client.hasCachedMessages = true;
+			}
+
+			// refill the allowance, but do not let a quiet client save up more than a second's worth
+			client.sampleAllowance = Math.min(maxSamples, client.sampleAllowance + (now - client.lastRefill)
+					* maxSamples / 1000.0);
+			client.lastRefill = now;
+			final int numSamples = batch.numSamples;
+			final int allowed = Math.min(numSamples, (int) client.sampleAllowance);
+			client.sampleAllowance -= allowed;
+
+			int sampleIndex = 0;
+			for (int i = 0; i < batch.messages.size(); i++) {
+				if (batch.samples.get(i)) {
+					// send sample j iff floor((j+1)*allowed/n) > floor(j*allowed/n), which spreads the
+					// allowed samples evenly, and includes the last one
+					final long j = sampleIndex++;
+					if ((j + 1) * allowed / numSamples == j * allowed / numSamples) {
+						continue;
+					}
+				}
+				client.out.println(batch.messages.get(i));
+			}
+			client.out.flush();
+			if (client.out.checkError()) {
+				// the client has gone away
+				clients.remove(client);
+			}
+		}
+		batch.clear();
+	}
+
+	/**
+	 * @param writer
+	 *            will not receive any more messages
+	 */
+	void removeClient(PrintWriter writer) {
+		for (Client client : clients) {
+			if (client.out == writer) {
+				clients.remove(client);
+			}
+		}
+	}
+
+	/**
+	 * @param max
+	 *            how many pen samples each client may receive per second
+	 */
+	void setMaxSamplesPerSecond(int max) {
+		maxSamplesPerSecond = max;
+	}
+
+	/**
+	 * @param inputMonitor
+	 *            whose ring of handled events we drain every round
+	 */
+	void setMonitor(MonitorInputHandling inputMonitor) {
+		monitor = inputMonitor;
+	}
+}
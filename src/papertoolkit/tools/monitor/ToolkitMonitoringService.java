@@ -9,13 +9,19 @@ import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import papertoolkit.PaperToolkit;
 import papertoolkit.application.Application;
 import papertoolkit.application.config.Constants.Ports;
+import papertoolkit.util.DaemonThreadFactory;
 import papertoolkit.util.DebugUtils;
+import papertoolkit.util.ToolkitMetrics;
 
 /**
  * <p>
@@ -23,6 +29,14 @@ import papertoolkit.util.DebugUtils;
  * broadcast information to this server. If anyone is listening, then they can communicate with PaperToolkit.
  * </p>
  * <p>
+ * Messages are not written to the clients by the thread that produces them. They are queued, and a
+ * MonitorPublisher sends them in batches, from its own thread.
+ * </p>
+ * <p>
+ * A client can ask for a snapshot of the ToolkitMetrics by sending [[metrics]], and can clear them with
+ * [[resetMetrics]]. See also startMetricsDump(...).
+ * </p>
+ * <p>
  * <span class="BSDLicense"> This software is distributed under the <a
  * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
  * </p>
@@ -33,19 +47,34 @@ public class ToolkitMonitoringService {
 
 	private static int clientIDs = 0;
 
+	public static final String METRICS = "[[metrics]]";
+	public static final String RESET_METRICS = "[[resetMetrics]]";
+
 	public static final String START_SIDECAR = "PaperToolkit::StartSideCar";
 	public static final String START_SIDECAR_GUI = "PaperToolkit::StartSideCarGUI";
 
-	private List<Socket> clients = new ArrayList<Socket>();
+	private List<Socket> clients = new CopyOnWriteArrayList<Socket>();
 	private boolean exitServer = false;
 
 	private boolean firstTimeClientConnected = true;
 
+	/**
+	 * Null unless we are dumping the metrics periodically.
+	 */
+	private ScheduledFuture<?> metricsDump;
+
+	private ScheduledExecutorService metricsDumpThread;
+
 	private MonitorInputHandling monitor;
 	private MonitorPaperUIInfo monitorPaperUIInfo;
 
 	private MonitorSystemOut monitorSystemOut;
-	private List<PrintWriter> outputs = new ArrayList<PrintWriter>();
+
+	/**
+	 * Writes our messages to the clients.
+	 */
+	private MonitorPublisher publisher = new MonitorPublisher();
+
 	private ServerSocket serverSocket;
 
 	/**
@@ -57,8 +86,6 @@ public class ToolkitMonitoringService {
 
 	private PaperToolkit toolkit;
 
-	private List<String> cachedMessages = new ArrayList<String>();
-
 	/**
 	 * @param paperToolkit
 	 */
@@ -106,6 +133,17 @@ public class ToolkitMonitoringService {
 		}.start();
 	}
 
+	/**
+	 * @return how many pen samples each client may receive per second
+	 */
+	public int getMaxSamplesPerSecond() {
+		return publisher.getMaxSamplesPerSecond();
+	}
+
+	MonitorPublisher getPublisher() {
+		return publisher;
+	}
+
 	public PaperToolkit getToolkit() {
 		return toolkit;
 	}
@@ -169,20 +207,31 @@ public class ToolkitMonitoringService {
 	/**
 	 * Use this method to broadcast information to listeners... The Flex GUI is one listener...
 	 * 
+	 * The message is queued, and sent in the publisher's next batch (within about 50 ms). If nobody is
+	 * listening yet, it is cached for later.
+	 * 
 	 * @param msg
 	 */
 	public void outputToClients(String msg) {
-		if (outputs.size() == 0) {
-			// cache the string, for later!
-			cachedMessages.add(msg);
-			return;
-		}
+		publisher.enqueue(msg);
+	}
 
-		// deal with regular messages
-		for (PrintWriter clientPW : outputs) {
-			clientPW.println(msg);
-			clientPW.flush();
-		}
+	/**
+	 * Sends a snapshot of the ToolkitMetrics to the clients.
+	 */
+	public void sendMetrics() {
+		outputToClients(ToolkitMetrics.getSnapshotAsXML());
+	}
+
+	/**
+	 * Pen samples can arrive faster than a client can display them. Past this rate, each client gets an
+	 * evenly spaced subset of the samples. Other messages are never dropped.
+	 * 
+	 * @param max
+	 *            how many pen samples each client may receive per second (60 by default)
+	 */
+	public void setMaxSamplesPerSecond(int max) {
+		publisher.setMaxSamplesPerSecond(max);
 	}
 
 	/**
@@ -214,22 +263,24 @@ public class ToolkitMonitoringService {
 					final InputStream inputStream = clientSocket.getInputStream();
 					br = new BufferedReader(new InputStreamReader(inputStream));
 					pw = new PrintWriter(outputStream);
-					outputs.add(pw);
 
-					// send cached messages to this client
-					for (String cached : cachedMessages) {
-						pw.println(cached);
-						pw.flush();
-					}
+					// the publisher sends the cached messages first
+					publisher.addClient(pw);
 
 					String line = null;
 					while ((line = br.readLine()) != null) {
 						outputToClients("Client #" + clientID + " said: " + line + " [" + clients.size()
 								+ " total clients]");
 
+						if (line.equals(METRICS)) {
+							sendMetrics();
+						} else if (line.equals(RESET_METRICS)) {
+							ToolkitMetrics.reset();
+						}
+
 						if (line.equals("[[exit]]")) {
 							clients.remove(clientSocket);
-							outputs.remove(pw);
+							publisher.removeClient(pw);
 							break;
 						}
 
@@ -249,7 +300,37 @@ public class ToolkitMonitoringService {
 		}.start();
 	}
 
+	/**
+	 * Every so often, prints the ToolkitMetrics to the log and sends them to the clients. Replaces any dump
+	 * that was already running.
+	 * 
+	 * @param periodMillis
+	 */
+	public synchronized void startMetricsDump(long periodMillis) {
+		stopMetricsDump();
+		if (metricsDumpThread == null) {
+			metricsDumpThread = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory(
+					"Toolkit Metrics Dump"));
+		}
+		metricsDump = metricsDumpThread.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				DebugUtils.println(ToolkitMetrics.getSnapshot());
+				sendMetrics();
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
 	public void startedApp(Application paperApp) {
 		outputToClients("<applicationStarted appName=\"" + paperApp.getName() + "\" />");
 	}
+
+	/**
+	 * Stops the periodic dump of the metrics, if there is one.
+	 */
+	public synchronized void stopMetricsDump() {
+		if (metricsDump != null) {
+			metricsDump.cancel(false);
+			metricsDump = null;
+		}
+	}
 }
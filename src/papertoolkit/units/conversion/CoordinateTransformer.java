@@ -2,9 +2,11 @@ package papertoolkit.units.conversion;
 
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
 import java.util.List;
 
-import papertoolkit.pen.PenSample;
 import papertoolkit.pen.ink.Ink;
 import papertoolkit.pen.ink.InkStroke;
 
@@ -49,14 +51,17 @@ public class CoordinateTransformer {
 	 * @return
 	 */
 	public InkStroke convert(InkStroke oldCoordinates) {
-		List<PenSample> samples = oldCoordinates.getSamples();
+		final DoubleBuffer x = oldCoordinates.getXView();
+		final DoubleBuffer y = oldCoordinates.getYView();
+		final IntBuffer f = oldCoordinates.getForceView();
+		final LongBuffer t = oldCoordinates.getTimeView();
 		InkStroke newCoordinates = new InkStroke();
 		Point2D src = new Point2D.Double();
 		Point2D dest = new Point2D.Double();
-		for (PenSample s : samples) {
-			src.setLocation(s.x, s.y);
+		for (int i = 0; i < x.limit(); i++) {
+			src.setLocation(x.get(i), y.get(i));
 			transform.transform(src, dest);
-			newCoordinates.addSample(new PenSample(dest.getX(), dest.getY(), s.force, s.timestamp));
+			newCoordinates.addSample(dest.getX(), dest.getY(), f.get(i), t.get(i));
 		}
 		return newCoordinates;
 	}
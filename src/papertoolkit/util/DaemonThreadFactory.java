@@ -0,0 +1,40 @@
+package papertoolkit.util;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>
+ * Makes named daemon threads for our thread pools, so that a pool that was never shut down does not keep
+ * the application from exiting. The threads are named "[name] 1", "[name] 2", and so on, which makes them
+ * easy to spot in a debugger.
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+
+	private int count = 0;
+
+	private String name;
+
+	/**
+	 * @param threadName
+	 *            the prefix of each thread's name
+	 */
+	public DaemonThreadFactory(String threadName) {
+		name = threadName;
+	}
+
+	/**
+	 * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+	 */
+	public synchronized Thread newThread(Runnable r) {
+		final Thread t = new Thread(r, name + " " + (++count));
+		t.setDaemon(true);
+		return t;
+	}
+}
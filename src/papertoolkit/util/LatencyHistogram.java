@@ -0,0 +1,166 @@
+package papertoolkit.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * Counts how long something took (e.g., recognizing a gesture, or dispatching a pen event), in the style of
+ * an HDR histogram: each power of two nanoseconds is split into eight buckets, so a bucket is never more than
+ * an eighth wider than the latencies in it, from a few nanoseconds up to centuries. Recording is lock-free and
+ * never allocates, so it is cheap enough to leave on in the pen's thread. Percentiles are approximate: we
+ * report the upper edge of the bucket that the percentile falls in.
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Each power of two is split into 2^SUB_BUCKET_BITS buckets.
+	 */
+	private static final int SUB_BUCKET_BITS = 3;
+
+	private static final int NUM_SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * Latencies below NUM_SUB_BUCKETS nanoseconds get a bucket each. Above that, there are NUM_SUB_BUCKETS
+	 * buckets for each power of two, up to 2^62.
+	 */
+	private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS) * NUM_SUB_BUCKETS;
+
+	/**
+	 * @param nanos
+	 * @return the bucket that this latency falls in
+	 */
+	private static int bucketOf(long nanos) {
+		if (nanos < NUM_SUB_BUCKETS) {
+			return (int) Math.max(0, nanos);
+		}
+		final int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		final int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (NUM_SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * NUM_SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @param bucket
+	 * @return the smallest latency (in nanoseconds) that is too long for this bucket
+	 */
+	private static long upperEdgeOf(int bucket) {
+		if (bucket < NUM_SUB_BUCKETS) {
+			return bucket + 1;
+		}
+		final int shift = bucket / NUM_SUB_BUCKETS - 1;
+		final long subBucket = bucket % NUM_SUB_BUCKETS;
+		return (NUM_SUB_BUCKETS + subBucket + 1) << shift;
+	}
+
+	private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	private final String name;
+
+	private final AtomicLong totalNanos = new AtomicLong();
+
+	/**
+	 * @param theName
+	 *            shows up in toString()
+	 */
+	public LatencyHistogram(String theName) {
+		name = theName;
+	}
+
+	/**
+	 * @return how many latencies we have recorded
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return the longest latency so far, in milliseconds
+	 */
+	public double getMaxMillis() {
+		return maxNanos.get() / 1000000.0;
+	}
+
+	/**
+	 * @return the average latency, in milliseconds (0 if we have not recorded any)
+	 */
+	public double getMeanMillis() {
+		final long n = count.get();
+		return n == 0 ? 0 : totalNanos.get() / (n * 1000000.0);
+	}
+
+	/**
+	 * @return what we are measuring
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @param percentile
+	 *            e.g., 50 for the median, or 99
+	 * @return an upper bound on that percentile of the recorded latencies, in milliseconds
+	 */
+	public double getPercentileMillis(double percentile) {
+		final long n = count.get();
+		if (n == 0) {
+			return 0;
+		}
+		final long rank = (long) Math.ceil(n * Math.min(100, Math.max(0, percentile)) / 100.0);
+		long seen = 0;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank && seen > 0) {
+				// the upper edge of the bucket, but never more than the longest latency we have seen
+				return Math.min(upperEdgeOf(i), maxNanos.get()) / 1000000.0;
+			}
+		}
+		return getMaxMillis();
+	}
+
+	/**
+	 * @param nanos
+	 *            e.g., the difference of two System.nanoTime() calls
+	 */
+	public void record(long nanos) {
+		buckets.incrementAndGet(bucketOf(nanos));
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+	}
+
+	/**
+	 * Forgets everything we have recorded.
+	 */
+	public void reset() {
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return name + " {n=" + getCount() + " mean=" + String.format("%.3f", getMeanMillis()) + "ms p50<="
+				+ String.format("%.3f", getPercentileMillis(50)) + "ms p99<="
+				+ String.format("%.3f", getPercentileMillis(99)) + "ms max=" + String.format("%.3f", getMaxMillis())
+				+ "ms}";
+	}
+}
@@ -0,0 +1,290 @@
+package papertoolkit.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Counts and times each stage that a pen sample goes through, from the bytes arriving at the serial port to
+ * the event handlers returning, so that we can see where the time goes. Each stage has a latency histogram
+ * and a counter of the items it processed (bytes, messages, samples...). Event handlers are also timed per
+ * class, so that a slow handler in an application is easy to spot.
+ * </p>
+ * <p>
+ * Timing a stage costs two calls to System.nanoTime() and a few atomic increments. To turn it off, call
+ * setEnabled(false). The ToolkitMonitoringService sends snapshots to its clients, on request or
+ * periodically.
+ * </p>
+ * <p>
+ * Use it like this:
+ *
+ * <pre>
+ * final long start = ToolkitMetrics.start();
+ * ... do the work ...
+ * ToolkitMetrics.record(Stage.PEN_CLIENT_PARSE, start);
+ * </pre>
+ *
+ * </p>
+ * <p>
+ * <span class="BSDLicense"> This software is distributed under the <a
+ * href="http://hci.stanford.edu/research/copyright.txt">BSD License</a>. </span>
+ * </p>
+ *
+ * @author <a href="http://graphics.stanford.edu/~ronyeh">Ron B Yeh</a> (ronyeh(AT)cs.stanford.edu)
+ */
+public class ToolkitMetrics {
+
+	/**
+	 * The stages of the pen's path through the toolkit, in order.
+	 */
+	public static enum Stage {
+		/**
+		 * PenStreamingConnection turning serial port bytes into samples (not counting its listeners).
+		 */
+		SERIAL_DECODE("Serial decode", "bytes"),
+
+		/**
+		 * PenServer encoding a sample and queueing it for its clients.
+		 */
+		PEN_SERVER_FANOUT("PenServer fan-out", "client messages"),
+
+		/**
+		 * PenClient decoding a sample that it received from a PenServer.
+		 */
+		PEN_CLIENT_PARSE("PenClient parse", "samples"),
+
+		/**
+		 * EventDispatcher finding the regions under a sample.
+		 */
+		REGION_LOOKUP("Region lookup", "regions found"),
+
+		/**
+		 * EventHandler.handleEvent(...), for all handlers. See getHandlerHistograms() for each class.
+		 */
+		EVENT_HANDLER("Event handlers", "events"),
+
+		/**
+		 * The handwriting recognizer, from sending the ink to getting the answer.
+		 */
+		HANDWRITING_RECOGNITION("Handwriting recognition", "requests"),
+
+		/**
+		 * DollarRecognizer.recognize(...). This histogram is always on, even if the others are disabled.
+		 */
+		GESTURE_RECOGNITION("Gesture recognition", "gestures");
+
+		private final AtomicLong items = new AtomicLong();
+
+		private final String itemName;
+
+		private final LatencyHistogram latency;
+
+		private Stage(String stageName, String whatWeCount) {
+			latency = new LatencyHistogram(stageName);
+			itemName = whatWeCount;
+		}
+
+		/**
+		 * @return what the item counter counts
+		 */
+		public String getItemName() {
+			return itemName;
+		}
+
+		/**
+		 * @return how many items this stage has processed
+		 */
+		public long getItems() {
+			return items.get();
+		}
+
+		public LatencyHistogram getLatency() {
+			return latency;
+		}
+	}
+
+	private static volatile boolean enabled = true;
+
+	/**
+	 * Sorts histograms, slowest (by total time) first.
+	 */
+	private static final Comparator<LatencyHistogram> MOST_TIME_FIRST = new Comparator<LatencyHistogram>() {
+		public int compare(LatencyHistogram a, LatencyHistogram b) {
+			return Double.compare(b.getMeanMillis() * b.getCount(), a.getMeanMillis() * a.getCount());
+		}
+	};
+
+	/**
+	 * Time spent in each class of event handler.
+	 */
+	private static final ConcurrentMap<Class<?>, LatencyHistogram> handlerLatencies = new ConcurrentHashMap<Class<?>, LatencyHistogram>();
+
+	/**
+	 * Appends one line of the snapshot (without the line break).
+	 */
+	private static void appendLine(StringBuilder sb, String indent, LatencyHistogram h) {
+		sb.append(indent).append(h.getName()).append(": n=").append(h.getCount()) //
+				.append(" mean=").append(formatMicros(h.getMeanMillis())) //
+				.append(" p50<=").append(formatMicros(h.getPercentileMillis(50))) //
+				.append(" p99<=").append(formatMicros(h.getPercentileMillis(99))) //
+				.append(" max=").append(formatMicros(h.getMaxMillis()));
+	}
+
+	/**
+	 * Appends one element of the XML snapshot.
+	 */
+	private static void appendXML(StringBuilder sb, String tag, LatencyHistogram h, String extraAttributes) {
+		sb.append("<").append(tag).append(" name=\"").append(h.getName().replace("\"", "&quot;")) //
+				.append("\" count=\"").append(h.getCount()) //
+				.append("\" meanMicros=\"").append(formatMicros(h.getMeanMillis())) //
+				.append("\" p50Micros=\"").append(formatMicros(h.getPercentileMillis(50))) //
+				.append("\" p99Micros=\"").append(formatMicros(h.getPercentileMillis(99))) //
+				.append("\" maxMicros=\"").append(formatMicros(h.getMaxMillis())) //
+				.append("\"").append(extraAttributes).append(" />");
+	}
+
+	/**
+	 * @param stage
+	 * @param numItems
+	 *            adds to the stage's item counter
+	 */
+	public static void count(Stage stage, long numItems) {
+		if (enabled) {
+			stage.items.addAndGet(numItems);
+		}
+	}
+
+	/**
+	 * @param millis
+	 * @return the time in microseconds, rounded to a tenth
+	 */
+	private static String formatMicros(double millis) {
+		return String.format("%.1f", millis * 1000);
+	}
+
+	/**
+	 * @return the per-class histograms of the event handlers, slowest (by total time) first
+	 */
+	public static List<LatencyHistogram> getHandlerHistograms() {
+		final List<LatencyHistogram> histograms = new ArrayList<LatencyHistogram>(handlerLatencies.values());
+		Collections.sort(histograms, MOST_TIME_FIRST);
+		return histograms;
+	}
+
+	/**
+	 * @param handlerClass
+	 * @return the name we show for a handler class. Handlers are usually anonymous subclasses, so we add the
+	 *         name of the class they extend.
+	 */
+	private static String getHandlerName(Class<?> handlerClass) {
+		if (handlerClass.isAnonymousClass() && handlerClass.getSuperclass() != null) {
+			return handlerClass.getName() + " (" + handlerClass.getSuperclass().getSimpleName() + ")";
+		}
+		return handlerClass.getName();
+	}
+
+	/**
+	 * @return a multi-line table of all the stages and handler classes, in microseconds, for the log
+	 */
+	public static String getSnapshot() {
+		final StringBuilder sb = new StringBuilder("Toolkit Metrics (microseconds)\n");
+		for (Stage stage : Stage.values()) {
+			appendLine(sb, "", stage.latency);
+			sb.append(", ").append(stage.items.get()).append(" ").append(stage.itemName).append("\n");
+		}
+		for (LatencyHistogram handler : getHandlerHistograms()) {
+			appendLine(sb, "    ", handler);
+			sb.append("\n");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the same snapshot as getSnapshot(), as one line of XML for the monitor's clients
+	 */
+	public static String getSnapshotAsXML() {
+		final StringBuilder sb = new StringBuilder("<metrics time=\"" + System.currentTimeMillis() + "\">");
+		for (Stage stage : Stage.values()) {
+			appendXML(sb, "stage", stage.latency, " items=\"" + stage.items.get() + "\" itemName=\""
+					+ stage.itemName + "\"");
+		}
+		for (LatencyHistogram handler : getHandlerHistograms()) {
+			appendXML(sb, "handler", handler, "");
+		}
+		sb.append("</metrics>");
+		return sb.toString();
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param stage
+	 * @param startNanos
+	 *            from start()
+	 */
+	public static void record(Stage stage, long startNanos) {
+		if (startNanos != 0) {
+			stage.latency.record(System.nanoTime() - startNanos);
+		}
+	}
+
+	/**
+	 * Times one call to an event handler, for the EVENT_HANDLER stage, and for the handler's class.
+	 *
+	 * @param handlerClass
+	 * @param startNanos
+	 *            from start()
+	 */
+	public static void recordHandler(Class<?> handlerClass, long startNanos) {
+		if (startNanos == 0) {
+			return;
+		}
+		final long nanos = System.nanoTime() - startNanos;
+		Stage.EVENT_HANDLER.latency.record(nanos);
+		Stage.EVENT_HANDLER.items.incrementAndGet();
+
+		LatencyHistogram latency = handlerLatencies.get(handlerClass);
+		if (latency == null) {
+			// reset() may clear the map at any time, so use what we put (or found), not another get()
+			final LatencyHistogram created = new LatencyHistogram(getHandlerName(handlerClass));
+			latency = handlerLatencies.putIfAbsent(handlerClass, created);
+			if (latency == null) {
+				latency = created;
+			}
+		}
+		latency.record(nanos);
+	}
+
+	/**
+	 * Forgets everything we have measured.
+	 */
+	public static void reset() {
+		for (Stage stage : Stage.values()) {
+			stage.latency.reset();
+			stage.items.set(0);
+		}
+		handlerLatencies.clear();
+	}
+
+	/**
+	 * @param on
+	 *            whether to measure anything (true by default)
+	 */
+	public static void setEnabled(boolean on) {
+		enabled = on;
+	}
+
+	/**
+	 * @return the current time in nanoseconds, to pass to record(...) later, or 0 if we are not measuring
+	 */
+	public static long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+}
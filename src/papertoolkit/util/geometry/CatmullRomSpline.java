@@ -2,6 +2,7 @@ package papertoolkit.util.geometry;
 
 import java.awt.Shape;
 import java.awt.geom.*;
+import java.nio.DoubleBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -118,6 +119,24 @@ public class CatmullRomSpline {
 		}
 	}
 
+	/**
+	 * Reads the points straight out of the buffers (e.g., an InkStroke's views), from their current
+	 * positions up to their limits.
+	 * 
+	 * @param x
+	 * @param y
+	 */
+	public void setPoints(DoubleBuffer x, DoubleBuffer y) {
+		final int n = x.remaining();
+		final int xStart = x.position();
+		final int yStart = y.position();
+		List<Point2D> points = new ArrayList<Point2D>(n);
+		for (int i = 0; i < n; i++) {
+			points.add(new Point2D.Double(x.get(xStart + i), y.get(yStart + i)));
+		}
+		setPoints(points);
+	}
+
 	/**
 	 * @param x
 	 * @param y
@@ -45,6 +45,17 @@ public class ImageUtils {
 		return new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
 	}
 
+	/**
+	 * An RGB image, which is what writeImageToJPEG(...) expects.
+	 * 
+	 * @param width
+	 * @param height
+	 * @return
+	 */
+	public static BufferedImage createWritableBufferWithoutAlpha(int width, int height) {
+		return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+	}
+
 	/**
 	 * Parses strings like 2005:03:30 19:20:23 and returns a java.sql.Timestamp object.
 	 * 
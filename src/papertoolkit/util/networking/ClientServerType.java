@@ -16,5 +16,11 @@ package papertoolkit.util.networking;
 public enum ClientServerType {
 	JAVA, 
 	FLASH,
-	PLAINTEXT
+	PLAINTEXT,
+	
+	/**
+	 * Fixed-width binary pen samples (see PenSampleBinaryFormat). A PenClient of this type connects to a JAVA
+	 * PenServer and asks for binary samples. If the server is too old to understand, it falls back to XML.
+	 */
+	BINARY
 }